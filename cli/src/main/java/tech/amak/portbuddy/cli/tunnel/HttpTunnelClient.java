@@ -16,10 +16,12 @@ package tech.amak.portbuddy.cli.tunnel;
 
 import static tech.amak.portbuddy.cli.utils.JsonUtils.MAPPER;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,31 +32,48 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import okhttp3.WebSocket;
 import okhttp3.WebSocketListener;
+import okio.BufferedSink;
 import okio.ByteString;
 import tech.amak.portbuddy.cli.config.ConfigurationService;
 import tech.amak.portbuddy.cli.ui.HttpLogSink;
 import tech.amak.portbuddy.cli.utils.HttpUtils;
 import tech.amak.portbuddy.common.tunnel.ControlMessage;
 import tech.amak.portbuddy.common.tunnel.HttpTunnelMessage;
-import tech.amak.portbuddy.common.tunnel.MessageEnvelope;
+import tech.amak.portbuddy.common.tunnel.JsonTunnelCodec;
+import tech.amak.portbuddy.common.tunnel.SendWindow;
+import tech.amak.portbuddy.common.tunnel.TunnelBodyStream;
+import tech.amak.portbuddy.common.tunnel.TunnelCodec;
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
 
 @Slf4j
 @RequiredArgsConstructor
 public class HttpTunnelClient {
 
+    private static final Duration BODY_TIMEOUT = Duration.ofSeconds(30);
+    // Response body bytes a lane may have sent without the server returning credit for them
+    private static final long MAX_SEND_QUEUE_BYTES = 1024L * 1024;
+    // Requests waiting longer than this for a free execution slot are reported as warnings
+    private static final Duration QUEUE_DELAY_WARN_THRESHOLD = Duration.ofSeconds(1);
+    // Idle connections to the local service kept when no in-flight limit is configured
+    private static final int DEFAULT_LOCAL_IDLE_CONNECTIONS = 64;
+
     private final String serverUrl; // e.g. https://portbuddy.dev
     private final UUID tunnelId;
     private final String localHost;
@@ -68,7 +87,7 @@ public class HttpTunnelClient {
     // OkHttp client used exclusively for the control WebSocket connection to the server
     private final OkHttpClient http = createHttpClient();
     // Separate OkHttp client for calling the local target service (avoid any interference with WS client)
-    private final OkHttpClient localHttp = createLocalHttpClient();
+    private final OkHttpClient localHttp = createLocalHttpClient(maxConcurrentRequests());
 
     private static OkHttpClient createHttpClient() {
         final var builder = new OkHttpClient.Builder()
@@ -83,8 +102,18 @@ public class HttpTunnelClient {
         return builder.build();
     }
 
-    private static OkHttpClient createLocalHttpClient() {
+    private static int maxConcurrentRequests() {
+        return Math.max(0, ConfigurationService.INSTANCE.getConfig().getMaxConcurrentRequests());
+    }
+
+    private static OkHttpClient createLocalHttpClient(final int maxConcurrentRequests) {
+        // Keep enough idle keep-alive connections for the expected concurrency so that bursts of
+        // browser requests do not reconnect to the local service; the default pool keeps only five
+        final var idleConnections = maxConcurrentRequests > 0
+            ? maxConcurrentRequests
+            : DEFAULT_LOCAL_IDLE_CONNECTIONS;
         final var builder = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(idleConnections, 5, TimeUnit.MINUTES))
             .connectTimeout(10, TimeUnit.SECONDS)
             .readTimeout(60, TimeUnit.SECONDS)
             .writeTimeout(60, TimeUnit.SECONDS)
@@ -100,108 +129,84 @@ public class HttpTunnelClient {
         return builder.build();
     }
 
-    private WebSocket webSocket;
-    private CountDownLatch closed = new CountDownLatch(1);
     private final AtomicBoolean stop = new AtomicBoolean(false);
+    // Identifies this process to the server, so that a reconnect resumes the tunnel
+    private final String resumeToken = UUID.randomUUID().toString();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
-        final var thread = new Thread(runnable, "port-buddy-heartbeat");
-        thread.setDaemon(true);
-        return thread;
-    });
-    private volatile ScheduledFuture<?> heartbeatTask;
-    private final ExecutorService requestExecutor = Executors.newFixedThreadPool(4, runnable -> {
-        final var thread = new Thread(runnable, "port-buddy-http-worker");
+        final var thread = new Thread(runnable, "port-buddy-timer");
         thread.setDaemon(true);
         return thread;
     });
+    // One virtual thread per tunneled request, so a slow local endpoint blocks only its own requests
+    private final ExecutorService requestExecutor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("port-buddy-http-worker-", 0).factory());
+    // Bounds requests in flight against the local service; null when unlimited
+    private final Semaphore requestSlots = maxConcurrentRequests() > 0
+        ? new Semaphore(maxConcurrentRequests(), true)
+        : null;
+    // Requests received and not yet answered, so that a CANCEL from the server can abort them
+    private final Map<String, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
 
     private final Map<String, WebSocket> localWebsocketMap = new ConcurrentHashMap<>();
+    // Control WebSockets of this tunnel; lanes other than the first are opened only if the server
+    // accepted multi-session
+    private final Lane[] lanes = createLanes(tunnelConnections());
+    private final AtomicBoolean extraLanesStarted = new AtomicBoolean(false);
+
+    private static int tunnelConnections() {
+        return Math.max(1, ConfigurationService.INSTANCE.getConfig().getTunnelConnections());
+    }
+
+    private Lane[] createLanes(final int count) {
+        final var result = new Lane[count];
+        for (var i = 0; i < count; i++) {
+            result[i] = new Lane(i);
+        }
+        return result;
+    }
 
     /**
      * Establishes and maintains a blocking WebSocket connection to the server.
      * This method constructs a WebSocket connection to a server using a URL
      * derived from the server's URL combined with the tunnel identifier. The
-     * method blocks until the WebSocket connection is closed or interrupted.
+     * method blocks until the client is closed or the calling thread is interrupted.
      * Behavior:
      * - Converts the server URL and tunnel identifier into a WebSocket URL.
-     * - Opens a WebSocket connection to the calculated URL and uses a
-     * {@code Listener} to handle WebSocket events, such as incoming messages,
-     * connection closure, or failures.
-     * - Waits on the {@code closeLatch} to ensure blocking behavior until the
-     * connection is terminated.
+     * - Opens the first control WebSocket and reconnects it with backoff whenever it drops.
+     * - Once the server accepts multi-session, opens the remaining configured control
+     * WebSockets in the background; each of them reconnects independently.
      * Exceptions:
      * - Catches and handles {@link InterruptedException} if the wait operation
      * on the latch is interrupted. Restores the interrupted thread state.
      */
     public void runBlocking() {
-        var backoffMs = 1000L;
-        final var maxBackoffMs = 30000L;
-        while (!stop.get()) {
-            try {
-                closed = new CountDownLatch(1);
-                final var wsUrl = toWebSocketUrl(serverUrl, "/api/http-tunnel/" + tunnelId);
-                final var request = new Request.Builder().url(wsUrl);
-                if (authToken != null && !authToken.isBlank()) {
-                    request.addHeader("Authorization", "Bearer " + authToken);
-                }
-                webSocket = http.newWebSocket(request.build(), new Listener());
+        lanes[0].run();
+    }
 
-                // Block until this connection is closed
-                closed.await();
-                if (stop.get()) {
-                    break;
-                }
-                // Reconnect with backoff
-                log.info("Tunnel disconnected; reconnecting in {} ms...", backoffMs);
-                Thread.sleep(backoffMs);
-                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (final Exception e) {
-                log.warn("Tunnel loop error: {}", e.toString());
-                if (verbose) {
-                    e.printStackTrace(System.err);
-                }
-                try {
-                    Thread.sleep(backoffMs);
-                } catch (final InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
-            }
+    private void startExtraLanes() {
+        if (lanes.length < 2 || !extraLanesStarted.compareAndSet(false, true)) {
+            return;
+        }
+        log.debug("Opening {} additional tunnel connections", lanes.length - 1);
+        for (var i = 1; i < lanes.length; i++) {
+            Thread.ofVirtual().name("port-buddy-tunnel-lane-" + i).start(lanes[i]::run);
         }
     }
 
     /**
-     * Closes the WebSocket connection associated with this HTTP tunnel client.
-     * This method attempts to gracefully close the WebSocket connection, if it exists,
+     * Closes the WebSocket connections associated with this HTTP tunnel client.
+     * This method attempts to gracefully close every control WebSocket, if it exists,
      * using the standard WebSocket closure status code 1000 (indicating a normal closure)
      * and a reason message "Client exit". If an exception occurs during the closure process,
      * it is logged at the debug level and suppressed to ensure that the exception does not
      * disrupt the application's flow.
-     * Behavior:
-     * - If there is an active WebSocket (represented by the {@code webSocket} field),
-     * it calls the {@code close} method on the WebSocket instance, passing the closure
-     * status code and reason message.
-     * - Logs any exception encountered during the close operation at the debug level
-     * without re-throwing it.
-     * Thread-safety: This method is thread-safe, as it uses a local reference to the
-     * {@code webSocket} field to prevent potential null pointer exceptions caused by
-     * concurrent modifications.
      */
     public void close() {
         try {
             stop.set(true);
-            final var task = heartbeatTask;
-            if (task != null) {
-                task.cancel(true);
-            }
             requestExecutor.shutdownNow();
-            if (webSocket != null) {
-                webSocket.close(1000, "Client exit");
-                log.debug("Websocket closed: 1000 OK");
+            for (final var lane : lanes) {
+                lane.close();
             }
         } catch (final Exception ignore) {
             log.debug("HTTP tunnel close error: {}", ignore.toString());
@@ -220,15 +225,102 @@ public class HttpTunnelClient {
         return scheme + "://" + hostPort + path;
     }
 
-    private class Listener extends WebSocketListener {
-        @Override
-        public void onOpen(final WebSocket webSocket, final Response response) {
-            log.debug("Tunnel connected to server");
-            // Start application-level heartbeat PINGs
-            try {
-                if (heartbeatTask != null && !heartbeatTask.isCancelled()) {
-                    heartbeatTask.cancel(true);
+    /**
+     * One control WebSocket of the tunnel with its own reconnect loop, negotiated codec and
+     * heartbeat. A request's response, body chunks and markers are sent back on the lane the
+     * request arrived on, and a local WebSocket's messages on the lane that opened it.
+     */
+    private class Lane {
+
+        private final int index;
+        private volatile WebSocket webSocket;
+        private volatile CountDownLatch closed = new CountDownLatch(1);
+        private volatile ScheduledFuture<?> heartbeatTask;
+        // Streamed request bodies being received on this lane, keyed by request id
+        private final Map<String, TunnelBodyStream> requestBodies = new ConcurrentHashMap<>();
+        // Credit left for the response bodies being streamed to the server, keyed by request id
+        private final Map<String, SendWindow> responseBodyWindows = new ConcurrentHashMap<>();
+        // Credit shared by all response bodies of the lane, bounding what waits in the WebSocket send queue
+        private final SendWindow sendCapacity = new SendWindow(MAX_SEND_QUEUE_BYTES);
+        // Whether the server accepted streamed bodies for the current connection
+        private volatile boolean streamBodies;
+        // Wire format negotiated for the current connection; JSON until the handshake says otherwise
+        private volatile TunnelCodec codec = new JsonTunnelCodec(MAPPER);
+        // Set once the current connection was established
+        private volatile boolean opened;
+
+        Lane(final int index) {
+            this.index = index;
+        }
+
+        void run() {
+            var backoffMs = 1000L;
+            final var maxBackoffMs = 30000L;
+            while (!stop.get()) {
+                try {
+                    closed = new CountDownLatch(1);
+                    final var wsUrl = toWebSocketUrl(serverUrl, "/api/http-tunnel/" + tunnelId);
+                    final var features = new ArrayList<>(
+                        List.of(TunnelFeatures.STREAM_BODY, TunnelFeatures.BINARY_FRAMES, TunnelFeatures.RESUME,
+                            TunnelFeatures.CANCEL, TunnelFeatures.WS_DATA_FRAMES));
+                    if (lanes.length > 1) {
+                        features.add(TunnelFeatures.MULTI_SESSION);
+                    }
+                    final var request = new Request.Builder()
+                        .url(wsUrl)
+                        .header(TunnelFeatures.HEADER, TunnelFeatures.format(features))
+                        .header(TunnelFeatures.LANE_HEADER, Integer.toString(index))
+                        .header(TunnelFeatures.RESUME_TOKEN_HEADER, resumeToken);
+                    if (authToken != null && !authToken.isBlank()) {
+                        request.addHeader("Authorization", "Bearer " + authToken);
+                    }
+                    webSocket = http.newWebSocket(request.build(), new Listener(this));
+
+                    // Block until this connection is closed
+                    closed.await();
+                    if (stop.get()) {
+                        break;
+                    }
+                    if (opened) {
+                        // An established connection dropped: come back quickly, within the resume grace period
+                        opened = false;
+                        backoffMs = 1000L;
+                    }
+                    // Reconnect with backoff
+                    log.info("Tunnel connection {} disconnected; reconnecting in {} ms...", index, backoffMs);
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (final Exception e) {
+                    log.warn("Tunnel loop error: {}", e.toString());
+                    if (verbose) {
+                        e.printStackTrace(System.err);
+                    }
+                    try {
+                        Thread.sleep(backoffMs);
+                    } catch (final InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
                 }
+            }
+        }
+
+        void close() {
+            cancelHeartbeat();
+            final var current = webSocket;
+            if (current != null) {
+                current.close(1000, "Client exit");
+                log.debug("Websocket {} closed: 1000 OK", index);
+            }
+        }
+
+        void startHeartbeat() {
+            cancelHeartbeat();
+            try {
                 final var config = ConfigurationService.INSTANCE.getConfig();
                 final var intervalSec = config.getHealthcheckIntervalSec();
                 heartbeatTask = scheduler.scheduleAtFixedRate(() -> {
@@ -236,7 +328,7 @@ public class HttpTunnelClient {
                         final var ping = new ControlMessage();
                         ping.setType(ControlMessage.Type.PING);
                         ping.setTs(System.currentTimeMillis());
-                        HttpTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(ping));
+                        send(ping);
                     } catch (final Exception e) {
                         log.debug("Heartbeat send failed: {}", e.toString());
                     }
@@ -246,69 +338,259 @@ public class HttpTunnelClient {
             }
         }
 
+        void cancelHeartbeat() {
+            final var task = heartbeatTask;
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+
+        void abortRequestBodies() {
+            for (final var requestBody : requestBodies.values()) {
+                requestBody.abort("Tunnel connection lost");
+            }
+            requestBodies.clear();
+            for (final var id : responseBodyWindows.keySet()) {
+                releaseResponseBodyWindow(id);
+            }
+        }
+
+        /**
+         * Sends the local response body as binary chunk frames followed by a BODY_END marker.
+         * Chunks are forwarded as soon as they are read, never exceeding the credit the server
+         * returned for this response, and reading pauses while the lane's response bodies have
+         * {@link #MAX_SEND_QUEUE_BYTES} without credit returned.
+         */
+        void streamResponseBody(final String id, final ResponseBody body) throws IOException {
+            final var window = new SendWindow(TunnelBodyStream.WINDOW_SIZE);
+            responseBodyWindows.put(id, window);
+            final var buffer = new byte[TunnelBodyStream.CHUNK_SIZE];
+            try (final var in = body.byteStream()) {
+                while (true) {
+                    final var available = awaitCredit(window);
+                    final var count = in.read(buffer, 0, (int) Math.min(buffer.length, available));
+                    if (count == -1) {
+                        break;
+                    }
+                    if (count == 0) {
+                        continue;
+                    }
+                    awaitCredit(sendCapacity);
+                    window.consume(count);
+                    sendCapacity.consume(count);
+                    final var frame = codec.encodeChunk(id, buffer, 0, count);
+                    if (!webSocket.send(ByteString.of(frame))) {
+                        throw new IOException("Tunnel WebSocket is closed");
+                    }
+                }
+            } finally {
+                releaseResponseBodyWindow(id);
+            }
+            sendBodyMarker(id, HttpTunnelMessage.Type.BODY_END);
+        }
+
+        /**
+         * Adds credit the server returned for a response body to the body's window and to the
+         * lane's send capacity.
+         */
+        void grantResponseBodyCredit(final String id, final long credit) {
+            // Atomic with the removal of the window, so that its credit reaches the lane only once
+            responseBodyWindows.computeIfPresent(id, (key, window) -> {
+                window.grant(credit);
+                sendCapacity.grant(credit);
+                return window;
+            });
+        }
+
+        /**
+         * Closes the window of a response body that ended or was aborted, and returns the credit
+         * still held by its bytes to the lane; credit the server returns for them afterwards is
+         * ignored.
+         */
+        private void releaseResponseBodyWindow(final String id) {
+            final var window = responseBodyWindows.remove(id);
+            if (window != null) {
+                window.close();
+                sendCapacity.grant(TunnelBodyStream.WINDOW_SIZE - window.available());
+            }
+        }
+
+        private long awaitCredit(final SendWindow window) throws IOException {
+            try {
+                final var available = window.awaitAvailable(BODY_TIMEOUT);
+                if (available <= 0) {
+                    throw new IOException("Server did not return body credit in time");
+                }
+                return available;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for body credit");
+            }
+        }
+
+        void sendBodyWindow(final String id, final long credit) {
+            final var message = new HttpTunnelMessage();
+            message.setId(id);
+            message.setType(HttpTunnelMessage.Type.BODY_WINDOW);
+            message.setWindow(credit);
+            try {
+                send(message);
+            } catch (final IOException e) {
+                log.debug("Failed to return body credit for {}: {}", id, e.toString());
+            }
+        }
+
+        void sendBodyMarker(final String id, final HttpTunnelMessage.Type type) throws IOException {
+            final var marker = new HttpTunnelMessage();
+            marker.setId(id);
+            marker.setType(type);
+            send(marker);
+        }
+
+        void send(final Object message) throws IOException {
+            final var current = webSocket;
+            if (current == null) {
+                throw new IOException("Tunnel WebSocket is closed");
+            }
+            final var frame = codec.encode(message);
+            final var sent = frame.isBinary()
+                ? current.send(ByteString.of(frame.binary()))
+                : current.send(frame.text());
+            if (!sent) {
+                throw new IOException("Tunnel WebSocket is closed");
+            }
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class Listener extends WebSocketListener {
+
+        private final Lane lane;
+
+        @Override
+        public void onOpen(final WebSocket webSocket, final Response response) {
+            log.debug("Tunnel connection {} connected to server", lane.index);
+            lane.opened = true;
+            final var features = TunnelFeatures.parse(response.header(TunnelFeatures.HEADER));
+            lane.streamBodies = features.contains(TunnelFeatures.STREAM_BODY);
+            lane.codec = TunnelCodec.forFeatures(features, MAPPER);
+            // Start application-level heartbeat PINGs
+            lane.startHeartbeat();
+            if (features.contains(TunnelFeatures.MULTI_SESSION)) {
+                startExtraLanes();
+            }
+        }
+
         @Override
         public void onMessage(final WebSocket webSocket, final String text) {
             try {
                 log.debug("Received WS message: {}", text);
-                final var env = MAPPER.readValue(text, MessageEnvelope.class);
-                if (env.getKind() != null && env.getKind().equals("CTRL")) {
-                    // Ignore control messages (e.g., PONG)
-                    return;
-                }
-                if (env.getKind() != null && env.getKind().equals("WS")) {
-                    final var wsMsg = MAPPER.readValue(text, WsTunnelMessage.class);
-                    handleWsFromServer(wsMsg);
-                    return;
+                dispatch(lane.codec.decode(text));
+            } catch (final Exception e) {
+                log.warn("Failed to process WS message: {}", e.toString());
+            }
+        }
+
+        /**
+         * Binary frames carry chunks of streamed request bodies and, with binary framing negotiated,
+         * all other tunnel messages. Offering a chunk never blocks this reader thread: the server
+         * only sends as much of a body as its stream returned credit for.
+         */
+        @Override
+        public void onMessage(final WebSocket webSocket, final ByteString bytes) {
+            try {
+                dispatch(lane.codec.decode(bytes.asByteBuffer()));
+            } catch (final Exception e) {
+                log.warn("Failed to process binary WS message: {}", e.toString());
+            }
+        }
+
+        private void dispatch(final Object decoded) {
+            switch (decoded) {
+                // Ignore control messages (e.g., PONG)
+                case ControlMessage ignored -> {
                 }
-                final var message = MAPPER.readValue(text, HttpTunnelMessage.class);
-                if (message.getType() == HttpTunnelMessage.Type.REQUEST) {
-                    // Offload request processing to a worker thread to avoid blocking the WS listener
-                    requestExecutor.submit(() -> {
-                        try {
-                            final var resp = handleRequest(message);
-                            final var json = MAPPER.writeValueAsString(resp);
-                            HttpTunnelClient.this.webSocket.send(json);
-                            log.debug("Responded to WS request: {}", resp.getId());
-                        } catch (final Exception ex) {
-                            log.warn("Failed to handle tunneled request {}: {}", message.getId(), ex.toString());
-                            try {
-                                final var error = buildErrorMessage(message.getId(), 502, "Proxy error");
-                                HttpTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(error));
-                            } catch (final Exception e) {
-                                log.error("Failed to send error response: {}", e.getMessage(), e);
+                case WsTunnelMessage wsMsg -> handleWsFromServer(lane, wsMsg);
+                case HttpTunnelMessage message when message.getType() == null ->
+                    log.debug("Ignoring HTTP tunnel message without type");
+                case HttpTunnelMessage message -> {
+                    switch (message.getType()) {
+                        case REQUEST -> {
+                            final var requestBody = message.isStreamed()
+                                ? new TunnelBodyStream(BODY_TIMEOUT,
+                                    credit -> lane.sendBodyWindow(message.getId(), credit))
+                                : null;
+                            if (requestBody != null) {
+                                // Register before dispatching so that chunks following this message find it
+                                lane.requestBodies.put(message.getId(), requestBody);
                             }
+                            // Offload request processing to a worker thread to avoid blocking the WS listener
+                            final var receivedAt = System.nanoTime();
+                            final var inFlight = new InFlightRequest(receivedAt, message.getTimeoutMs());
+                            inFlightRequests.put(message.getId(), inFlight);
+                            requestExecutor.submit(() -> executeRequest(lane, message, requestBody, inFlight));
                         }
-                    });
-                } else {
-                    log.debug("Ignoring non-REQUEST msg");
+                        case CANCEL -> {
+                            final var inFlight = inFlightRequests.remove(message.getId());
+                            if (inFlight != null) {
+                                inFlight.cancel();
+                            }
+                            final var requestBody = lane.requestBodies.remove(message.getId());
+                            if (requestBody != null) {
+                                requestBody.abort("Server cancelled the request");
+                            }
+                            log.debug("Request {} cancelled by the server", message.getId());
+                        }
+                        case BODY_CHUNK -> {
+                            final var requestBody = lane.requestBodies.get(message.getId());
+                            if (requestBody != null && !requestBody.offer(message.getBody())) {
+                                lane.requestBodies.remove(message.getId());
+                                log.debug("Dropping request body for {}: consumer is gone or window exceeded",
+                                    message.getId());
+                            }
+                        }
+                        case BODY_WINDOW -> {
+                            if (message.getWindow() != null) {
+                                lane.grantResponseBodyCredit(message.getId(), message.getWindow());
+                            }
+                        }
+                        case BODY_END -> {
+                            final var requestBody = lane.requestBodies.remove(message.getId());
+                            if (requestBody != null) {
+                                requestBody.complete();
+                            }
+                        }
+                        case BODY_ABORT -> {
+                            final var requestBody = lane.requestBodies.remove(message.getId());
+                            if (requestBody != null) {
+                                requestBody.abort("Server aborted the request body");
+                            }
+                        }
+                        default -> log.debug("Ignoring unexpected HTTP tunnel message: {}", message.getType());
+                    }
                 }
-            } catch (final Exception e) {
-                log.warn("Failed to process WS message: {}", e.toString());
+                case null, default -> log.debug("Ignoring malformed tunnel message");
             }
         }
 
         @Override
         public void onClosed(final WebSocket webSocket, final int code, final String reason) {
-            log.info("Tunnel closed: {} {}", code, reason);
-            final var task = heartbeatTask;
-            if (task != null) {
-                task.cancel(true);
-            }
-            closed.countDown();
+            log.info("Tunnel connection {} closed: {} {}", lane.index, code, reason);
+            lane.cancelHeartbeat();
+            lane.abortRequestBodies();
+            lane.closed.countDown();
         }
 
         @Override
         public void onFailure(final WebSocket webSocket, final Throwable error, final Response response) {
-            log.warn("Tunnel failure: {}", error.toString());
-            final var task = heartbeatTask;
-            if (task != null) {
-                task.cancel(true);
-            }
-            closed.countDown();
+            log.warn("Tunnel connection {} failure: {}", lane.index, error.toString());
+            lane.cancelHeartbeat();
+            lane.abortRequestBodies();
+            lane.closed.countDown();
         }
     }
 
-    private void handleWsFromServer(final WsTunnelMessage message) {
+    private void handleWsFromServer(final Lane lane, final WsTunnelMessage message) {
         final var connId = message.getConnectionId();
         switch (message.getWsType()) {
             case OPEN -> {
@@ -334,7 +616,7 @@ public class HttpTunnelClient {
                         }
                     }
                 }
-                final var local = http.newWebSocket(builder.build(), new LocalWsListener(connId));
+                final var local = http.newWebSocket(builder.build(), new LocalWsListener(lane, connId));
                 localWebsocketMap.put(connId, local);
             }
             case TEXT -> {
@@ -345,8 +627,9 @@ public class HttpTunnelClient {
             }
             case BINARY -> {
                 final var local = localWebsocketMap.get(connId);
-                if (local != null && message.getDataB64() != null) {
-                    local.send(ByteString.of(Base64.getDecoder().decode(message.getDataB64())));
+                final var data = message.dataBytes();
+                if (local != null && data != null) {
+                    local.send(ByteString.of(data));
                 }
             }
             case CLOSE -> {
@@ -365,6 +648,7 @@ public class HttpTunnelClient {
     @RequiredArgsConstructor
     private class LocalWsListener extends WebSocketListener {
 
+        private final Lane lane;
         private final String connectionId;
 
         @Override
@@ -373,7 +657,7 @@ public class HttpTunnelClient {
                 final var ack = new WsTunnelMessage();
                 ack.setWsType(WsTunnelMessage.Type.OPEN_OK);
                 ack.setConnectionId(connectionId);
-                HttpTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(ack));
+                lane.send(ack);
             } catch (final Exception ignore) {
                 log.error("Failed to send local WS open ack: {}", ignore.toString());
             }
@@ -386,7 +670,7 @@ public class HttpTunnelClient {
                 message.setWsType(WsTunnelMessage.Type.TEXT);
                 message.setConnectionId(connectionId);
                 message.setText(text);
-                HttpTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(message));
+                lane.send(message);
             } catch (final Exception e) {
                 log.debug("Failed to forward local text WS: {}", e.toString());
             }
@@ -398,8 +682,8 @@ public class HttpTunnelClient {
                 final var message = new WsTunnelMessage();
                 message.setWsType(WsTunnelMessage.Type.BINARY);
                 message.setConnectionId(connectionId);
-                message.setDataB64(Base64.getEncoder().encodeToString(bytes.toByteArray()));
-                HttpTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(message));
+                message.setData(bytes.toByteArray());
+                lane.send(message);
             } catch (final Exception e) {
                 log.debug("Failed to forward local binary WS: {}", e.toString());
             }
@@ -414,7 +698,7 @@ public class HttpTunnelClient {
                 message.setConnectionId(connectionId);
                 message.setCloseCode(code);
                 message.setCloseReason(reason);
-                HttpTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(message));
+                lane.send(message);
             } catch (final Exception e) {
                 log.debug("Failed to notify close: {}", e.toString());
             }
@@ -426,16 +710,88 @@ public class HttpTunnelClient {
         }
     }
 
-    private HttpTunnelMessage handleRequest(final HttpTunnelMessage requestMessage) {
+    private void executeRequest(final Lane lane,
+                                final HttpTunnelMessage requestMessage,
+                                final TunnelBodyStream requestBody,
+                                final InFlightRequest inFlight) {
+        try {
+            if (!acquireSlot(inFlight)) {
+                // The public client is no longer waiting, so the local service is never called
+                log.debug("Dropping request {}: cancelled or past its deadline before it started",
+                    requestMessage.getId());
+                if (requestBody != null) {
+                    lane.requestBodies.remove(requestMessage.getId());
+                    requestBody.close();
+                }
+                return;
+            }
+            try {
+                final var queueDelay = Duration.ofNanos(System.nanoTime() - inFlight.receivedAt);
+                if (queueDelay.compareTo(QUEUE_DELAY_WARN_THRESHOLD) > 0) {
+                    log.warn("Request {} {} waited {} ms for a free slot ({} in flight allowed)",
+                        requestMessage.getMethod(), requestMessage.getPath(), queueDelay.toMillis(),
+                        maxConcurrentRequests());
+                } else {
+                    log.debug("Request {} queued for {} ms", requestMessage.getId(), queueDelay.toMillis());
+                }
+                handleRequest(lane, requestMessage, requestBody, inFlight);
+            } finally {
+                if (requestSlots != null) {
+                    requestSlots.release();
+                }
+            }
+        } finally {
+            inFlightRequests.remove(requestMessage.getId(), inFlight);
+        }
+    }
+
+    /**
+     * Waits for a free execution slot, but no longer than the request's deadline.
+     *
+     * @param inFlight the request
+     * @return {@code true} if a slot is held and the request should run, {@code false} if it was
+     *     cancelled, expired or the thread was interrupted
+     */
+    private boolean acquireSlot(final InFlightRequest inFlight) {
+        if (requestSlots != null) {
+            try {
+                final var remaining = inFlight.remainingNanos();
+                if (remaining == Long.MAX_VALUE) {
+                    requestSlots.acquire();
+                } else if (remaining <= 0 || !requestSlots.tryAcquire(remaining, TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (inFlight.cancelled || inFlight.remainingNanos() <= 0) {
+            if (requestSlots != null) {
+                requestSlots.release();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void handleRequest(final Lane lane,
+                               final HttpTunnelMessage requestMessage,
+                               final TunnelBodyStream requestBody,
+                               final InFlightRequest inFlight) {
         final var method = requestMessage.getMethod();
         var url = localScheme + "://" + localHost + ":" + localPort + requestMessage.getPath();
         if (requestMessage.getQuery() != null && !requestMessage.getQuery().isBlank()) {
             url += "?" + requestMessage.getQuery();
         }
 
+        final var body = requestBody != null
+            ? new StreamingRequestBody(requestBody, requestMessage.getBodyContentType(),
+                contentLength(requestMessage.getHeaders()))
+            : buildBody(method, requestMessage.bodyBytes(), requestMessage.getBodyContentType());
         final var targetRequest = new Request.Builder()
             .url(url)
-            .method(method, buildBody(method, requestMessage.getBodyB64(), requestMessage.getBodyContentType()));
+            .method(method, body);
 
         final var publicHost = URI.create(publicBaseUrl).getHost();
         if (publicHost != null) {
@@ -464,55 +820,116 @@ public class HttpTunnelClient {
             }
         }
 
-        try (final var targetResponse = localHttp.newCall(targetRequest.build()).execute()) {
+        final var call = localHttp.newCall(targetRequest.build());
+        final var remaining = inFlight.remainingNanos();
+        // Bounds only the wait for the response head; once it is here, the body may take as long as it streams
+        final ScheduledFuture<?> headDeadline = remaining == Long.MAX_VALUE
+            ? null
+            : scheduler.schedule(call::cancel, Math.max(1, remaining), TimeUnit.NANOSECONDS);
+        inFlight.attach(call);
+
+        var headSent = false;
+        try (final var targetResponse = call.execute()) {
+            if (headDeadline != null) {
+                headDeadline.cancel(false);
+            }
             final var successMessage = new HttpTunnelMessage();
             successMessage.setId(requestMessage.getId());
             successMessage.setType(HttpTunnelMessage.Type.RESPONSE);
             successMessage.setStatus(targetResponse.code());
             successMessage.setRespHeaders(extractHeaders(targetResponse));
-            final var body = targetResponse.body();
-            if (body != null) {
-                final var bytes = body.bytes();
-                if (bytes.length > 0) {
-                    successMessage.setRespBodyB64(Base64.getEncoder().encodeToString(bytes));
-                }
-            }
-            // Log to UI sink
-            try {
-                if (httpLogSink != null) {
-                    var displayUrl = publicBaseUrl;
-                    if (requestMessage.getPath() != null) {
-                        displayUrl += requestMessage.getPath();
-                    }
-                    if (requestMessage.getQuery() != null && !requestMessage.getQuery().isBlank()) {
-                        displayUrl += "?" + requestMessage.getQuery();
+            final var responseBody = targetResponse.body();
+            if (responseBody != null && lane.streamBodies && shouldStream(responseBody)) {
+                successMessage.setBodyStreamed(true);
+                lane.send(successMessage);
+                headSent = true;
+                lane.streamResponseBody(requestMessage.getId(), responseBody);
+            } else {
+                if (responseBody != null) {
+                    final var bytes = responseBody.bytes();
+                    if (bytes.length > 0) {
+                        successMessage.setRespBody(bytes);
                     }
-                    httpLogSink.onHttpLog(method, displayUrl, targetResponse.code());
                 }
-            } catch (final Exception ignore) {
-                log.debug("HTTP log sink failed: {}", ignore.toString());
+                lane.send(successMessage);
             }
-            return successMessage;
+            log.debug("Responded to WS request: {}", requestMessage.getId());
+            logToSink(requestMessage, targetResponse.code());
         } catch (final Exception e) {
-            final var errorMessage = buildErrorMessage(requestMessage.getId(), 502, "Bad Gateway: " + e.getMessage());
+            if (inFlight.cancelled) {
+                // The server already answered the public client; nothing is waiting for a reply
+                log.debug("Tunneled request {} cancelled: {}", requestMessage.getId(), e.toString());
+                logToSink(requestMessage, 499);
+                return;
+            }
+            if (!headSent && inFlight.remainingNanos() <= 0) {
+                // The server has already timed the request out, so an error reply would be discarded
+                log.debug("Tunneled request {} past its deadline: {}", requestMessage.getId(), e.toString());
+                logToSink(requestMessage, 504);
+                return;
+            }
+            log.warn("Failed to handle tunneled request {}: {}", requestMessage.getId(), e.toString());
             try {
-                if (httpLogSink != null) {
-                    var displayUrl = publicBaseUrl;
-                    if (requestMessage.getPath() != null) {
-                        displayUrl += requestMessage.getPath();
-                    }
-                    if (requestMessage.getQuery() != null && !requestMessage.getQuery().isBlank()) {
-                        displayUrl += "?" + requestMessage.getQuery();
-                    }
-                    httpLogSink.onHttpLog(method, displayUrl, 502);
+                if (headSent) {
+                    lane.sendBodyMarker(requestMessage.getId(), HttpTunnelMessage.Type.BODY_ABORT);
+                } else {
+                    final var error = buildErrorMessage(requestMessage.getId(), 502, "Bad Gateway: " + e.getMessage());
+                    lane.send(error);
                 }
-            } catch (final Exception ignore) {
-                log.debug("HTTP log sink failed: {}", ignore.toString());
+            } catch (final Exception sendError) {
+                log.error("Failed to send error response: {}", sendError.getMessage(), sendError);
+            }
+            logToSink(requestMessage, 502);
+        } finally {
+            if (headDeadline != null) {
+                headDeadline.cancel(false);
+            }
+            if (requestBody != null) {
+                lane.requestBodies.remove(requestMessage.getId());
+                requestBody.close();
+            }
+        }
+    }
+
+    private void logToSink(final HttpTunnelMessage requestMessage, final int status) {
+        try {
+            if (httpLogSink != null) {
+                var displayUrl = publicBaseUrl;
+                if (requestMessage.getPath() != null) {
+                    displayUrl += requestMessage.getPath();
+                }
+                if (requestMessage.getQuery() != null && !requestMessage.getQuery().isBlank()) {
+                    displayUrl += "?" + requestMessage.getQuery();
+                }
+                httpLogSink.onHttpLog(requestMessage.getMethod(), displayUrl, status);
             }
-            return errorMessage;
+        } catch (final Exception ignore) {
+            log.debug("HTTP log sink failed: {}", ignore.toString());
         }
     }
 
+    private static boolean shouldStream(final ResponseBody body) {
+        final var length = body.contentLength();
+        return length < 0 || length > TunnelBodyStream.CHUNK_SIZE;
+    }
+
+    private static long contentLength(final Map<String, List<String>> headers) {
+        if (headers == null) {
+            return -1;
+        }
+        for (final var header : headers.entrySet()) {
+            if ("Content-Length".equalsIgnoreCase(header.getKey())
+                && header.getValue() != null && !header.getValue().isEmpty()) {
+                try {
+                    return Long.parseLong(header.getValue().getFirst().trim());
+                } catch (final NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
     private static HttpTunnelMessage buildErrorMessage(final String id, final int status, final String message) {
         final var error = new HttpTunnelMessage();
         error.setId(id);
@@ -520,19 +937,18 @@ public class HttpTunnelClient {
         error.setStatus(status);
         final var headers = Map.<String, List<String>>of("Content-Type", List.of("text/plain; charset=utf-8"));
         error.setRespHeaders(headers);
-        error.setRespBodyB64(Base64.getEncoder().encodeToString((message).getBytes(StandardCharsets.UTF_8)));
+        error.setRespBody(message.getBytes(StandardCharsets.UTF_8));
 
         return error;
     }
 
-    private RequestBody buildBody(final String method, final String bodyB64, final String contentType) {
+    private RequestBody buildBody(final String method, final byte[] bytes, final String contentType) {
         // Methods that usually don't have body
-        if (bodyB64 == null) {
+        if (bytes == null) {
             return methodSupportsBody(method)
                 ? RequestBody.create(new byte[0], contentType != null ? MediaType.parse(contentType) : null)
                 : null;
         }
-        final var bytes = Base64.getDecoder().decode(bodyB64);
         final var mediaType = contentType != null && !contentType.isBlank()
             ? MediaType.parse(contentType)
             : MediaType.parse("application/octet-stream");
@@ -559,4 +975,84 @@ public class HttpTunnelClient {
         }
         return map;
     }
+
+    /**
+     * One-shot request body that pulls chunks from a {@link TunnelBodyStream} while OkHttp
+     * writes the upstream request, so the body is never held in memory as a whole.
+     */
+    @RequiredArgsConstructor
+    private static class StreamingRequestBody extends RequestBody {
+
+        private final TunnelBodyStream source;
+        private final String contentType;
+        private final long contentLength;
+
+        @Override
+        public MediaType contentType() {
+            return contentType != null && !contentType.isBlank()
+                ? MediaType.parse(contentType)
+                : MediaType.parse("application/octet-stream");
+        }
+
+        @Override
+        public long contentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return true;
+        }
+
+        @Override
+        public void writeTo(final BufferedSink sink) throws IOException {
+            byte[] chunk;
+            while ((chunk = source.readChunk()) != null) {
+                sink.write(chunk);
+            }
+        }
+    }
+
+    /**
+     * A request received from the server that has not been answered yet. The deadline is derived
+     * from the relative timeout sent by the server, so clock differences between hosts do not matter.
+     */
+    private static final class InFlightRequest {
+
+        private final long receivedAt;
+        private final long deadline;
+        private volatile Call call;
+        private volatile boolean cancelled;
+
+        InFlightRequest(final long receivedAt, final Long timeoutMs) {
+            this.receivedAt = receivedAt;
+            this.deadline = timeoutMs != null && timeoutMs > 0
+                ? receivedAt + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+                : 0;
+        }
+
+        /**
+         * Returns the time left until the deadline.
+         *
+         * @return remaining nanoseconds, or {@link Long#MAX_VALUE} when the request has no deadline
+         */
+        long remainingNanos() {
+            return deadline == 0 ? Long.MAX_VALUE : deadline - System.nanoTime();
+        }
+
+        void attach(final Call call) {
+            this.call = call;
+            if (cancelled) {
+                call.cancel();
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            final var current = call;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
 }
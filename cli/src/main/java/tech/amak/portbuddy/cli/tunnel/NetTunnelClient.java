@@ -16,24 +16,34 @@ package tech.amak.portbuddy.cli.tunnel;
 
 import static tech.amak.portbuddy.cli.utils.JsonUtils.MAPPER;
 
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -52,12 +62,29 @@ import tech.amak.portbuddy.common.TunnelType;
 import tech.amak.portbuddy.common.tunnel.BinaryWsFrame;
 import tech.amak.portbuddy.common.tunnel.ControlMessage;
 import tech.amak.portbuddy.common.tunnel.MessageEnvelope;
+import tech.amak.portbuddy.common.tunnel.NetDataFrame;
+import tech.amak.portbuddy.common.tunnel.ReceiveWindow;
+import tech.amak.portbuddy.common.tunnel.ReplayBuffer;
+import tech.amak.portbuddy.common.tunnel.SendWindow;
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
 
 @Slf4j
 @RequiredArgsConstructor
 public class NetTunnelClient {
 
+    private static final Duration CREDIT_POLL_INTERVAL = Duration.ofSeconds(1);
+    private static final int TCP_READ_SIZE = 8192;
+    private static final int UDP_READ_SIZE = 65535;
+    // Datagrams read from one local UDP flow per wakeup, for fairness between flows
+    private static final int UDP_READ_BATCH = 64;
+    private static final long UDP_SWEEP_INTERVAL_SEC = 10;
+    // Data queued for a local TCP socket beyond this means the proxy ignores flow control; with it,
+    // at most one receive window is ever pending
+    private static final long MAX_PENDING_WRITE_BYTES = 4L * 1024 * 1024;
+    // How long connections of a lost WebSocket wait to be resumed; longer than the proxy's grace period
+    private static final long RESUME_TIMEOUT_SEC = 60;
+
     private final String proxyHost;
     private final int proxyHttpPort;
     /**
@@ -77,18 +104,29 @@ public class NetTunnelClient {
 
     private final OkHttpClient http = HttpUtils.createClient();
     private final OkHttpClient rest = HttpUtils.createClient();
-    private WebSocket webSocket;
 
-    private final Map<String, LocalTcp> locals = new ConcurrentHashMap<>();
-    private final Map<String, LocalUdp> udpLocals = new ConcurrentHashMap<>();
-    private CountDownLatch closed = new CountDownLatch(1);
+    private final Map<Integer, LocalTcp> locals = new ConcurrentHashMap<>();
+    // UDP flow table: one connected local socket per public peer, so the local service can tell
+    // peers apart; replies of all flows are read by a single selector thread
+    private final Map<Integer, LocalUdp> udpLocals = new ConcurrentHashMap<>();
+    private volatile UdpPump udpPump;
+    // Whether the proxy accepted compact data frames; echoed on every connection of the tunnel
+    private volatile boolean compactFrames;
+    // Identifies this process to the proxy, so that a reconnect resumes the tunnel's connections
+    private final String resumeToken = UUID.randomUUID().toString();
+    // Whether the proxy accepted session resumption
+    private volatile boolean resumable;
+    // WebSockets of this tunnel; lanes other than the first are opened only if the proxy accepted
+    // multi-session. Lane 0 also reports the tunnel status to the server.
+    private final Lane[] lanes = createLanes(
+        Math.max(1, ConfigurationService.INSTANCE.getConfig().getTunnelConnections()));
+    private final AtomicBoolean extraLanesStarted = new AtomicBoolean(false);
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
         final var thread = new Thread(runnable, "pb-net-heartbeat");
         thread.setDaemon(true);
         return thread;
     });
     private volatile ScheduledFuture<?> heartbeatTask;
-    private volatile ScheduledFuture<?> wsHeartbeatTask;
     private final AtomicBoolean closedReported = new AtomicBoolean(false);
     private final AtomicBoolean stop = new AtomicBoolean(false);
     private final AtomicBoolean warnedAboutReassignment = new AtomicBoolean(false);
@@ -97,74 +135,43 @@ public class NetTunnelClient {
      * Establishes and maintains a WebSocket connection for TCP/UDP tunneling.
      * This method constructs the WebSocket URL using the configured proxy host, port, and tunnel ID.
      * It sets up an authentication token in the request header, if provided, and initializes the WebSocket connection.
-     * The method blocks the current thread until the connection is closed or an interruption occurs.
+     * The method blocks the current thread until the client is closed or an interruption occurs.
      * Behavior:
      * - Converts a base HTTP URL to a WebSocket URL using the {@code toWebSocketUrl} method.
      * - Adds an optional "Authorization" header to the WebSocket request for authentication.
-     * - Creates a WebSocket connection using the provided URL and the {@code Listener} for handling events.
-     * - Waits for the WebSocket connection to close by utilizing a {@code CountDownLatch}.
+     * - Opens the first WebSocket and reconnects it with backoff whenever it drops.
+     * - Once the proxy accepts multi-session, opens the remaining configured WebSockets in the
+     * background; each of them reconnects independently.
      * - Handles interruptions by setting the thread's interrupt status.
      */
     public void runBlocking() {
-        var backoffMs = 1000L;
-        final var maxBackoffMs = 30000L;
-        while (!stop.get()) {
-            try {
-                closed = new CountDownLatch(1);
-                final var scheme = secure ? "https://" : "http://";
-                final var publicHostParam = (expectedPublicHost == null || expectedPublicHost.isBlank())
-                    ? ""
-                    : "&public-host=" + URLEncoder.encode(expectedPublicHost, StandardCharsets.UTF_8);
-                final var path = "/api/net-tunnel/" + tunnelId
-                                 + "?type=" + tunnelType.name().toLowerCase()
-                                 + "&port=" + expectedPublicPort
-                                 + publicHostParam;
-                final var url = toWebSocketUrl(scheme + proxyHost + ":" + proxyHttpPort, path);
-                final var request = new Request.Builder().url(url);
-                if (authToken != null && !authToken.isBlank()) {
-                    request.addHeader("Authorization", "Bearer " + authToken);
-                }
-                webSocket = http.newWebSocket(request.build(), new Listener());
+        lanes[0].run();
+    }
 
-                // Block until this connection is closed
-                closed.await();
-                if (stop.get()) {
-                    break;
-                }
-                // Reconnect with backoff
-                log.info("Net tunnel disconnected; reconnecting in {} ms...", backoffMs);
-                Thread.sleep(backoffMs);
-                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
-            } catch (final InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
-            } catch (final Exception e) {
-                log.warn("Net tunnel loop error: {}", e.toString());
-                if (verbose) {
-                    e.printStackTrace(System.err);
-                }
-                try {
-                    Thread.sleep(backoffMs);
-                } catch (final InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-                backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
-            }
+    private Lane[] createLanes(final int count) {
+        final var result = new Lane[count];
+        for (var i = 0; i < count; i++) {
+            result[i] = new Lane(i);
+        }
+        return result;
+    }
+
+    private void startExtraLanes() {
+        if (lanes.length < 2 || !extraLanesStarted.compareAndSet(false, true)) {
+            return;
+        }
+        log.debug("Opening {} additional net tunnel connections", lanes.length - 1);
+        for (var i = 1; i < lanes.length; i++) {
+            Thread.ofVirtual().name("pb-net-lane-" + i).start(lanes[i]::run);
         }
     }
 
     /**
-     * Closes the WebSocket connection for the TCP tunnel client.
-     * This method attempts to gracefully close the WebSocket connection, if it exists,
+     * Closes the WebSocket connections for the TCP tunnel client.
+     * This method attempts to gracefully close every WebSocket connection, if it exists,
      * by sending a close frame with a status code of 1000 (normal closure) and a reason
      * message ("Client exit"). If an exception occurs during the close operation, the
      * error is logged for debugging purposes.
-     * Behavior:
-     * - Checks if the WebSocket instance (`ws`) is not null.
-     * - If the WebSocket exists, sends a close frame with a normal status and reason.
-     * - Catches and logs any exceptions encountered during the close operation,
-     * ensuring the process does not disrupt the program flow.
      */
     public void close() {
         try {
@@ -173,12 +180,12 @@ public class NetTunnelClient {
             if (task != null) {
                 task.cancel(true);
             }
-            final var wsTask = wsHeartbeatTask;
-            if (wsTask != null) {
-                wsTask.cancel(true);
+            for (final var lane : lanes) {
+                lane.close();
             }
-            if (webSocket != null) {
-                webSocket.close(1000, "Client exit");
+            final var pump = udpPump;
+            if (pump != null) {
+                pump.selector.wakeup();
             }
             reportClosedSafe();
         } catch (final Exception ignore) {
@@ -188,8 +195,12 @@ public class NetTunnelClient {
 
     private void close(final LocalTcp localTcp) {
         if (localTcp != null) {
+            if (localTcp.sendWindow != null) {
+                localTcp.sendWindow.close();
+            }
+            localTcp.writes.offer(LocalTcp.END_OF_WRITES);
             try {
-                localTcp.sock.close();
+                localTcp.channel.close();
             } catch (final Exception e) {
                 log.debug("Failed to close TCP: {}", e.toString());
             }
@@ -199,7 +210,7 @@ public class NetTunnelClient {
     private void close(final LocalUdp localUdp) {
         if (localUdp != null) {
             try {
-                localUdp.sock.close();
+                localUdp.channel.close();
             } catch (final Exception e) {
                 log.debug("Failed to close UDP local: {}", e.toString());
             }
@@ -219,9 +230,129 @@ public class NetTunnelClient {
         return uri + path;
     }
 
+    /**
+     * One WebSocket of the tunnel with its own reconnect loop and PING heartbeat. Each local
+     * connection sends all of its frames over the lane on which the proxy opened it.
+     */
+    private class Lane {
+
+        private final int index;
+        private volatile WebSocket webSocket;
+        private volatile CountDownLatch closed = new CountDownLatch(1);
+        private volatile ScheduledFuture<?> wsHeartbeatTask;
+        // Set once the current connection was established
+        private volatile boolean opened;
+
+        Lane(final int index) {
+            this.index = index;
+        }
+
+        void run() {
+            var backoffMs = 1000L;
+            final var maxBackoffMs = 30000L;
+            while (!stop.get()) {
+                try {
+                    closed = new CountDownLatch(1);
+                    final var scheme = secure ? "https://" : "http://";
+                    final var publicHostParam = (expectedPublicHost == null || expectedPublicHost.isBlank())
+                        ? ""
+                        : "&public-host=" + URLEncoder.encode(expectedPublicHost, StandardCharsets.UTF_8);
+                    final var path = "/api/net-tunnel/" + tunnelId
+                                     + "?type=" + tunnelType.name().toLowerCase()
+                                     + "&port=" + expectedPublicPort
+                                     + publicHostParam;
+                    final var url = toWebSocketUrl(scheme + proxyHost + ":" + proxyHttpPort, path);
+                    final var features = lanes.length > 1
+                        ? List.of(TunnelFeatures.FLOW_CONTROL, TunnelFeatures.COMPACT_FRAMES,
+                            TunnelFeatures.RESUME, TunnelFeatures.MULTI_SESSION)
+                        : List.of(TunnelFeatures.FLOW_CONTROL, TunnelFeatures.COMPACT_FRAMES, TunnelFeatures.RESUME);
+                    final var request = new Request.Builder()
+                        .url(url)
+                        .header(TunnelFeatures.HEADER, TunnelFeatures.format(features))
+                        .header(TunnelFeatures.LANE_HEADER, Integer.toString(index))
+                        .header(TunnelFeatures.RESUME_TOKEN_HEADER, resumeToken);
+                    if (authToken != null && !authToken.isBlank()) {
+                        request.addHeader("Authorization", "Bearer " + authToken);
+                    }
+                    webSocket = http.newWebSocket(request.build(), new Listener(this));
+
+                    // Block until this connection is closed
+                    closed.await();
+                    if (stop.get()) {
+                        break;
+                    }
+                    if (opened) {
+                        // An established connection dropped: come back quickly, within the resume grace period
+                        opened = false;
+                        backoffMs = 1000L;
+                    }
+                    // Reconnect with backoff
+                    log.info("Net tunnel connection {} disconnected; reconnecting in {} ms...", index, backoffMs);
+                    Thread.sleep(backoffMs);
+                    backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (final Exception e) {
+                    log.warn("Net tunnel loop error: {}", e.toString());
+                    if (verbose) {
+                        e.printStackTrace(System.err);
+                    }
+                    try {
+                        Thread.sleep(backoffMs);
+                    } catch (final InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    backoffMs = Math.min(backoffMs * 2, maxBackoffMs);
+                }
+            }
+        }
+
+        void close() {
+            cancelHeartbeat();
+            final var current = webSocket;
+            if (current != null) {
+                current.close(1000, "Client exit");
+            }
+        }
+
+        void cancelHeartbeat() {
+            final var wsTask = wsHeartbeatTask;
+            if (wsTask != null) {
+                wsTask.cancel(true);
+            }
+        }
+
+        boolean send(final String text) {
+            final var current = webSocket;
+            return current != null && current.send(text);
+        }
+
+        boolean send(final ByteString bytes) {
+            final var current = webSocket;
+            return current != null && current.send(bytes);
+        }
+    }
+
+    @RequiredArgsConstructor
     private class Listener extends WebSocketListener {
+
+        private final Lane lane;
+
         @Override
         public void onOpen(final WebSocket webSocket, final Response response) {
+            lane.opened = true;
+            final var features = TunnelFeatures.parse(response.header(TunnelFeatures.HEADER));
+            compactFrames = features.contains(TunnelFeatures.COMPACT_FRAMES);
+            resumable = features.contains(TunnelFeatures.RESUME);
+            if (features.contains(TunnelFeatures.MULTI_SESSION)) {
+                startExtraLanes();
+            }
+            startWsHeartbeat();
+            if (lane.index != 0) {
+                return;
+            }
             // Report CONNECTED and start heartbeats
             try {
                 postStatus("/api/tunnels/" + tunnelId + "/connected");
@@ -245,21 +376,20 @@ public class NetTunnelClient {
             } catch (final Exception e) {
                 log.debug("Failed to start NET heartbeat: {}", e.toString());
             }
+        }
 
-            // Start WS application-level heartbeat (PING/PONG)
+        // Start WS application-level heartbeat (PING/PONG)
+        private void startWsHeartbeat() {
             try {
-                final var existingWs = wsHeartbeatTask;
-                if (existingWs != null && !existingWs.isCancelled()) {
-                    existingWs.cancel(true);
-                }
+                lane.cancelHeartbeat();
                 final var config = ConfigurationService.INSTANCE.getConfig();
                 final var intervalSec = Math.max(1, config.getHealthcheckIntervalSec());
-                wsHeartbeatTask = scheduler.scheduleAtFixedRate(() -> {
+                lane.wsHeartbeatTask = scheduler.scheduleAtFixedRate(() -> {
                     try {
                         final var ping = new ControlMessage();
                         ping.setType(ControlMessage.Type.PING);
                         ping.setTs(System.currentTimeMillis());
-                        NetTunnelClient.this.webSocket.send(MAPPER.writeValueAsString(ping));
+                        lane.send(MAPPER.writeValueAsString(ping));
                     } catch (final Exception e) {
                         log.debug("WS heartbeat send failed: {}", e.toString());
                     }
@@ -279,7 +409,7 @@ public class NetTunnelClient {
                 }
                 if (env.getKind() != null && env.getKind().equals("WS")) {
                     final var msg = MAPPER.readValue(text, WsTunnelMessage.class);
-                    handleControl(msg);
+                    handleControl(lane, msg);
                     return;
                 }
                 // Unknown kinds are ignored for NET tunnels
@@ -291,50 +421,29 @@ public class NetTunnelClient {
         @Override
         public void onMessage(final WebSocket webSocket, final ByteString bytes) {
             try {
-                final var decoded = BinaryWsFrame.decode(bytes.toByteArray());
-                if (decoded == null) {
+                // A read-only view of the frame; the payload is written out without copying it
+                final var frame = bytes.asByteBuffer();
+                final int connId;
+                final ByteBuffer data;
+                if (compactFrames) {
+                    connId = NetDataFrame.readConnectionId(frame);
+                    data = frame;
+                } else {
+                    final var decoded = BinaryWsFrame.decode(frame);
+                    connId = decoded == null ? -1 : parseConnectionId(decoded.connectionId());
+                    data = decoded == null ? null : ByteBuffer.wrap(decoded.data());
+                }
+                if (connId < 0) {
                     return;
                 }
                 if (tunnelType == TunnelType.TCP) {
-                    final var local = locals.get(decoded.connectionId());
+                    final var local = locals.get(connId);
                     if (local != null) {
-                        try {
-                            local.out.write(decoded.data());
-                            local.out.flush();
-                            if (trafficSink != null) {
-                                trafficSink.onBytesIn(decoded.data().length);
-                            }
-                        } catch (final Exception e) {
-                            log.debug("Write to local TCP failed: {}", e.toString());
-                        }
+                        local.receivedBytes.addAndGet(data.remaining());
+                        writeToLocal(local, data);
                     }
                 } else if (tunnelType == TunnelType.UDP) {
-                    // For UDP, forward the datagram to local UDP server using per-connection socket
-                    final var connId = decoded.connectionId();
-                    var localUdp = udpLocals.get(connId);
-                    if (localUdp == null) {
-                        try {
-                            final var sock = new DatagramSocket();
-                            localUdp = new LocalUdp(connId, sock);
-                            udpLocals.put(connId, localUdp);
-                            // start receive loop for this connection
-                            final var localUdpRef = localUdp;
-                            new Thread(() -> pumpUdpLocalToProxy(localUdpRef)).start();
-                        } catch (final Exception e) {
-                            log.debug("Failed to create local UDP socket: {}", e.toString());
-                            return;
-                        }
-                    }
-                    try {
-                        final var packet = new DatagramPacket(decoded.data(), decoded.data().length,
-                            new InetSocketAddress(localHost, localPort));
-                        localUdp.sock.send(packet);
-                        if (trafficSink != null) {
-                            trafficSink.onBytesIn(decoded.data().length);
-                        }
-                    } catch (final Exception e) {
-                        log.debug("Write to local UDP failed: {}", e.toString());
-                    }
+                    writeToLocalUdp(lane, connId, data);
                 }
             } catch (final Exception e) {
                 log.debug("Failed to handle binary WS frame: {}", e.toString());
@@ -343,44 +452,122 @@ public class NetTunnelClient {
 
         @Override
         public void onClosed(final WebSocket webSocket, final int code, final String reason) {
-            log.info("Tunnel closed: {} {}", code, reason);
-            final var task = heartbeatTask;
-            if (task != null) {
-                task.cancel(true);
+            log.info("Tunnel connection {} closed: {} {}", lane.index, code, reason);
+            onDisconnected();
+        }
+
+        @Override
+        public void onFailure(final WebSocket webSocket, final Throwable throwable, final Response response) {
+            log.warn("Tunnel connection {} failure: {}", lane.index, throwable.toString());
+            onDisconnected();
+        }
+
+        private void onDisconnected() {
+            lane.cancelHeartbeat();
+            if (lane.index == 0) {
+                final var task = heartbeatTask;
+                if (task != null) {
+                    task.cancel(true);
+                }
+                reportClosedSafe();
             }
-            final var wsTask = wsHeartbeatTask;
-            if (wsTask != null) {
-                wsTask.cancel(true);
+            lane.closed.countDown();
+            if (resumable) {
+                suspendLocals(lane);
+            } else {
+                closeLocals(lane);
             }
-            reportClosedSafe();
-            closed.countDown();
-            // Close UDP sockets
-            if (tunnelType == TunnelType.UDP) {
-                for (final var entry : udpLocals.entrySet()) {
-                    close(entry.getValue());
+        }
+    }
+
+    /**
+     * Keeps the TCP connections and UDP flows of a lost WebSocket for the proxy to resume them on
+     * the next one. Data read from TCP connections meanwhile is only kept for retransmission.
+     */
+    private void suspendLocals(final Lane lane) {
+        final var since = System.currentTimeMillis();
+        for (final var local : locals.values()) {
+            if (local.lane == lane) {
+                synchronized (local) {
+                    local.resuming = true;
+                    local.resumingSince = since;
                 }
-                udpLocals.clear();
             }
         }
+        scheduler.schedule(this::expireResumingLocals, RESUME_TIMEOUT_SEC, TimeUnit.SECONDS);
+    }
 
-        @Override
-        public void onFailure(final WebSocket webSocket, final Throwable throwable, final Response response) {
-            log.warn("Tunnel failure: {}", throwable.toString());
-            final var task = heartbeatTask;
-            if (task != null) {
-                task.cancel(true);
+    private void expireResumingLocals() {
+        final var cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(RESUME_TIMEOUT_SEC);
+        for (final var local : locals.values()) {
+            if (local.resuming && local.resumingSince <= cutoff && locals.remove(local.connectionId, local)) {
+                log.debug("Local connection {} was not resumed in time", local.connectionId);
+                close(local);
             }
-            final var wsTask = wsHeartbeatTask;
-            if (wsTask != null) {
-                wsTask.cancel(true);
+        }
+    }
+
+    /**
+     * Takes over a connection the proxy resumes on a new WebSocket: retransmits what the proxy did
+     * not receive and answers with this side's counters, so that the proxy does the same.
+     */
+    private void resumeLocal(final Lane lane, final int connId, final WsTunnelMessage message) throws Exception {
+        final var local = locals.get(connId);
+        final var received = message.getReceived();
+        final var consumed = message.getConsumed();
+        if (local == null || local.replay == null || received == null || consumed == null) {
+            sendClose(lane, connId);
+            return;
+        }
+        synchronized (local) {
+            final var replay = local.replay;
+            if (received < replay.start() || received > replay.end() || consumed > received) {
+                log.debug("Local connection {} cannot be resumed at offset {}", connId, received);
+                locals.remove(connId, local);
+                close(local);
+                sendClose(lane, connId);
+                return;
             }
-            reportClosedSafe();
-            closed.countDown();
-            if (tunnelType == TunnelType.UDP) {
-                for (final var entry : udpLocals.entrySet()) {
-                    close(entry.getValue());
-                }
-                udpLocals.clear();
+            local.lane = lane;
+            replay.acknowledge(consumed);
+            local.sendWindow.reset(local.initialSendWindow - (replay.end() - consumed));
+            final var buffer = new byte[NetDataFrame.MAX_HEADER_SIZE + TCP_READ_SIZE];
+            var offset = received;
+            while (offset < replay.end()) {
+                final var count = replay.copy(offset,
+                    ByteBuffer.wrap(buffer, NetDataFrame.MAX_HEADER_SIZE, TCP_READ_SIZE));
+                lane.send(toFrame(connId, buffer, count));
+                offset += count;
+            }
+            final var reply = new WsTunnelMessage();
+            reply.setWsType(WsTunnelMessage.Type.RESUME);
+            reply.setConnectionId(Integer.toString(connId));
+            reply.setReceived(local.receivedBytes.get());
+            reply.setConsumed(local.receiveWindow.resync());
+            lane.send(MAPPER.writeValueAsString(reply));
+            local.resuming = false;
+        }
+        log.debug("Resumed local connection {} on tunnel connection {}", connId, lane.index);
+    }
+
+    private void sendClose(final Lane lane, final int connId) throws Exception {
+        final var message = new WsTunnelMessage();
+        message.setWsType(WsTunnelMessage.Type.CLOSE);
+        message.setConnectionId(Integer.toString(connId));
+        lane.send(MAPPER.writeValueAsString(message));
+    }
+
+    private void closeLocals(final Lane lane) {
+        // The proxy drops the public connections pinned to a lost WebSocket; release their local
+        // sockets and any pump waiting for flow control credit
+        for (final var local : locals.values()) {
+            if (local.lane == lane && locals.remove(local.connectionId, local)) {
+                close(local);
+            }
+        }
+        for (final var local : udpLocals.values()) {
+            if (local.lane == lane && udpLocals.remove(local.connectionId, local)) {
+                close(local);
             }
         }
     }
@@ -395,8 +582,21 @@ public class NetTunnelClient {
         }
     }
 
-    private void handleControl(final WsTunnelMessage message) throws Exception {
-        final var connId = message.getConnectionId();
+    private static int parseConnectionId(final String connectionId) {
+        try {
+            return connectionId == null ? -1 : Integer.parseInt(connectionId);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void handleControl(final Lane lane, final WsTunnelMessage message) throws Exception {
+        final var connId = parseConnectionId(message.getConnectionId());
+        if (connId < 0 && message.getWsType() != WsTunnelMessage.Type.EXPOSED
+            && message.getWsType() != WsTunnelMessage.Type.RESUMED) {
+            log.debug("Ignoring {} for unknown connection id {}", message.getWsType(), message.getConnectionId());
+            return;
+        }
         switch (message.getWsType()) {
             case EXPOSED -> {
                 final var actualHost = message.getPublicHost();
@@ -418,23 +618,32 @@ public class NetTunnelClient {
             case OPEN -> {
                 if (tunnelType == TunnelType.TCP) {
                     // Establish local TCP
-                    final var socket = new Socket();
-                    socket.connect(new InetSocketAddress(localHost, localPort), 5000);
-                    final var local = new LocalTcp(connId, socket);
+                    final var channel = SocketChannel.open();
+                    channel.socket().connect(new InetSocketAddress(localHost, localPort), 5000);
+                    // A window in OPEN means the proxy uses flow control for this connection
+                    final var flowControlled = message.getWindow() != null;
+                    final var local = new LocalTcp(connId, channel, lane,
+                        flowControlled ? message.getWindow() : 0,
+                        flowControlled ? new ReceiveWindow(ReceiveWindow.DEFAULT_SIZE) : null,
+                        flowControlled && resumable ? new ReplayBuffer() : null);
                     locals.put(connId, local);
                     // Ack
                     final var ack = new WsTunnelMessage();
                     ack.setWsType(WsTunnelMessage.Type.OPEN_OK);
-                    ack.setConnectionId(connId);
-                    webSocket.send(MAPPER.writeValueAsString(ack));
-                    // Start reader thread from local TCP to proxy WS
+                    ack.setConnectionId(message.getConnectionId());
+                    if (local.receiveWindow != null) {
+                        ack.setWindow(local.receiveWindow.size());
+                    }
+                    lane.send(MAPPER.writeValueAsString(ack));
+                    // Start reader thread from local TCP to proxy WS, and the writer for the other way
                     new Thread(() -> pumpLocalToProxy(local)).start();
+                    Thread.ofVirtual().name("pb-net-writer-" + connId).start(() -> pumpProxyToLocal(local));
                 } else {
                     // UDP does not use OPEN for per-flow; ignore or acknowledge for compatibility
                     final var ack = new WsTunnelMessage();
                     ack.setWsType(WsTunnelMessage.Type.OPEN_OK);
-                    ack.setConnectionId(connId);
-                    webSocket.send(MAPPER.writeValueAsString(ack));
+                    ack.setConnectionId(message.getConnectionId());
+                    lane.send(MAPPER.writeValueAsString(ack));
                 }
             }
             case BINARY -> {
@@ -442,38 +651,39 @@ public class NetTunnelClient {
                     // Base64 payload from proxy to local TCP (legacy)
                     final var local = locals.get(connId);
                     if (local != null && message.getDataB64() != null) {
-                        try {
-                            final var bytes = Base64.getDecoder().decode(message.getDataB64());
-                            local.out.write(bytes);
-                            local.out.flush();
-                            if (trafficSink != null) {
-                                trafficSink.onBytesIn(bytes.length);
-                            }
-                        } catch (final Exception e) {
-                            log.debug("Write to local TCP failed: {}", e.toString());
-                        }
+                        final var data = ByteBuffer.wrap(Base64.getDecoder().decode(message.getDataB64()));
+                        local.receivedBytes.addAndGet(data.remaining());
+                        writeToLocal(local, data);
                     }
                 } else if (tunnelType == TunnelType.UDP) {
                     // Legacy TEXT BINARY for UDP: forward to local as datagram
                     if (message.getDataB64() != null) {
-                        var localUdp = udpLocals.get(connId);
-                        if (localUdp == null) {
-                            final var sock = new DatagramSocket();
-                            localUdp = new LocalUdp(connId, sock);
-                            udpLocals.put(connId, localUdp);
-                            final var localUdpRef = localUdp;
-                            new Thread(() -> pumpUdpLocalToProxy(localUdpRef)).start();
-                        }
-                        final var bytes = Base64.getDecoder().decode(message.getDataB64());
-                        final var packet = new DatagramPacket(bytes, bytes.length,
-                            new InetSocketAddress(localHost, localPort));
-                        localUdp.sock.send(packet);
-                        if (trafficSink != null) {
-                            trafficSink.onBytesIn(bytes.length);
+                        writeToLocalUdp(lane, connId,
+                            ByteBuffer.wrap(Base64.getDecoder().decode(message.getDataB64())));
+                    }
+                }
+            }
+            case WINDOW -> {
+                final var local = locals.get(connId);
+                if (local != null && local.sendWindow != null && message.getWindow() != null) {
+                    synchronized (local) {
+                        local.sendWindow.grant(message.getWindow());
+                        if (local.replay != null) {
+                            // Credit is returned for delivered bytes, which need no retransmission
+                            local.replay.acknowledge(local.replay.start() + message.getWindow());
                         }
                     }
                 }
             }
+            case RESUME -> resumeLocal(lane, connId, message);
+            case RESUMED -> {
+                // Connections of this lane the proxy did not resume are gone on its side
+                for (final var local : locals.values()) {
+                    if (local.lane == lane && local.resuming && locals.remove(local.connectionId, local)) {
+                        close(local);
+                    }
+                }
+            }
             case CLOSE -> {
                 if (tunnelType == TunnelType.TCP) {
                     close(locals.remove(connId));
@@ -486,16 +696,186 @@ public class NetTunnelClient {
         }
     }
 
+    /**
+     * Queues data for a local TCP socket. Called on the WebSocket reader thread, which therefore
+     * never blocks on a slow local service; the data must not be modified afterwards.
+     */
+    private void writeToLocal(final LocalTcp local, final ByteBuffer data) {
+        if (local.pendingWriteBytes.addAndGet(data.remaining()) > MAX_PENDING_WRITE_BYTES) {
+            log.warn("Closing local connection {}: local service is not reading ({} bytes pending)",
+                local.connectionId, local.pendingWriteBytes.get());
+            close(local);
+            return;
+        }
+        local.writes.add(data);
+    }
+
+    private void pumpProxyToLocal(final LocalTcp local) {
+        try {
+            while (true) {
+                final var data = local.writes.take();
+                if (data == LocalTcp.END_OF_WRITES) {
+                    break;
+                }
+                final var length = data.remaining();
+                while (data.hasRemaining()) {
+                    local.channel.write(data);
+                }
+                local.pendingWriteBytes.addAndGet(-length);
+                if (trafficSink != null) {
+                    trafficSink.onBytesIn(length);
+                }
+                if (local.receiveWindow != null) {
+                    // The data reached the local service; return the credit to the proxy. Holding it
+                    // back while the service is slow is what throttles this connection alone.
+                    synchronized (local) {
+                        final var credit = local.receiveWindow.onConsumed(length);
+                        if (credit > 0) {
+                            final var message = new WsTunnelMessage();
+                            message.setWsType(WsTunnelMessage.Type.WINDOW);
+                            message.setConnectionId(Integer.toString(local.connectionId));
+                            message.setWindow(credit);
+                            local.lane.send(MAPPER.writeValueAsString(message));
+                        }
+                    }
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            log.debug("Write to local TCP failed: {}", e.toString());
+            // The reader pump notices the closed socket and tells the proxy
+            close(local);
+        } finally {
+            local.writes.clear();
+        }
+    }
+
+    private void writeToLocalUdp(final Lane lane, final int connId, final ByteBuffer data) {
+        var localUdp = udpLocals.get(connId);
+        if (localUdp == null) {
+            localUdp = openUdpFlow(lane, connId);
+            if (localUdp == null) {
+                return;
+            }
+        }
+        localUdp.lastActive = System.currentTimeMillis();
+        // Replies follow the flow to the WebSocket it now arrives on, e.g. after a reconnect
+        localUdp.lane = lane;
+        try {
+            final var length = data.remaining();
+            if (localUdp.channel.write(data) == 0) {
+                log.debug("Dropping UDP datagram for flow {}: socket buffer is full", connId);
+                return;
+            }
+            if (trafficSink != null) {
+                trafficSink.onBytesIn(length);
+            }
+        } catch (final Exception e) {
+            log.debug("Write to local UDP failed: {}", e.toString());
+        }
+    }
+
+    private LocalUdp openUdpFlow(final Lane lane, final int connId) {
+        final var config = ConfigurationService.INSTANCE.getConfig();
+        if (udpLocals.size() >= Math.max(1, config.getMaxUdpFlows())) {
+            // Make room by evicting the least recently active flow
+            udpLocals.values().stream()
+                .min(Comparator.comparingLong(flow -> flow.lastActive))
+                .ifPresent(oldest -> closeUdpFlow(oldest, true));
+        }
+        try {
+            final var channel = DatagramChannel.open();
+            channel.connect(new InetSocketAddress(localHost, localPort));
+            channel.configureBlocking(false);
+            final var local = new LocalUdp(connId, channel, lane);
+            udpLocals.put(connId, local);
+            udpPump().register(local);
+            return local;
+        } catch (final Exception e) {
+            log.debug("Failed to create local UDP socket: {}", e.toString());
+            return null;
+        }
+    }
+
+    private void closeUdpFlow(final LocalUdp local, final boolean notifyProxy) {
+        if (!udpLocals.remove(local.connectionId, local)) {
+            return;
+        }
+        close(local);
+        if (notifyProxy) {
+            try {
+                final var message = new WsTunnelMessage();
+                message.setWsType(WsTunnelMessage.Type.CLOSE);
+                message.setConnectionId(Integer.toString(local.connectionId));
+                local.lane.send(MAPPER.writeValueAsString(message));
+            } catch (final Exception e) {
+                log.debug("Failed to send UDP flow close: {}", e.toString());
+            }
+        }
+    }
+
+    private void evictIdleUdpFlows() {
+        final var idleTimeoutSec = ConfigurationService.INSTANCE.getConfig().getUdpFlowIdleTimeoutSec();
+        final var cutoff = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(Math.max(1, idleTimeoutSec));
+        for (final var local : udpLocals.values()) {
+            if (local.lastActive < cutoff) {
+                closeUdpFlow(local, true);
+            }
+        }
+    }
+
+    private synchronized UdpPump udpPump() throws IOException {
+        if (udpPump == null) {
+            udpPump = new UdpPump();
+            scheduler.scheduleWithFixedDelay(this::evictIdleUdpFlows,
+                UDP_SWEEP_INTERVAL_SEC, UDP_SWEEP_INTERVAL_SEC, TimeUnit.SECONDS);
+        }
+        return udpPump;
+    }
+
+    /**
+     * Wraps a payload read into {@code buffer} at offset {@link NetDataFrame#MAX_HEADER_SIZE} into a
+     * data frame, in place for compact frames.
+     */
+    private ByteString toFrame(final int connectionId, final byte[] buffer, final int length) {
+        if (compactFrames) {
+            final var start = NetDataFrame.putHeader(connectionId, buffer, NetDataFrame.MAX_HEADER_SIZE);
+            return ByteString.of(buffer, start, NetDataFrame.MAX_HEADER_SIZE + length - start);
+        }
+        return ByteString.of(BinaryWsFrame.encodeToArray(
+            Integer.toString(connectionId), buffer, NetDataFrame.MAX_HEADER_SIZE, length));
+    }
+
     private void pumpLocalToProxy(final LocalTcp local) {
-        final var buffer = new byte[8192];
+        // Payload goes after room for the frame header, so a compact frame is built without copying
+        final var buffer = new byte[NetDataFrame.MAX_HEADER_SIZE + TCP_READ_SIZE];
         try {
             while (true) {
-                final var byteCount = local.in.read(buffer);
+                var maxRead = TCP_READ_SIZE;
+                if (local.sendWindow != null) {
+                    final var credit = awaitCredit(local);
+                    if (credit <= 0) {
+                        break;
+                    }
+                    maxRead = (int) Math.min(maxRead, credit);
+                }
+                final var byteCount = local.in.read(buffer, NetDataFrame.MAX_HEADER_SIZE, maxRead);
                 if (byteCount == -1) {
                     break;
                 }
-                final var frame = BinaryWsFrame.encodeToArray(local.connectionId, buffer, 0, byteCount);
-                webSocket.send(ByteString.of(frame));
+                synchronized (local) {
+                    if (local.sendWindow != null) {
+                        local.sendWindow.consume(byteCount);
+                    }
+                    if (local.replay != null) {
+                        local.replay.append(buffer, NetDataFrame.MAX_HEADER_SIZE, byteCount);
+                    }
+                    // While resuming, the data is sent by the retransmission
+                    if (!local.resuming) {
+                        local.lane.send(toFrame(local.connectionId, buffer, byteCount));
+                    }
+                }
                 if (trafficSink != null) {
                     trafficSink.onBytesOut(byteCount);
                 }
@@ -506,58 +886,155 @@ public class NetTunnelClient {
             try {
                 final var message = new WsTunnelMessage();
                 message.setWsType(WsTunnelMessage.Type.CLOSE);
-                message.setConnectionId(local.connectionId);
-                webSocket.send(MAPPER.writeValueAsString(message));
+                message.setConnectionId(Integer.toString(local.connectionId));
+                local.lane.send(MAPPER.writeValueAsString(message));
             } catch (final Exception ignore) {
                 log.error("Failed to send local WS close: {}", ignore.toString());
             }
             close(local);
-            locals.remove(local.connectionId);
+            locals.remove(local.connectionId, local);
+        }
+    }
+
+    private long awaitCredit(final LocalTcp local) throws InterruptedException {
+        // Wake up periodically so that a connection closed meanwhile does not park the pump forever
+        while (local.channel.isOpen()) {
+            final var credit = local.sendWindow.awaitAvailable(CREDIT_POLL_INTERVAL);
+            if (credit > 0) {
+                return credit;
+            }
         }
+        return 0;
     }
 
     private static class LocalTcp {
-        final String connectionId;
-        final Socket sock;
+        // Queued after the last write to stop the writer
+        static final ByteBuffer END_OF_WRITES = ByteBuffer.allocate(0);
+
+        final int connectionId;
+        // Blocking channel: the pump reads through a stream, data from the proxy is written as buffers
+        final SocketChannel channel;
+        // The WebSocket the proxy opened this connection on, or resumed it on; all its frames go
+        // back over it
+        volatile Lane lane;
         final InputStream in;
-        final OutputStream out;
+        // Data from the proxy, written to the socket by a dedicated writer thread
+        final BlockingQueue<ByteBuffer> writes = new LinkedBlockingQueue<>();
+        final AtomicLong pendingWriteBytes = new AtomicLong();
+        // Flow control credit towards the proxy and credit returned to it; null without flow control
+        final long initialSendWindow;
+        final SendWindow sendWindow;
+        final ReceiveWindow receiveWindow;
+        // Sent bytes the proxy has not delivered yet, and bytes received from it; resumable only.
+        // The replay buffer, the windows and sends on the lane are guarded by this object.
+        final ReplayBuffer replay;
+        final AtomicLong receivedBytes = new AtomicLong();
+        // Set while the lane is lost and the proxy has not resumed the connection yet
+        volatile boolean resuming;
+        volatile long resumingSince;
 
-        LocalTcp(final String connectionId, final Socket sock) throws Exception {
+        LocalTcp(final int connectionId,
+                 final SocketChannel channel,
+                 final Lane lane,
+                 final long initialSendWindow,
+                 final ReceiveWindow receiveWindow,
+                 final ReplayBuffer replay) throws IOException {
             this.connectionId = connectionId;
-            this.sock = sock;
-            this.in = sock.getInputStream();
-            this.out = sock.getOutputStream();
+            this.channel = channel;
+            this.lane = lane;
+            this.in = channel.socket().getInputStream();
+            this.initialSendWindow = initialSendWindow;
+            this.sendWindow = receiveWindow != null ? new SendWindow(initialSendWindow) : null;
+            this.receiveWindow = receiveWindow;
+            this.replay = replay;
         }
     }
 
     private static class LocalUdp {
-        final String connectionId;
-        final DatagramSocket sock;
+        final int connectionId;
+        // Non-blocking and connected to the local service
+        final DatagramChannel channel;
+        volatile Lane lane;
+        // Time of the last datagram in either direction, in epoch millis
+        volatile long lastActive = System.currentTimeMillis();
 
-        LocalUdp(final String connectionId, final DatagramSocket sock) {
+        LocalUdp(final int connectionId, final DatagramChannel channel, final Lane lane) {
             this.connectionId = connectionId;
-            this.sock = sock;
+            this.channel = channel;
+            this.lane = lane;
         }
     }
 
-    private void pumpUdpLocalToProxy(final LocalUdp local) {
-        final var buffer = new byte[65535];
-        try {
-            while (!local.sock.isClosed()) {
-                final var packet = new DatagramPacket(buffer, buffer.length);
-                local.sock.receive(packet);
-                final var frame = BinaryWsFrame
-                    .encodeToArray(local.connectionId, packet.getData(), packet.getOffset(), packet.getLength());
-                webSocket.send(ByteString.of(frame));
-                if (trafficSink != null) {
-                    trafficSink.onBytesOut(packet.getLength());
+    /**
+     * Reads the replies of all local UDP flows on one selector thread and forwards them to the proxy.
+     */
+    private class UdpPump {
+
+        private final Selector selector;
+        private final Queue<LocalUdp> registrations = new ConcurrentLinkedQueue<>();
+        // Payload goes after room for the frame header, so a compact frame is built without copying
+        private final byte[] buffer = new byte[NetDataFrame.MAX_HEADER_SIZE + UDP_READ_SIZE];
+        private final ByteBuffer payload = ByteBuffer.wrap(buffer, NetDataFrame.MAX_HEADER_SIZE, UDP_READ_SIZE)
+            .slice();
+
+        UdpPump() throws IOException {
+            this.selector = Selector.open();
+            Thread.ofPlatform().name("pb-net-udp").daemon(true).start(this::run);
+        }
+
+        void register(final LocalUdp local) {
+            registrations.add(local);
+            selector.wakeup();
+        }
+
+        private void run() {
+            while (!stop.get()) {
+                try {
+                    selector.select();
+                    LocalUdp local;
+                    while ((local = registrations.poll()) != null) {
+                        if (local.channel.isOpen()) {
+                            local.channel.register(selector, SelectionKey.OP_READ, local);
+                        }
+                    }
+                    final var selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        final var key = selected.next();
+                        selected.remove();
+                        if (key.isValid()) {
+                            receive((LocalUdp) key.attachment());
+                        }
+                    }
+                } catch (final Exception e) {
+                    log.debug("UDP pump iteration failed: {}", e.toString());
                 }
             }
-        } catch (final Exception e) {
-            // ignore normal close
-        } finally {
-            close(local);
-            udpLocals.remove(local.connectionId);
+            try {
+                selector.close();
+            } catch (final IOException e) {
+                log.debug("Failed to close UDP selector: {}", e.toString());
+            }
+        }
+
+        private void receive(final LocalUdp local) {
+            try {
+                for (var i = 0; i < UDP_READ_BATCH; i++) {
+                    payload.clear();
+                    final var length = local.channel.read(payload);
+                    if (length <= 0) {
+                        return;
+                    }
+                    local.lastActive = System.currentTimeMillis();
+                    local.lane.send(toFrame(local.connectionId, buffer, length));
+                    if (trafficSink != null) {
+                        trafficSink.onBytesOut(length);
+                    }
+                }
+            } catch (final IOException e) {
+                // E.g. the local service is not listening; the flow is recreated by the next datagram
+                log.debug("Read from local UDP failed: {}", e.toString());
+                closeUdpFlow(local, false);
+            }
         }
     }
 
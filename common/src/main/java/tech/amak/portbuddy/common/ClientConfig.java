@@ -39,4 +39,33 @@ public class ClientConfig {
 
     @JsonProperty("healthcheckIntervalSec")
     private int healthcheckIntervalSec = 5;
+
+    /**
+     * Maximum number of tunneled HTTP requests executed against the local service at once;
+     * further requests wait for a free slot. {@code 0} disables the limit.
+     */
+    @JsonProperty("maxConcurrentRequests")
+    private int maxConcurrentRequests = 256;
+
+    /**
+     * Number of parallel control WebSockets opened per tunnel. Requests and connections are spread
+     * across them so that one slow or lossy TCP stream does not cap the whole tunnel. Values above
+     * {@code 1} take effect only if the server supports it.
+     */
+    @JsonProperty("tunnelConnections")
+    private int tunnelConnections = 2;
+
+    /**
+     * Seconds after which a UDP flow, i.e. the local socket serving one public peer, is closed when
+     * no datagram passed in either direction.
+     */
+    @JsonProperty("udpFlowIdleTimeoutSec")
+    private int udpFlowIdleTimeoutSec = 120;
+
+    /**
+     * Maximum number of UDP flows per tunnel; the least recently active one is closed to admit a
+     * new peer.
+     */
+    @JsonProperty("maxUdpFlows")
+    private int maxUdpFlows = 1024;
 }
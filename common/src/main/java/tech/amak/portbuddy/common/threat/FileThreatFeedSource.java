@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.threat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxIoc;
+import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxResponse;
+
+/**
+ * Reads indicators from a local file holding a ThreatFox {@code get_iocs} response, e.g. for
+ * offline environments and tests. The whole file is returned regardless of the requested days.
+ */
+@RequiredArgsConstructor
+public class FileThreatFeedSource implements ThreatFeedSource {
+
+    private final Path file;
+    private final ObjectMapper mapper;
+
+    @Override
+    public List<ThreatFoxIoc> fetch(final int days) throws IOException {
+        final var response = mapper.readValue(file.toFile(), ThreatFoxResponse.class);
+        return response == null || response.data() == null ? List.of() : response.data();
+    }
+}
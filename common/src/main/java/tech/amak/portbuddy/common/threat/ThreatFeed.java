@@ -0,0 +1,237 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.threat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxIoc;
+
+/**
+ * Threat indicators kept current from a {@link ThreatFeedSource}. Every indicator expires a fixed
+ * retention after it was first seen, so refreshes only need to fetch the last few days and merge
+ * them into what is already known instead of reloading the whole feed.
+ * <p>
+ * After every refresh the known indicators are written to a snapshot file, which is read back
+ * through a memory mapping at startup. A node therefore blocks known threats right after boot,
+ * without waiting for the remote feed.
+ * <p>
+ * Snapshot layout (big-endian):
+ * <pre>
+ * 4 bytes  magic ({@code PBTF})
+ * 1 byte   version
+ * 8 bytes  time of the refresh that wrote it, epoch millis
+ * 4 bytes  entry count
+ * entries: 8 bytes expiry (epoch millis), 2 bytes UTF-8 length, indicator bytes
+ * </pre>
+ */
+public final class ThreatFeed {
+
+    private static final int SNAPSHOT_MAGIC = 0x50425446;
+    private static final byte SNAPSHOT_VERSION = 1;
+    private static final int MAX_INDICATOR_LENGTH = 1024;
+    private static final Set<String> RELEVANT_TYPES = Set.of("ip:port", "domain");
+    private static final DateTimeFormatter FIRST_SEEN = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss 'UTC'");
+
+    private final ThreatFeedSource source;
+    private final Path snapshotFile;
+    private final Duration retention;
+    private final int fullDays;
+    private final int deltaDays;
+
+    // Indicator -> expiry in epoch millis; guarded by this
+    private final Map<String, Long> expiries = new HashMap<>();
+    private long refreshedAt;
+    private volatile ThreatMatcher matcher = ThreatMatcher.EMPTY;
+
+    /**
+     * Creates an empty feed.
+     *
+     * @param source       where indicators are fetched from
+     * @param snapshotFile where the snapshot is kept, or {@code null} to keep none
+     * @param retention    how long an indicator is kept after it was first seen
+     * @param fullDays     days fetched when nothing recent is known
+     * @param deltaDays    days fetched at least on a refresh
+     */
+    public ThreatFeed(final ThreatFeedSource source,
+                      final Path snapshotFile,
+                      final Duration retention,
+                      final int fullDays,
+                      final int deltaDays) {
+        this.source = source;
+        this.snapshotFile = snapshotFile;
+        this.retention = retention;
+        this.fullDays = fullDays;
+        this.deltaDays = Math.min(deltaDays, fullDays);
+    }
+
+    /**
+     * Returns the matcher for the indicators currently known. Never blocks.
+     *
+     * @return the current matcher
+     */
+    public ThreatMatcher matcher() {
+        return matcher;
+    }
+
+    /**
+     * Loads the snapshot file, dropping entries that expired meanwhile.
+     *
+     * @return {@code true} if a snapshot was loaded, {@code false} if there is none
+     * @throws IOException if the snapshot cannot be read or is malformed
+     */
+    public synchronized boolean loadSnapshot() throws IOException {
+        if (snapshotFile == null || !Files.isRegularFile(snapshotFile)) {
+            return false;
+        }
+        final var now = System.currentTimeMillis();
+        final var loaded = new HashMap<String, Long>();
+        final long savedAt;
+        try (var channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.get() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a threat feed snapshot: " + snapshotFile);
+            }
+            savedAt = buffer.getLong();
+            final var count = buffer.getInt();
+            for (var i = 0; i < count; i++) {
+                final var expiresAt = buffer.getLong();
+                final var bytes = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(bytes);
+                if (expiresAt > now) {
+                    loaded.put(new String(bytes, StandardCharsets.UTF_8), expiresAt);
+                }
+            }
+        } catch (final BufferUnderflowException e) {
+            throw new IOException("Truncated threat feed snapshot: " + snapshotFile, e);
+        }
+        expiries.clear();
+        expiries.putAll(loaded);
+        refreshedAt = savedAt;
+        publish();
+        return true;
+    }
+
+    /**
+     * Fetches indicators first seen since shortly before the previous refresh, merges them, drops
+     * expired ones, publishes a new matcher and writes the snapshot.
+     *
+     * @return the number of indicators fetched
+     * @throws IOException if fetching fails, or writing the snapshot fails after the new
+     *     indicators were published
+     */
+    public synchronized int refresh() throws IOException {
+        final var now = System.currentTimeMillis();
+        final var fetched = source.fetch(fetchDays(now));
+        var merged = 0;
+        for (final var ioc : fetched) {
+            if (!isRelevant(ioc)) {
+                continue;
+            }
+            final var expiresAt = firstSeen(ioc, now) + retention.toMillis();
+            if (expiresAt > now) {
+                expiries.merge(ioc.ioc().trim().toLowerCase(Locale.ROOT), expiresAt, Math::max);
+                merged++;
+            }
+        }
+        expiries.values().removeIf(expiresAt -> expiresAt <= now);
+        refreshedAt = now;
+        publish();
+        saveSnapshot();
+        return merged;
+    }
+
+    private int fetchDays(final long now) {
+        if (expiries.isEmpty() || refreshedAt == 0) {
+            return fullDays;
+        }
+        // Cover the whole gap since the previous refresh, e.g. after the node was down
+        final var sinceRefresh = Duration.ofMillis(Math.max(0, now - refreshedAt)).toDays() + 1;
+        return (int) Math.min(fullDays, Math.max(deltaDays, sinceRefresh));
+    }
+
+    private void publish() {
+        final var builder = ThreatMatcher.builder();
+        for (final var indicator : expiries.keySet()) {
+            builder.add(indicator);
+        }
+        matcher = builder.build();
+    }
+
+    private void saveSnapshot() throws IOException {
+        if (snapshotFile == null) {
+            return;
+        }
+        final var directory = snapshotFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final var temp = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+        try {
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeByte(SNAPSHOT_VERSION);
+                out.writeLong(refreshedAt);
+                out.writeInt(expiries.size());
+                for (final var entry : expiries.entrySet()) {
+                    final var bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    out.writeLong(entry.getValue());
+                    out.writeShort(bytes.length);
+                    out.write(bytes);
+                }
+            }
+            // Readers see either the previous snapshot or the complete new one
+            Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static boolean isRelevant(final ThreatFoxIoc ioc) {
+        return ioc != null
+            && ioc.ioc() != null
+            && !ioc.ioc().isBlank()
+            && ioc.ioc().length() <= MAX_INDICATOR_LENGTH
+            && ioc.ioctype() != null
+            && RELEVANT_TYPES.contains(ioc.ioctype().toLowerCase(Locale.ROOT));
+    }
+
+    private static long firstSeen(final ThreatFoxIoc ioc, final long now) {
+        if (ioc.firstseen() == null) {
+            return now;
+        }
+        try {
+            return LocalDateTime.parse(ioc.firstseen().trim(), FIRST_SEEN).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (final DateTimeParseException e) {
+            return now;
+        }
+    }
+}
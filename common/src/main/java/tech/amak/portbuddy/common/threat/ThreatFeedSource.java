@@ -0,0 +1,37 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.threat;
+
+import java.io.IOException;
+import java.util.List;
+
+import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxIoc;
+
+/**
+ * Where a {@link ThreatFeed} gets its indicators from.
+ */
+@FunctionalInterface
+public interface ThreatFeedSource {
+
+    /**
+     * Fetches the indicators first seen within the given number of days.
+     *
+     * @param days how many days back to fetch; a source may return more
+     * @return the indicators, never {@code null}
+     * @throws IOException if the source cannot be read
+     */
+    List<ThreatFoxIoc> fetch(int days) throws IOException;
+}
@@ -0,0 +1,456 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.threat;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Immutable set of threat indicators: IPv4 and IPv6 addresses, {@code ip:port} endpoints, CIDR
+ * ranges and domain names. Addresses and endpoints live in primitive open-addressing tables and
+ * ranges in a binary trie, so checking a peer address hashes a few longs and never builds strings.
+ * <p>
+ * A matcher is assembled with a {@link Builder} and never changes afterwards; callers refresh
+ * indicators by building a new matcher off to the side and publishing it with a single volatile
+ * write, so checks never see a partially loaded set.
+ */
+public final class ThreatMatcher {
+
+    /**
+     * A matcher without indicators.
+     */
+    public static final ThreatMatcher EMPTY = builder().build();
+
+    private static final int NO_PORT = -1;
+
+    private final LongTupleSet ipv4Addresses;
+    // Address in the upper bits, port in the lower 16 bits
+    private final LongTupleSet ipv4Endpoints;
+    private final LongTupleSet ipv6Addresses;
+    private final LongTupleSet ipv6Endpoints;
+    private final PrefixTrie ipv4Ranges;
+    private final PrefixTrie ipv6Ranges;
+    private final Set<String> domains;
+    private final int size;
+
+    private ThreatMatcher(final Builder builder) {
+        this.ipv4Addresses = builder.ipv4Addresses;
+        this.ipv4Endpoints = builder.ipv4Endpoints;
+        this.ipv6Addresses = builder.ipv6Addresses;
+        this.ipv6Endpoints = builder.ipv6Endpoints;
+        this.ipv4Ranges = builder.ipv4Ranges;
+        this.ipv6Ranges = builder.ipv6Ranges;
+        this.domains = Set.copyOf(builder.domains);
+        this.size = builder.size;
+    }
+
+    /**
+     * Starts a new matcher.
+     *
+     * @return an empty builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the number of indicators held.
+     *
+     * @return indicator count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks a peer socket address.
+     *
+     * @param remote the peer
+     * @return {@code true} if its address, endpoint or a range containing it is listed
+     */
+    public boolean matches(final InetSocketAddress remote) {
+        return remote != null && matches(remote.getAddress(), remote.getPort());
+    }
+
+    /**
+     * Checks an address and port.
+     *
+     * @param address the address; may be {@code null}
+     * @param port    the port, or a negative value to check the address only
+     * @return {@code true} if the address, the endpoint or a range containing the address is listed
+     */
+    public boolean matches(final InetAddress address, final int port) {
+        if (size == 0 || address == null) {
+            return false;
+        }
+        final var bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            final var ip = readLong(bytes, 0, 4);
+            return ipv4Addresses.contains(ip, 0, 0)
+                || port >= 0 && ipv4Endpoints.contains(ip << 16 | port, 0, 0)
+                || ipv4Ranges.contains(ip << 32, 0);
+        }
+        final var high = readLong(bytes, 0, 8);
+        final var low = readLong(bytes, 8, 8);
+        return ipv6Addresses.contains(high, low, 0)
+            || port >= 0 && ipv6Endpoints.contains(high, low, port)
+            || ipv6Ranges.contains(high, low);
+    }
+
+    /**
+     * Checks a host given as an IP literal or a domain name. Domain names are compared as given
+     * and never resolved.
+     *
+     * @param host the host; may be {@code null}
+     * @param port the port, or a negative value to check the host only
+     * @return {@code true} if the host or the endpoint is listed
+     */
+    public boolean matchesHost(final String host, final int port) {
+        if (size == 0 || host == null || host.isBlank()) {
+            return false;
+        }
+        final var normalized = normalize(host);
+        final var address = literal(normalized);
+        if (address != null) {
+            return matches(address, port);
+        }
+        return domains.contains(normalized);
+    }
+
+    private static String normalize(final String value) {
+        final var trimmed = value.trim().toLowerCase(Locale.ROOT);
+        return trimmed.startsWith("[") && trimmed.endsWith("]")
+            ? trimmed.substring(1, trimmed.length() - 1)
+            : trimmed;
+    }
+
+    private static InetAddress literal(final String value) {
+        try {
+            return InetAddress.ofLiteral(value);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long readLong(final byte[] bytes, final int offset, final int length) {
+        var value = 0L;
+        for (var i = offset; i < offset + length; i++) {
+            value = value << 8 | bytes[i] & 0xFFL;
+        }
+        return value;
+    }
+
+    /**
+     * Collects indicators for a new {@link ThreatMatcher}. Not thread-safe.
+     */
+    public static final class Builder {
+
+        private final LongTupleSet ipv4Addresses = new LongTupleSet(1);
+        private final LongTupleSet ipv4Endpoints = new LongTupleSet(1);
+        private final LongTupleSet ipv6Addresses = new LongTupleSet(2);
+        private final LongTupleSet ipv6Endpoints = new LongTupleSet(3);
+        private final PrefixTrie ipv4Ranges = new PrefixTrie(32);
+        private final PrefixTrie ipv6Ranges = new PrefixTrie(128);
+        private final Set<String> domains = new HashSet<>();
+        private int size;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an indicator: an IP address, {@code ip:port} (IPv6 as {@code [ip]:port}), a CIDR
+         * range such as {@code 192.0.2.0/24}, or a domain name.
+         *
+         * @param indicator the indicator
+         * @return {@code true} if the indicator was recognised
+         */
+        public boolean add(final String indicator) {
+            if (indicator == null || indicator.isBlank()) {
+                return false;
+            }
+            final var value = indicator.trim().toLowerCase(Locale.ROOT);
+            final var slash = value.indexOf('/');
+            if (slash > 0) {
+                return addRange(literal(value.substring(0, slash)), parseInt(value.substring(slash + 1)));
+            }
+            if (value.startsWith("[")) {
+                final var close = value.indexOf(']');
+                if (close < 0) {
+                    return false;
+                }
+                final var address = literal(value.substring(1, close));
+                if (close + 1 == value.length()) {
+                    return addAddress(address, NO_PORT, false);
+                }
+                return value.startsWith(":", close + 1)
+                    && addAddress(address, parseInt(value.substring(close + 2)), true);
+            }
+            final var colon = value.indexOf(':');
+            if (colon > 0 && colon == value.lastIndexOf(':')) {
+                return addAddress(literal(value.substring(0, colon)), parseInt(value.substring(colon + 1)), true);
+            }
+            final var address = literal(value);
+            if (address != null) {
+                return addAddress(address, NO_PORT, false);
+            }
+            if (domains.add(value)) {
+                size++;
+            }
+            return true;
+        }
+
+        /**
+         * Publishes the collected indicators. The builder must not be used afterwards.
+         *
+         * @return the matcher
+         */
+        public ThreatMatcher build() {
+            return new ThreatMatcher(this);
+        }
+
+        private boolean addAddress(final InetAddress address, final int port, final boolean portRequired) {
+            if (address == null || portRequired && (port < 0 || port > 0xFFFF)) {
+                return false;
+            }
+            final var bytes = address.getAddress();
+            final boolean added;
+            if (address instanceof Inet4Address) {
+                final var ip = readLong(bytes, 0, 4);
+                added = port < 0
+                    ? ipv4Addresses.add(ip, 0, 0)
+                    : ipv4Endpoints.add(ip << 16 | port, 0, 0);
+            } else {
+                final var high = readLong(bytes, 0, 8);
+                final var low = readLong(bytes, 8, 8);
+                added = port < 0
+                    ? ipv6Addresses.add(high, low, 0)
+                    : ipv6Endpoints.add(high, low, port);
+            }
+            if (added) {
+                size++;
+            }
+            return true;
+        }
+
+        private boolean addRange(final InetAddress address, final int prefixLength) {
+            if (address == null || prefixLength < 0) {
+                return false;
+            }
+            final var bytes = address.getAddress();
+            final boolean added;
+            if (address instanceof Inet4Address) {
+                if (prefixLength > 32) {
+                    return false;
+                }
+                added = ipv4Ranges.add(readLong(bytes, 0, 4) << 32, 0, prefixLength);
+            } else {
+                if (prefixLength > 128) {
+                    return false;
+                }
+                added = ipv6Ranges.add(readLong(bytes, 0, 8), readLong(bytes, 8, 8), prefixLength);
+            }
+            if (added) {
+                size++;
+            }
+            return true;
+        }
+
+        private static int parseInt(final String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (final NumberFormatException e) {
+                return NO_PORT;
+            }
+        }
+    }
+
+    /**
+     * Open-addressing hash set of fixed-width tuples of up to three longs, stored inline in one
+     * array with linear probing.
+     */
+    private static final class LongTupleSet {
+
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final int stride;
+        private long[] keys;
+        private boolean[] used;
+        private int mask;
+        private int count;
+
+        LongTupleSet(final int stride) {
+            this.stride = stride;
+            allocate(INITIAL_CAPACITY);
+        }
+
+        boolean contains(final long a, final long b, final long c) {
+            if (count == 0) {
+                return false;
+            }
+            for (var slot = hash(a, b, c) & mask; used[slot]; slot = slot + 1 & mask) {
+                if (equalsAt(slot, a, b, c)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean add(final long a, final long b, final long c) {
+            if ((count + 1) * 2 > used.length) {
+                grow();
+            }
+            var slot = hash(a, b, c) & mask;
+            while (used[slot]) {
+                if (equalsAt(slot, a, b, c)) {
+                    return false;
+                }
+                slot = slot + 1 & mask;
+            }
+            store(slot, a, b, c);
+            count++;
+            return true;
+        }
+
+        private void grow() {
+            final var oldKeys = keys;
+            final var oldUsed = used;
+            allocate(oldUsed.length * 2);
+            for (var i = 0; i < oldUsed.length; i++) {
+                if (!oldUsed[i]) {
+                    continue;
+                }
+                final var base = i * stride;
+                final var a = oldKeys[base];
+                final var b = stride > 1 ? oldKeys[base + 1] : 0;
+                final var c = stride > 2 ? oldKeys[base + 2] : 0;
+                var slot = hash(a, b, c) & mask;
+                while (used[slot]) {
+                    slot = slot + 1 & mask;
+                }
+                store(slot, a, b, c);
+            }
+        }
+
+        private void allocate(final int capacity) {
+            keys = new long[capacity * stride];
+            used = new boolean[capacity];
+            mask = capacity - 1;
+        }
+
+        private void store(final int slot, final long a, final long b, final long c) {
+            final var base = slot * stride;
+            keys[base] = a;
+            if (stride > 1) {
+                keys[base + 1] = b;
+            }
+            if (stride > 2) {
+                keys[base + 2] = c;
+            }
+            used[slot] = true;
+        }
+
+        private boolean equalsAt(final int slot, final long a, final long b, final long c) {
+            final var base = slot * stride;
+            return keys[base] == a
+                && (stride < 2 || keys[base + 1] == b)
+                && (stride < 3 || keys[base + 2] == c);
+        }
+
+        private static int hash(final long a, final long b, final long c) {
+            var h = a * 0x9E3779B97F4A7C15L;
+            h ^= b * 0xC2B2AE3D27D4EB4FL;
+            h ^= c * 0x165667B19E3779F9L;
+            return (int) (h ^ h >>> 32);
+        }
+    }
+
+    /**
+     * Binary trie of address prefixes. A 128-bit key is given as two longs, most significant bit
+     * first; IPv4 addresses occupy the upper 32 bits of the first long.
+     */
+    private static final class PrefixTrie {
+
+        private final int maxBits;
+        // Child node indexes per bit value; 0 means no child, since the root is never a child
+        private int[] zero = new int[16];
+        private int[] one = new int[16];
+        private boolean[] terminal = new boolean[16];
+        private int nodes = 1;
+
+        PrefixTrie(final int maxBits) {
+            this.maxBits = maxBits;
+        }
+
+        boolean contains(final long high, final long low) {
+            if (nodes == 1 && !terminal[0]) {
+                return false;
+            }
+            var node = 0;
+            for (var bit = 0; bit < maxBits; bit++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                node = bitAt(high, low, bit) == 0 ? zero[node] : one[node];
+                if (node == 0) {
+                    return false;
+                }
+            }
+            return terminal[node];
+        }
+
+        boolean add(final long high, final long low, final int prefixLength) {
+            var node = 0;
+            for (var bit = 0; bit < prefixLength; bit++) {
+                final var set = bitAt(high, low, bit) != 0;
+                var child = set ? one[node] : zero[node];
+                if (child == 0) {
+                    // Allocate first: growing replaces the arrays
+                    child = newNode();
+                    if (set) {
+                        one[node] = child;
+                    } else {
+                        zero[node] = child;
+                    }
+                }
+                node = child;
+            }
+            if (terminal[node]) {
+                return false;
+            }
+            terminal[node] = true;
+            return true;
+        }
+
+        private int newNode() {
+            if (nodes == terminal.length) {
+                final var capacity = nodes * 2;
+                zero = Arrays.copyOf(zero, capacity);
+                one = Arrays.copyOf(one, capacity);
+                terminal = Arrays.copyOf(terminal, capacity);
+            }
+            return nodes++;
+        }
+
+        private static long bitAt(final long high, final long low, final int bit) {
+            return bit < 64 ? high >>> 63 - bit & 1 : low >>> 127 - bit & 1;
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Compact binary wire format negotiated via {@link TunnelFeatures#BINARY_FRAMES}.
+ * Every message is a single binary WebSocket frame:
+ * <pre>
+ * 1 byte   format version ({@link #VERSION})
+ * 1 byte   type tag
+ * varint   message/connection id + 1 (0 = no id); ids are numeric on this format
+ * ...      type-specific fields
+ * R bytes  raw payload (body, chunk, WebSocket data) up to the end of the frame
+ * </pre>
+ * Strings are a varint of the UTF-8 length + 1 (0 = null) followed by the bytes. Header maps
+ * are a varint count followed by name and values entries. Text frames are still accepted and
+ * decoded as JSON, so a peer may fall back to JSON for individual messages; their ids must be
+ * numeric as well, since replies to them are encoded in this format.
+ * <p>
+ * Decoding never trusts a length or count read from the frame: anything that does not fit in
+ * the rest of the frame is rejected with an {@link IOException} before allocating.
+ * <p>
+ * With {@link TunnelFeatures#WS_DATA_FRAMES}, text and binary frames of relayed browser
+ * WebSockets carry no type-specific fields: the connection id is followed directly by the
+ * payload. They are always accepted when decoding.
+ */
+@RequiredArgsConstructor
+public class BinaryTunnelCodec implements TunnelCodec {
+
+    public static final byte VERSION = 1;
+
+    private static final byte HTTP_REQUEST = 1;
+    private static final byte HTTP_RESPONSE = 2;
+    private static final byte BODY_CHUNK = 3;
+    private static final byte BODY_END = 4;
+    private static final byte BODY_ABORT = 5;
+    private static final byte WS = 6;
+    private static final byte PING = 7;
+    private static final byte PONG = 8;
+    private static final byte CANCEL = 9;
+    private static final byte WS_TEXT = 10;
+    private static final byte WS_BINARY = 11;
+    private static final byte BODY_WINDOW = 12;
+
+    private static final int FLAG_STREAMED = 1;
+    // A varint with the request timeout follows the flags
+    private static final int FLAG_TIMEOUT = 2;
+
+    private static final WsTunnelMessage.Type[] WS_TYPES = WsTunnelMessage.Type.values();
+
+    private final JsonTunnelCodec json;
+    // Whether browser WebSocket data frames use the WS_TEXT and WS_BINARY layout
+    private final boolean wsDataFrames;
+
+    @Override
+    public EncodedFrame encode(final Object message) throws IOException {
+        final var writer = switch (message) {
+            case HttpTunnelMessage http -> encodeHttp(http);
+            case WsTunnelMessage ws -> encodeWs(ws);
+            case ControlMessage ctrl -> {
+                final var frame = new FrameWriter(16);
+                frame.header(ctrl.getType() == ControlMessage.Type.PONG ? PONG : PING, null);
+                frame.varint(ctrl.getTs() == null ? 0 : ctrl.getTs() + 1);
+                yield frame;
+            }
+            default -> throw new IOException("Unsupported tunnel message: " + message.getClass().getName());
+        };
+        return EncodedFrame.ofBinary(writer.toByteBuffer());
+    }
+
+    private FrameWriter encodeHttp(final HttpTunnelMessage http) throws IOException {
+        final var type = http.getType();
+        if (type == null) {
+            throw new IOException("HTTP tunnel message without type");
+        }
+        return switch (type) {
+            case REQUEST -> {
+                final var body = http.bodyBytes();
+                final var frame = new FrameWriter(256 + (body == null ? 0 : body.length));
+                frame.header(HTTP_REQUEST, http.getId());
+                frame.string(http.getMethod());
+                frame.string(http.getPath());
+                frame.string(http.getQuery());
+                frame.string(http.getBodyContentType());
+                final var timeout = http.getTimeoutMs();
+                frame.varint((http.isStreamed() ? FLAG_STREAMED : 0) | (timeout != null ? FLAG_TIMEOUT : 0));
+                if (timeout != null) {
+                    frame.varint(Math.max(0, timeout));
+                }
+                frame.headers(http.getHeaders());
+                frame.bytes(body, 0, body == null ? 0 : body.length);
+                yield frame;
+            }
+            case RESPONSE -> {
+                final var body = http.respBodyBytes();
+                final var frame = new FrameWriter(256 + (body == null ? 0 : body.length));
+                frame.header(HTTP_RESPONSE, http.getId());
+                frame.varint(http.getStatus() == null ? 0 : http.getStatus() + 1);
+                frame.varint(http.isStreamed() ? FLAG_STREAMED : 0);
+                frame.headers(http.getRespHeaders());
+                frame.bytes(body, 0, body == null ? 0 : body.length);
+                yield frame;
+            }
+            case BODY_CHUNK -> {
+                final var body = http.getBody();
+                final var frame = new FrameWriter(16 + body.length);
+                frame.header(BODY_CHUNK, http.getId());
+                frame.bytes(body, 0, body.length);
+                yield frame;
+            }
+            case BODY_END, BODY_ABORT -> {
+                final var frame = new FrameWriter(16);
+                frame.header(type == HttpTunnelMessage.Type.BODY_END ? BODY_END : BODY_ABORT, http.getId());
+                yield frame;
+            }
+            case CANCEL -> {
+                final var frame = new FrameWriter(16);
+                frame.header(CANCEL, http.getId());
+                yield frame;
+            }
+            case BODY_WINDOW -> {
+                final var frame = new FrameWriter(24);
+                frame.header(BODY_WINDOW, http.getId());
+                frame.varint(http.getWindow() == null ? 0 : Math.max(0, http.getWindow()));
+                yield frame;
+            }
+        };
+    }
+
+    private FrameWriter encodeWs(final WsTunnelMessage ws) throws IOException {
+        final var text = ws.getWsType() == WsTunnelMessage.Type.TEXT;
+        final var data = text
+            ? (ws.getText() == null ? null : ws.getText().getBytes(StandardCharsets.UTF_8))
+            : ws.dataBytes();
+        if (wsDataFrames && (text || ws.getWsType() == WsTunnelMessage.Type.BINARY)) {
+            final var frame = new FrameWriter(16 + (data == null ? 0 : data.length));
+            frame.header(text ? WS_TEXT : WS_BINARY, ws.getConnectionId());
+            frame.bytes(data, 0, data == null ? 0 : data.length);
+            return frame;
+        }
+        final var frame = new FrameWriter(64 + (data == null ? 0 : data.length));
+        frame.header(WS, ws.getConnectionId());
+        frame.varint(ws.getWsType() == null ? 0 : ws.getWsType().ordinal() + 1);
+        frame.string(ws.getPath());
+        frame.string(ws.getQuery());
+        frame.varint(ws.getHeaders() == null ? 0 : ws.getHeaders().size());
+        if (ws.getHeaders() != null) {
+            for (final var header : ws.getHeaders().entrySet()) {
+                frame.string(header.getKey());
+                frame.string(header.getValue());
+            }
+        }
+        frame.varint(ws.getCloseCode() == null ? 0 : ws.getCloseCode() + 1);
+        frame.string(ws.getCloseReason());
+        frame.string(ws.getPublicHost());
+        frame.varint(ws.getPublicPort() == null ? 0 : ws.getPublicPort() + 1);
+        frame.bytes(data, 0, data == null ? 0 : data.length);
+        return frame;
+    }
+
+    @Override
+    public ByteBuffer encodeChunk(final String id, final byte[] data, final int offset, final int length)
+        throws IOException {
+        final var frame = new FrameWriter(16 + length);
+        frame.header(BODY_CHUNK, id);
+        frame.bytes(data, offset, length);
+        return frame.toByteBuffer();
+    }
+
+    @Override
+    public Object decode(final String text) throws IOException {
+        final var message = json.decode(text);
+        final var id = switch (message) {
+            case HttpTunnelMessage http -> http.getId();
+            case WsTunnelMessage ws -> ws.getConnectionId();
+            case null, default -> null;
+        };
+        if (id != null) {
+            parseId(id);
+        }
+        return message;
+    }
+
+    @Override
+    public Object decode(final ByteBuffer buffer) throws IOException {
+        try {
+            final var version = buffer.get();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tunnel frame version: " + version);
+            }
+            final var tag = buffer.get();
+            final var id = readId(buffer);
+            return switch (tag) {
+                case HTTP_REQUEST -> {
+                    final var http = new HttpTunnelMessage();
+                    http.setType(HttpTunnelMessage.Type.REQUEST);
+                    http.setId(id);
+                    http.setMethod(readString(buffer));
+                    http.setPath(readString(buffer));
+                    http.setQuery(readString(buffer));
+                    http.setBodyContentType(readString(buffer));
+                    final var flags = readVarint(buffer);
+                    http.setBodyStreamed((flags & FLAG_STREAMED) != 0 ? Boolean.TRUE : null);
+                    http.setTimeoutMs((flags & FLAG_TIMEOUT) != 0 ? readVarint(buffer) : null);
+                    http.setHeaders(readHeaders(buffer));
+                    http.setBody(readRemaining(buffer));
+                    yield http;
+                }
+                case HTTP_RESPONSE -> {
+                    final var http = new HttpTunnelMessage();
+                    http.setType(HttpTunnelMessage.Type.RESPONSE);
+                    http.setId(id);
+                    final var status = readInt(buffer);
+                    http.setStatus(status == 0 ? null : status - 1);
+                    http.setBodyStreamed(readStreamedFlag(buffer));
+                    http.setRespHeaders(readHeaders(buffer));
+                    http.setRespBody(readRemaining(buffer));
+                    yield http;
+                }
+                case BODY_CHUNK, BODY_END, BODY_ABORT -> {
+                    final var http = new HttpTunnelMessage();
+                    http.setType(tag == BODY_CHUNK
+                        ? HttpTunnelMessage.Type.BODY_CHUNK
+                        : tag == BODY_END ? HttpTunnelMessage.Type.BODY_END : HttpTunnelMessage.Type.BODY_ABORT);
+                    http.setId(id);
+                    if (tag == BODY_CHUNK) {
+                        final var data = new byte[buffer.remaining()];
+                        buffer.get(data);
+                        http.setBody(data);
+                    }
+                    yield http;
+                }
+                case CANCEL -> {
+                    final var http = new HttpTunnelMessage();
+                    http.setType(HttpTunnelMessage.Type.CANCEL);
+                    http.setId(id);
+                    yield http;
+                }
+                case BODY_WINDOW -> {
+                    final var http = new HttpTunnelMessage();
+                    http.setType(HttpTunnelMessage.Type.BODY_WINDOW);
+                    http.setId(id);
+                    http.setWindow(readVarint(buffer));
+                    yield http;
+                }
+                case WS -> decodeWs(buffer, id);
+                case WS_TEXT, WS_BINARY -> {
+                    final var ws = new WsTunnelMessage();
+                    ws.setConnectionId(id);
+                    final var data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    if (tag == WS_TEXT) {
+                        ws.setWsType(WsTunnelMessage.Type.TEXT);
+                        ws.setText(new String(data, StandardCharsets.UTF_8));
+                    } else {
+                        ws.setWsType(WsTunnelMessage.Type.BINARY);
+                        ws.setData(data);
+                    }
+                    yield ws;
+                }
+                case PING, PONG -> {
+                    final var ctrl = new ControlMessage();
+                    ctrl.setType(tag == PING ? ControlMessage.Type.PING : ControlMessage.Type.PONG);
+                    final var ts = readVarint(buffer);
+                    ctrl.setTs(ts == 0 ? null : ts - 1);
+                    yield ctrl;
+                }
+                default -> throw new IOException("Unknown tunnel frame type: " + tag);
+            };
+        } catch (final RuntimeException e) {
+            throw new IOException("Malformed tunnel frame", e);
+        }
+    }
+
+    private WsTunnelMessage decodeWs(final ByteBuffer buffer, final String id) throws IOException {
+        final var ws = new WsTunnelMessage();
+        ws.setConnectionId(id);
+        final var type = readVarint(buffer);
+        if (type > WS_TYPES.length) {
+            throw new IOException("Unknown WebSocket message type: " + type);
+        }
+        ws.setWsType(type == 0 ? null : WS_TYPES[(int) type - 1]);
+        ws.setPath(readString(buffer));
+        ws.setQuery(readString(buffer));
+        final var headerCount = readCount(buffer);
+        if (headerCount > 0) {
+            final var headers = new LinkedHashMap<String, String>();
+            for (var i = 0; i < headerCount; i++) {
+                headers.put(readString(buffer), readString(buffer));
+            }
+            ws.setHeaders(headers);
+        }
+        final var closeCode = readInt(buffer);
+        ws.setCloseCode(closeCode == 0 ? null : closeCode - 1);
+        ws.setCloseReason(readString(buffer));
+        ws.setPublicHost(readString(buffer));
+        final var publicPort = readInt(buffer);
+        ws.setPublicPort(publicPort == 0 ? null : publicPort - 1);
+        final var data = readRemaining(buffer);
+        if (ws.getWsType() == WsTunnelMessage.Type.TEXT) {
+            ws.setText(data == null ? "" : new String(data, StandardCharsets.UTF_8));
+        } else {
+            ws.setData(data);
+        }
+        return ws;
+    }
+
+    private static String readId(final ByteBuffer buffer) throws IOException {
+        final var id = readVarint(buffer);
+        if (id < 0) {
+            throw new IOException("Tunnel message id out of range");
+        }
+        return id == 0 ? null : Long.toString(id - 1);
+    }
+
+    private static Boolean readStreamedFlag(final ByteBuffer buffer) throws IOException {
+        return (readVarint(buffer) & FLAG_STREAMED) != 0 ? Boolean.TRUE : null;
+    }
+
+    private static Map<String, List<String>> readHeaders(final ByteBuffer buffer) throws IOException {
+        final var count = readCount(buffer);
+        if (count == 0) {
+            return null;
+        }
+        final var headers = new LinkedHashMap<String, List<String>>(count * 2);
+        for (var i = 0; i < count; i++) {
+            final var name = readString(buffer);
+            final var valueCount = readCount(buffer);
+            final var values = new ArrayList<String>(valueCount);
+            for (var j = 0; j < valueCount; j++) {
+                values.add(readString(buffer));
+            }
+            headers.put(name, values);
+        }
+        return headers;
+    }
+
+    private static byte[] readRemaining(final ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        final var data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static String readString(final ByteBuffer buffer) throws IOException {
+        final var length = readVarint(buffer);
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0 || length - 1 > buffer.remaining()) {
+            throw new IOException("String length " + (length - 1) + " exceeds the frame");
+        }
+        final var size = (int) (length - 1);
+        if (buffer.hasArray()) {
+            final var value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), size,
+                StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + size);
+            return value;
+        }
+        final var bytes = new byte[size];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of entries that follow. Every entry takes at least one byte, so a count
+     * larger than the rest of the frame cannot be genuine.
+     */
+    private static int readCount(final ByteBuffer buffer) throws IOException {
+        final var count = readVarint(buffer);
+        if (count < 0 || count > buffer.remaining()) {
+            throw new IOException("Entry count " + count + " exceeds the frame");
+        }
+        return (int) count;
+    }
+
+    private static int readInt(final ByteBuffer buffer) throws IOException {
+        final var value = readVarint(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Value out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    static long readVarint(final ByteBuffer buffer) throws IOException {
+        long value = 0;
+        var shift = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                throw new IOException("Truncated tunnel frame");
+            }
+            final var next = buffer.get();
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Varint is too long");
+            }
+        }
+    }
+
+    /**
+     * Growable frame buffer; sized up front from the payload length so most frames never grow.
+     */
+    private static final class FrameWriter {
+
+        private byte[] buffer;
+        private int size;
+
+        FrameWriter(final int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void header(final byte type, final String id) throws IOException {
+            ensure(2);
+            buffer[size++] = VERSION;
+            buffer[size++] = type;
+            varint(id == null ? 0 : parseId(id) + 1);
+        }
+
+        void varint(final long value) {
+            ensure(10);
+            var remaining = value;
+            while ((remaining & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((remaining & 0x7F) | 0x80);
+                remaining >>>= 7;
+            }
+            buffer[size++] = (byte) remaining;
+        }
+
+        void string(final String value) {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            final var bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1L);
+            bytes(bytes, 0, bytes.length);
+        }
+
+        void headers(final Map<String, List<String>> headers) {
+            if (headers == null) {
+                varint(0);
+                return;
+            }
+            varint(headers.size());
+            for (final var header : headers.entrySet()) {
+                string(header.getKey());
+                final var values = header.getValue() == null ? List.<String>of() : header.getValue();
+                varint(values.size());
+                for (final var value : values) {
+                    string(value);
+                }
+            }
+        }
+
+        void bytes(final byte[] data, final int offset, final int length) {
+            if (data == null || length == 0) {
+                return;
+            }
+            ensure(length);
+            System.arraycopy(data, offset, buffer, size, length);
+            size += length;
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buffer, 0, size);
+        }
+
+        private void ensure(final int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+
+    }
+
+    private static long parseId(final String id) throws IOException {
+        try {
+            final var value = Long.parseLong(id);
+            if (value < 0 || value == Long.MAX_VALUE) {
+                throw new IOException("Binary tunnel frames require non-negative ids: " + id);
+            }
+            return value;
+        } catch (final NumberFormatException e) {
+            throw new IOException("Binary tunnel frames require numeric ids: " + id, e);
+        }
+    }
+}
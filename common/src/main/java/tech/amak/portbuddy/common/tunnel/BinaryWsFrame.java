@@ -54,6 +54,25 @@ public final class BinaryWsFrame {
         return buffer;
     }
 
+    /**
+     * Encodes the given connection ID and the remaining bytes of a buffer into a {@link ByteBuffer}
+     * following the same binary frame format. The source buffer is fully consumed, which allows
+     * callers to frame data read into a reusable (e.g. direct) buffer without an intermediate array.
+     *
+     * @param connectionId the connection identifier to be encoded (expected to be non-null)
+     * @param data         buffer whose remaining bytes form the payload (expected to be non-null)
+     * @return a {@link ByteBuffer} containing the encoded frame data
+     */
+    public static ByteBuffer encodeToByteBuffer(final String connectionId, final ByteBuffer data) {
+        final var idBytes = connectionId.getBytes(StandardCharsets.UTF_8);
+        final var buffer = ByteBuffer.allocate(2 + idBytes.length + data.remaining());
+        buffer.putShort((short) (idBytes.length & 0xFFFF));
+        buffer.put(idBytes);
+        buffer.put(data);
+        buffer.flip();
+        return buffer;
+    }
+
     /**
      * Encodes the given connection ID and data into a byte array following a specific binary
      * frame format. The encoded frame includes the connection ID length, the UTF-8 encoded
@@ -14,9 +14,11 @@
 
 package tech.amak.portbuddy.common.tunnel;
 
+import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -24,7 +26,9 @@ import lombok.Data;
 
 /**
  * Envelope for HTTP tunnel messages exchanged over WebSocket between server and CLI.
- * To keep it simple, messages are whole-request/whole-response with base64 bodies.
+ * Small bodies are inlined as Base64. When the {@link TunnelFeatures#STREAM_BODY} feature was
+ * negotiated, large bodies are sent as binary chunk frames following the message instead
+ * (see {@link TunnelBodyStream}).
  */
 @Data
 @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -69,6 +73,27 @@ public class HttpTunnelMessage {
     @JsonProperty("bodyContentType")
     private String bodyContentType;
 
+    /**
+     * When {@code true} the request or response body is not inlined; it follows as binary
+     * chunk frames keyed by {@link #id} and is terminated by a {@link Type#BODY_END} message.
+     */
+    @JsonProperty("bodyStreamed")
+    private Boolean bodyStreamed;
+
+    /**
+     * Time in milliseconds the server waits for the response, counted from when the request is
+     * sent. Relative, so that it does not depend on synchronized clocks. Only set when
+     * {@link TunnelFeatures#CANCEL} was negotiated; the CLI drops the request once it passed.
+     */
+    @JsonProperty("timeoutMs")
+    private Long timeoutMs;
+
+    /**
+     * Credit in bytes returned to the sender of a streamed body by a {@link Type#BODY_WINDOW} message.
+     */
+    @JsonProperty("window")
+    private Long window;
+
     // Response fields
     @JsonProperty("status")
     private Integer status;
@@ -82,8 +107,81 @@ public class HttpTunnelMessage {
     @JsonProperty("respBodyB64")
     private String respBodyB64;
 
+    /**
+     * Raw request body (or chunk payload). Carried as-is by the binary codec; the JSON codec
+     * converts it to {@link #bodyB64}.
+     */
+    @JsonIgnore
+    private byte[] body;
+
+    /**
+     * Raw response body. Carried as-is by the binary codec; the JSON codec converts it to
+     * {@link #respBodyB64}.
+     */
+    @JsonIgnore
+    private byte[] respBody;
+
     public enum Type {
         REQUEST,
-        RESPONSE
+        RESPONSE,
+        /**
+         * A chunk of a streamed body in {@link #body}. Only produced by {@link TunnelCodec}s; on
+         * the JSON protocol chunks travel as {@link BinaryWsFrame}s.
+         */
+        BODY_CHUNK,
+        /**
+         * Marks the end of a streamed body.
+         */
+        BODY_END,
+        /**
+         * Signals that a streamed body could not be completed.
+         */
+        BODY_ABORT,
+        /**
+         * Returns {@link #window} bytes of credit to the sender of the streamed body of message
+         * {@link #id}, which must not have more unacknowledged chunk bytes in flight than
+         * {@link TunnelBodyStream#WINDOW_SIZE} plus the credit returned so far.
+         */
+        BODY_WINDOW,
+        /**
+         * Tells the CLI that the server no longer waits for the response to request {@link #id},
+         * e.g. because the browser went away or the request timed out. Only sent when
+         * {@link TunnelFeatures#CANCEL} was negotiated.
+         */
+        CANCEL
+    }
+
+    /**
+     * Whether the body of this message is streamed as chunk frames.
+     *
+     * @return {@code true} if the body follows as chunk frames
+     */
+    @JsonIgnore
+    public boolean isStreamed() {
+        return Boolean.TRUE.equals(bodyStreamed);
+    }
+
+    /**
+     * Returns the request body regardless of how it was transported.
+     *
+     * @return raw body bytes, or {@code null} if there is no inline body
+     */
+    public byte[] bodyBytes() {
+        if (body != null) {
+            return body;
+        }
+        return bodyB64 == null ? null : Base64.getDecoder().decode(bodyB64);
+    }
+
+    /**
+     * Returns the response body regardless of how it was transported.
+     *
+     * @return raw body bytes, or {@code null} if there is no inline body
+     */
+    public byte[] respBodyBytes() {
+        if (respBody != null) {
+            return respBody;
+        }
+        return respBodyB64 == null ? null : Base64.getDecoder().decode(respBodyB64);
     }
 }
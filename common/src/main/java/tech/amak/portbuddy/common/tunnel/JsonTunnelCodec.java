@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Original JSON wire format: messages are JSON text frames with Base64 bodies, body chunks
+ * are {@link BinaryWsFrame}s. Kept for CLIs that do not negotiate binary frames.
+ */
+@RequiredArgsConstructor
+public class JsonTunnelCodec implements TunnelCodec {
+
+    private final ObjectMapper mapper;
+
+    @Override
+    public EncodedFrame encode(final Object message) throws IOException {
+        switch (message) {
+            case HttpTunnelMessage http when http.getType() == HttpTunnelMessage.Type.BODY_CHUNK -> {
+                final var data = http.getBody();
+                return EncodedFrame.ofBinary(encodeChunk(http.getId(), data, 0, data.length));
+            }
+            case HttpTunnelMessage http -> {
+                if (http.getBody() != null && http.getBodyB64() == null) {
+                    http.setBodyB64(http.getBody().length == 0
+                        ? null
+                        : Base64.getEncoder().encodeToString(http.getBody()));
+                }
+                if (http.getRespBody() != null && http.getRespBodyB64() == null) {
+                    http.setRespBodyB64(http.getRespBody().length == 0
+                        ? null
+                        : Base64.getEncoder().encodeToString(http.getRespBody()));
+                }
+            }
+            case WsTunnelMessage ws -> {
+                if (ws.getData() != null && ws.getDataB64() == null) {
+                    ws.setDataB64(Base64.getEncoder().encodeToString(ws.getData()));
+                }
+            }
+            default -> {
+            }
+        }
+        return EncodedFrame.ofText(mapper.writeValueAsString(message));
+    }
+
+    @Override
+    public ByteBuffer encodeChunk(final String id, final byte[] data, final int offset, final int length) {
+        return BinaryWsFrame.encodeToByteBuffer(id, data, offset, length);
+    }
+
+    /**
+     * Parses the JSON tree once and binds it to the concrete type selected by the {@code kind} field.
+     */
+    @Override
+    public Object decode(final String text) throws IOException {
+        final var tree = mapper.readTree(text);
+        final var kind = tree.path("kind").asText(null);
+        if ("CTRL".equals(kind)) {
+            return mapper.treeToValue(tree, ControlMessage.class);
+        }
+        if ("WS".equals(kind)) {
+            return mapper.treeToValue(tree, WsTunnelMessage.class);
+        }
+        return mapper.treeToValue(tree, HttpTunnelMessage.class);
+    }
+
+    @Override
+    public Object decode(final ByteBuffer buffer) {
+        final var decoded = BinaryWsFrame.decode(buffer);
+        if (decoded == null) {
+            return null;
+        }
+        final var chunk = new HttpTunnelMessage();
+        chunk.setType(HttpTunnelMessage.Type.BODY_CHUNK);
+        chunk.setId(decoded.connectionId());
+        chunk.setBody(decoded.data());
+        return chunk;
+    }
+}
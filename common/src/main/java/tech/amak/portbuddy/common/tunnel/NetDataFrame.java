@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary data frame of net tunnels that negotiated {@link TunnelFeatures#COMPACT_FRAMES}.
+ * Frame format:
+ * <pre>
+ * varint   connection id (non-negative int, 1 to {@link #MAX_HEADER_SIZE} bytes)
+ * R bytes  raw payload up to the end of the frame
+ * </pre>
+ * The header is written directly in front of a payload that already sits in the frame buffer, so
+ * callers can read socket data into a buffer at offset {@link #MAX_HEADER_SIZE} and send it
+ * without copying. Decoding only advances the frame's position, leaving the payload as a view.
+ */
+public final class NetDataFrame {
+
+    /**
+     * Maximum size of the frame header; payloads are read at this offset.
+     */
+    public static final int MAX_HEADER_SIZE = 5;
+
+    private NetDataFrame() {
+    }
+
+    /**
+     * Returns the size of the header encoding the given connection id.
+     *
+     * @param connectionId the connection id
+     * @return header size in bytes
+     */
+    public static int headerSize(final int connectionId) {
+        var size = 1;
+        var remaining = connectionId >>> 7;
+        while (remaining != 0) {
+            size++;
+            remaining >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Writes the header in front of a payload starting at {@code payloadOffset} of the buffer and
+     * moves the buffer's position to the start of the header. The buffer's limit must already be
+     * the end of the payload.
+     *
+     * @param connectionId  the connection id
+     * @param frame         buffer holding the payload
+     * @param payloadOffset absolute index of the first payload byte; at least the header size
+     */
+    public static void putHeader(final int connectionId, final ByteBuffer frame, final int payloadOffset) {
+        final var start = payloadOffset - headerSize(connectionId);
+        var index = start;
+        var remaining = connectionId;
+        while ((remaining & ~0x7F) != 0) {
+            frame.put(index++, (byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        frame.put(index, (byte) remaining);
+        frame.position(start);
+    }
+
+    /**
+     * Writes the header in front of a payload starting at {@code payloadOffset} of the array.
+     *
+     * @param connectionId  the connection id
+     * @param frame         array holding the payload
+     * @param payloadOffset index of the first payload byte; at least the header size
+     * @return index of the first header byte, i.e. the start of the frame
+     */
+    public static int putHeader(final int connectionId, final byte[] frame, final int payloadOffset) {
+        final var start = payloadOffset - headerSize(connectionId);
+        var index = start;
+        var remaining = connectionId;
+        while ((remaining & ~0x7F) != 0) {
+            frame[index++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        frame[index] = (byte) remaining;
+        return start;
+    }
+
+    /**
+     * Reads the connection id of a frame. On success the buffer's remaining bytes are the payload.
+     *
+     * @param frame the received frame
+     * @return the connection id, or {@code -1} if the frame is malformed
+     */
+    public static int readConnectionId(final ByteBuffer frame) {
+        var value = 0;
+        for (var shift = 0; shift < 7 * MAX_HEADER_SIZE; shift += 7) {
+            if (!frame.hasRemaining()) {
+                return -1;
+            }
+            final var next = frame.get();
+            value |= (next & 0x7F) << shift;
+            if ((next & 0x80) == 0) {
+                return value < 0 ? -1 : value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.amak.portbuddy.common.tunnel;
+
+/**
+ * Receiver half of per-connection credit-based flow control for net tunnels (see
+ * {@link SendWindow}). Counts bytes delivered to the destination socket and returns them to the
+ * sender as credit once half of the window has been consumed, which keeps the sender busy while
+ * batching {@link WsTunnelMessage.Type#WINDOW} messages. Thread-safe.
+ */
+public class ReceiveWindow {
+
+    /**
+     * Window granted per connection when flow control is negotiated.
+     */
+    public static final long DEFAULT_SIZE = 256 * 1024;
+
+    private final long size;
+    private long consumed;
+    private long totalConsumed;
+
+    /**
+     * Creates a receive window.
+     *
+     * @param size the window granted to the sender
+     */
+    public ReceiveWindow(final long size) {
+        this.size = size;
+    }
+
+    /**
+     * Returns the window granted to the sender up front.
+     *
+     * @return window size in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Records bytes delivered to the destination.
+     *
+     * @param bytes number of bytes consumed
+     * @return credit to return to the sender now, or {@code 0} if the update should be deferred
+     */
+    public synchronized long onConsumed(final long bytes) {
+        consumed += bytes;
+        totalConsumed += bytes;
+        if (consumed < size / 2) {
+            return 0;
+        }
+        final var credit = consumed;
+        consumed = 0;
+        return credit;
+    }
+
+    /**
+     * Returns all bytes consumed so far and drops the credit not yet returned, because the sender
+     * takes the total instead (see {@link WsTunnelMessage.Type#RESUME}).
+     *
+     * @return total bytes consumed since the connection was opened
+     */
+    public synchronized long resync() {
+        consumed = 0;
+        return totalConsumed;
+    }
+}
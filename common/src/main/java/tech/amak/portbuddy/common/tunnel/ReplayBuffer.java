@@ -0,0 +1,142 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes a net tunnel connection has sent but the peer has not yet confirmed as delivered, kept
+ * so that they can be retransmitted after the WebSocket was replaced (see
+ * {@link TunnelFeatures#RESUME}). Offsets count all payload bytes sent on the connection; with
+ * flow control the buffer never holds more than the send window. Not thread-safe.
+ */
+public class ReplayBuffer {
+
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    private byte[] ring = new byte[INITIAL_CAPACITY];
+    // Offset of the oldest retained byte, and total bytes appended
+    private long start;
+    private long end;
+
+    /**
+     * Returns the total number of bytes appended so far.
+     *
+     * @return offset just after the last sent byte
+     */
+    public long end() {
+        return end;
+    }
+
+    /**
+     * Appends sent bytes. The buffer's position is not changed.
+     *
+     * @param data the bytes between position and limit
+     */
+    public void append(final ByteBuffer data) {
+        final var length = data.remaining();
+        ensureCapacity(length);
+        final var source = data.duplicate();
+        var written = 0;
+        while (written < length) {
+            final var index = index(end + written);
+            final var count = Math.min(length - written, ring.length - index);
+            source.get(ring, index, count);
+            written += count;
+        }
+        end += length;
+    }
+
+    /**
+     * Appends sent bytes.
+     *
+     * @param data   source array
+     * @param offset index of the first byte
+     * @param length number of bytes
+     */
+    public void append(final byte[] data, final int offset, final int length) {
+        append(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Drops bytes the peer confirmed as delivered.
+     *
+     * @param offset offset up to which all bytes were delivered
+     */
+    public void acknowledge(final long offset) {
+        start = Math.max(start, Math.min(offset, end));
+    }
+
+    /**
+     * Returns the offset of the oldest byte still retained.
+     *
+     * @return the acknowledged offset
+     */
+    public long start() {
+        return start;
+    }
+
+    /**
+     * Copies retained bytes starting at the given offset.
+     *
+     * @param offset offset of the first byte to copy; must not be below {@link #start()}
+     * @param target buffer receiving up to its remaining bytes
+     * @return number of bytes copied
+     */
+    public int copy(final long offset, final ByteBuffer target) {
+        if (offset < start) {
+            throw new IllegalArgumentException("Offset " + offset + " is no longer retained");
+        }
+        final var length = (int) Math.min(target.remaining(), Math.max(0, end - offset));
+        var copied = 0;
+        while (copied < length) {
+            final var index = index(offset + copied);
+            final var count = Math.min(length - copied, ring.length - index);
+            target.put(ring, index, count);
+            copied += count;
+        }
+        return length;
+    }
+
+    private int index(final long offset) {
+        return (int) (offset & (ring.length - 1));
+    }
+
+    private void ensureCapacity(final int additional) {
+        final var size = (int) (end - start);
+        if (size + additional <= ring.length) {
+            return;
+        }
+        var capacity = ring.length;
+        while (capacity < size + additional) {
+            capacity <<= 1;
+        }
+        final var grown = new byte[capacity];
+        // Re-lay the retained bytes at the indexes they map to in the larger ring
+        var offset = start;
+        while (offset < end) {
+            final var from = index(offset);
+            final var to = index(offset, capacity);
+            final var count = (int) Math.min(end - offset, Math.min(ring.length - from, capacity - to));
+            System.arraycopy(ring, from, grown, to, count);
+            offset += count;
+        }
+        ring = grown;
+    }
+
+    private static int index(final long offset, final int capacity) {
+        return (int) (offset & (capacity - 1));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tech.amak.portbuddy.common.tunnel;
+
+import java.time.Duration;
+
+/**
+ * Sender half of per-connection credit-based flow control for net tunnels. The receiver grants
+ * an initial window in {@link WsTunnelMessage.Type#OPEN}/{@link WsTunnelMessage.Type#OPEN_OK}
+ * and further credit in {@link WsTunnelMessage.Type#WINDOW} messages as it consumes data; the
+ * sender must not have more unacknowledged bytes in flight than it was granted, so a peer that
+ * stops consuming stalls only its own connection and memory stays bounded on both ends.
+ * Thread-safe.
+ */
+public class SendWindow {
+
+    private long credit;
+    private boolean closed;
+
+    /**
+     * Creates a window with the initial credit granted by the receiver.
+     *
+     * @param initialCredit bytes the sender may send before waiting for more credit
+     */
+    public SendWindow(final long initialCredit) {
+        this.credit = initialCredit;
+    }
+
+    /**
+     * Returns the number of bytes that may be sent right now.
+     *
+     * @return available credit, {@code 0} or less if the sender must wait
+     */
+    public synchronized long available() {
+        return credit;
+    }
+
+    /**
+     * Records bytes that have been sent.
+     *
+     * @param bytes number of bytes sent
+     */
+    public synchronized void consume(final long bytes) {
+        credit -= bytes;
+    }
+
+    /**
+     * Adds credit granted by the receiver and wakes up a waiting sender.
+     *
+     * @param bytes additional bytes the sender may send
+     */
+    public synchronized void grant(final long bytes) {
+        credit += bytes;
+        notifyAll();
+    }
+
+    /**
+     * Replaces the available credit, e.g. after both sides resynchronized their counters, and
+     * wakes up a waiting sender.
+     *
+     * @param bytes bytes the sender may send now
+     */
+    public synchronized void reset(final long bytes) {
+        credit = bytes;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until credit is available or the window is closed.
+     *
+     * @param timeout maximum time to wait
+     * @return available credit; {@code 0} or less if the wait timed out or the window was closed
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public synchronized long awaitAvailable(final Duration timeout) throws InterruptedException {
+        final var deadline = System.nanoTime() + timeout.toNanos();
+        while (credit <= 0 && !closed) {
+            final var remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return credit;
+            }
+            wait(Math.max(1, remaining / 1_000_000));
+        }
+        return closed ? 0 : credit;
+    }
+
+    /**
+     * Closes the window, releasing a sender blocked in {@link #awaitAvailable(Duration)}.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
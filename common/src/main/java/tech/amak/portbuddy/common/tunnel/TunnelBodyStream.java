@@ -0,0 +1,214 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Bounded hand-off between the thread receiving body chunk frames from the tunnel and the
+ * thread consuming the HTTP body. The receiving thread is shared by every stream of a control
+ * WebSocket, so {@link #offer(byte[])} never blocks it. Instead the sender may have at most
+ * {@link #WINDOW_SIZE} bytes in flight per stream (see {@link SendWindow}), and the stream
+ * returns credit with {@link HttpTunnelMessage.Type#BODY_WINDOW} messages as the consumer takes
+ * chunks. A sender that overruns the window gets its stream aborted; other streams are not
+ * affected.
+ *
+ * <p>Streamed bodies travel as binary {@link BinaryWsFrame}s whose connection id is the HTTP
+ * message id, followed by an {@link HttpTunnelMessage.Type#BODY_END} (or
+ * {@link HttpTunnelMessage.Type#BODY_ABORT}) text message with the same id.
+ */
+public class TunnelBodyStream extends InputStream {
+
+    /**
+     * Maximum payload size of a single body chunk frame.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of full chunks in flight per stream.
+     */
+    public static final int MAX_BUFFERED_CHUNKS = 4;
+
+    /**
+     * Bytes a sender may have in flight per stream before it waits for credit.
+     */
+    public static final int WINDOW_SIZE = MAX_BUFFERED_CHUNKS * CHUNK_SIZE;
+
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+    private final AtomicLong buffered = new AtomicLong();
+    private final ReceiveWindow window = new ReceiveWindow(WINDOW_SIZE);
+    private final Duration timeout;
+    private final LongConsumer creditListener;
+
+    private volatile String abortReason;
+    private byte[] current;
+    private int position;
+    private boolean finished;
+
+    /**
+     * Creates a stream whose consumer waits at most {@code timeout} for the next chunk.
+     *
+     * @param timeout        maximum time to wait for the peer
+     * @param creditListener receives the credit to return to the sender as the consumer takes chunks
+     */
+    public TunnelBodyStream(final Duration timeout, final LongConsumer creditListener) {
+        this.timeout = timeout;
+        this.creditListener = creditListener;
+    }
+
+    /**
+     * Appends a chunk without blocking.
+     *
+     * @param chunk chunk payload; empty chunks are ignored
+     * @return {@code false} if the stream was aborted, possibly because the sender exceeded its window
+     */
+    public boolean offer(final byte[] chunk) {
+        if (abortReason != null) {
+            return false;
+        }
+        if (chunk.length == 0) {
+            return true;
+        }
+        if (buffered.addAndGet(chunk.length) > WINDOW_SIZE) {
+            abort("Sender exceeded the body window");
+            return false;
+        }
+        chunks.add(chunk);
+        return abortReason == null;
+    }
+
+    /**
+     * Marks the end of the body.
+     */
+    public void complete() {
+        if (abortReason == null) {
+            chunks.add(END);
+        }
+    }
+
+    /**
+     * Aborts the stream. A blocked consumer is woken up and fails with an {@link IOException};
+     * subsequent producer offers are rejected.
+     *
+     * @param reason human-readable reason reported to the consumer
+     */
+    public void abort(final String reason) {
+        abortReason = reason == null ? "Body stream aborted" : reason;
+        chunks.clear();
+        chunks.offer(END);
+    }
+
+    public boolean isAborted() {
+        return abortReason != null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final var single = new byte[1];
+        final var count = read(single, 0, 1);
+        return count == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(final byte[] target, final int offset, final int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final var count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, target, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Takes the remainder of the current chunk, or the next chunk, without copying it.
+     *
+     * @return the next body bytes, or {@code null} at the end of the body
+     * @throws IOException if the stream was aborted or the producer timed out
+     */
+    public byte[] readChunk() throws IOException {
+        if (!fill()) {
+            return null;
+        }
+        final byte[] chunk;
+        if (position == 0) {
+            chunk = current;
+        } else {
+            chunk = new byte[current.length - position];
+            System.arraycopy(current, position, chunk, 0, chunk.length);
+        }
+        current = null;
+        return chunk;
+    }
+
+    private boolean fill() throws IOException {
+        if (abortReason != null) {
+            throw new IOException(abortReason);
+        }
+        if (finished) {
+            return false;
+        }
+        if (current != null && position < current.length) {
+            return true;
+        }
+        final byte[] next;
+        try {
+            next = chunks.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for body chunk");
+        }
+        if (next == null) {
+            abort("Timed out waiting for body chunk");
+            throw new IOException(abortReason);
+        }
+        if (abortReason != null) {
+            throw new IOException(abortReason);
+        }
+        if (next == END) {
+            finished = true;
+            current = null;
+            return false;
+        }
+        current = next;
+        position = 0;
+        buffered.addAndGet(-next.length);
+        final var credit = window.onConsumed(next.length);
+        if (credit > 0) {
+            creditListener.accept(credit);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (!finished && abortReason == null) {
+            abort("Body consumer closed the stream");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Wire format of the HTTP tunnel control WebSocket. Messages are {@link HttpTunnelMessage},
+ * {@link WsTunnelMessage} and {@link ControlMessage} instances; body chunks are
+ * {@link HttpTunnelMessage}s of type {@link HttpTunnelMessage.Type#BODY_CHUNK}.
+ */
+public interface TunnelCodec {
+
+    /**
+     * Encodes a tunnel message.
+     *
+     * @param message the message to encode
+     * @return the encoded WebSocket frame
+     * @throws IOException if the message cannot be encoded
+     */
+    EncodedFrame encode(Object message) throws IOException;
+
+    /**
+     * Encodes a chunk of a streamed body.
+     *
+     * @param id     the id of the HTTP message the body belongs to
+     * @param data   buffer holding the chunk
+     * @param offset offset of the chunk in {@code data}
+     * @param length length of the chunk
+     * @return the encoded binary frame
+     * @throws IOException if the id cannot be encoded
+     */
+    ByteBuffer encodeChunk(String id, byte[] data, int offset, int length) throws IOException;
+
+    /**
+     * Decodes a text WebSocket frame.
+     *
+     * @param text frame payload
+     * @return the decoded message
+     * @throws IOException if the payload is malformed
+     */
+    Object decode(String text) throws IOException;
+
+    /**
+     * Decodes a binary WebSocket frame.
+     *
+     * @param buffer frame payload
+     * @return the decoded message, or {@code null} if the frame is malformed
+     * @throws IOException if the payload is malformed
+     */
+    Object decode(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Selects the codec matching the negotiated features.
+     *
+     * @param features features accepted during the handshake
+     * @param mapper   object mapper used for JSON messages
+     * @return the binary codec if {@link TunnelFeatures#BINARY_FRAMES} was negotiated, JSON otherwise
+     */
+    static TunnelCodec forFeatures(final Set<String> features, final ObjectMapper mapper) {
+        final var json = new JsonTunnelCodec(mapper);
+        return features.contains(TunnelFeatures.BINARY_FRAMES)
+            ? new BinaryTunnelCodec(json, features.contains(TunnelFeatures.WS_DATA_FRAMES))
+            : json;
+    }
+
+    /**
+     * An encoded WebSocket frame: exactly one of {@code text} and {@code binary} is set.
+     *
+     * @param text   text frame payload
+     * @param binary binary frame payload
+     */
+    record EncodedFrame(String text, ByteBuffer binary) {
+
+        public static EncodedFrame ofText(final String text) {
+            return new EncodedFrame(text, null);
+        }
+
+        public static EncodedFrame ofBinary(final ByteBuffer binary) {
+            return new EncodedFrame(null, binary);
+        }
+
+        public boolean isBinary() {
+            return binary != null;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.common.tunnel;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Optional tunnel protocol features negotiated during the control WebSocket handshake.
+ * The client lists the features it supports in the {@link #HEADER} request header and
+ * the server answers with the subset it accepted in the same response header. A peer
+ * that does not send the header (e.g. an older CLI) gets the original JSON-only protocol.
+ */
+public final class TunnelFeatures {
+
+    /**
+     * Handshake header carrying a comma-separated list of feature names.
+     */
+    public static final String HEADER = "X-Port-Buddy-Tunnel-Features";
+
+    /**
+     * Handshake header carrying the zero-based index of a control WebSocket within a tunnel's
+     * pool of parallel connections. See {@link #MULTI_SESSION}.
+     */
+    public static final String LANE_HEADER = "X-Port-Buddy-Tunnel-Lane";
+
+    /**
+     * Handshake header carrying the resume token of the client process. See {@link #RESUME}.
+     */
+    public static final String RESUME_TOKEN_HEADER = "X-Port-Buddy-Resume-Token";
+
+    /**
+     * HTTP request and response bodies may be sent as sequenced binary chunk frames
+     * instead of a single inline Base64 field. Each streamed body has its own credit window,
+     * returned with {@link HttpTunnelMessage.Type#BODY_WINDOW}. See {@link TunnelBodyStream}.
+     */
+    public static final String STREAM_BODY = "stream-body";
+
+    /**
+     * All tunnel messages are exchanged as compact binary frames (see {@link BinaryTunnelCodec})
+     * instead of JSON text messages.
+     */
+    public static final String BINARY_FRAMES = "binary-frames-v1";
+
+    /**
+     * Net tunnel connections use credit-based flow control: each side grants the other a window
+     * per connection and returns credit with {@link WsTunnelMessage.Type#WINDOW} messages as it
+     * consumes data. See {@link SendWindow} and {@link ReceiveWindow}.
+     */
+    public static final String FLOW_CONTROL = "flow-control-v1";
+
+    /**
+     * A tunnel may be served by several parallel control WebSockets ("lanes"), each identified by
+     * {@link #LANE_HEADER}. The peer spreads requests and connections across the open lanes, keeps
+     * everything belonging to one request or connection on a single lane, and keeps the tunnel up
+     * as long as at least one lane is connected. A new connection with the index of an existing
+     * lane replaces it.
+     */
+    public static final String MULTI_SESSION = "multi-session-v1";
+
+    /**
+     * Net tunnel connections are identified by small integers, and binary data frames use the
+     * {@link NetDataFrame} layout (varint connection id) instead of {@link BinaryWsFrame}.
+     */
+    public static final String COMPACT_FRAMES = "compact-frames-v1";
+
+    /**
+     * The client sends a token in {@link #RESUME_TOKEN_HEADER} that stays the same for the
+     * lifetime of the client process. When a control WebSocket drops, the peer keeps the tunnel's
+     * state for a grace period, and a reconnect presenting the same token picks it up again
+     * instead of starting over: idempotent HTTP requests are replayed, and net tunnel connections
+     * exchange {@link WsTunnelMessage.Type#RESUME} to retransmit data lost with the old WebSocket.
+     */
+    public static final String RESUME = "resume-v1";
+
+    /**
+     * HTTP requests carry the time the server waits for their response, and the server sends
+     * {@link HttpTunnelMessage.Type#CANCEL} for requests it gave up on, so the CLI stops working
+     * on them.
+     */
+    public static final String CANCEL = "cancel-v1";
+
+    /**
+     * Text and binary frames of browser WebSockets relayed over an HTTP tunnel are sent as compact
+     * binary frames holding only the connection id and the raw payload; opening and closing such a
+     * WebSocket still uses the full {@link WsTunnelMessage} layout. Only used with
+     * {@link #BINARY_FRAMES}.
+     */
+    public static final String WS_DATA_FRAMES = "ws-data-frames-v1";
+
+    private TunnelFeatures() {
+    }
+
+    /**
+     * Parses a header value into a set of feature names.
+     *
+     * @param headerValue comma-separated feature names; may be {@code null}
+     * @return the parsed feature names, never {@code null}
+     */
+    public static Set<String> parse(final String headerValue) {
+        if (headerValue == null || headerValue.isBlank()) {
+            return Set.of();
+        }
+        return Arrays.stream(headerValue.split(","))
+            .map(String::trim)
+            .filter(feature -> !feature.isEmpty())
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * Formats the given feature names as a header value.
+     *
+     * @param features feature names to format
+     * @return comma-separated feature names
+     */
+    public static String format(final Collection<String> features) {
+        return String.join(",", features);
+    }
+}
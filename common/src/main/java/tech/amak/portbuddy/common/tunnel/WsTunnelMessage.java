@@ -14,8 +14,10 @@
 
 package tech.amak.portbuddy.common.tunnel;
 
+import java.util.Base64;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -66,6 +68,13 @@ public class WsTunnelMessage {
     @JsonProperty("dataB64")
     private String dataB64;
 
+    /**
+     * Raw binary payload. Carried as-is by the binary codec; the JSON codec converts it to
+     * {@link #dataB64}.
+     */
+    @JsonIgnore
+    private byte[] data;
+
     // Close details
     @JsonProperty("closeCode")
     private Integer closeCode;
@@ -73,6 +82,28 @@ public class WsTunnelMessage {
     @JsonProperty("closeReason")
     private String closeReason;
 
+    /**
+     * Flow control credit in bytes for the connection. In {@link Type#OPEN} and {@link Type#OPEN_OK}
+     * it is the initial window granted to the peer (absent if the sender does not use flow control);
+     * in {@link Type#WINDOW} it is additional credit. See {@link SendWindow}.
+     */
+    @JsonProperty("window")
+    private Long window;
+
+    /**
+     * Total payload bytes of the connection the sender has received from the peer. Only set in
+     * {@link Type#RESUME}; the peer retransmits everything it sent after this offset.
+     */
+    @JsonProperty("received")
+    private Long received;
+
+    /**
+     * Total payload bytes of the connection the sender has delivered to its socket. Only set in
+     * {@link Type#RESUME}; it replaces the peer's view of the flow control credit returned so far.
+     */
+    @JsonProperty("consumed")
+    private Long consumed;
+
     public enum Type {
         OPEN,
         OPEN_OK,
@@ -84,7 +115,23 @@ public class WsTunnelMessage {
          * Control message sent by Net Proxy after WebSocket is established to inform CLI
          * about the actual exposed public endpoint details (host/port).
          */
-        EXPOSED
+        EXPOSED,
+        /**
+         * Grants the peer additional flow control credit for a connection. Only sent when
+         * {@link TunnelFeatures#FLOW_CONTROL} was negotiated.
+         */
+        WINDOW,
+        /**
+         * Resynchronizes a net tunnel connection after its WebSocket was replaced. Sent by the
+         * proxy for every surviving connection and answered by the client. Only sent when
+         * {@link TunnelFeatures#RESUME} was negotiated.
+         */
+        RESUME,
+        /**
+         * Sent by the proxy after the {@link Type#RESUME} messages of a resumed WebSocket; the
+         * client closes its connections on that WebSocket that were not resumed.
+         */
+        RESUMED
     }
 
     // Public endpoint details for EXPOSED message
@@ -93,4 +140,16 @@ public class WsTunnelMessage {
 
     @JsonProperty("publicPort")
     private Integer publicPort;
+
+    /**
+     * Returns the binary payload regardless of how it was transported.
+     *
+     * @return raw payload bytes, or {@code null} if there is none
+     */
+    public byte[] dataBytes() {
+        if (data != null) {
+            return data;
+        }
+        return dataB64 == null ? null : Base64.getDecoder().decode(dataB64);
+    }
 }
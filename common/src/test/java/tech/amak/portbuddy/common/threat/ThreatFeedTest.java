@@ -0,0 +1,311 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.threat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxIoc;
+import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxResponse;
+
+class ThreatFeedTest {
+
+    private static final int SNAPSHOT_MAGIC = 0x50425446;
+    private static final DateTimeFormatter FIRST_SEEN = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss 'UTC'")
+        .withZone(ZoneOffset.UTC);
+    private static final Duration RETENTION = Duration.ofDays(30);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @TempDir
+    Path directory;
+
+    private Path feedFile;
+    private Path snapshotFile;
+    private List<Integer> requestedDays;
+    private ThreatFeedSource source;
+
+    @BeforeEach
+    void setUp() {
+        feedFile = directory.resolve("threatfox.json");
+        snapshotFile = directory.resolve("snapshot").resolve("threatfox.bin");
+        requestedDays = new ArrayList<>();
+        final var fileSource = new FileThreatFeedSource(feedFile, mapper);
+        source = days -> {
+            requestedDays.add(days);
+            return fileSource.fetch(days);
+        };
+    }
+
+    @Test
+    void refresh_shouldPublishOnlyRelevantIndicators() throws IOException {
+        writeFeed(
+            ioc("192.0.2.1:443", "ip:port", Instant.now()),
+            ioc("Evil.Example", "domain", Instant.now()),
+            ioc("http://evil.example/payload", "url", Instant.now()),
+            ioc("d41d8cd98f00b204e9800998ecf8427e", "md5_hash", Instant.now()),
+            ioc(" ", "domain", Instant.now()),
+            ioc("typeless.example", null, Instant.now()));
+        final var feed = feed(null);
+
+        assertEquals(2, feed.refresh());
+
+        final var matcher = feed.matcher();
+        assertEquals(2, matcher.size());
+        assertTrue(matcher.matchesHost("192.0.2.1", 443));
+        assertTrue(matcher.matchesHost("evil.example", -1));
+        assertFalse(matcher.matchesHost("typeless.example", -1));
+    }
+
+    @Test
+    void refresh_shouldSkipIndicatorsPastRetention() throws IOException {
+        final var now = Instant.now();
+        writeFeed(
+            ioc("fresh.example", "domain", now.minus(RETENTION).plus(Duration.ofHours(1))),
+            ioc("stale.example", "domain", now.minus(RETENTION).minus(Duration.ofHours(1))));
+        final var feed = feed(null);
+
+        assertEquals(1, feed.refresh());
+
+        assertTrue(feed.matcher().matchesHost("fresh.example", -1));
+        assertFalse(feed.matcher().matchesHost("stale.example", -1));
+    }
+
+    @Test
+    void refresh_shouldTreatMissingOrMalformedFirstSeenAsNow() throws IOException {
+        writeFeed(
+            new ThreatFoxIoc("1", "unknown.example", null, "domain", null, null, null, null, null),
+            new ThreatFoxIoc("2", "garbled.example", null, "domain", null, null, null, "yesterday", null));
+        final var feed = feed(null);
+
+        assertEquals(2, feed.refresh());
+
+        assertTrue(feed.matcher().matchesHost("unknown.example", -1));
+        assertTrue(feed.matcher().matchesHost("garbled.example", -1));
+    }
+
+    @Test
+    void refresh_shouldMergeWithIndicatorsFromEarlierRefreshes() throws IOException {
+        final var feed = feed(null);
+        writeFeed(ioc("first.example", "domain", Instant.now()));
+        feed.refresh();
+
+        writeFeed(ioc("second.example", "domain", Instant.now()), ioc("FIRST.example", "domain", Instant.now()));
+        feed.refresh();
+
+        final var matcher = feed.matcher();
+        assertEquals(2, matcher.size());
+        assertTrue(matcher.matchesHost("first.example", -1));
+        assertTrue(matcher.matchesHost("second.example", -1));
+    }
+
+    @Test
+    void refresh_shouldExpireIndicatorsNotSeenAgain() throws Exception {
+        // First seen is kept to the second, so the indicator expires within one to two seconds
+        final var feed = new ThreatFeed(source, null, Duration.ofSeconds(2), 7, 1);
+        writeFeed(ioc("short-lived.example", "domain", Instant.now()));
+        feed.refresh();
+        assertTrue(feed.matcher().matchesHost("short-lived.example", -1));
+
+        Thread.sleep(2_100);
+        writeFeed(ioc("other.example", "domain", Instant.now()));
+        feed.refresh();
+
+        assertFalse(feed.matcher().matchesHost("short-lived.example", -1));
+        assertTrue(feed.matcher().matchesHost("other.example", -1));
+    }
+
+    @Test
+    void refresh_shouldFetchFullWindowFirstAndDeltasAfterwards() throws IOException {
+        final var feed = feed(null);
+        writeFeed(ioc("evil.example", "domain", Instant.now()));
+
+        feed.refresh();
+        feed.refresh();
+
+        assertEquals(List.of(7, 1), requestedDays);
+    }
+
+    @Test
+    void refresh_shouldKeepCurrentMatcherWhenSourceFails() throws IOException {
+        final var feed = feed(null);
+        writeFeed(ioc("evil.example", "domain", Instant.now()));
+        feed.refresh();
+        final var before = feed.matcher();
+
+        Files.writeString(feedFile, "{\"data\": [");
+
+        assertThrows(IOException.class, feed::refresh);
+        assertSame(before, feed.matcher());
+    }
+
+    @Test
+    void snapshot_shouldRoundTrip() throws IOException {
+        writeFeed(
+            ioc("192.0.2.1:443", "ip:port", Instant.now()),
+            ioc("[2001:db8::1]:8443", "ip:port", Instant.now()),
+            ioc("evil.example", "domain", Instant.now()));
+        feed(snapshotFile).refresh();
+
+        final var restored = feed(snapshotFile);
+        assertTrue(restored.loadSnapshot());
+
+        final var matcher = restored.matcher();
+        assertEquals(3, matcher.size());
+        assertTrue(matcher.matchesHost("192.0.2.1", 443));
+        assertTrue(matcher.matchesHost("2001:db8::1", 8443));
+        assertTrue(matcher.matchesHost("evil.example", -1));
+        // The refresh time is restored too, so the next refresh fetches a delta only
+        restored.refresh();
+        assertEquals(List.of(7, 1), requestedDays);
+        // Written through a temporary file that is gone afterwards
+        try (var files = Files.list(snapshotFile.getParent())) {
+            assertEquals(List.of(snapshotFile), files.toList());
+        }
+    }
+
+    @Test
+    void loadSnapshot_shouldReturnFalseWithoutSnapshot() throws IOException {
+        assertFalse(feed(null).loadSnapshot());
+        assertFalse(feed(snapshotFile).loadSnapshot());
+        assertSame(ThreatMatcher.EMPTY, feed(snapshotFile).matcher());
+    }
+
+    @Test
+    void loadSnapshot_shouldDropExpiredEntries() throws IOException {
+        final var now = System.currentTimeMillis();
+        writeSnapshot(snapshot(1, now, "live.example", now + 60_000, "expired.example", now - 1));
+        final var feed = feed(snapshotFile);
+
+        assertTrue(feed.loadSnapshot());
+
+        assertTrue(feed.matcher().matchesHost("live.example", -1));
+        assertFalse(feed.matcher().matchesHost("expired.example", -1));
+        assertEquals(1, feed.matcher().size());
+    }
+
+    @Test
+    void loadSnapshot_shouldRejectForeignFile() throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+        Files.writeString(snapshotFile, "{\"not\": \"a snapshot\"}");
+
+        assertThrows(IOException.class, () -> feed(snapshotFile).loadSnapshot());
+    }
+
+    @Test
+    void loadSnapshot_shouldRejectOtherVersion() throws IOException {
+        final var now = System.currentTimeMillis();
+        writeSnapshot(snapshot(2, now, "evil.example", now + 60_000));
+
+        assertThrows(IOException.class, () -> feed(snapshotFile).loadSnapshot());
+    }
+
+    @Test
+    void loadSnapshot_shouldRejectEmptyFile() throws IOException {
+        writeSnapshot(new byte[0]);
+
+        assertThrows(IOException.class, () -> feed(snapshotFile).loadSnapshot());
+    }
+
+    @Test
+    void loadSnapshot_shouldRejectEveryTruncation() throws IOException {
+        final var now = System.currentTimeMillis();
+        final var complete = snapshot(1, now, "evil.example", now + 60_000, "192.0.2.1:443", now + 60_000);
+
+        for (var length = 0; length < complete.length; length++) {
+            writeSnapshot(Arrays.copyOf(complete, length));
+            final var cut = length;
+            assertThrows(IOException.class, () -> feed(snapshotFile).loadSnapshot(), () -> "cut at " + cut);
+        }
+    }
+
+    @Test
+    void loadSnapshot_shouldKeepCurrentMatcherWhenSnapshotIsCorrupt() throws IOException {
+        final var now = System.currentTimeMillis();
+        writeSnapshot(snapshot(1, now, "evil.example", now + 60_000));
+        final var feed = feed(snapshotFile);
+        feed.loadSnapshot();
+        final var before = feed.matcher();
+
+        final var corrupt = snapshot(1, now, "other.example", now + 60_000);
+        writeSnapshot(Arrays.copyOf(corrupt, corrupt.length - 3));
+
+        assertThrows(IOException.class, feed::loadSnapshot);
+        assertSame(before, feed.matcher());
+        assertTrue(feed.matcher().matchesHost("evil.example", -1));
+    }
+
+    private ThreatFeed feed(final Path snapshot) {
+        return new ThreatFeed(source, snapshot, RETENTION, 7, 1);
+    }
+
+    private void writeFeed(final ThreatFoxIoc... iocs) throws IOException {
+        mapper.writeValue(feedFile.toFile(), new ThreatFoxResponse("ok", List.of(iocs)));
+    }
+
+    private static ThreatFoxIoc ioc(final String value, final String type, final Instant firstSeen) {
+        return new ThreatFoxIoc("1", value, "botnet_cc", type, null, null, 100, FIRST_SEEN.format(firstSeen), null);
+    }
+
+    private void writeSnapshot(final byte[] content) throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+        Files.write(snapshotFile, content);
+    }
+
+    /**
+     * Builds a snapshot file by hand from alternating indicators and expiry times.
+     */
+    private static byte[] snapshot(final int version, final long savedAt, final Object... entries)
+        throws IOException {
+        final var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeByte(version);
+            out.writeLong(savedAt);
+            out.writeInt(entries.length / 2);
+            for (var i = 0; i < entries.length; i += 2) {
+                final var indicator = ((String) entries[i]).getBytes(StandardCharsets.UTF_8);
+                out.writeLong((Long) entries[i + 1]);
+                out.writeShort(indicator.length);
+                out.write(indicator);
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
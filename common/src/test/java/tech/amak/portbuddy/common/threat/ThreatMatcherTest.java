@@ -0,0 +1,337 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.threat;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.jupiter.api.Test;
+
+class ThreatMatcherTest {
+
+    @Test
+    void empty_shouldMatchNothing() {
+        assertEquals(0, ThreatMatcher.EMPTY.size());
+        assertFalse(ThreatMatcher.EMPTY.matches(address("192.0.2.1"), 80));
+        assertFalse(ThreatMatcher.EMPTY.matches(address("2001:db8::1"), -1));
+        assertFalse(ThreatMatcher.EMPTY.matches(null));
+        assertFalse(ThreatMatcher.EMPTY.matchesHost("evil.example", -1));
+        assertFalse(ThreatMatcher.builder().build().matchesHost("192.0.2.1", 80));
+    }
+
+    @Test
+    void matches_shouldFindNothingForNullOrBlankInput() {
+        final var matcher = matcher("192.0.2.1", "evil.example");
+
+        assertFalse(matcher.matches(null, 80));
+        assertFalse(matcher.matches(null));
+        assertFalse(matcher.matchesHost(null, 80));
+        assertFalse(matcher.matchesHost("  ", 80));
+    }
+
+    @Test
+    void ipv4Address_shouldMatchExactlyOnAnyPort() {
+        final var matcher = matcher("192.0.2.1");
+
+        assertTrue(matcher.matches(address("192.0.2.1"), -1));
+        assertTrue(matcher.matches(address("192.0.2.1"), 443));
+        assertTrue(matcher.matches(new InetSocketAddress(address("192.0.2.1"), 12345)));
+        assertFalse(matcher.matches(address("192.0.2.0"), -1));
+        assertFalse(matcher.matches(address("192.0.2.2"), -1));
+        assertFalse(matcher.matches(address("1.0.2.192"), -1));
+    }
+
+    @Test
+    void ipv6Address_shouldMatchExactly() {
+        final var matcher = matcher("2001:db8::1");
+
+        assertTrue(matcher.matches(address("2001:db8:0:0:0:0:0:1"), -1));
+        assertTrue(matcher.matches(address("2001:db8::1"), 8080));
+        assertFalse(matcher.matches(address("2001:db8::2"), -1));
+        // Same low half, different high half
+        assertFalse(matcher.matches(address("2001:db9::1"), -1));
+        assertFalse(matcher.matches(address("::1"), -1));
+    }
+
+    @Test
+    void ipv4Endpoint_shouldMatchOnlyItsPort() {
+        final var matcher = matcher("192.0.2.1:8080");
+
+        assertTrue(matcher.matches(address("192.0.2.1"), 8080));
+        assertFalse(matcher.matches(address("192.0.2.1"), 8081));
+        assertFalse(matcher.matches(address("192.0.2.1"), 0));
+        // Without a port only address indicators apply
+        assertFalse(matcher.matches(address("192.0.2.1"), -1));
+        assertFalse(matcher.matches(address("192.0.2.2"), 8080));
+    }
+
+    @Test
+    void ipv4Endpoint_shouldCoverWholePortRange() {
+        final var matcher = matcher("192.0.2.1:0", "192.0.2.1:65535");
+
+        assertTrue(matcher.matches(address("192.0.2.1"), 0));
+        assertTrue(matcher.matches(address("192.0.2.1"), 65535));
+        assertFalse(matcher.matches(address("192.0.2.1"), 1));
+        assertFalse(matcher.matches(address("192.0.2.2"), 0));
+    }
+
+    @Test
+    void ipv6Endpoint_shouldMatchOnlyItsPort() {
+        final var matcher = matcher("[2001:db8::1]:443");
+
+        assertTrue(matcher.matches(address("2001:db8::1"), 443));
+        assertFalse(matcher.matches(address("2001:db8::1"), 444));
+        assertFalse(matcher.matches(address("2001:db8::1"), -1));
+        assertFalse(matcher.matches(address("2001:db8::2"), 443));
+    }
+
+    @Test
+    void bracketedIpv6WithoutPort_shouldMatchAddress() {
+        final var matcher = matcher("[2001:db8::1]");
+
+        assertTrue(matcher.matches(address("2001:db8::1"), -1));
+        assertTrue(matcher.matches(address("2001:db8::1"), 80));
+    }
+
+    @Test
+    void ipv4Range_shouldMatchUpToItsBoundaries() {
+        final var matcher = matcher("192.0.2.0/24");
+
+        assertTrue(matcher.matches(address("192.0.2.0"), -1));
+        assertTrue(matcher.matches(address("192.0.2.128"), -1));
+        assertTrue(matcher.matches(address("192.0.2.255"), 80));
+        assertFalse(matcher.matches(address("192.0.1.255"), -1));
+        assertFalse(matcher.matches(address("192.0.3.0"), -1));
+    }
+
+    @Test
+    void ipv4Range_shouldHonourUnalignedPrefixLengths() {
+        final var matcher = matcher("10.0.0.64/26");
+
+        assertTrue(matcher.matches(address("10.0.0.64"), -1));
+        assertTrue(matcher.matches(address("10.0.0.127"), -1));
+        assertFalse(matcher.matches(address("10.0.0.63"), -1));
+        assertFalse(matcher.matches(address("10.0.0.128"), -1));
+    }
+
+    @Test
+    void ipv4Range_shouldHandleFullAndEmptyPrefixes() {
+        final var host = matcher("198.51.100.7/32");
+        assertTrue(host.matches(address("198.51.100.7"), -1));
+        assertFalse(host.matches(address("198.51.100.6"), -1));
+        assertFalse(host.matches(address("198.51.100.8"), -1));
+
+        final var everything = matcher("0.0.0.0/0");
+        assertTrue(everything.matches(address("0.0.0.0"), -1));
+        assertTrue(everything.matches(address("255.255.255.255"), -1));
+        // IPv4 ranges never cover IPv6 peers
+        assertFalse(everything.matches(address("2001:db8::1"), -1));
+    }
+
+    @Test
+    void ipv4Range_shouldMatchWhenNestedInAnotherRange() {
+        final var matcher = matcher("10.1.2.0/24", "10.0.0.0/8");
+
+        assertTrue(matcher.matches(address("10.1.2.3"), -1));
+        assertTrue(matcher.matches(address("10.200.0.1"), -1));
+        assertFalse(matcher.matches(address("11.0.0.0"), -1));
+        assertFalse(matcher.matches(address("9.255.255.255"), -1));
+    }
+
+    @Test
+    void ipv6Range_shouldMatchUpToItsBoundaries() {
+        final var matcher = matcher("2001:db8::/32");
+
+        assertTrue(matcher.matches(address("2001:db8::"), -1));
+        assertTrue(matcher.matches(address("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"), -1));
+        assertFalse(matcher.matches(address("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff"), -1));
+        assertFalse(matcher.matches(address("2001:db9::"), -1));
+    }
+
+    @Test
+    void ipv6Range_shouldMatchPrefixesReachingIntoLowHalf() {
+        final var matcher = matcher("2001:db8:0:1:8000::/65");
+
+        assertTrue(matcher.matches(address("2001:db8:0:1:8000::"), -1));
+        assertTrue(matcher.matches(address("2001:db8:0:1:ffff:ffff:ffff:ffff"), -1));
+        assertFalse(matcher.matches(address("2001:db8:0:1:7fff:ffff:ffff:ffff"), -1));
+        assertFalse(matcher.matches(address("2001:db8:0:2:8000::"), -1));
+    }
+
+    @Test
+    void ipv6Range_shouldHandleFullAndHalfPrefixes() {
+        final var host = matcher("2001:db8::ff/128");
+        assertTrue(host.matches(address("2001:db8::ff"), -1));
+        assertFalse(host.matches(address("2001:db8::fe"), -1));
+        assertFalse(host.matches(address("2001:db8::100"), -1));
+
+        final var subnet = matcher("2001:db8:0:1::/64");
+        assertTrue(subnet.matches(address("2001:db8:0:1::"), -1));
+        assertTrue(subnet.matches(address("2001:db8:0:1:ffff:ffff:ffff:ffff"), -1));
+        assertFalse(subnet.matches(address("2001:db8:0:0:ffff:ffff:ffff:ffff"), -1));
+        assertFalse(subnet.matches(address("2001:db8:0:2::"), -1));
+    }
+
+    @Test
+    void ipv4MappedIpv6_shouldMatchIpv4Indicators() {
+        final var matcher = matcher("192.0.2.1", "198.51.100.0/24", "203.0.113.5:53");
+
+        assertTrue(matcher.matches(address("::ffff:192.0.2.1"), -1));
+        assertTrue(matcher.matches(address("::ffff:198.51.100.77"), -1));
+        assertTrue(matcher.matches(address("::ffff:203.0.113.5"), 53));
+        assertTrue(matcher.matchesHost("::ffff:192.0.2.1", -1));
+        assertTrue(matcher.matchesHost("[::ffff:192.0.2.1]", -1));
+        assertFalse(matcher.matches(address("::ffff:192.0.2.2"), -1));
+    }
+
+    @Test
+    void ipv4MappedIndicator_shouldMatchPlainIpv4() {
+        final var matcher = matcher("::ffff:192.0.2.1", "[::ffff:203.0.113.5]:53");
+
+        assertTrue(matcher.matches(address("192.0.2.1"), -1));
+        assertTrue(matcher.matches(address("203.0.113.5"), 53));
+        assertFalse(matcher.matches(address("203.0.113.5"), 54));
+    }
+
+    @Test
+    void matchesHost_shouldCompareDomainsCaseInsensitively() {
+        final var matcher = matcher("Evil.Example");
+
+        assertTrue(matcher.matchesHost("evil.example", -1));
+        assertTrue(matcher.matchesHost(" EVIL.example ", 443));
+        assertFalse(matcher.matchesHost("sub.evil.example", -1));
+        assertFalse(matcher.matchesHost("example", -1));
+    }
+
+    @Test
+    void matchesHost_shouldCheckIpLiteralsAsAddresses() {
+        final var matcher = matcher("192.0.2.0/24", "[2001:db8::1]:443");
+
+        assertTrue(matcher.matchesHost("192.0.2.9", -1));
+        assertTrue(matcher.matchesHost("[2001:db8::1]", 443));
+        assertTrue(matcher.matchesHost("2001:DB8::1", 443));
+        assertFalse(matcher.matchesHost("2001:db8::1", 80));
+    }
+
+    @Test
+    void add_shouldRejectMalformedIndicators() {
+        final var builder = ThreatMatcher.builder();
+
+        assertFalse(builder.add(null));
+        assertFalse(builder.add(" "));
+        assertFalse(builder.add("192.0.2.1:65536"));
+        assertFalse(builder.add("192.0.2.1:-1"));
+        assertFalse(builder.add("192.0.2.1:http"));
+        assertFalse(builder.add("192.0.2.0/33"));
+        assertFalse(builder.add("2001:db8::/129"));
+        assertFalse(builder.add("192.0.2.0/x"));
+        assertFalse(builder.add("not-an-ip/24"));
+        assertFalse(builder.add("[2001:db8::1"));
+        assertFalse(builder.add("[2001:db8::1]443"));
+        assertEquals(0, builder.build().size());
+    }
+
+    @Test
+    void size_shouldCountDistinctIndicators() {
+        final var matcher = matcher(
+            "192.0.2.1", "192.0.2.1", " 192.0.2.1 ",
+            "192.0.2.1:80", "192.0.2.1:80",
+            "2001:db8::1", "2001:db8:0::1",
+            "[2001:db8::1]:80",
+            "192.0.2.0/24", "192.0.2.0/24",
+            "2001:db8::/32",
+            "evil.example", "EVIL.example");
+
+        assertEquals(7, matcher.size());
+    }
+
+    @Test
+    void addressTable_shouldKeepEveryKeyWhileGrowing() {
+        final var builder = ThreatMatcher.builder();
+        // Consecutive addresses and ports crowd the probe sequences and force many resizes
+        for (var i = 0; i < 5_000; i++) {
+            builder.add(ipv4(0x0A000000 + i));
+            builder.add(ipv4(0x0B000000) + ":" + (i + 1));
+            builder.add("2001:db8::" + Integer.toHexString(i));
+            builder.add("[2001:db8::1]:" + (i + 1));
+        }
+        final var matcher = builder.build();
+
+        assertEquals(20_000, matcher.size());
+        for (var i = 0; i < 5_000; i++) {
+            assertTrue(matcher.matches(address(ipv4(0x0A000000 + i)), -1), "ipv4 " + i);
+            assertTrue(matcher.matches(address(ipv4(0x0B000000)), i + 1), "ipv4 port " + (i + 1));
+            assertTrue(matcher.matches(address("2001:db8::" + Integer.toHexString(i)), -1), "ipv6 " + i);
+            assertTrue(matcher.matches(address("2001:db8::1"), i + 1), "ipv6 port " + (i + 1));
+        }
+        for (var i = 5_000; i < 10_000; i++) {
+            assertFalse(matcher.matches(address(ipv4(0x0A000000 + i)), -1), "ipv4 " + i);
+            assertFalse(matcher.matches(address(ipv4(0x0B000000)), i + 1), "ipv4 port " + (i + 1));
+            assertFalse(matcher.matches(address("2001:db8::" + Integer.toHexString(i)), -1), "ipv6 " + i);
+            assertFalse(matcher.matches(address("2001:db8::1"), i + 1), "ipv6 port " + (i + 1));
+        }
+    }
+
+    @Test
+    void addressTable_shouldTellApartKeysSharingHalves() {
+        // Tuples that differ in a single component must not be confused with each other
+        final var matcher = matcher("2001:db8::1", "2001:db9::2", "[2001:db8::2]:80");
+
+        assertFalse(matcher.matches(address("2001:db8::2"), -1));
+        assertFalse(matcher.matches(address("2001:db9::1"), -1));
+        assertTrue(matcher.matches(address("2001:db8::2"), 80));
+        assertFalse(matcher.matches(address("2001:db8::2"), 81));
+        assertFalse(matcher.matches(address("2001:db8::3"), 80));
+    }
+
+    @Test
+    void rangeTrie_shouldKeepEveryRangeWhileGrowing() {
+        final var builder = ThreatMatcher.builder();
+        for (var i = 0; i < 1_000; i++) {
+            builder.add(ipv4(0x0A000000 + (i << 8)) + "/24");
+            builder.add("2001:db8:" + Integer.toHexString(i) + "::/48");
+        }
+        final var matcher = builder.build();
+
+        assertEquals(2_000, matcher.size());
+        for (var i = 0; i < 1_000; i++) {
+            assertTrue(matcher.matches(address(ipv4(0x0A000000 + (i << 8) + 255)), -1), "ipv4 " + i);
+            assertTrue(matcher.matches(address("2001:db8:" + Integer.toHexString(i) + ":ffff::1"), -1), "ipv6 " + i);
+        }
+        assertFalse(matcher.matches(address(ipv4(0x0A000000 + (1_000 << 8))), -1));
+        assertFalse(matcher.matches(address("2001:db8:" + Integer.toHexString(1_000) + "::"), -1));
+    }
+
+    private static ThreatMatcher matcher(final String... indicators) {
+        final var builder = ThreatMatcher.builder();
+        for (final var indicator : indicators) {
+            assertTrue(builder.add(indicator), indicator);
+        }
+        return builder.build();
+    }
+
+    private static InetAddress address(final String literal) {
+        return InetAddress.ofLiteral(literal);
+    }
+
+    private static String ipv4(final int value) {
+        return (value >>> 24) + "." + (value >>> 16 & 0xFF) + "." + (value >>> 8 & 0xFF) + "." + (value & 0xFF);
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.tunnel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class BinaryTunnelCodecTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final BinaryTunnelCodec codec = new BinaryTunnelCodec(new JsonTunnelCodec(mapper), true);
+    private final BinaryTunnelCodec legacyWsCodec = new BinaryTunnelCodec(new JsonTunnelCodec(mapper), false);
+
+    @Test
+    void request_shouldRoundTrip() throws IOException {
+        final var request = http("7", HttpTunnelMessage.Type.REQUEST);
+        request.setMethod("POST");
+        request.setPath("/upload");
+        request.setQuery("a=1&b=2");
+        request.setBodyContentType("application/json");
+        request.setBodyStreamed(true);
+        request.setTimeoutMs(1500L);
+        request.setHeaders(headers());
+        request.setBody("{}".getBytes(StandardCharsets.UTF_8));
+
+        final var decoded = assertInstanceOf(HttpTunnelMessage.class, roundTrip(codec, request));
+
+        assertEquals(HttpTunnelMessage.Type.REQUEST, decoded.getType());
+        assertEquals("7", decoded.getId());
+        assertEquals("POST", decoded.getMethod());
+        assertEquals("/upload", decoded.getPath());
+        assertEquals("a=1&b=2", decoded.getQuery());
+        assertEquals("application/json", decoded.getBodyContentType());
+        assertTrue(decoded.isStreamed());
+        assertEquals(1500L, decoded.getTimeoutMs());
+        assertEquals(headers(), decoded.getHeaders());
+        assertArrayEquals(request.getBody(), decoded.getBody());
+    }
+
+    @Test
+    void request_shouldRoundTripWithoutOptionalFields() throws IOException {
+        final var request = http("0", HttpTunnelMessage.Type.REQUEST);
+        request.setMethod("GET");
+
+        final var decoded = assertInstanceOf(HttpTunnelMessage.class, roundTrip(codec, request));
+
+        assertEquals("0", decoded.getId());
+        assertEquals("GET", decoded.getMethod());
+        assertNull(decoded.getPath());
+        assertNull(decoded.getTimeoutMs());
+        assertNull(decoded.getHeaders());
+        assertNull(decoded.getBody());
+        assertNull(decoded.getBodyStreamed());
+    }
+
+    @Test
+    void response_shouldRoundTrip() throws IOException {
+        final var response = http("42", HttpTunnelMessage.Type.RESPONSE);
+        response.setStatus(404);
+        response.setRespHeaders(headers());
+        response.setRespBody(new byte[] {1, 2, 3});
+
+        final var decoded = assertInstanceOf(HttpTunnelMessage.class, roundTrip(codec, response));
+
+        assertEquals(HttpTunnelMessage.Type.RESPONSE, decoded.getType());
+        assertEquals("42", decoded.getId());
+        assertEquals(404, decoded.getStatus());
+        assertEquals(headers(), decoded.getRespHeaders());
+        assertArrayEquals(new byte[] {1, 2, 3}, decoded.getRespBody());
+    }
+
+    @Test
+    void bodyMessages_shouldRoundTrip() throws IOException {
+        final var chunk = http("3", HttpTunnelMessage.Type.BODY_CHUNK);
+        chunk.setBody(new byte[] {9, 8, 7});
+        final var decodedChunk = assertInstanceOf(HttpTunnelMessage.class, roundTrip(codec, chunk));
+        assertEquals(HttpTunnelMessage.Type.BODY_CHUNK, decodedChunk.getType());
+        assertArrayEquals(new byte[] {9, 8, 7}, decodedChunk.getBody());
+
+        final var window = http("3", HttpTunnelMessage.Type.BODY_WINDOW);
+        window.setWindow(131072L);
+        final var decodedWindow = assertInstanceOf(HttpTunnelMessage.class, roundTrip(codec, window));
+        assertEquals(HttpTunnelMessage.Type.BODY_WINDOW, decodedWindow.getType());
+        assertEquals(131072L, decodedWindow.getWindow());
+
+        for (final var type : List.of(HttpTunnelMessage.Type.BODY_END, HttpTunnelMessage.Type.BODY_ABORT,
+            HttpTunnelMessage.Type.CANCEL)) {
+            final var decoded = assertInstanceOf(HttpTunnelMessage.class, roundTrip(codec, http("3", type)));
+            assertEquals(type, decoded.getType());
+            assertEquals("3", decoded.getId());
+        }
+    }
+
+    @Test
+    void encodeChunk_shouldDecodeAsBodyChunk() throws IOException {
+        final var data = new byte[] {0, 1, 2, 3, 4};
+
+        final var decoded = assertInstanceOf(HttpTunnelMessage.class, codec.decode(codec.encodeChunk("5", data, 1, 3)));
+
+        assertEquals(HttpTunnelMessage.Type.BODY_CHUNK, decoded.getType());
+        assertEquals("5", decoded.getId());
+        assertArrayEquals(new byte[] {1, 2, 3}, decoded.getBody());
+    }
+
+    @Test
+    void wsMessages_shouldRoundTrip() throws IOException {
+        final var open = new WsTunnelMessage();
+        open.setConnectionId("11");
+        open.setWsType(WsTunnelMessage.Type.OPEN);
+        open.setPath("/socket");
+        open.setQuery("x=y");
+        open.setHeaders(Map.of("Sec-WebSocket-Protocol", "chat"));
+        open.setPublicHost("demo.portbuddy.dev");
+        open.setPublicPort(443);
+        final var decodedOpen = assertInstanceOf(WsTunnelMessage.class, roundTrip(codec, open));
+        assertEquals(WsTunnelMessage.Type.OPEN, decodedOpen.getWsType());
+        assertEquals("11", decodedOpen.getConnectionId());
+        assertEquals("/socket", decodedOpen.getPath());
+        assertEquals("x=y", decodedOpen.getQuery());
+        assertEquals(open.getHeaders(), decodedOpen.getHeaders());
+        assertEquals("demo.portbuddy.dev", decodedOpen.getPublicHost());
+        assertEquals(443, decodedOpen.getPublicPort());
+
+        final var close = new WsTunnelMessage();
+        close.setConnectionId("11");
+        close.setWsType(WsTunnelMessage.Type.CLOSE);
+        close.setCloseCode(1000);
+        close.setCloseReason("bye");
+        final var decodedClose = assertInstanceOf(WsTunnelMessage.class, roundTrip(codec, close));
+        assertEquals(1000, decodedClose.getCloseCode());
+        assertEquals("bye", decodedClose.getCloseReason());
+
+        for (final var candidate : List.of(codec, legacyWsCodec)) {
+            final var text = new WsTunnelMessage();
+            text.setConnectionId("12");
+            text.setWsType(WsTunnelMessage.Type.TEXT);
+            text.setText("héllo");
+            final var decodedText = assertInstanceOf(WsTunnelMessage.class, roundTrip(candidate, text));
+            assertEquals(WsTunnelMessage.Type.TEXT, decodedText.getWsType());
+            assertEquals("héllo", decodedText.getText());
+
+            final var binary = new WsTunnelMessage();
+            binary.setConnectionId("12");
+            binary.setWsType(WsTunnelMessage.Type.BINARY);
+            binary.setData(new byte[] {5, 6});
+            final var decodedBinary = assertInstanceOf(WsTunnelMessage.class, roundTrip(candidate, binary));
+            assertEquals(WsTunnelMessage.Type.BINARY, decodedBinary.getWsType());
+            assertArrayEquals(new byte[] {5, 6}, decodedBinary.getData());
+        }
+    }
+
+    @Test
+    void controlMessages_shouldRoundTrip() throws IOException {
+        for (final var type : ControlMessage.Type.values()) {
+            final var ctrl = new ControlMessage();
+            ctrl.setType(type);
+            ctrl.setTs(1_700_000_000_000L);
+
+            final var decoded = assertInstanceOf(ControlMessage.class, roundTrip(codec, ctrl));
+
+            assertEquals(type, decoded.getType());
+            assertEquals(1_700_000_000_000L, decoded.getTs());
+        }
+    }
+
+    @Test
+    void decode_shouldRejectEveryTruncationWithIoException() throws IOException {
+        final var request = http("123456", HttpTunnelMessage.Type.REQUEST);
+        request.setMethod("PUT");
+        request.setPath("/p");
+        request.setTimeoutMs(30000L);
+        request.setHeaders(headers());
+        final var response = http("9", HttpTunnelMessage.Type.RESPONSE);
+        response.setStatus(200);
+        response.setRespHeaders(headers());
+        final var window = http("9", HttpTunnelMessage.Type.BODY_WINDOW);
+        window.setWindow(65536L);
+        final var ws = new WsTunnelMessage();
+        ws.setConnectionId("4");
+        ws.setWsType(WsTunnelMessage.Type.OPEN);
+        ws.setPath("/ws");
+        ws.setHeaders(Map.of("a", "b"));
+        ws.setCloseReason("r");
+        ws.setPublicHost("h");
+        final var ping = new ControlMessage();
+        ping.setType(ControlMessage.Type.PING);
+        ping.setTs(1L);
+        final var cancel = http("9", HttpTunnelMessage.Type.CANCEL);
+
+        for (final var message : List.of(request, response, window, ws, ping, cancel)) {
+            final var frame = bytes(codec.encode(message).binary());
+            // None of these messages has a trailing payload, so every proper prefix is missing a field
+            for (var length = 0; length < frame.length; length++) {
+                final var prefix = ByteBuffer.wrap(frame, 0, length);
+                final var description = message + " truncated to " + length + " bytes";
+                assertThrows(IOException.class, () -> codec.decode(prefix), description);
+            }
+        }
+    }
+
+    @Test
+    void decode_shouldRejectHeaderCountBeyondFrame() {
+        final var frame = frame(1, 1, 1, 0, 0, 0, 0, 0, varint(Integer.MAX_VALUE));
+
+        final var error = assertThrows(IOException.class, () -> codec.decode(frame));
+
+        assertTrue(rootMessage(error).contains("exceeds the frame"));
+    }
+
+    @Test
+    void decode_shouldRejectNegativeHeaderCount() {
+        // A 10-byte varint decodes to a negative long; truncating it to an int used to yield a negative count
+        final var frame = frame(1, 2, 1, varint(201), 0, varint(-1L));
+
+        assertThrows(IOException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void decode_shouldRejectHeaderValueCountBeyondFrame() {
+        final var frame = frame(1, 2, 1, varint(201), 0, 1, 2, 'a', varint(1L << 40));
+
+        assertThrows(IOException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void decode_shouldRejectStringLengthBeyondFrame() {
+        final var frame = frame(1, 1, 1, varint(1L << 31), 'G', 'E', 'T');
+
+        final var error = assertThrows(IOException.class, () -> codec.decode(frame));
+
+        assertTrue(rootMessage(error).contains("exceeds the frame"));
+    }
+
+    @Test
+    void decode_shouldRejectNegativeStringLength() {
+        final var frame = frame(1, 1, 1, varint(Long.MIN_VALUE), 'G');
+
+        assertThrows(IOException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void decode_shouldRejectOverlongVarint() {
+        final var frame = frame(1, 7, 0, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x80, 0x01);
+
+        assertThrows(IOException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void decode_shouldRejectNegativeId() {
+        final var frame = frame(1, 9, varint(-1L));
+
+        assertThrows(IOException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void decode_shouldRejectUnknownVersionTagAndWsType() {
+        assertThrows(IOException.class, () -> codec.decode(frame(2, 9, 1)));
+        assertThrows(IOException.class, () -> codec.decode(frame(1, 99, 1)));
+        assertThrows(IOException.class, () -> codec.decode(frame(1, 6, 1, 99)));
+    }
+
+    @Test
+    void decode_shouldRejectOutOfRangeStatus() {
+        final var frame = frame(1, 2, 1, varint(1L << 40), 0, 0);
+
+        assertThrows(IOException.class, () -> codec.decode(frame));
+    }
+
+    @Test
+    void encode_shouldRejectNonNumericIdsWithIoException() {
+        assertThrows(IOException.class, () -> codec.encode(http("abc", HttpTunnelMessage.Type.CANCEL)));
+        assertThrows(IOException.class, () -> codec.encode(http("-2", HttpTunnelMessage.Type.CANCEL)));
+        assertThrows(IOException.class, () -> codec.encodeChunk("abc", new byte[1], 0, 1));
+        final var ws = new WsTunnelMessage();
+        ws.setConnectionId("conn-1");
+        ws.setWsType(WsTunnelMessage.Type.TEXT);
+        ws.setText("x");
+        assertThrows(IOException.class, () -> codec.encode(ws));
+    }
+
+    @Test
+    void decodeText_shouldRejectNonNumericIds() throws IOException {
+        final var cancel = http("abc", HttpTunnelMessage.Type.CANCEL);
+        final var text = mapper.writeValueAsString(cancel);
+
+        assertThrows(IOException.class, () -> codec.decode(text));
+
+        final var valid = assertInstanceOf(HttpTunnelMessage.class,
+            codec.decode(mapper.writeValueAsString(http("17", HttpTunnelMessage.Type.CANCEL))));
+        assertEquals("17", valid.getId());
+    }
+
+    private static Object roundTrip(final BinaryTunnelCodec codec, final Object message) throws IOException {
+        final var frame = codec.encode(message);
+        assertTrue(frame.isBinary());
+        return codec.decode(frame.binary());
+    }
+
+    private static HttpTunnelMessage http(final String id, final HttpTunnelMessage.Type type) {
+        final var message = new HttpTunnelMessage();
+        message.setId(id);
+        message.setType(type);
+        return message;
+    }
+
+    private static Map<String, List<String>> headers() {
+        final var headers = new LinkedHashMap<String, List<String>>();
+        headers.put("Content-Type", List.of("application/json"));
+        headers.put("Set-Cookie", List.of("a=1", "b=2"));
+        headers.put("X-Empty", List.of());
+        return headers;
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer) {
+        final var copy = new byte[buffer.remaining()];
+        buffer.duplicate().get(copy);
+        return copy;
+    }
+
+    private static String rootMessage(final Throwable error) {
+        var current = error;
+        while (current.getCause() != null) {
+            current = current.getCause();
+        }
+        return String.valueOf(current.getMessage());
+    }
+
+    /**
+     * Builds a raw frame from bytes and pre-encoded varints.
+     */
+    private static ByteBuffer frame(final Object... parts) {
+        final var out = new ByteArrayOutputStream();
+        for (final var part : parts) {
+            if (part instanceof byte[] bytes) {
+                out.writeBytes(bytes);
+            } else if (part instanceof Character character) {
+                out.write(character);
+            } else {
+                out.write((Integer) part);
+            }
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static byte[] varint(final long value) {
+        final var out = new ByteArrayOutputStream();
+        var remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+        return out.toByteArray();
+    }
+}
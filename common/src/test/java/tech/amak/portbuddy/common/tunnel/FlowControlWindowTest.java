@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.tunnel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+class FlowControlWindowTest {
+
+    @Test
+    void sendWindow_shouldTrackConsumedAndGrantedCredit() {
+        final var window = new SendWindow(100);
+
+        window.consume(60);
+        assertEquals(40, window.available());
+        window.consume(50);
+        assertEquals(-10, window.available());
+        window.grant(30);
+        assertEquals(20, window.available());
+        window.reset(500);
+        assertEquals(500, window.available());
+    }
+
+    @Test
+    void sendWindow_awaitAvailable_shouldReturnImmediately_whenCreditIsLeft() throws InterruptedException {
+        final var window = new SendWindow(10);
+
+        assertEquals(10, window.awaitAvailable(Duration.ofSeconds(5)));
+    }
+
+    @Test
+    void sendWindow_awaitAvailable_shouldTimeOut_withoutCredit() throws InterruptedException {
+        final var window = new SendWindow(0);
+
+        assertTrue(window.awaitAvailable(Duration.ofMillis(20)) <= 0);
+    }
+
+    @Test
+    void sendWindow_awaitAvailable_shouldWakeUp_onGrant() {
+        final var window = new SendWindow(0);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            final var waiter = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return window.awaitAvailable(Duration.ofSeconds(30));
+                } catch (final InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(20);
+            window.grant(64);
+            assertEquals(64, waiter.join());
+        });
+    }
+
+    @Test
+    void sendWindow_awaitAvailable_shouldReturnZero_onClose() {
+        final var window = new SendWindow(0);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            final var waiter = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return window.awaitAvailable(Duration.ofSeconds(30));
+                } catch (final InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            Thread.sleep(20);
+            window.close();
+            assertEquals(0, waiter.join());
+        });
+        window.grant(10);
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> assertEquals(0, window.awaitAvailable(Duration.ZERO)));
+    }
+
+    @Test
+    void receiveWindow_shouldReturnCreditOnceHalfTheWindowIsConsumed() {
+        final var window = new ReceiveWindow(100);
+
+        assertEquals(100, window.size());
+        assertEquals(0, window.onConsumed(30));
+        assertEquals(0, window.onConsumed(19));
+        assertEquals(50, window.onConsumed(1));
+        assertEquals(0, window.onConsumed(49));
+        assertEquals(120, window.onConsumed(71));
+    }
+
+    @Test
+    void receiveWindow_resync_shouldReturnTotalAndDropPendingCredit() {
+        final var window = new ReceiveWindow(100);
+        window.onConsumed(60);
+        window.onConsumed(10);
+
+        assertEquals(70, window.resync());
+        // The 10 bytes not yet returned are covered by the total and must not be granted again
+        assertEquals(0, window.onConsumed(49));
+        assertEquals(50, window.onConsumed(1));
+        assertEquals(120, window.resync());
+    }
+
+    @Test
+    void sendAndReceiveWindows_shouldNeverExceedTheWindowInFlight() {
+        final var size = 64;
+        final var receive = new ReceiveWindow(size);
+        final var send = new SendWindow(size);
+        var inFlight = 0L;
+
+        for (var i = 0; i < 1000; i++) {
+            final var chunk = Math.min(send.available(), 1 + i % 13);
+            if (chunk > 0) {
+                send.consume(chunk);
+                inFlight += chunk;
+            }
+            assertTrue(inFlight <= size, "in flight: " + inFlight);
+            // The receiver delivers whatever arrived in slices and returns credit as it goes
+            final var delivered = Math.min(inFlight, 1 + i % 7);
+            inFlight -= delivered;
+            final var credit = receive.onConsumed(delivered);
+            if (credit > 0) {
+                send.grant(credit);
+            }
+        }
+        assertTrue(send.available() + inFlight <= size);
+    }
+}
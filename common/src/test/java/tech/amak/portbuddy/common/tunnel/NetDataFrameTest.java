@@ -0,0 +1,97 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.tunnel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class NetDataFrameTest {
+
+    private static final int[] IDS = {0, 1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, Integer.MAX_VALUE};
+
+    @Test
+    void headerSize_shouldGrowEverySevenBits() {
+        assertEquals(1, NetDataFrame.headerSize(0));
+        assertEquals(1, NetDataFrame.headerSize(127));
+        assertEquals(2, NetDataFrame.headerSize(128));
+        assertEquals(3, NetDataFrame.headerSize(16_384));
+        assertEquals(NetDataFrame.MAX_HEADER_SIZE, NetDataFrame.headerSize(Integer.MAX_VALUE));
+    }
+
+    @Test
+    void byteBufferHeader_shouldRoundTrip() {
+        final var payload = new byte[] {10, 20, 30};
+        for (final var id : IDS) {
+            final var frame = ByteBuffer.allocate(NetDataFrame.MAX_HEADER_SIZE + payload.length);
+            frame.put(NetDataFrame.MAX_HEADER_SIZE, payload);
+            frame.limit(NetDataFrame.MAX_HEADER_SIZE + payload.length);
+
+            NetDataFrame.putHeader(id, frame, NetDataFrame.MAX_HEADER_SIZE);
+
+            assertEquals(NetDataFrame.MAX_HEADER_SIZE - NetDataFrame.headerSize(id), frame.position());
+            assertEquals(id, NetDataFrame.readConnectionId(frame));
+            assertArrayEquals(payload, remaining(frame));
+        }
+    }
+
+    @Test
+    void arrayHeader_shouldRoundTrip() {
+        final var payload = new byte[] {1, 2};
+        for (final var id : IDS) {
+            final var frame = new byte[NetDataFrame.MAX_HEADER_SIZE + payload.length];
+            System.arraycopy(payload, 0, frame, NetDataFrame.MAX_HEADER_SIZE, payload.length);
+
+            final var start = NetDataFrame.putHeader(id, frame, NetDataFrame.MAX_HEADER_SIZE);
+            final var buffer = ByteBuffer.wrap(frame, start, frame.length - start);
+
+            assertEquals(id, NetDataFrame.readConnectionId(buffer));
+            assertArrayEquals(payload, remaining(buffer));
+        }
+    }
+
+    @Test
+    void readConnectionId_shouldAcceptAnEmptyPayload() {
+        final var frame = new byte[NetDataFrame.MAX_HEADER_SIZE];
+        final var start = NetDataFrame.putHeader(300, frame, frame.length);
+        final var buffer = ByteBuffer.wrap(frame, start, frame.length - start);
+
+        assertEquals(300, NetDataFrame.readConnectionId(buffer));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    void readConnectionId_shouldRejectMalformedHeaders() {
+        // Empty frame, truncated varint, varint longer than the header, and an id that overflows an int
+        assertEquals(-1, NetDataFrame.readConnectionId(ByteBuffer.allocate(0)));
+        assertEquals(-1, NetDataFrame.readConnectionId(ByteBuffer.wrap(new byte[] {(byte) 0x80})));
+        final var tooLong = new byte[NetDataFrame.MAX_HEADER_SIZE + 1];
+        Arrays.fill(tooLong, (byte) 0x80);
+        assertEquals(-1, NetDataFrame.readConnectionId(ByteBuffer.wrap(tooLong)));
+        final var negative = new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F};
+        assertEquals(-1, NetDataFrame.readConnectionId(ByteBuffer.wrap(negative)));
+    }
+
+    private static byte[] remaining(final ByteBuffer buffer) {
+        final var data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.tunnel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class ReplayBufferTest {
+
+    private final ReplayBuffer buffer = new ReplayBuffer();
+
+    @Test
+    void copy_shouldReturnBytesFromTheRequestedOffset() {
+        buffer.append(bytes(0, 10), 0, 10);
+
+        final var target = ByteBuffer.allocate(16);
+        final var copied = buffer.copy(4, target);
+
+        assertEquals(6, copied);
+        assertArrayEquals(bytes(4, 6), Arrays.copyOf(target.array(), copied));
+        assertEquals(10, buffer.end());
+    }
+
+    @Test
+    void copy_shouldStopAtTargetCapacity() {
+        buffer.append(bytes(0, 10), 0, 10);
+
+        final var target = ByteBuffer.allocate(3);
+
+        assertEquals(3, buffer.copy(2, target));
+        assertArrayEquals(bytes(2, 3), target.array());
+    }
+
+    @Test
+    void copy_shouldReturnNothing_atOrBeyondTheEnd() {
+        buffer.append(bytes(0, 10), 0, 10);
+
+        assertEquals(0, buffer.copy(10, ByteBuffer.allocate(4)));
+        assertEquals(0, buffer.copy(12, ByteBuffer.allocate(4)));
+    }
+
+    @Test
+    void acknowledge_shouldDropDeliveredBytes() {
+        buffer.append(bytes(0, 10), 0, 10);
+
+        buffer.acknowledge(6);
+
+        assertEquals(6, buffer.start());
+        assertThrows(IllegalArgumentException.class, () -> buffer.copy(5, ByteBuffer.allocate(4)));
+        final var target = ByteBuffer.allocate(4);
+        assertEquals(4, buffer.copy(6, target));
+        assertArrayEquals(bytes(6, 4), target.array());
+    }
+
+    @Test
+    void acknowledge_shouldNeverMoveBackwardsOrPastTheEnd() {
+        buffer.append(bytes(0, 10), 0, 10);
+
+        buffer.acknowledge(8);
+        buffer.acknowledge(3);
+        assertEquals(8, buffer.start());
+
+        buffer.acknowledge(50);
+        assertEquals(10, buffer.start());
+    }
+
+    @Test
+    void append_shouldWrapAroundAndGrowWithoutLosingRetainedBytes() {
+        // Fill most of the initial ring, acknowledge part of it and append across the wrap point
+        final var first = 12 * 1024;
+        buffer.append(bytes(0, first), 0, first);
+        buffer.acknowledge(10 * 1024);
+        final var second = 8 * 1024;
+        buffer.append(ByteBuffer.wrap(bytes(first, second)));
+
+        assertEquals(first + second, buffer.end());
+        assertRetained(10 * 1024, first + second);
+
+        // More than the ring holds forces it to grow while bytes are wrapped
+        final var third = 40 * 1024;
+        buffer.append(bytes(first + second, third), 0, third);
+
+        assertEquals(first + second + third, buffer.end());
+        assertRetained(10 * 1024, first + second + third);
+    }
+
+    @Test
+    void append_shouldNotMoveTheSourcePosition() {
+        final var source = ByteBuffer.wrap(bytes(0, 8));
+        source.position(2);
+
+        buffer.append(source);
+
+        assertEquals(2, source.position());
+        assertEquals(6, buffer.end());
+    }
+
+    @Test
+    void resume_shouldRetransmitEverythingAfterThePeersOffset() {
+        // What NetTunnelRegistry does on RESUME: drop what the peer received, resend the rest
+        buffer.append(bytes(0, 100), 0, 100);
+        buffer.acknowledge(40);
+        final var peerReceived = 70L;
+
+        buffer.acknowledge(peerReceived);
+        final var target = ByteBuffer.allocate(64);
+        final var copied = buffer.copy(peerReceived, target);
+
+        assertEquals(30, copied);
+        assertArrayEquals(bytes(70, 30), Arrays.copyOf(target.array(), copied));
+    }
+
+    private void assertRetained(final long from, final long to) {
+        final var target = ByteBuffer.allocate((int) (to - from));
+        assertEquals(to - from, buffer.copy(from, target));
+        assertArrayEquals(bytes(from, (int) (to - from)), target.array());
+    }
+
+    /**
+     * Returns the bytes expected at the given stream offsets; each byte is its offset mod 251.
+     */
+    private static byte[] bytes(final long offset, final int length) {
+        final var data = new byte[length];
+        for (var i = 0; i < length; i++) {
+            data[i] = (byte) ((offset + i) % 251);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.common.tunnel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TunnelBodyStreamTest {
+
+    private final List<Long> credits = new ArrayList<>();
+    private final TunnelBodyStream stream = new TunnelBodyStream(Duration.ofMillis(200), credits::add);
+
+    @Test
+    void offer_shouldNotBlock_whenWindowIsFull() {
+        assertTimeoutPreemptively(Duration.ofSeconds(1), () -> {
+            for (var i = 0; i < TunnelBodyStream.MAX_BUFFERED_CHUNKS; i++) {
+                assertTrue(stream.offer(new byte[TunnelBodyStream.CHUNK_SIZE]));
+            }
+        });
+        assertFalse(stream.isAborted());
+    }
+
+    @Test
+    void offer_shouldAbortOnlyThisStream_whenSenderExceedsWindow() {
+        final var other = new TunnelBodyStream(Duration.ofMillis(200), credit -> { });
+        for (var i = 0; i < TunnelBodyStream.MAX_BUFFERED_CHUNKS; i++) {
+            assertTrue(stream.offer(new byte[TunnelBodyStream.CHUNK_SIZE]));
+        }
+
+        assertFalse(stream.offer(new byte[1]));
+
+        assertTrue(stream.isAborted());
+        assertThrows(IOException.class, stream::readChunk);
+        assertTrue(other.offer(new byte[TunnelBodyStream.CHUNK_SIZE]));
+        assertFalse(other.isAborted());
+    }
+
+    @Test
+    void read_shouldReturnCredit_onceHalfTheWindowIsConsumed() throws IOException {
+        final var half = TunnelBodyStream.MAX_BUFFERED_CHUNKS / 2;
+        for (var i = 0; i < TunnelBodyStream.MAX_BUFFERED_CHUNKS; i++) {
+            stream.offer(new byte[TunnelBodyStream.CHUNK_SIZE]);
+        }
+
+        for (var i = 0; i < half - 1; i++) {
+            stream.readChunk();
+        }
+        assertTrue(credits.isEmpty());
+        stream.readChunk();
+
+        assertEquals(List.of((long) half * TunnelBodyStream.CHUNK_SIZE), credits);
+        // The returned credit may be used right away
+        for (var i = 0; i < half; i++) {
+            assertTrue(stream.offer(new byte[TunnelBodyStream.CHUNK_SIZE]));
+        }
+        assertFalse(stream.isAborted());
+    }
+
+    @Test
+    void read_shouldDeliverChunksInOrder_andEndAfterComplete() throws IOException {
+        stream.offer(new byte[] {1, 2});
+        stream.offer(new byte[0]);
+        stream.offer(new byte[] {3});
+        stream.complete();
+
+        final var target = new byte[8];
+        assertEquals(2, stream.read(target, 0, 8));
+        assertEquals(3, stream.read());
+        assertEquals(-1, stream.read());
+        assertArrayEquals(new byte[] {1, 2}, new byte[] {target[0], target[1]});
+    }
+
+    @Test
+    void readChunk_shouldReturnRemainderOfPartiallyReadChunk() throws IOException {
+        stream.offer(new byte[] {1, 2, 3});
+        stream.complete();
+
+        assertEquals(1, stream.read());
+        assertArrayEquals(new byte[] {2, 3}, stream.readChunk());
+        assertNull(stream.readChunk());
+    }
+
+    @Test
+    void abort_shouldFailReaderAndRejectFurtherChunks() {
+        stream.offer(new byte[] {1});
+        stream.abort("gone");
+
+        final var error = assertThrows(IOException.class, stream::readChunk);
+        assertEquals("gone", error.getMessage());
+        assertFalse(stream.offer(new byte[] {2}));
+    }
+
+    @Test
+    void read_shouldAbort_whenNoChunkArrivesInTime() {
+        final var error = assertThrows(IOException.class, stream::readChunk);
+
+        assertEquals("Timed out waiting for body chunk", error.getMessage());
+        assertTrue(stream.isAborted());
+    }
+}
@@ -22,11 +22,14 @@ import org.springframework.web.reactive.function.client.WebClient;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
 import tech.amak.portbuddy.gateway.dto.CertificateResponse;
+import tech.amak.portbuddy.gateway.dto.CertificateSnapshotResponse;
 
 @Service
 @Slf4j
 public class SslServiceClient {
 
+    private static final Duration REQUEST_TIMEOUT_MARGIN = Duration.ofSeconds(5);
+
     private final WebClient webClient;
 
     /**
@@ -60,4 +63,20 @@ public class SslServiceClient {
                 return Mono.empty();
             });
     }
+
+    /**
+     * Retrieves all active certificates from the ssl-service. If {@code version} is current, the
+     * ssl-service holds the request until a certificate changes or {@code wait} elapses.
+     *
+     * @param version snapshot version already known, or {@code -1} to return immediately
+     * @param wait    how long the ssl-service may hold the request
+     * @return certificate snapshot mono; errors are propagated to the caller
+     */
+    public Mono<CertificateSnapshotResponse> getCertificates(final long version, final Duration wait) {
+        return webClient.get()
+            .uri("/internal/api/certificates?version={version}&waitMs={waitMs}", version, wait.toMillis())
+            .retrieve()
+            .bodyToMono(CertificateSnapshotResponse.class)
+            .timeout(wait.plus(REQUEST_TIMEOUT_MARGIN));
+    }
 }
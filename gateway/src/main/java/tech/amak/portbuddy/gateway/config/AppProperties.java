@@ -14,6 +14,8 @@
 
 package tech.amak.portbuddy.gateway.config;
 
+import java.time.Duration;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.core.io.Resource;
 
@@ -24,13 +26,87 @@ public record AppProperties(
     String url,
     String serverErrorPage,
     Jwt jwt,
-    Ssl ssl
+    Ssl ssl,
+    TunnelOwnership tunnelOwnership
 ) {
 
     public record Ssl(
         boolean enabled,
-        Certificate fallback
+        Certificate fallback,
+        ContextCache cache,
+        Session session
+    ) {
+    }
+
+    /**
+     * TLS session resumption settings. Gateways configured with the same ticket key file resume
+     * each other's sessions.
+     *
+     * @param cacheSize         maximum number of sessions cached per TLS context
+     * @param timeout           how long a session can be resumed
+     * @param ticketKeyFile     file on storage shared by all gateways holding the rotated session ticket
+     *                          keys; blank keeps random per-instance keys
+     * @param ticketKeyRotation how often a new session ticket key takes over encryption
+     */
+    public record Session(
+        long cacheSize,
+        Duration timeout,
+        String ticketKeyFile,
+        Duration ticketKeyRotation
+    ) {
+
+        public Session {
+            if (cacheSize <= 0) {
+                cacheSize = 20_000;
+            }
+            if (timeout == null) {
+                timeout = Duration.ofHours(12);
+            }
+            if (ticketKeyRotation == null) {
+                ticketKeyRotation = Duration.ofHours(6);
+            }
+        }
+    }
+
+    /**
+     * Settings of the per-domain TLS context cache and of the certificate snapshot feed from ssl-service.
+     *
+     * @param maximumSize         maximum number of cached TLS contexts
+     * @param refreshAfter        age after which a context is reloaded in the background while still being served
+     * @param negativeTtl         how long a domain without a certificate is remembered
+     * @param negativeMaximumSize maximum number of remembered domains without a certificate
+     * @param pollTimeout         how long ssl-service may hold a snapshot request open waiting for changes
+     * @param retryDelay          delay before polling ssl-service again after a failed request
+     */
+    public record ContextCache(
+        int maximumSize,
+        Duration refreshAfter,
+        Duration negativeTtl,
+        int negativeMaximumSize,
+        Duration pollTimeout,
+        Duration retryDelay
     ) {
+
+        public ContextCache {
+            if (maximumSize <= 0) {
+                maximumSize = 1000;
+            }
+            if (refreshAfter == null) {
+                refreshAfter = Duration.ofHours(1);
+            }
+            if (negativeTtl == null) {
+                negativeTtl = Duration.ofMinutes(5);
+            }
+            if (negativeMaximumSize <= 0) {
+                negativeMaximumSize = 10_000;
+            }
+            if (pollTimeout == null) {
+                pollTimeout = Duration.ofSeconds(20);
+            }
+            if (retryDelay == null) {
+                retryDelay = Duration.ofSeconds(5);
+            }
+        }
     }
 
     public record Certificate(
@@ -46,4 +122,18 @@ public record AppProperties(
     ) {
     }
 
+    /**
+     * Settings of the subdomain ownership map fed by the server instances.
+     *
+     * @param discoveryInterval how often the list of server instances is refreshed
+     * @param pollTimeout       how long a server may hold an ownership request open waiting for changes
+     * @param retryDelay        delay before polling a server again after a failed request
+     */
+    public record TunnelOwnership(
+        Duration discoveryInterval,
+        Duration pollTimeout,
+        Duration retryDelay
+    ) {
+    }
+
 }
@@ -23,6 +23,7 @@ import org.springframework.core.env.Environment;
 
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.gateway.loadbalancer.PortBuddySubdomainLoadBalancer;
+import tech.amak.portbuddy.gateway.loadbalancer.TunnelOwnershipMap;
 
 @Slf4j
 public class PortBuddyServerLoadBalancerConfiguration {
@@ -30,12 +31,13 @@ public class PortBuddyServerLoadBalancerConfiguration {
     @Bean
     public ReactorServiceInstanceLoadBalancer reactorServiceInstanceLoadBalancer(
         final Environment environment,
-        final LoadBalancerClientFactory loadBalancerClientFactory
+        final LoadBalancerClientFactory loadBalancerClientFactory,
+        final TunnelOwnershipMap ownershipMap
     ) {
         final var serviceId = environment.getProperty(LoadBalancerClientFactory.PROPERTY_NAME);
         final ObjectProvider<ServiceInstanceListSupplier> provider =
             loadBalancerClientFactory.getLazyProvider(serviceId, ServiceInstanceListSupplier.class);
-        final var loadBalancer = new PortBuddySubdomainLoadBalancer(provider, serviceId);
+        final var loadBalancer = new PortBuddySubdomainLoadBalancer(provider, serviceId, ownershipMap);
         log.info("Created PortBuddySubdomainLoadBalancer for service {}", serviceId);
         return loadBalancer;
     }
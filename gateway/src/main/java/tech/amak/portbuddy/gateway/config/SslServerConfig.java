@@ -24,6 +24,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.server.reactive.HttpHandler;
 import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.ssl.SniHandler;
 import jakarta.annotation.PostConstruct;
@@ -34,6 +35,7 @@ import reactor.netty.DisposableServer;
 import reactor.netty.http.server.HttpServer;
 import tech.amak.portbuddy.gateway.ssl.DynamicSslProvider;
 import tech.amak.portbuddy.gateway.ssl.SniSslContextMapping;
+import tech.amak.portbuddy.gateway.ssl.TlsHandshakeMetrics;
 
 @Configuration
 @Slf4j
@@ -43,6 +45,7 @@ public class SslServerConfig {
     private final AppProperties properties;
     private final DynamicSslProvider sslProvider;
     private final HttpHandler httpHandler;
+    private final MeterRegistry meterRegistry;
     private DisposableServer httpServer;
 
     /**
@@ -56,10 +59,12 @@ public class SslServerConfig {
     public WebServerFactoryCustomizer<NettyReactiveWebServerFactory> sslCustomizer() {
         return factory -> factory.addServerCustomizers(server -> {
             if (properties.ssl().enabled()) {
+                final var handshakeMetrics = new TlsHandshakeMetrics(meterRegistry);
                 // We use doOnChannelInit to configure the pipeline at the transport level.
                 // This ensures SniHandler is added before any data is read and enables dynamic SSL via SNI.
                 server = server.doOnChannelInit((observer, channel, remoteAddress) -> {
                     channel.pipeline().addFirst("sni-handler", new SniHandler(new SniSslContextMapping(sslProvider)));
+                    channel.pipeline().addAfter("sni-handler", "tls-handshake-metrics", handshakeMetrics);
                 });
             }
 
@@ -14,11 +14,14 @@
 
 package tech.amak.portbuddy.gateway.dto;
 
+import java.time.OffsetDateTime;
+
 public record CertificateResponse(
     String domain,
     String certificatePath,
     String privateKeyPath,
     String chainPath,
-    String fullChainPath
+    String fullChainPath,
+    OffsetDateTime updatedAt
 ) {
 }
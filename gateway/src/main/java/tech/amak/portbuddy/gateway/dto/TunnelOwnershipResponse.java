@@ -0,0 +1,31 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.gateway.dto;
+
+import java.util.List;
+
+/**
+ * Subdomains and custom domains served by one server instance.
+ *
+ * @param version       snapshot version, increases on every change
+ * @param subdomains    subdomains with an open tunnel on the instance
+ * @param customDomains custom domains mapped to those subdomains
+ */
+public record TunnelOwnershipResponse(
+    long version,
+    List<String> subdomains,
+    List<String> customDomains
+) {
+}
@@ -37,15 +37,17 @@ import reactor.core.publisher.Mono;
 
 /**
  * Custom load balancer that, for subdomain ingress requests, chooses the server instance
- * that currently holds an active tunnel for the requested subdomain. If no instance confirms
- * ownership, it falls back to the first instance from the list. For all other requests,
- * it delegates to round-robin.
+ * that currently holds an active tunnel for the requested subdomain. The owner is looked up in the
+ * {@link TunnelOwnershipMap}; the instances are probed directly only while the map is not yet
+ * synced with every instance. If no instance owns the target, it falls back to the first instance
+ * from the list. For all other requests, it delegates to round-robin.
  */
 public class PortBuddySubdomainLoadBalancer implements ReactorServiceInstanceLoadBalancer {
 
     private final ObjectProvider<ServiceInstanceListSupplier> supplierProvider;
     private final String serviceId;
     private final RoundRobinLoadBalancer roundRobin;
+    private final TunnelOwnershipMap ownershipMap;
     private final WebClient webClient;
 
     /**
@@ -53,11 +55,14 @@ public class PortBuddySubdomainLoadBalancer implements ReactorServiceInstanceLoa
      *
      * @param supplierProvider the service instance supplier provider
      * @param serviceId        service ID
+     * @param ownershipMap     map of tunnel owners pushed by the server instances
      */
     public PortBuddySubdomainLoadBalancer(final ObjectProvider<ServiceInstanceListSupplier> supplierProvider,
-                                          final String serviceId) {
+                                          final String serviceId,
+                                          final TunnelOwnershipMap ownershipMap) {
         this.supplierProvider = supplierProvider;
         this.serviceId = serviceId;
+        this.ownershipMap = ownershipMap;
         this.roundRobin = new RoundRobinLoadBalancer(supplierProvider, serviceId);
         this.webClient = WebClient.builder().build();
     }
@@ -87,7 +92,16 @@ public class PortBuddySubdomainLoadBalancer implements ReactorServiceInstanceLoa
                 return Mono.just(new EmptyResponse());
             }
 
-            // Probe all instances concurrently; pick the first that returns 200 OK.
+            final var owner = findKnownOwner(instances, target, isCustomDomain);
+            if (owner != null) {
+                return Mono.just(new DefaultResponse(owner));
+            }
+            if (ownershipMap.isSyncedWith(instances)) {
+                return Mono.just(new DefaultResponse(instances.getFirst()));
+            }
+
+            // Ownership of some instance is unknown yet: probe all instances concurrently; pick the
+            // first that returns 200 OK.
             final var probeTimeout = Duration.ofMillis(500);
             return findOwningInstance(instances, target, isCustomDomain, probeTimeout)
                 .map(DefaultResponse::new)
@@ -95,6 +109,21 @@ public class PortBuddySubdomainLoadBalancer implements ReactorServiceInstanceLoa
         });
     }
 
+    private ServiceInstance findKnownOwner(final List<ServiceInstance> instances,
+                                           final String target,
+                                           final boolean isCustomDomain) {
+        final var ownerKey = ownershipMap.ownerOf(target, isCustomDomain);
+        if (ownerKey == null) {
+            return null;
+        }
+        for (final var instance : instances) {
+            if (ownerKey.equals(TunnelOwnershipMap.instanceKey(instance))) {
+                return instance;
+            }
+        }
+        return null;
+    }
+
     private Mono<ServiceInstance> findOwningInstance(final List<ServiceInstance> instances,
                                                      final String target,
                                                      final boolean isCustomDomain,
@@ -0,0 +1,206 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.gateway.loadbalancer;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.ReactiveDiscoveryClient;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import tech.amak.portbuddy.gateway.config.AppProperties;
+import tech.amak.portbuddy.gateway.dto.TunnelOwnershipResponse;
+
+/**
+ * Gateway-side map of which server instance holds the tunnel for a subdomain or custom domain.
+ * Every server instance found in discovery is long-polled for its ownership snapshot; a server
+ * answers as soon as a tunnel connects or disconnects or a custom domain is mapped through it, or
+ * with a fresh snapshot when the poll times out, so the map follows changes immediately and is
+ * fully resynced on every poll. A custom domain mapped through another instance therefore reaches
+ * the map within one poll timeout.
+ * Entries of an instance are dropped when polling it fails or it leaves discovery.
+ */
+@Slf4j
+@Component
+public class TunnelOwnershipMap {
+
+    private static final String SERVER_SERVICE_ID = "port-buddy-server";
+    private static final Duration REQUEST_TIMEOUT_MARGIN = Duration.ofSeconds(5);
+
+    private final ReactiveDiscoveryClient discoveryClient;
+    private final AppProperties.TunnelOwnership settings;
+    private final WebClient webClient;
+
+    private final Map<String, Disposable> pollers = new ConcurrentHashMap<>();
+    private final Map<String, TunnelOwnershipResponse> snapshots = new ConcurrentHashMap<>();
+    private volatile Map<String, String> subdomainOwners = Map.of();
+    private volatile Map<String, String> customDomainOwners = Map.of();
+    private Disposable discovery;
+
+    /**
+     * Creates the map.
+     *
+     * @param discoveryClient discovery client used to find server instances
+     * @param properties      application properties
+     */
+    public TunnelOwnershipMap(final ReactiveDiscoveryClient discoveryClient, final AppProperties properties) {
+        this.discoveryClient = discoveryClient;
+        this.settings = properties.tunnelOwnership();
+        // Plain client: each poll targets one specific instance, not the load-balanced service
+        this.webClient = WebClient.builder().build();
+    }
+
+    @PostConstruct
+    void start() {
+        discovery = Flux.interval(Duration.ZERO, settings.discoveryInterval())
+            .onBackpressureDrop()
+            .concatMap(tick -> discoveryClient.getInstances(SERVER_SERVICE_ID)
+                .collectList()
+                .onErrorResume(e -> {
+                    log.warn("Failed to discover {} instances: {}", SERVER_SERVICE_ID, e.getMessage());
+                    return Mono.empty();
+                }))
+            .subscribe(this::reconcile);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (discovery != null) {
+            discovery.dispose();
+        }
+        pollers.values().forEach(Disposable::dispose);
+        pollers.clear();
+    }
+
+    /**
+     * Returns the instance key ({@code host:port}) of the server holding the tunnel for a target.
+     *
+     * @param target       subdomain, or custom domain without port
+     * @param customDomain whether {@code target} is a custom domain
+     * @return the owning instance key, or {@code null} if no known instance owns the target
+     */
+    public String ownerOf(final String target, final boolean customDomain) {
+        final var owners = customDomain ? customDomainOwners : subdomainOwners;
+        return owners.get(target.toLowerCase());
+    }
+
+    /**
+     * Returns whether a current snapshot is held for every given instance, i.e. whether a miss in
+     * {@link #ownerOf(String, boolean)} means that none of them serves the target.
+     *
+     * @param instances candidate server instances
+     * @return {@code true} if the map covers all instances
+     */
+    public boolean isSyncedWith(final List<ServiceInstance> instances) {
+        for (final var instance : instances) {
+            if (!snapshots.containsKey(instanceKey(instance))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the key used to identify a server instance in the map.
+     *
+     * @param instance service instance
+     * @return {@code host:port}
+     */
+    public static String instanceKey(final ServiceInstance instance) {
+        return instance.getHost() + ":" + instance.getPort();
+    }
+
+    private void reconcile(final List<ServiceInstance> instances) {
+        final var live = new HashMap<String, ServiceInstance>();
+        for (final var instance : instances) {
+            live.put(instanceKey(instance), instance);
+        }
+
+        var removed = false;
+        for (final var key : List.copyOf(pollers.keySet())) {
+            if (!live.containsKey(key)) {
+                log.info("Server instance {} left discovery, dropping its tunnel ownership", key);
+                pollers.remove(key).dispose();
+                removed |= snapshots.remove(key) != null;
+            }
+        }
+        if (removed) {
+            rebuildIndex();
+        }
+
+        live.forEach((key, instance) -> pollers.computeIfAbsent(key, ignored -> poll(key, instance)));
+    }
+
+    private Disposable poll(final String key, final ServiceInstance instance) {
+        final var version = new AtomicLong(-1);
+        return Mono.defer(() -> fetch(instance, version.get()))
+            .doOnNext(snapshot -> {
+                version.set(snapshot.version());
+                snapshots.put(key, snapshot);
+                rebuildIndex();
+            })
+            .doOnError(e -> {
+                log.debug("Failed to poll tunnel ownership of {}: {}", key, e.getMessage());
+                version.set(-1);
+                if (snapshots.remove(key) != null) {
+                    rebuildIndex();
+                }
+            })
+            .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, settings.retryDelay()))
+            .repeat()
+            .subscribe();
+    }
+
+    private Mono<TunnelOwnershipResponse> fetch(final ServiceInstance instance, final long version) {
+        final var scheme = instance.isSecure() ? "https" : "http";
+        final var waitMs = version < 0 ? 0 : settings.pollTimeout().toMillis();
+        final var uri = URI.create("%s://%s:%d/ingress/owners?version=%d&waitMs=%d".formatted(
+            scheme, instance.getHost(), instance.getPort(), version, waitMs));
+        return webClient.get()
+            .uri(uri)
+            .retrieve()
+            .bodyToMono(TunnelOwnershipResponse.class)
+            .timeout(settings.pollTimeout().plus(REQUEST_TIMEOUT_MARGIN));
+    }
+
+    private synchronized void rebuildIndex() {
+        final var subdomains = new HashMap<String, String>();
+        final var customDomains = new HashMap<String, String>();
+        snapshots.forEach((key, snapshot) -> {
+            if (snapshot.subdomains() != null) {
+                snapshot.subdomains().forEach(subdomain -> subdomains.put(subdomain.toLowerCase(), key));
+            }
+            if (snapshot.customDomains() != null) {
+                snapshot.customDomains().forEach(domain -> customDomains.put(domain.toLowerCase(), key));
+            }
+        });
+        subdomainOwners = subdomains;
+        customDomainOwners = customDomains;
+    }
+}
@@ -16,33 +16,71 @@ package tech.amak.portbuddy.gateway.ssl;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.SequenceInputStream;
+import java.time.Clock;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLException;
 
 import org.springframework.stereotype.Service;
 
-import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 
+import io.netty.handler.ssl.OpenSsl;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
 import tech.amak.portbuddy.gateway.client.SslServiceClient;
 import tech.amak.portbuddy.gateway.config.AppProperties;
+import tech.amak.portbuddy.gateway.dto.CertificateResponse;
+import tech.amak.portbuddy.gateway.dto.CertificateSnapshotResponse;
 
+/**
+ * Resolves the TLS context for an SNI hostname without waiting on the network during handshakes.
+ * The active certificates are long-polled from the ssl-service: every context is built ahead of
+ * time, rebuilt as soon as its certificate is renewed, and hostnames without a certificate are
+ * answered with the fallback context from the snapshot alone. Until the first snapshot arrives,
+ * hostnames are looked up one by one and misses are remembered in a bounded negative cache.
+ * Contexts use OpenSSL when available, with session ticket keys shared by all gateway instances.
+ */
 @Service
 @Slf4j
 public class DynamicSslProvider {
 
+    private static final Duration TICKET_KEY_CHECK_INTERVAL = Duration.ofMinutes(1);
+
     private final AppProperties properties;
+    private final AppProperties.ContextCache settings;
+    private final AppProperties.Session session;
+    private final SslProvider sslProvider;
+    private final SessionTicketKeys ticketKeys;
     private final SslServiceClient sslServiceClient;
-    private final AsyncCache<String, SslContext> sslContextCache;
+    private final AsyncLoadingCache<String, SslContext> sslContextCache;
+    private final Cache<String, Boolean> missingDomains;
     private final String baseDomain;
     @Getter
     private final SslContext fallbackSslContext;
+    // Active certificates by domain, null until the first snapshot from the ssl-service
+    private volatile Map<String, CertificateResponse> certificates;
+    private Disposable snapshotPoller;
+    private Disposable ticketKeyRotation;
 
     /**
      * Constructs a new instance of the DynamicSslProvider.
@@ -53,14 +91,106 @@ public class DynamicSslProvider {
     public DynamicSslProvider(final SslServiceClient sslServiceClient, final AppProperties properties) {
         this.sslServiceClient = sslServiceClient;
         this.properties = properties;
+        this.settings = properties.ssl().cache() != null
+            ? properties.ssl().cache()
+            : new AppProperties.ContextCache(0, null, null, 0, null, null);
+        this.session = properties.ssl().session() != null
+            ? properties.ssl().session()
+            : new AppProperties.Session(0, null, null, null);
+        // Shared ticket keys need OpenSSL; the JDK provider cannot be given ticket keys
+        this.sslProvider = OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+        this.ticketKeys = new SessionTicketKeys(session.ticketKeyFile(), session.ticketKeyRotation(),
+            session.timeout(), Clock.systemUTC());
+        if (ticketKeys.enabled() && sslProvider != SslProvider.OPENSSL) {
+            log.warn("OpenSSL is not available, TLS session tickets cannot be shared between gateways");
+        }
+        // Loaded before the first context is built; without keys contexts keep their own random ones
+        refreshTicketKeys();
         this.baseDomain = properties.domain();
+        // Contexts are reloaded in the background after refreshAfter; a failed reload keeps the old one
         this.sslContextCache = Caffeine.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(Duration.ofHours(1))
-            .buildAsync();
+            .maximumSize(settings.maximumSize())
+            .refreshAfterWrite(settings.refreshAfter())
+            .buildAsync((domain, executor) -> loadSslContext(domain).toFuture());
+        this.missingDomains = Caffeine.newBuilder()
+            .maximumSize(settings.negativeMaximumSize())
+            .expireAfterWrite(settings.negativeTtl())
+            .build();
         this.fallbackSslContext = createFallbackSslContext();
     }
 
+    @PostConstruct
+    void start() {
+        if (!properties.ssl().enabled()) {
+            return;
+        }
+        final var version = new AtomicLong(-1);
+        snapshotPoller = Mono.defer(() -> sslServiceClient.getCertificates(version.get(),
+                version.get() < 0 ? Duration.ZERO : settings.pollTimeout()))
+            .doOnNext(snapshot -> {
+                version.set(snapshot.version());
+                applySnapshot(snapshot);
+            })
+            .doOnError(e -> {
+                // The last snapshot stays in use, so handshakes are unaffected while ssl-service is down
+                log.debug("Failed to poll certificates from ssl-service: {}", e.getMessage());
+                version.set(-1);
+            })
+            .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, settings.retryDelay()))
+            .repeat()
+            .subscribe();
+
+        if (ticketKeys.enabled()) {
+            final var period = new AtomicLong(ticketKeys.period());
+            final var interval = TICKET_KEY_CHECK_INTERVAL.compareTo(session.ticketKeyRotation()) < 0
+                ? TICKET_KEY_CHECK_INTERVAL
+                : session.ticketKeyRotation();
+            // Picks up keys added by other gateways, and installs the next period's key at rotation
+            ticketKeyRotation = Flux.interval(interval, Schedulers.boundedElastic())
+                .filter(tick -> {
+                    final var changed = refreshTicketKeys();
+                    final var current = ticketKeys.period();
+                    return period.getAndSet(current) != current || changed;
+                })
+                .subscribe(tick -> rotateTicketKeys());
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        if (snapshotPoller != null) {
+            snapshotPoller.dispose();
+        }
+        if (ticketKeyRotation != null) {
+            ticketKeyRotation.dispose();
+        }
+    }
+
+    private boolean refreshTicketKeys() {
+        try {
+            return ticketKeys.refresh();
+        } catch (final IOException e) {
+            log.warn("Failed to refresh TLS session ticket keys: {}", e.toString());
+            return false;
+        }
+    }
+
+    private void rotateTicketKeys() {
+        ticketKeys.apply(fallbackSslContext);
+        sslContextCache.synchronous().asMap().values().forEach(ticketKeys::apply);
+        log.debug("Rotated TLS session ticket keys to period {}", ticketKeys.period());
+    }
+
+    private SslContext buildContext(final SslContextBuilder builder) throws SSLException {
+        final var context = builder
+            .sslProvider(sslProvider)
+            .sessionCacheSize(session.cacheSize())
+            .sessionTimeout(session.timeout().toSeconds())
+            .build();
+        ticketKeys.apply(context);
+        return context;
+    }
+
     private SslContext createFallbackSslContext() {
         final var fallback = properties.ssl().fallback();
 
@@ -68,7 +198,7 @@ public class DynamicSslProvider {
             if (fallback == null || !fallback.enabled()) {
                 log.info("Fallback certificate is disabled. Generating a temporary self-signed certificate.");
                 final var ssc = new SelfSignedCertificate();
-                return SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey()).build();
+                return buildContext(SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey()));
             }
 
             log.info("Loading fallback certificate from: {} and {}",
@@ -76,13 +206,13 @@ public class DynamicSslProvider {
 
             try (var certStream = fallback.keyCertChainFile().getInputStream();
                  var keyStream = fallback.keyFile().getInputStream()) {
-                return SslContextBuilder.forServer(certStream, keyStream).build();
+                return buildContext(SslContextBuilder.forServer(certStream, keyStream));
             }
         } catch (final Exception e) {
             log.error("Failed to create fallback SSL context", e);
             try {
                 final var ssc = new SelfSignedCertificate();
-                return SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey()).build();
+                return buildContext(SslContextBuilder.forServer(ssc.certificate(), ssc.privateKey()));
             } catch (final Exception ex) {
                 log.error("Failed to create even a temporary self-signed certificate", ex);
                 return null;
@@ -100,57 +230,103 @@ public class DynamicSslProvider {
         if (hostname == null) {
             return Mono.just(fallbackSslContext);
         }
-        return Mono.fromFuture(sslContextCache.get(hostname, (h, executor) -> loadSslContext(h).toFuture()));
+        final var lookupDomain = lookupDomain(hostname);
+        final var known = certificates;
+        if (known != null ? !known.containsKey(lookupDomain) : missingDomains.getIfPresent(lookupDomain) != null) {
+            return Mono.just(fallbackSslContext);
+        }
+        return Mono.fromFuture(sslContextCache.get(lookupDomain))
+            .onErrorResume(e -> {
+                log.debug("No SSL context for {}. Using fallback: {}", lookupDomain, e.getMessage());
+                return Mono.just(fallbackSslContext);
+            });
+    }
+
+    /**
+     * Replaces the known certificates with a snapshot from the ssl-service: contexts of new and
+     * renewed certificates are (re)built in the background, those of removed ones are dropped.
+     *
+     * @param snapshot certificate snapshot
+     */
+    void applySnapshot(final CertificateSnapshotResponse snapshot) {
+        final var next = new HashMap<String, CertificateResponse>();
+        if (snapshot.certificates() != null) {
+            for (final var certificate : snapshot.certificates()) {
+                if (certificate.domain() != null) {
+                    next.put(certificate.domain().toLowerCase(Locale.ROOT), certificate);
+                }
+            }
+        }
+        final var previous = certificates == null ? Map.<String, CertificateResponse>of() : certificates;
+        certificates = next;
+        missingDomains.invalidateAll();
+
+        final var contexts = sslContextCache.synchronous();
+        previous.keySet().stream()
+            .filter(domain -> !next.containsKey(domain))
+            .forEach(contexts::invalidate);
+        next.forEach((domain, certificate) -> {
+            if (!certificate.equals(previous.get(domain))) {
+                // Keeps serving the current context, if any, until the new one is built
+                contexts.refresh(domain);
+            }
+        });
+        log.debug("Applied certificate snapshot {} with {} certificates", snapshot.version(), next.size());
     }
 
-    private Mono<SslContext> loadSslContext(final String hostname) {
-        var lookupDomain = hostname;
-        if (hostname.equals(baseDomain) || hostname.endsWith("." + baseDomain)) {
-            lookupDomain = "*." + baseDomain;
+    private String lookupDomain(final String hostname) {
+        final var normalized = hostname.toLowerCase(Locale.ROOT);
+        // Every subdomain is served by the wildcard certificate, so they share one cache entry
+        if (normalized.equals(baseDomain) || normalized.endsWith("." + baseDomain)) {
+            return "*." + baseDomain;
         }
+        return normalized;
+    }
 
-        log.debug("Loading SSL context for hostname: {}, lookup domain: {}", hostname, lookupDomain);
+    private Mono<SslContext> loadSslContext(final String lookupDomain) {
+        log.debug("Loading SSL context for lookup domain: {}", lookupDomain);
 
-        final String finalLookupDomain = lookupDomain;
-        return sslServiceClient.getCertificate(lookupDomain)
-            .map(cert -> {
-                if (cert == null || cert.certificatePath() == null || cert.privateKeyPath() == null) {
-                    log.warn("No certificate found for {}. Using fallback.", finalLookupDomain);
-                    return fallbackSslContext;
-                }
+        final var known = certificates;
+        final var certificate = known != null
+            ? Mono.justOrEmpty(known.get(lookupDomain))
+            : sslServiceClient.getCertificate(lookupDomain);
+        return certificate
+            .filter(cert -> cert.certificatePath() != null && cert.privateKeyPath() != null)
+            .switchIfEmpty(Mono.defer(() -> {
+                log.warn("No certificate found for {}. Using fallback.", lookupDomain);
+                missingDomains.put(lookupDomain, Boolean.TRUE);
+                // Failed loads are not cached, so unknown names cannot evict real contexts
+                return Mono.error(new IllegalStateException("No certificate for " + lookupDomain));
+            }))
+            .map(cert -> createSslContext(lookupDomain, cert));
+    }
 
-                try {
-                    if (cert.fullChainPath() != null) {
-                        return SslContextBuilder.forServer(
-                            new File(cert.fullChainPath()),
-                            new File(cert.privateKeyPath())
-                        ).build();
-                    }
-
-                    if (cert.chainPath() != null && !cert.chainPath().isBlank()) {
-                        log.debug("Full chain path missing, but chain path present. Concatenating for {}.",
-                            finalLookupDomain);
-                        try (var certIs = new FileInputStream(cert.certificatePath());
-                             var chainIs = new FileInputStream(cert.chainPath());
-                             var fullChainIs = new SequenceInputStream(certIs, chainIs);
-                             var keyIs = new FileInputStream(cert.privateKeyPath())) {
-                            return SslContextBuilder.forServer(fullChainIs, keyIs).build();
-                        }
-                    }
-
-                    return SslContextBuilder.forServer(
-                        new File(cert.certificatePath()),
-                        new File(cert.privateKeyPath())
-                    ).build();
-                } catch (final Exception e) {
-                    log.error("Failed to create SslContext for {}. Using fallback.", finalLookupDomain, e);
-                    return fallbackSslContext;
+    private SslContext createSslContext(final String lookupDomain, final CertificateResponse cert) {
+        try {
+            if (cert.fullChainPath() != null) {
+                return buildContext(SslContextBuilder.forServer(
+                    new File(cert.fullChainPath()),
+                    new File(cert.privateKeyPath())
+                ));
+            }
+
+            if (cert.chainPath() != null && !cert.chainPath().isBlank()) {
+                log.debug("Full chain path missing, but chain path present. Concatenating for {}.", lookupDomain);
+                try (var certIs = new FileInputStream(cert.certificatePath());
+                     var chainIs = new FileInputStream(cert.chainPath());
+                     var fullChainIs = new SequenceInputStream(certIs, chainIs);
+                     var keyIs = new FileInputStream(cert.privateKeyPath())) {
+                    return buildContext(SslContextBuilder.forServer(fullChainIs, keyIs));
                 }
-            })
-            .defaultIfEmpty(fallbackSslContext)
-            .onErrorResume(e -> {
-                log.error("Error retrieving certificate for {}. Using fallback.", finalLookupDomain, e);
-                return Mono.just(fallbackSslContext);
-            });
+            }
+
+            return buildContext(SslContextBuilder.forServer(
+                new File(cert.certificatePath()),
+                new File(cert.privateKeyPath())
+            ));
+        } catch (final Exception e) {
+            log.error("Failed to create SslContext for {}.", lookupDomain, e);
+            throw new IllegalStateException("Failed to create SslContext for " + lookupDomain, e);
+        }
     }
 }
@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.gateway.ssl;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import io.netty.handler.ssl.OpenSslSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+
+/**
+ * TLS session ticket keys shared by all gateway instances through a key file on shared storage,
+ * so that a ticket issued by one instance resumes the session on any other one and across
+ * restarts. Time is cut into rotation periods, each with its own randomly generated key: the key
+ * of the current period encrypts new tickets, while the keys of the next period and of the
+ * periods a ticket can still be valid in only decrypt them, which tolerates clock skew between
+ * instances and tickets issued shortly before a rotation.
+ * <p>
+ * Whichever instance first needs the key of a period generates it and adds it to the file; the
+ * others pick it up on their next {@link #refresh()}. Keys of periods whose tickets have all
+ * expired are removed from the file and from memory, so a leaked key file or process memory does
+ * not expose sessions older than the ticket lifetime.
+ */
+final class SessionTicketKeys {
+
+    private static final int KEY_PART_LENGTH = 16;
+    private static final int KEY_LENGTH = 3 * KEY_PART_LENGTH;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Path keyFile;
+    private final long rotationMillis;
+    private final int previousPeriods;
+    private final Clock clock;
+
+    // Key material by period, as last read from the key file; guarded by this
+    private NavigableMap<Long, byte[]> keys = new TreeMap<>();
+
+    /**
+     * Creates the keys. No key is available before the first {@link #refresh()}.
+     *
+     * @param keyFile        key file on storage shared by all gateways; blank disables shared keys and keeps
+     *                       the per-context random keys
+     * @param rotation       length of a rotation period
+     * @param ticketLifetime how long a ticket may be used to resume a session
+     * @param clock          clock used to determine the current period
+     */
+    SessionTicketKeys(final String keyFile, final Duration rotation, final Duration ticketLifetime, final Clock clock) {
+        this.keyFile = keyFile == null || keyFile.isBlank() ? null : Path.of(keyFile);
+        this.rotationMillis = rotation.toMillis();
+        this.previousPeriods = (int) Math.max(1, (ticketLifetime.toMillis() + rotationMillis - 1) / rotationMillis);
+        this.clock = clock;
+    }
+
+    boolean enabled() {
+        return keyFile != null;
+    }
+
+    /**
+     * Returns the current rotation period.
+     *
+     * @return period number since the epoch
+     */
+    long period() {
+        return clock.millis() / rotationMillis;
+    }
+
+    /**
+     * Reloads the key file. Keys missing for the current and the next period are generated and
+     * written back, and keys that no valid ticket can use anymore are dropped. The file is locked
+     * meanwhile, so instances refreshing at the same time agree on the new keys.
+     *
+     * @return {@code true} if the keys in use changed
+     * @throws IOException if the key file cannot be read, written or is malformed
+     */
+    synchronized boolean refresh() throws IOException {
+        if (keyFile == null) {
+            return false;
+        }
+        final var period = period();
+        final var directory = keyFile.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final var lockFile = directory.resolve(keyFile.getFileName() + ".lock");
+        final NavigableMap<Long, byte[]> loaded;
+        try (var lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             var ignored = lockChannel.lock()) {
+            loaded = read();
+            final var expired = loaded.headMap(period - previousPeriods, false);
+            var modified = !expired.isEmpty();
+            erase(expired, Map.of());
+            expired.clear();
+            for (var missing = period; missing <= period + 1; missing++) {
+                if (!loaded.containsKey(missing)) {
+                    final var material = new byte[KEY_LENGTH];
+                    random.nextBytes(material);
+                    loaded.put(missing, material);
+                    modified = true;
+                }
+            }
+            if (modified) {
+                write(loaded);
+            }
+        }
+        final var previous = keys;
+        final var changed = !sameKeys(previous, loaded);
+        keys = loaded;
+        erase(previous, loaded);
+        return changed;
+    }
+
+    /**
+     * Returns the keys for a period, the encryption key first. Keys not loaded are left out.
+     *
+     * @param period rotation period
+     * @return ticket keys; empty if the encryption key is not loaded
+     */
+    synchronized OpenSslSessionTicketKey[] keys(final long period) {
+        if (!keys.containsKey(period)) {
+            return new OpenSslSessionTicketKey[0];
+        }
+        final var result = new ArrayList<OpenSslSessionTicketKey>(previousPeriods + 2);
+        for (final var candidate : new long[] {period, period + 1}) {
+            addKey(result, candidate);
+        }
+        for (var i = 1; i <= previousPeriods; i++) {
+            addKey(result, period - i);
+        }
+        return result.toArray(OpenSslSessionTicketKey[]::new);
+    }
+
+    /**
+     * Installs the keys of the current period into a context. Only OpenSSL contexts support
+     * custom ticket keys; other contexts are left unchanged, and so are all contexts while no
+     * key is loaded.
+     *
+     * @param context TLS context
+     */
+    void apply(final SslContext context) {
+        if (keyFile != null && context != null && context.sessionContext() instanceof OpenSslSessionContext openSsl) {
+            final var current = keys(period());
+            if (current.length > 0) {
+                openSsl.setTicketKeys(current);
+            }
+        }
+    }
+
+    private void addKey(final ArrayList<OpenSslSessionTicketKey> result, final long period) {
+        final var material = keys.get(period);
+        if (material != null) {
+            result.add(new OpenSslSessionTicketKey(
+                Arrays.copyOfRange(material, 0, KEY_PART_LENGTH),
+                Arrays.copyOfRange(material, KEY_PART_LENGTH, 2 * KEY_PART_LENGTH),
+                Arrays.copyOfRange(material, 2 * KEY_PART_LENGTH, KEY_LENGTH)));
+        }
+    }
+
+    /**
+     * Reads the key file: one line per period with the period number and the Base64 key material.
+     */
+    private NavigableMap<Long, byte[]> read() throws IOException {
+        final var result = new TreeMap<Long, byte[]>();
+        if (!Files.isRegularFile(keyFile)) {
+            return result;
+        }
+        for (final var line : Files.readAllLines(keyFile, StandardCharsets.US_ASCII)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            final var fields = line.trim().split("\\s+");
+            try {
+                final var material = Base64.getDecoder().decode(fields[fields.length - 1]);
+                if (fields.length != 2 || material.length != KEY_LENGTH) {
+                    throw new IllegalArgumentException("wrong key length");
+                }
+                result.put(Long.parseLong(fields[0]), material);
+            } catch (final IllegalArgumentException e) {
+                throw new IOException("Malformed session ticket key file: " + keyFile, e);
+            }
+        }
+        return result;
+    }
+
+    private void write(final NavigableMap<Long, byte[]> entries) throws IOException {
+        final var content = new StringBuilder();
+        for (final var entry : entries.entrySet()) {
+            content.append(entry.getKey()).append(' ')
+                .append(Base64.getEncoder().encodeToString(entry.getValue())).append('\n');
+        }
+        final var directory = keyFile.toAbsolutePath().getParent();
+        final var temp = Files.createTempFile(directory, keyFile.getFileName().toString(), ".tmp", ownerOnly());
+        try {
+            Files.writeString(temp, content, StandardCharsets.US_ASCII);
+            // Readers see either the previous keys or the complete new ones
+            Files.move(temp, keyFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static FileAttribute<?>[] ownerOnly() {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+        final var permissions = PosixFilePermissions.fromString("rw-------");
+        return new FileAttribute<?>[] {PosixFilePermissions.asFileAttribute(permissions)};
+    }
+
+    private static boolean sameKeys(final Map<Long, byte[]> first, final Map<Long, byte[]> second) {
+        if (!first.keySet().equals(second.keySet())) {
+            return false;
+        }
+        for (final var entry : first.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), second.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Overwrites key material that is no longer in use.
+     */
+    private static void erase(final Map<Long, byte[]> previous, final Map<Long, byte[]> current) {
+        for (final var entry : previous.entrySet()) {
+            if (current.get(entry.getKey()) != entry.getValue()) {
+                Arrays.fill(entry.getValue(), (byte) 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.gateway.ssl;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+
+/**
+ * Counts TLS handshakes by outcome, so that the share of resumed sessions can be watched. Placed
+ * right after the SNI handler; it removes itself once the handshake of its channel completed.
+ * Only OpenSSL engines report whether a session was resumed, JDK engines are counted as unknown.
+ */
+@ChannelHandler.Sharable
+public class TlsHandshakeMetrics extends ChannelInboundHandlerAdapter {
+
+    private static final String METRIC = "gateway.tls.handshakes";
+
+    private final Counter resumed;
+    private final Counter full;
+    private final Counter unknown;
+    private final Counter failed;
+
+    /**
+     * Creates the handler.
+     *
+     * @param meterRegistry registry the counters are registered with
+     */
+    public TlsHandshakeMetrics(final MeterRegistry meterRegistry) {
+        this.resumed = counter(meterRegistry, "resumed");
+        this.full = counter(meterRegistry, "full");
+        this.unknown = counter(meterRegistry, "unknown");
+        this.failed = counter(meterRegistry, "failed");
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) throws Exception {
+        if (evt instanceof SslHandshakeCompletionEvent completion) {
+            if (!completion.isSuccess()) {
+                failed.increment();
+            } else {
+                final var sslHandler = ctx.pipeline().get(SslHandler.class);
+                if (sslHandler != null && sslHandler.engine() instanceof ReferenceCountedOpenSslEngine engine) {
+                    (engine.isSessionReused() ? resumed : full).increment();
+                } else {
+                    unknown.increment();
+                }
+            }
+            ctx.pipeline().remove(this);
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
+    private static Counter counter(final MeterRegistry meterRegistry, final String session) {
+        return Counter.builder(METRIC)
+            .description("TLS handshakes by session outcome")
+            .tag("session", session)
+            .register(meterRegistry);
+    }
+}
@@ -28,6 +28,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
 import org.springframework.http.server.reactive.HttpHandler;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 import reactor.core.publisher.Mono;
@@ -54,7 +55,8 @@ class SslServerConfigTest {
         when(sslProvider.getSslContext(anyString())).thenReturn(Mono.just(fallbackContext));
         when(httpHandler.handle(any(), any())).thenReturn(Mono.empty());
 
-        final var sslServerConfig = new SslServerConfig(properties, sslProvider, httpHandler);
+        final var sslServerConfig = new SslServerConfig(properties, sslProvider, httpHandler,
+            new SimpleMeterRegistry());
         final var customizer = sslServerConfig.sslCustomizer();
 
         final var factory = new NettyReactiveWebServerFactory(0);
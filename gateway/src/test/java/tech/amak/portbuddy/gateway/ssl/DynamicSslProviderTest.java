@@ -15,9 +15,17 @@
 package tech.amak.portbuddy.gateway.ssl;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.time.OffsetDateTime;
+import java.util.List;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -25,9 +33,12 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
 import reactor.core.publisher.Mono;
 import tech.amak.portbuddy.gateway.client.SslServiceClient;
 import tech.amak.portbuddy.gateway.config.AppProperties;
+import tech.amak.portbuddy.gateway.dto.CertificateResponse;
+import tech.amak.portbuddy.gateway.dto.CertificateSnapshotResponse;
 
 @ExtendWith(MockitoExtension.class)
 class DynamicSslProviderTest {
@@ -71,4 +82,53 @@ class DynamicSslProviderTest {
         // Then
         assertNotNull(context);
     }
+
+    @Test
+    void shouldRememberMissingCertificateBeforeSnapshot() {
+        // Given
+        when(sslServiceClient.getCertificate("unknown.com")).thenReturn(Mono.empty());
+
+        // When
+        sslProvider.getSslContext("unknown.com").block();
+        final SslContext context = sslProvider.getSslContext("unknown.com").block();
+
+        // Then
+        assertSame(sslProvider.getFallbackSslContext(), context);
+        verify(sslServiceClient, times(1)).getCertificate("unknown.com");
+    }
+
+    @Test
+    void shouldServeSubdomainsFromPrewarmedWildcardCertificate() throws Exception {
+        // Given
+        final var certificate = new SelfSignedCertificate("*.portbuddy.dev");
+        sslProvider.applySnapshot(new CertificateSnapshotResponse(1, List.of(new CertificateResponse(
+            "*.portbuddy.dev",
+            certificate.certificate().getPath(),
+            certificate.privateKey().getPath(),
+            null,
+            null,
+            OffsetDateTime.now()))));
+
+        // When
+        final SslContext first = sslProvider.getSslContext("app.portbuddy.dev").block();
+        final SslContext second = sslProvider.getSslContext("api.portbuddy.dev").block();
+
+        // Then
+        assertNotSame(sslProvider.getFallbackSslContext(), first);
+        assertSame(first, second);
+        verify(sslServiceClient, never()).getCertificate(anyString());
+    }
+
+    @Test
+    void shouldAnswerUnknownHostnameFromSnapshotWithoutLookup() {
+        // Given
+        sslProvider.applySnapshot(new CertificateSnapshotResponse(1, List.of()));
+
+        // When
+        final SslContext context = sslProvider.getSslContext("random.example.com").block();
+
+        // Then
+        assertSame(sslProvider.getFallbackSslContext(), context);
+        verify(sslServiceClient, never()).getCertificate(anyString());
+    }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.gateway.ssl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+
+class SessionTicketKeysTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+    private static final Duration ROTATION = Duration.ofHours(6);
+    private static final Duration LIFETIME = Duration.ofHours(12);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void shouldShareKeysThroughKeyFile() throws IOException {
+        // Given
+        final var keyFile = directory.resolve("tls").resolve("ticket-keys");
+        final var first = keys(keyFile, NOW);
+        final var second = keys(keyFile, NOW);
+
+        // When
+        first.refresh();
+        second.refresh();
+
+        // Then
+        final var firstKeys = first.keys(first.period());
+        final var secondKeys = second.keys(second.period());
+        assertEquals(2, firstKeys.length);
+        assertSameKeys(firstKeys, secondKeys);
+    }
+
+    @Test
+    void shouldGenerateRandomKeys() throws IOException {
+        // Given
+        final var first = keys(directory.resolve("first"), NOW);
+        final var second = keys(directory.resolve("second"), NOW);
+
+        // When
+        first.refresh();
+        second.refresh();
+
+        // Then
+        final var firstKeys = first.keys(first.period());
+        final var secondKeys = second.keys(second.period());
+        assertFalse(Arrays.equals(firstKeys[0].aesKey(), secondKeys[0].aesKey()));
+        assertFalse(Arrays.equals(firstKeys[0].hmacKey(), secondKeys[0].hmacKey()));
+        assertFalse(Arrays.equals(firstKeys[0].aesKey(), firstKeys[1].aesKey()));
+    }
+
+    @Test
+    void shouldKeepDecryptingTicketsOfAdjacentPeriods() throws IOException {
+        // Given
+        final var keyFile = directory.resolve("ticket-keys");
+        final var before = keys(keyFile, NOW);
+        before.refresh();
+        final var current = before.keys(before.period());
+
+        // When
+        final var after = keys(keyFile, NOW.plus(ROTATION));
+        after.refresh();
+        final var next = after.keys(after.period());
+
+        // Then
+        assertEquals(before.period() + 1, after.period());
+        assertEquals(3, next.length);
+        assertArrayEquals(current[1].name(), next[0].name());
+        assertArrayEquals(current[0].name(), next[2].name());
+        assertFalse(Arrays.equals(current[0].name(), next[0].name()));
+    }
+
+    @Test
+    void shouldDropKeysOnceTheirTicketsExpired() throws IOException {
+        // Given
+        final var keyFile = directory.resolve("ticket-keys");
+        final var before = keys(keyFile, NOW);
+        before.refresh();
+        final var period = before.period();
+
+        // When
+        final var after = keys(keyFile, NOW.plus(LIFETIME).plus(ROTATION.multipliedBy(2)));
+        after.refresh();
+
+        // Then
+        final var stored = Files.readAllLines(keyFile).stream()
+            .map(line -> Long.parseLong(line.split(" ")[0]))
+            .toList();
+        assertEquals(List.of(period + 4, period + 5), stored);
+        assertEquals(0, after.keys(period).length);
+        assertEquals(2, after.keys(after.period()).length);
+    }
+
+    @Test
+    void refreshShouldReportWhetherKeysChanged() throws IOException {
+        // Given
+        final var keyFile = directory.resolve("ticket-keys");
+        final var keys = keys(keyFile, NOW);
+
+        // Then
+        assertTrue(keys.refresh());
+        assertFalse(keys.refresh());
+
+        // A key added by another gateway is picked up
+        keys(keyFile, NOW.plus(ROTATION)).refresh();
+        assertTrue(keys.refresh());
+    }
+
+    @Test
+    void shouldWriteKeyFileReadableByOwnerOnly() throws IOException {
+        final var keyFile = directory.resolve("ticket-keys");
+        keys(keyFile, NOW).refresh();
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(keyFile));
+        }
+        // Written through a temporary file that is gone afterwards
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of("ticket-keys", "ticket-keys.lock"),
+                files.map(file -> file.getFileName().toString()).sorted().toList());
+        }
+    }
+
+    @Test
+    void shouldRejectMalformedKeyFile() throws IOException {
+        final var keyFile = directory.resolve("ticket-keys");
+        Files.writeString(keyFile, "20089 not-base64!\n");
+
+        assertThrows(IOException.class, () -> keys(keyFile, NOW).refresh());
+    }
+
+    @Test
+    void shouldBeDisabledWithoutKeyFile() throws IOException {
+        final var keys = new SessionTicketKeys(" ", ROTATION, LIFETIME, Clock.fixed(NOW, ZoneOffset.UTC));
+
+        assertFalse(keys.enabled());
+        assertFalse(keys.refresh());
+        assertEquals(0, keys.keys(keys.period()).length);
+    }
+
+    private static SessionTicketKeys keys(final Path keyFile, final Instant now) {
+        return new SessionTicketKeys(keyFile.toString(), ROTATION, LIFETIME, Clock.fixed(now, ZoneOffset.UTC));
+    }
+
+    private static void assertSameKeys(final OpenSslSessionTicketKey[] expected,
+                                       final OpenSslSessionTicketKey[] actual) {
+        assertEquals(expected.length, actual.length);
+        for (var i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i].name(), actual[i].name());
+            assertArrayEquals(expected[i].hmacKey(), actual[i].hmacKey());
+            assertArrayEquals(expected[i].aesKey(), actual[i].aesKey());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.gateway.ssl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLHandshakeException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.ssl.ReferenceCountedOpenSslEngine;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+
+class TlsHandshakeMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private TlsHandshakeMetrics metrics;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        metrics = new TlsHandshakeMetrics(meterRegistry);
+    }
+
+    @Test
+    void shouldCountResumedSession() {
+        // Given
+        final var channel = channel(openSslEngine(true));
+
+        // When
+        channel.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+
+        // Then
+        assertCounts(1, 0, 0, 0);
+        assertNull(channel.pipeline().get(TlsHandshakeMetrics.class));
+    }
+
+    @Test
+    void shouldCountFullHandshake() {
+        // Given
+        final var channel = channel(openSslEngine(false));
+
+        // When
+        channel.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+
+        // Then
+        assertCounts(0, 1, 0, 0);
+    }
+
+    @Test
+    void shouldCountJdkEngineAsUnknown() {
+        // Given
+        final var channel = channel(mock(SSLEngine.class));
+
+        // When
+        channel.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+
+        // Then
+        assertCounts(0, 0, 1, 0);
+    }
+
+    @Test
+    void shouldCountMissingSslHandlerAsUnknown() {
+        // Given
+        final var channel = new EmbeddedChannel(metrics);
+
+        // When
+        channel.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+
+        // Then
+        assertCounts(0, 0, 1, 0);
+    }
+
+    @Test
+    void shouldCountFailedHandshake() {
+        // Given
+        final var channel = channel(openSslEngine(false));
+
+        // When
+        channel.pipeline().fireUserEventTriggered(new SslHandshakeCompletionEvent(new SSLHandshakeException("bad")));
+
+        // Then
+        assertCounts(0, 0, 0, 1);
+        assertNull(channel.pipeline().get(TlsHandshakeMetrics.class));
+    }
+
+    @Test
+    void shouldCountOnlyFirstHandshakeAndPassEventsOn() {
+        // Given
+        final var events = new ArrayList<>();
+        final var channel = channel(openSslEngine(false));
+        channel.pipeline().addAfter(channel.pipeline().context(metrics).name(), "recorder",
+            new ChannelInboundHandlerAdapter() {
+                @Override
+                public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
+                    events.add(evt);
+                }
+            });
+
+        // When
+        channel.pipeline().fireUserEventTriggered("other");
+        assertNotNull(channel.pipeline().get(TlsHandshakeMetrics.class));
+        channel.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+        channel.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+
+        // Then
+        assertCounts(0, 1, 0, 0);
+        final var success = SslHandshakeCompletionEvent.SUCCESS;
+        assertEquals(List.of("other", success, success), events);
+    }
+
+    @Test
+    void shouldBeSharedByChannels() {
+        // Given
+        final var resumed = channel(openSslEngine(true));
+        final var full = channel(openSslEngine(false));
+
+        // When
+        resumed.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+        full.pipeline().fireUserEventTriggered(SslHandshakeCompletionEvent.SUCCESS);
+
+        // Then
+        assertCounts(1, 1, 0, 0);
+    }
+
+    /**
+     * Creates a channel with the handler in front of a stub SSL handler, which does not pass
+     * events on, so that only the handler under test sees them.
+     */
+    private EmbeddedChannel channel(final SSLEngine engine) {
+        final var sslHandler = mock(SslHandler.class);
+        when(sslHandler.engine()).thenReturn(engine);
+        return new EmbeddedChannel(metrics, sslHandler);
+    }
+
+    private static SSLEngine openSslEngine(final boolean sessionReused) {
+        final var engine = mock(ReferenceCountedOpenSslEngine.class);
+        when(engine.isSessionReused()).thenReturn(sessionReused);
+        return engine;
+    }
+
+    private void assertCounts(final int resumed, final int full, final int unknown, final int failed) {
+        assertEquals(resumed, count("resumed"), "resumed");
+        assertEquals(full, count("full"), "full");
+        assertEquals(unknown, count("unknown"), "unknown");
+        assertEquals(failed, count("failed"), "failed");
+    }
+
+    private double count(final String session) {
+        return meterRegistry.get("gateway.tls.handshakes").tag("session", session).counter().count();
+    }
+}
@@ -23,7 +23,8 @@ import org.springframework.util.unit.DataSize;
 public record AppProperties(
     String publicHost,
     WebSocket webSocket,
-    Jwt jwt
+    Jwt jwt,
+    DataPlane dataPlane
 ) {
 
     public record WebSocket(
@@ -38,4 +39,28 @@ public record AppProperties(
         String jwkSetUri
     ) {
     }
+
+    /**
+     * Settings of the public TCP/UDP data plane.
+     *
+     * @param eventLoops         number of selector threads; {@code 0} uses one per available processor
+     * @param maxPendingBytes    bytes a tunnel may have queued towards the client before reading from
+     *                           its public connections pauses, and per-connection limit of bytes
+     *                           queued towards a public peer
+     * @param udpFlowIdleTimeout time after which a UDP peer without traffic is forgotten
+     * @param maxUdpFlows        UDP peers tracked per tunnel; the least recently active one is
+     *                           evicted to admit a new peer
+     * @param resumeGracePeriod  time the connections of a lost tunnel WebSocket are kept open for
+     *                           the client to resume them
+     * @param maxLanes           WebSockets a single tunnel may spread its traffic over
+     */
+    public record DataPlane(
+        int eventLoops,
+        DataSize maxPendingBytes,
+        Duration udpFlowIdleTimeout,
+        int maxUdpFlows,
+        Duration resumeGracePeriod,
+        int maxLanes
+    ) {
+    }
 }
@@ -22,6 +22,7 @@ import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry
 import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
 
 import lombok.RequiredArgsConstructor;
+import tech.amak.portbuddy.netproxy.tunnel.NetTunnelFeaturesHandshakeInterceptor;
 import tech.amak.portbuddy.netproxy.tunnel.NetTunnelWebSocketHandler;
 
 @Configuration
@@ -34,7 +35,9 @@ public class WebSocketConfig implements WebSocketConfigurer {
 
     @Override
     public void registerWebSocketHandlers(final WebSocketHandlerRegistry registry) {
-        registry.addHandler(tcpHandler, "/api/net-tunnel/{tunnelId}").setAllowedOrigins("*");
+        registry.addHandler(tcpHandler, "/api/net-tunnel/{tunnelId}")
+            .addInterceptors(new NetTunnelFeaturesHandshakeInterceptor())
+            .setAllowedOrigins("*");
     }
 
     /**
@@ -1,7 +1,11 @@
 package tech.amak.portbuddy.netproxy.service;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.http.HttpEntity;
@@ -11,112 +15,108 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import jakarta.annotation.PostConstruct;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxIoc;
 import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxRequest;
 import tech.amak.portbuddy.common.dto.threatfox.ThreatFoxResponse;
+import tech.amak.portbuddy.common.threat.FileThreatFeedSource;
+import tech.amak.portbuddy.common.threat.ThreatFeed;
+import tech.amak.portbuddy.common.threat.ThreatFeedSource;
 import tech.amak.portbuddy.netproxy.config.ThreatFoxProperties;
-import tech.amak.portbuddy.netproxy.security.ThreatBlockedException;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 @EnableConfigurationProperties(ThreatFoxProperties.class)
 public class ThreatFoxService {
 
-    private static final String IOC_TYPE_IP_PORT = "ip:port";
-    private static final String IOC_TYPE_DOMAIN = "domain";
-
     private final ThreatFoxProperties properties;
     private final RestTemplate resttemplate = new RestTemplate();
-    private final Map<String, Boolean> ioccache = new ConcurrentHashMap<>();
+    private final ThreatFeed feed;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    public ThreatFoxService(final ThreatFoxProperties properties, final ObjectMapper mapper) {
+        this.properties = properties;
+        final ThreatFeedSource source = properties.sourcefile() != null
+            ? new FileThreatFeedSource(Path.of(properties.sourcefile()), mapper)
+            : this::fetchremote;
+        this.feed = new ThreatFeed(source, Path.of(properties.snapshotfile()),
+            Duration.ofDays(properties.retentiondays()), properties.fulldays(), properties.deltadays());
+    }
 
+    /**
+     * Loads the snapshot of the last good feed, which takes milliseconds; the remote feed is
+     * fetched in the background by {@link #schedulefetch()}.
+     */
     @PostConstruct
     public void init() {
-        fetchdata();
+        try {
+            if (feed.loadSnapshot()) {
+                log.info("threatfox snapshot loaded: {} iocs", feed.matcher().size());
+            }
+        } catch (final IOException e) {
+            log.warn("threatfox snapshot not loaded: {}", e.getMessage());
+        }
     }
 
-    @Scheduled(fixedRateString = "${threatfox.fetchintervalminutes:60}000", initialDelay = 3600000)
+    @Scheduled(fixedRateString = "PT${threatfox.fetchintervalminutes:60}M")
     public void schedulefetch() {
-        fetchdata();
+        // Off the scheduler thread, so a slow feed holds up neither startup nor other jobs
+        if (refreshing.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("threatfox-refresh").start(() -> {
+                try {
+                    fetchdata();
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
     }
 
     public void fetchdata() {
         try {
-            final var headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            headers.set("Auth-Key", properties.authkey());
-
-            final var request = new ThreatFoxRequest("get_iocs", 1);
-            final var entity = new HttpEntity<>(request, headers);
-
-            final var response = resttemplate.postForObject(
-                properties.apiurl(),
-                entity,
-                ThreatFoxResponse.class
-            );
-
-            processresponse(response);
+            final var fetched = feed.refresh();
+            log.info("threatfox cache updated: {} iocs fetched, {} iocs loaded", fetched, feed.matcher().size());
         } catch (final Exception e) {
             log.error("threatfox fetch failed: {}", e.getMessage());
         }
     }
 
-    private void processresponse(final ThreatFoxResponse response) {
-        if (response == null || response.data() == null) {
-            log.warn("threatfox returned empty response");
-            return;
-        }
-
-        ioccache.clear();
+    private List<ThreatFoxIoc> fetchremote(final int days) {
+        final var headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("Auth-Key", properties.authkey());
 
-        int count = 0;
-        for (final ThreatFoxIoc ioc : response.data()) {
-            if (isrelevanttype(ioc.ioctype())) {
-                final var normalized = normalizeioc(ioc.ioc());
-                ioccache.put(normalized, Boolean.TRUE);
-                count++;
-            }
-        }
-
-        log.info("threatfox cache updated: {} iocs loaded", count);
-    }
+        final var request = new ThreatFoxRequest("get_iocs", days);
+        final var entity = new HttpEntity<>(request, headers);
 
-    private boolean isrelevanttype(final String ioctype) {
-        return IOC_TYPE_IP_PORT.equalsIgnoreCase(ioctype) || IOC_TYPE_DOMAIN.equalsIgnoreCase(ioctype);
-    }
-
-    private String normalizeioc(final String ioc) {
-        if (ioc == null) {
-            return "";
-        }
-        return ioc.toLowerCase().trim();
-    }
+        final var response = resttemplate.postForObject(
+            properties.apiurl(),
+            entity,
+            ThreatFoxResponse.class
+        );
 
-    public boolean isblacklisted(final String target) {
-        if (target == null || target.isBlank()) {
-            return false;
+        if (response == null || response.data() == null) {
+            log.warn("threatfox returned empty response");
+            return List.of();
         }
-        return ioccache.containsKey(target.toLowerCase().trim());
+        return response.data();
     }
 
-    public void checkthreat(final String host, final int port) {
-        final var ipport = host + ":" + port;
-
-        if (isblacklisted(host)) {
-            log.warn("threat blocked: domain {} matches ioc", host);
-            throw new ThreatBlockedException("target host is blacklisted: " + host);
-        }
-
-        if (isblacklisted(ipport)) {
-            log.warn("threat blocked: {} matches ioc", ipport);
-            throw new ThreatBlockedException("target is blacklisted: " + ipport);
-        }
+    /**
+     * Checks a peer of a tunnel's public socket. Costs a few hash probes and no string work, so it
+     * runs for every accepted connection and every datagram.
+     *
+     * @param remote the peer address
+     * @return {@code true} if the peer matches an ioc and must be dropped
+     */
+    public boolean isblocked(final InetSocketAddress remote) {
+        return feed.matcher().matches(remote);
     }
 
     public int getcachesize() {
-        return ioccache.size();
+        return feed.matcher().size();
     }
 }
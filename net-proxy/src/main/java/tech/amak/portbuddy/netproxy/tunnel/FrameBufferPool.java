@@ -0,0 +1,56 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.netproxy.tunnel;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A bounded pool of direct buffers used for data frames. Buffers are acquired by the event loops
+ * and released by whichever thread finishes with them; when the pool is empty a new buffer is
+ * allocated, and buffers released to a full pool are left to the garbage collector.
+ */
+final class FrameBufferPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<ByteBuffer> buffers;
+
+    FrameBufferPool(final int bufferSize, final int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Takes a cleared buffer from the pool.
+     *
+     * @return a direct buffer of the pool's size
+     */
+    ByteBuffer acquire() {
+        final var buffer = buffers.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers not allocated by the pool are ignored, so callers may
+     * pass any payload they are done with.
+     *
+     * @param buffer the buffer, no longer used by the caller
+     */
+    void release(final ByteBuffer buffer) {
+        if (buffer != null && buffer.isDirect() && buffer.capacity() == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+}
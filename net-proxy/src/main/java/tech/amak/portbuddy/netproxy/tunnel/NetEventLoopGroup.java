@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.netproxy.tunnel;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import tech.amak.portbuddy.netproxy.config.AppProperties;
+
+/**
+ * A small group of selector threads that drives all public TCP and UDP sockets of this node.
+ * Every channel is owned by exactly one event loop: its selection key, buffers and write queue
+ * are only touched on that loop's thread, and other threads hand work over with
+ * {@link EventLoop#execute(Runnable)}.
+ */
+@Slf4j
+@Component
+public class NetEventLoopGroup {
+
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Starts the event loops.
+     *
+     * @param properties application properties
+     * @throws IOException if a selector cannot be opened
+     */
+    public NetEventLoopGroup(final AppProperties properties) throws IOException {
+        final var configured = properties.dataPlane() == null ? 0 : properties.dataPlane().eventLoops();
+        final var count = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+        this.loops = new EventLoop[count];
+        for (var i = 0; i < count; i++) {
+            loops[i] = new EventLoop("net-proxy-io-" + i);
+        }
+        log.info("Started {} net-proxy event loops", count);
+    }
+
+    /**
+     * Picks an event loop for a new channel, round-robin.
+     *
+     * @return the event loop
+     */
+    public EventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (final var loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Callback invoked on the owning event loop when a channel is ready for the operations it
+     * registered interest in.
+     */
+    @FunctionalInterface
+    public interface ChannelHandler {
+
+        /**
+         * Handles readiness of a channel.
+         *
+         * @param key the selected key
+         * @throws IOException if the channel fails; the loop then closes it
+         */
+        void onReady(SelectionKey key) throws IOException;
+    }
+
+    /**
+     * A single selector thread.
+     */
+    public static final class EventLoop {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        EventLoop(final String name) throws IOException {
+            this.selector = Selector.open();
+            this.thread = Thread.ofPlatform().name(name).daemon(true).start(this::run);
+        }
+
+        /**
+         * Runs a task on this loop. Tasks submitted from the loop thread itself run on the next
+         * iteration, after the current selection has been processed.
+         *
+         * @param task the task
+         */
+        public void execute(final Runnable task) {
+            tasks.add(task);
+            if (Thread.currentThread() != thread) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Registers a non-blocking channel with this loop. Must be called on the loop thread.
+         *
+         * @param channel  the channel
+         * @param ops      initial interest set
+         * @param handler  readiness callback
+         * @return the selection key
+         * @throws ClosedChannelException if the channel is already closed
+         */
+        public SelectionKey register(final SelectableChannel channel, final int ops, final ChannelHandler handler)
+            throws ClosedChannelException {
+            return channel.register(selector, ops, handler);
+        }
+
+        private void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    final var selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        final var key = selected.next();
+                        selected.remove();
+                        dispatch(key);
+                    }
+                    runTasks();
+                } catch (final Exception e) {
+                    log.error("Event loop {} iteration failed: {}", thread.getName(), e.toString());
+                }
+            }
+            try {
+                selector.close();
+            } catch (final IOException e) {
+                log.debug("Failed to close selector: {}", e.toString());
+            }
+        }
+
+        private void dispatch(final SelectionKey key) {
+            final var handler = (ChannelHandler) key.attachment();
+            try {
+                if (key.isValid()) {
+                    handler.onReady(key);
+                }
+            } catch (final CancelledKeyException ignore) {
+                // The channel was closed concurrently
+            } catch (final Exception e) {
+                log.debug("Closing channel after I/O failure: {}", e.toString());
+                key.cancel();
+                try {
+                    key.channel().close();
+                } catch (final IOException closeError) {
+                    log.debug("Failed to close channel: {}", closeError.toString());
+                }
+            }
+        }
+
+        private void runTasks() {
+            // Bound the batch so that tasks re-submitting themselves cannot starve the selector
+            for (var remaining = tasks.size(); remaining > 0; remaining--) {
+                final var task = tasks.poll();
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (final Exception e) {
+                    log.warn("Event loop task failed: {}", e.toString());
+                }
+            }
+            if (!tasks.isEmpty()) {
+                selector.wakeup();
+            }
+        }
+
+        private void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+    }
+}
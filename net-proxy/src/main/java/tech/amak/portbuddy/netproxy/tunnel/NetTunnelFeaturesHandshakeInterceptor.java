@@ -0,0 +1,71 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.netproxy.tunnel;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
+
+/**
+ * Echoes the optional tunnel protocol features this node supports back in the handshake
+ * response, so the CLI knows whether it may, for example, open additional WebSockets for a
+ * tunnel. {@link NetTunnelRegistry} reads the requested features from the handshake headers.
+ */
+public class NetTunnelFeaturesHandshakeInterceptor implements HandshakeInterceptor {
+
+    private static final Set<String> SUPPORTED = Set.of(
+        TunnelFeatures.FLOW_CONTROL, TunnelFeatures.MULTI_SESSION, TunnelFeatures.COMPACT_FRAMES,
+        TunnelFeatures.RESUME);
+
+    @Override
+    public boolean beforeHandshake(final ServerHttpRequest request,
+                                   final ServerHttpResponse response,
+                                   final WebSocketHandler wsHandler,
+                                   final Map<String, Object> attributes) {
+        final var accepted = new LinkedHashSet<String>();
+        for (final var feature : TunnelFeatures.parse(request.getHeaders().getFirst(TunnelFeatures.HEADER))) {
+            if (SUPPORTED.contains(feature)) {
+                accepted.add(feature);
+            }
+        }
+        // Resumption is only possible for a client that identifies itself with a token
+        final var resumeToken = request.getHeaders().getFirst(TunnelFeatures.RESUME_TOKEN_HEADER);
+        if (resumeToken == null || resumeToken.isBlank()) {
+            accepted.remove(TunnelFeatures.RESUME);
+        }
+        // Lanes join a tunnel only with its resume token, so that another process cannot take them over
+        if (!accepted.contains(TunnelFeatures.RESUME)) {
+            accepted.remove(TunnelFeatures.MULTI_SESSION);
+        }
+        if (!accepted.isEmpty()) {
+            response.getHeaders().set(TunnelFeatures.HEADER, TunnelFeatures.format(accepted));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(final ServerHttpRequest request,
+                               final ServerHttpResponse response,
+                               final WebSocketHandler wsHandler,
+                               final Exception exception) {
+    }
+}
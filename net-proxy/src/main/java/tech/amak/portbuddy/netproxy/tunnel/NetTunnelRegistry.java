@@ -15,42 +15,146 @@
 package tech.amak.portbuddy.netproxy.tunnel;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.NativeWebSocketSession;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
 import lombok.Data;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.TunnelType;
 import tech.amak.portbuddy.common.tunnel.BinaryWsFrame;
+import tech.amak.portbuddy.common.tunnel.NetDataFrame;
+import tech.amak.portbuddy.common.tunnel.ReceiveWindow;
+import tech.amak.portbuddy.common.tunnel.ReplayBuffer;
+import tech.amak.portbuddy.common.tunnel.SendWindow;
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
+import tech.amak.portbuddy.netproxy.config.AppProperties;
+import tech.amak.portbuddy.netproxy.service.ThreatFoxService;
 
+/**
+ * Exposes public TCP and UDP ports for net tunnels and relays their traffic over the tunnel's
+ * WebSocket. All public sockets are non-blocking and driven by {@link NetEventLoopGroup}, so idle
+ * connections cost no threads. Frames towards the client are queued per tunnel and written by a
+ * single sender; while a tunnel has more than {@code app.data-plane.max-pending-bytes} queued,
+ * reading from its public TCP connections pauses and its UDP datagrams are dropped. If the client
+ * negotiated {@link TunnelFeatures#FLOW_CONTROL}, each TCP connection additionally has its own
+ * credit window in both directions, so one busy connection cannot starve the others. With
+ * {@link TunnelFeatures#MULTI_SESSION}, a tunnel is served by several WebSockets ("lanes"), each
+ * with its own send queue; every TCP connection is pinned to one lane for its lifetime, and the
+ * tunnel stays exposed until its last lane disconnects. Connections are identified by small
+ * integers; with {@link TunnelFeatures#COMPACT_FRAMES} data frames are built in place in pooled
+ * direct buffers ({@link NetDataFrame}), so steady-state forwarding does not allocate payload
+ * buffers. UDP peers are tracked in a per-tunnel flow table, capped at
+ * {@code app.data-plane.max-udp-flows} and swept of flows idle for longer than
+ * {@code app.data-plane.udp-flow-idle-timeout}; the client is told to drop evicted flows.
+ * With {@link TunnelFeatures#RESUME}, a lost WebSocket is kept for
+ * {@code app.data-plane.resume-grace-period}: its connections stay open, data they send is kept
+ * in a {@link ReplayBuffer}, and a reconnect with the same resume token re-pins them to the new
+ * WebSocket and retransmits what the other side did not receive. A lane joins a tunnel only with
+ * the tunnel's resume token, and lane indexes are capped at {@code app.data-plane.max-lanes}.
+ */
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class NetTunnelRegistry {
 
+    // Upper bound of connections accepted or datagrams received per readiness event, for fairness
+    private static final int IO_BATCH = 64;
+    private static final long DEFAULT_MAX_PENDING_BYTES = 4L * 1024 * 1024;
+    // Largest payload read from a public socket at once, and the pooled frame buffer holding it
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+    private static final int FRAME_BUFFER_SIZE = NetDataFrame.MAX_HEADER_SIZE + MAX_PAYLOAD_SIZE;
+    private static final Duration DEFAULT_UDP_FLOW_IDLE_TIMEOUT = Duration.ofMinutes(2);
+    private static final int DEFAULT_MAX_UDP_FLOWS = 4096;
+    private static final Duration DEFAULT_RESUME_GRACE_PERIOD = Duration.ofSeconds(30);
+    private static final int DEFAULT_MAX_LANES = 8;
+
     private final Map<UUID, Tunnel> byTunnelId = new ConcurrentHashMap<>();
-    private final ExecutorService ioPool = Executors.newCachedThreadPool();
 
     private final ObjectMapper mapper;
-    private final tech.amak.portbuddy.netproxy.service.ThreatFoxService threatfoxservice;
+    private final ThreatFoxService threatfoxservice;
+    private final NetEventLoopGroup eventLoops;
+    private final long maxPendingBytes;
+    private final FrameBufferPool bufferPool;
+    private final long udpFlowIdleTimeoutMs;
+    private final int maxUdpFlows;
+    private final long resumeGracePeriodMs;
+    private final int maxLanes;
+
+    /**
+     * Creates the registry.
+     *
+     * @param mapper           JSON mapper for control messages
+     * @param threatfoxservice threat intelligence lookup for incoming peers
+     * @param eventLoops       event loops driving the public sockets
+     * @param properties       application properties
+     */
+    public NetTunnelRegistry(final ObjectMapper mapper,
+                             final ThreatFoxService threatfoxservice,
+                             final NetEventLoopGroup eventLoops,
+                             final AppProperties properties) {
+        this.mapper = mapper;
+        this.threatfoxservice = threatfoxservice;
+        this.eventLoops = eventLoops;
+        final var dataPlane = properties.dataPlane();
+        this.maxPendingBytes = dataPlane != null && dataPlane.maxPendingBytes() != null
+            ? dataPlane.maxPendingBytes().toBytes()
+            : DEFAULT_MAX_PENDING_BYTES;
+        // Enough buffers to cover a full send queue on a few tunnels without allocating
+        this.bufferPool = new FrameBufferPool(FRAME_BUFFER_SIZE,
+            (int) Math.max(16, maxPendingBytes * 4 / FRAME_BUFFER_SIZE));
+        this.udpFlowIdleTimeoutMs = (dataPlane != null && dataPlane.udpFlowIdleTimeout() != null
+            ? dataPlane.udpFlowIdleTimeout()
+            : DEFAULT_UDP_FLOW_IDLE_TIMEOUT).toMillis();
+        this.maxUdpFlows = dataPlane != null && dataPlane.maxUdpFlows() > 0
+            ? dataPlane.maxUdpFlows()
+            : DEFAULT_MAX_UDP_FLOWS;
+        this.resumeGracePeriodMs = (dataPlane != null && dataPlane.resumeGracePeriod() != null
+            ? dataPlane.resumeGracePeriod()
+            : DEFAULT_RESUME_GRACE_PERIOD).toMillis();
+        this.maxLanes = dataPlane != null && dataPlane.maxLanes() > 0
+            ? dataPlane.maxLanes()
+            : DEFAULT_MAX_LANES;
+    }
 
     public ExposedPort expose(final UUID tunnelId, final TunnelType tunnelType, final Integer desiredPort)
         throws IOException {
@@ -63,64 +167,222 @@ public class NetTunnelRegistry {
 
     private ExposedPort exposetcp(final UUID tunnelId, final Integer desiredPort) throws IOException {
         final var tunnel = byTunnelId.computeIfAbsent(tunnelId, Tunnel::new);
-        if (tunnel.serverSocket != null && !tunnel.serverSocket.isClosed()) {
-            return new ExposedPort(tunnel.serverSocket.getLocalPort());
+        if (tunnel.serverChannel != null && tunnel.serverChannel.isOpen()) {
+            return new ExposedPort(tunnel.serverChannel.socket().getLocalPort());
+        }
+        final var serverChannel = ServerSocketChannel.open();
+        try {
+            bind(serverChannel, desiredPort, "TCP");
+            serverChannel.configureBlocking(false);
+        } catch (final IOException e) {
+            closequietly(serverChannel);
+            throw e;
         }
-        final ServerSocket serverSocket;
+        tunnel.serverChannel = serverChannel;
+
+        final var loop = eventLoops.next();
+        loop.execute(() -> {
+            try {
+                loop.register(serverChannel, SelectionKey.OP_ACCEPT, key -> acceptconnections(tunnel, serverChannel));
+            } catch (final IOException e) {
+                log.info("accept loop ended for tunnel {}: {}", tunnel.tunnelId, e.toString());
+            }
+        });
+        return new ExposedPort(serverChannel.socket().getLocalPort());
+    }
+
+    private static void bind(final NetworkChannel channel,
+                             final Integer desiredPort,
+                             final String protocol) throws IOException {
         if (desiredPort != null && desiredPort > 0) {
-            ServerSocket sock;
             try {
-                sock = new ServerSocket(desiredPort);
+                channel.bind(new InetSocketAddress(desiredPort));
+                return;
             } catch (final IOException bindEx) {
                 // Requested port is busy; fallback to a random available port
-                log.info("TCP port {} is busy. Falling back to a random port.", desiredPort);
-                sock = new ServerSocket(0);
+                log.info("{} port {} is busy. Falling back to a random port.", protocol, desiredPort);
             }
-            serverSocket = sock;
-        } else {
-            serverSocket = new ServerSocket(0);
         }
-        tunnel.serverSocket = serverSocket;
-        ioPool.execute(() -> acceptloop(tunnel));
-        return new ExposedPort(serverSocket.getLocalPort());
+        channel.bind(new InetSocketAddress(0));
     }
 
     private ExposedPort exposeudp(final UUID tunnelId, final Integer desiredPort) throws IOException {
         final var tunnel = byTunnelId.computeIfAbsent(tunnelId, Tunnel::new);
-        if (tunnel.udpSocket != null && !tunnel.udpSocket.isClosed()) {
-            return new ExposedPort(tunnel.udpSocket.getLocalPort());
+        if (tunnel.udpChannel != null && tunnel.udpChannel.isOpen()) {
+            return new ExposedPort(tunnel.udpChannel.socket().getLocalPort());
         }
-        final DatagramSocket socket;
-        if (desiredPort != null && desiredPort > 0) {
-            DatagramSocket sock;
+        final var udpChannel = DatagramChannel.open();
+        try {
+            bind(udpChannel, desiredPort, "UDP");
+            udpChannel.configureBlocking(false);
+        } catch (final IOException e) {
+            closequietly(udpChannel);
+            throw e;
+        }
+        tunnel.udpChannel = udpChannel;
+
+        final var loop = eventLoops.next();
+        loop.execute(() -> {
             try {
-                sock = new DatagramSocket(desiredPort);
-            } catch (final IOException bindEx) {
-                // Requested port is busy; fallback to a random available port
-                log.info("UDP port {} is busy. Falling back to a random port.", desiredPort);
-                sock = new DatagramSocket(0);
+                loop.register(udpChannel, SelectionKey.OP_READ, key -> receivedatagrams(tunnel, udpChannel, loop));
+            } catch (final IOException e) {
+                log.info("udp receive loop ended for tunnel {}: {}", tunnel.tunnelId, e.toString());
             }
-            socket = sock;
-        } else {
-            socket = new DatagramSocket(0);
-        }
-        tunnel.udpSocket = socket;
-        ioPool.execute(() -> udpreceiveloop(tunnel));
-        return new ExposedPort(socket.getLocalPort());
+        });
+        return new ExposedPort(udpChannel.socket().getLocalPort());
+    }
+
+    /**
+     * Returns whether the lane index a new WebSocket asks for is below {@code app.data-plane.max-lanes}.
+     *
+     * @param session the new tunnel WebSocket
+     * @return {@code false} if the session must be closed
+     */
+    public boolean acceptslane(final WebSocketSession session) {
+        return laneof(session.getHandshakeHeaders()) < maxLanes;
     }
 
     public void attachsession(final UUID tunnelId, final WebSocketSession session) {
         final var tunnel = byTunnelId.computeIfAbsent(tunnelId, Tunnel::new);
-        tunnel.session = session;
+        final var headers = session.getHandshakeHeaders();
+        final var features = TunnelFeatures.parse(headers.getFirst(TunnelFeatures.HEADER));
+        tunnel.flowControl = features.contains(TunnelFeatures.FLOW_CONTROL);
+        tunnel.compactFrames = features.contains(TunnelFeatures.COMPACT_FRAMES);
+        final var index = laneof(headers);
+        final var token = resumetoken(headers);
+        // Only the client process that owns the tunnel's state may pick it up again or add lanes to it
+        final var resumed = token != null && token.equals(tunnel.resumeToken);
+        final var joins = resumed && features.contains(TunnelFeatures.MULTI_SESSION);
+        tunnel.resumeToken = token;
+        final var lane = new Lane(index, session);
+        final var replaced = new ArrayList<>(tunnel.attach(lane, joins));
+        replaced.addAll(tunnel.unsuspend(index, joins));
+        final var resumedConnections = new ArrayList<CompletableFuture<Void>>();
+        for (final var old : replaced) {
+            if (resumed && old.index == index) {
+                discardqueue(tunnel, old);
+                resumedConnections.addAll(resumelane(tunnel, old, lane));
+            } else {
+                droplane(tunnel, old);
+            }
+        }
+        if (token != null) {
+            // Follows the RESUME messages, so the client knows which of its connections are gone
+            final var marker = new WsTunnelMessage();
+            marker.setWsType(WsTunnelMessage.Type.RESUMED);
+            CompletableFuture.allOf(resumedConnections.toArray(CompletableFuture[]::new))
+                .whenComplete((ignored, error) -> sendtoclient(tunnel, lane, marker));
+        }
     }
 
-    public void detachsession(final WebSocketSession session) {
-        for (final var tunnel : byTunnelId.values()) {
-            if (tunnel.session == session) {
-                tunnel.session = null;
-                break;
+    /**
+     * Detaches a closed WebSocket from its tunnel. Connections pinned to it are closed, unless the
+     * client can resume them; then they are kept for the resume grace period.
+     *
+     * @param tunnelId the tunnel the session belonged to
+     * @param session  the closed session
+     * @return {@code true} if it was the tunnel's last session, i.e. the tunnel should be closed
+     */
+    public boolean detachsession(final UUID tunnelId, final WebSocketSession session) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null) {
+            return false;
+        }
+        final var lane = tunnel.detach(session);
+        if (lane == null) {
+            // Superseded by a newer session with the same lane index
+            return false;
+        }
+        if (tunnel.resumeToken != null) {
+            discardqueue(tunnel, lane);
+            tunnel.suspend(lane);
+            CompletableFuture.delayedExecutor(resumeGracePeriodMs, TimeUnit.MILLISECONDS)
+                .execute(() -> expirelane(tunnel, lane));
+            return false;
+        }
+        droplane(tunnel, lane);
+        return tunnel.lanes.isEmpty();
+    }
+
+    private void expirelane(final Tunnel tunnel, final Lane lane) {
+        if (!tunnel.unsuspend(lane)) {
+            // Resumed meanwhile
+            return;
+        }
+        log.info("Net tunnel {} connection {} was not resumed in time", tunnel.tunnelId, lane.index);
+        droplane(tunnel, lane);
+        if (tunnel.idle() && byTunnelId.get(tunnel.tunnelId) == tunnel) {
+            closetunnel(tunnel.tunnelId);
+        }
+    }
+
+    /**
+     * Moves the connections of a lost lane to its replacement and resynchronizes each of them
+     * with the client.
+     *
+     * @return futures completed once the RESUME of each connection is queued
+     */
+    private List<CompletableFuture<Void>> resumelane(final Tunnel tunnel, final Lane old, final Lane lane) {
+        final var resumed = new ArrayList<CompletableFuture<Void>>();
+        for (final var connection : tunnel.connections.values()) {
+            if (connection.lane == old) {
+                connection.lane = lane;
+                resumed.add(CompletableFuture.runAsync(connection::resume, connection.loop::execute));
+            }
+        }
+        log.info("Resuming {} connection(s) of net tunnel {} on connection {}",
+            resumed.size(), tunnel.tunnelId, lane.index);
+        return resumed;
+    }
+
+    private void droplane(final Tunnel tunnel, final Lane lane) {
+        for (final var connection : tunnel.connections.values()) {
+            if (connection.lane == lane && tunnel.connections.remove(connection.connectionId, connection)) {
+                // The client closes its side when it notices the lane is gone
+                connection.loop.execute(() -> connection.close(false));
             }
         }
+        discardqueue(tunnel, lane);
+    }
+
+    private void discardqueue(final Tunnel tunnel, final Lane lane) {
+        WebSocketMessage<?> message;
+        var discarded = 0L;
+        while ((message = lane.outbound.poll()) != null) {
+            discarded += message.getPayloadLength();
+            release(message);
+        }
+        if (discarded > 0 && tunnel.queuedBytes.addAndGet(-discarded) <= maxPendingBytes / 2 && tunnel.throttled) {
+            resumereads(tunnel);
+        }
+    }
+
+    private static String resumetoken(final HttpHeaders headers) {
+        final var features = TunnelFeatures.parse(headers.getFirst(TunnelFeatures.HEADER));
+        final var token = headers.getFirst(TunnelFeatures.RESUME_TOKEN_HEADER);
+        return features.contains(TunnelFeatures.RESUME) && token != null && !token.isBlank() ? token.trim() : null;
+    }
+
+    /**
+     * Returns the lane index of a session; only a client with a resume token may use several lanes.
+     */
+    private static int laneof(final HttpHeaders headers) {
+        final var features = TunnelFeatures.parse(headers.getFirst(TunnelFeatures.HEADER));
+        if (!features.contains(TunnelFeatures.MULTI_SESSION) || resumetoken(headers) == null) {
+            return 0;
+        }
+        return parselane(headers.getFirst(TunnelFeatures.LANE_HEADER));
+    }
+
+    private static int parselane(final String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
     }
 
     public void closetunnel(final UUID tunnelId) {
@@ -128,155 +390,280 @@ public class NetTunnelRegistry {
         if (tunnel == null) {
             return;
         }
-        // Close TCP acceptor first so accept loops break
-        final var server = tunnel.serverSocket;
-        if (server != null) {
-            try {
-                server.close();
-            } catch (final Exception e) {
-                log.debug("Failed to close ServerSocket: {}", e.toString());
-            }
-        }
+        // Close TCP acceptor first so no new connections are accepted
+        closequietly(tunnel.serverChannel);
         // Close all live TCP connections
-        for (final var entry : tunnel.connections.entrySet()) {
-            final var connection = entry.getValue();
-            try {
-                connection.socket.close();
-            } catch (final Exception e) {
-                log.debug("Failed to close connection {}: {}", entry.getKey(), e.toString());
-            }
+        for (final var connection : tunnel.connections.values()) {
+            connection.loop.execute(() -> connection.close(false));
         }
         tunnel.connections.clear();
+        tunnel.pausedReads.clear();
         // Close UDP socket
-        final var udp = tunnel.udpSocket;
-        if (udp != null) {
-            try {
-                udp.close();
-            } catch (final Exception e) {
-                log.debug("Failed to close DatagramSocket: {}", e.toString());
+        closequietly(tunnel.udpChannel);
+        tunnel.udpFlowsById.clear();
+        tunnel.udpFlows.clear();
+        for (final var lane : tunnel.lanes) {
+            WebSocketMessage<?> message;
+            while ((message = lane.outbound.poll()) != null) {
+                release(message);
             }
         }
-        tunnel.udpRemotes.clear();
-        tunnel.session = null;
+        tunnel.lanes = List.of();
     }
 
-    private void acceptloop(final Tunnel tunnel) {
-        try {
-            while (!tunnel.serverSocket.isClosed()) {
-                final var socket = tunnel.serverSocket.accept();
-                final var remotehost = socket.getInetAddress().getHostAddress();
-                final var remoteport = socket.getPort();
+    private void acceptconnections(final Tunnel tunnel, final ServerSocketChannel serverChannel) throws IOException {
+        for (var i = 0; i < IO_BATCH; i++) {
+            final var channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            final var remote = (InetSocketAddress) channel.getRemoteAddress();
+            if (threatfoxservice.isblocked(remote)) {
+                log.warn("blocked threat connection from {}", remote);
+                closequietly(channel);
+                continue;
+            }
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final var connectionId = tunnel.nextconnectionid();
+            final var lane = tunnel.lanefor(connectionId);
+            if (lane == null) {
+                closequietly(channel);
+                continue;
+            }
+            final var connection = new Connection(connectionId, tunnel, lane, channel, eventLoops.next());
+            tunnel.connections.put(connection.connectionId, connection);
+            connection.loop.execute(() -> {
                 try {
-                    threatfoxservice.checkthreat(remotehost, remoteport);
-                } catch (final tech.amak.portbuddy.netproxy.security.ThreatBlockedException e) {
-                    log.warn("blocked threat connection from {}:{}", remotehost, remoteport);
-                    socket.close();
-                    continue;
+                    // Do not read until the client confirmed it has connected to the local service
+                    connection.key = connection.loop.register(channel, 0, connection);
+                    sendopen(tunnel, connection);
+                } catch (final IOException e) {
+                    connection.close(true);
                 }
-                final var connId = UUID.randomUUID().toString();
-                final var connection = new Connection(connId, socket);
-                tunnel.connections.put(connId, connection);
-                sendopen(tunnel, connId);
+            });
+        }
+    }
+
+    private void receivedatagrams(final Tunnel tunnel,
+                                  final DatagramChannel channel,
+                                  final NetEventLoopGroup.EventLoop loop) throws IOException {
+        for (var i = 0; i < IO_BATCH; i++) {
+            final var frame = bufferPool.acquire();
+            frame.position(NetDataFrame.MAX_HEADER_SIZE);
+            final var remote = (InetSocketAddress) channel.receive(frame);
+            if (remote == null) {
+                bufferPool.release(frame);
+                return;
             }
-        } catch (final Exception e) {
-            log.info("accept loop ended for tunnel {}: {}", tunnel.tunnelId, e.toString());
+            if (threatfoxservice.isblocked(remote)) {
+                log.warn("blocked threat udp packet from {}", remote);
+                bufferPool.release(frame);
+                continue;
+            }
+            if (tunnel.throttled) {
+                // UDP has no backpressure; drop instead of queueing without bound
+                log.debug("Dropping UDP datagram from {}: tunnel send queue is full", remote);
+                bufferPool.release(frame);
+                continue;
+            }
+            var flow = tunnel.udpFlows.get(remote);
+            if (flow == null) {
+                flow = openudpflow(tunnel, remote);
+            }
+            flow.lastActive = System.currentTimeMillis();
+            frame.limit(frame.position());
+            // Datagrams carry no ordering guarantee, so each one may take whichever lane its peer maps to
+            sendframe(tunnel, tunnel.lanefor(flow.id), flow.id, frame);
         }
     }
 
-    private void pumpfrompublic(final Tunnel tunnel, final Connection connection) {
-        final var buffer = new byte[8192];
-        try {
-            while (true) {
-                final var next = connection.in.read(buffer);
-                if (next == -1) {
-                    break;
+    private UdpFlow openudpflow(final Tunnel tunnel, final InetSocketAddress remote) {
+        if (tunnel.udpFlows.size() >= maxUdpFlows) {
+            // Make room by evicting the least recently active flow
+            UdpFlow oldest = null;
+            for (final var candidate : tunnel.udpFlows.values()) {
+                if (oldest == null || candidate.lastActive < oldest.lastActive) {
+                    oldest = candidate;
                 }
-                sendbinarytoclient(tunnel, connection.connectionId, buffer, 0, next);
             }
-        } catch (final Exception ignore) {
-            log.error("Failed to read from public socket: {}", ignore.toString());
-        } finally {
-            log.info("Public socket closed for tunnel {}: {}", tunnel.tunnelId, connection.connectionId);
-            try {
-                connection.socket.close();
-            } catch (final Exception ignore) {
-                log.error("Failed to close public socket: {}", ignore.toString());
+            if (oldest != null) {
+                log.debug("UDP flow table of tunnel {} is full, evicting {}", tunnel.tunnelId, oldest.remote);
+                evictudpflow(tunnel, oldest);
             }
-            tunnel.connections.remove(connection.connectionId);
-            final var message = new WsTunnelMessage();
-            message.setWsType(WsTunnelMessage.Type.CLOSE);
-            message.setConnectionId(connection.connectionId);
-            sendtoclient(tunnel, message);
         }
+        final var flow = new UdpFlow(tunnel.nextconnectionid(), remote);
+        tunnel.udpFlowsById.put(flow.id, flow);
+        tunnel.udpFlows.put(remote, flow);
+        return flow;
     }
 
-    private void udpreceiveloop(final Tunnel tunnel) {
-        final var buffer = new byte[65535];
-        try {
-            while (tunnel.udpSocket != null && !tunnel.udpSocket.isClosed()) {
-                final var packet = new DatagramPacket(buffer, buffer.length);
-                tunnel.udpSocket.receive(packet);
-                final var remotehost = packet.getAddress().getHostAddress();
-                final var remoteport = packet.getPort();
-                try {
-                    threatfoxservice.checkthreat(remotehost, remoteport);
-                } catch (final tech.amak.portbuddy.netproxy.security.ThreatBlockedException e) {
-                    log.warn("blocked threat udp packet from {}:{}", remotehost, remoteport);
-                    continue;
+    private void removeudpflow(final Tunnel tunnel, final UdpFlow flow) {
+        tunnel.udpFlowsById.remove(flow.id, flow);
+        tunnel.udpFlows.remove(flow.remote, flow);
+    }
+
+    private void evictudpflow(final Tunnel tunnel, final UdpFlow flow) {
+        removeudpflow(tunnel, flow);
+        // Let the client release its local socket for the flow
+        final var message = new WsTunnelMessage();
+        message.setWsType(WsTunnelMessage.Type.CLOSE);
+        message.setConnectionId(Integer.toString(flow.id));
+        sendtoclient(tunnel, tunnel.lanefor(flow.id), message);
+    }
+
+    /**
+     * Evicts UDP flows that have seen no datagram in either direction for the idle timeout.
+     */
+    @Scheduled(fixedDelay = 10_000)
+    void evictidleudpflows() {
+        final var cutoff = System.currentTimeMillis() - udpFlowIdleTimeoutMs;
+        for (final var tunnel : byTunnelId.values()) {
+            for (final var flow : tunnel.udpFlows.values()) {
+                if (flow.lastActive < cutoff) {
+                    evictudpflow(tunnel, flow);
                 }
-                final var remote = new InetSocketAddress(packet.getAddress(), packet.getPort());
-                final var connectionId = remote.getHostString() + ":" + remote.getPort();
-                tunnel.udpRemotes.putIfAbsent(connectionId, remote);
-                sendbinarytoclient(tunnel, connectionId, packet.getData(), packet.getOffset(), packet.getLength());
             }
-        } catch (final Exception e) {
-            log.info("udp receive loop ended for tunnel {}: {}", tunnel.tunnelId, e.toString());
         }
     }
 
-    public void onclientopenok(final UUID tunnelId, final String connectionId) {
-        final var tunnel = byTunnelId.get(tunnelId);
-        if (tunnel == null) {
-            return;
-        }
-        final var connection = tunnel.connections.get(connectionId);
+    /**
+     * Starts relaying a public connection once the client has connected to the local service.
+     *
+     * @param tunnelId     the tunnel
+     * @param connectionId the connection
+     * @param window       initial flow control window granted by the client; {@code null} if
+     *                     the client does not use flow control
+     */
+    public void onclientopenok(final UUID tunnelId, final String connectionId, final Long window) {
+        final var connection = findconnection(tunnelId, connectionId);
         if (connection == null) {
             return;
         }
-        ioPool.execute(() -> pumpfrompublic(tunnel, connection));
+        connection.loop.execute(() -> {
+            if (window != null) {
+                connection.initialSendWindow = window;
+                connection.sendWindow = new SendWindow(window);
+            }
+            connection.resumereading();
+        });
     }
 
-    public void onclientbinary(final UUID tunnelId, final String connectionId, final String dataB64) {
-        final var tunnel = byTunnelId.get(tunnelId);
-        if (tunnel == null) {
+    /**
+     * Adds flow control credit granted by the client for a connection.
+     *
+     * @param tunnelId     the tunnel
+     * @param connectionId the connection
+     * @param credit       additional bytes the connection may send to the client
+     */
+    public void onclientwindow(final UUID tunnelId, final String connectionId, final Long credit) {
+        final var connection = findconnection(tunnelId, connectionId);
+        if (connection == null || credit == null || credit <= 0) {
             return;
         }
-        final var connection = tunnel.connections.get(connectionId);
-        if (connection == null) {
+        connection.loop.execute(() -> {
+            final var sendWindow = connection.sendWindow;
+            if (sendWindow != null) {
+                sendWindow.grant(credit);
+                if (connection.replay != null) {
+                    // Credit is returned for delivered bytes, which need no retransmission
+                    connection.replay.acknowledge(connection.replay.start() + credit);
+                }
+                connection.resumereading();
+            }
+        });
+    }
+
+    /**
+     * Completes the resumption of a connection with the client's counters.
+     *
+     * @param tunnelId     the tunnel
+     * @param connectionId the connection
+     * @param received     bytes of the connection the client has received
+     * @param consumed     bytes of the connection the client has delivered to the local service
+     */
+    public void onclientresume(final UUID tunnelId,
+                               final String connectionId,
+                               final Long received,
+                               final Long consumed) {
+        final var connection = findconnection(tunnelId, connectionId);
+        if (connection == null || received == null || consumed == null) {
             return;
         }
+        connection.loop.execute(() -> connection.onresume(received, consumed));
+    }
+
+    private Connection findconnection(final UUID tunnelId, final String connectionId) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        final var id = parseid(connectionId);
+        return tunnel == null || id < 0 ? null : tunnel.connections.get(id);
+    }
+
+    private static int parseid(final String connectionId) {
+        if (connectionId == null) {
+            return -1;
+        }
         try {
-            connection.out.write(Base64.getDecoder().decode(dataB64));
-            connection.out.flush();
-        } catch (final IOException e) {
-            log.debug("failed to write to public socket: {}", e.toString());
+            return Integer.parseInt(connectionId);
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Handles legacy data sent by the client as a Base64 text message.
+     *
+     * @param tunnelId     the tunnel
+     * @param connectionId the connection
+     * @param dataB64      Base64 encoded payload
+     */
+    public void onclientbinary(final UUID tunnelId, final String connectionId, final String dataB64) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        final var id = parseid(connectionId);
+        if (tunnel != null && id >= 0) {
+            ondata(tunnel, id, ByteBuffer.wrap(Base64.getDecoder().decode(dataB64)));
         }
     }
 
-    public void onclientbinarybytes(final UUID tunnelId, final String connectionId, final byte[] data) {
+    /**
+     * Handles a binary data frame sent by the client. The frame is only valid during this call;
+     * data that cannot be written immediately is copied.
+     *
+     * @param tunnelId the tunnel
+     * @param frame    the received frame
+     */
+    public void onclientframe(final UUID tunnelId, final ByteBuffer frame) {
         final var tunnel = byTunnelId.get(tunnelId);
         if (tunnel == null) {
             return;
         }
+        if (tunnel.compactFrames) {
+            final var connectionId = NetDataFrame.readConnectionId(frame);
+            if (connectionId >= 0) {
+                ondata(tunnel, connectionId, frame);
+            }
+            return;
+        }
+        final var decoded = BinaryWsFrame.decode(frame);
+        final var connectionId = decoded == null ? -1 : parseid(decoded.connectionId());
+        if (connectionId >= 0) {
+            ondata(tunnel, connectionId, ByteBuffer.wrap(decoded.data()));
+        }
+    }
+
+    private void ondata(final Tunnel tunnel, final int connectionId, final ByteBuffer data) {
         // If UDP is active on this tunnel, route as a datagram
-        if (tunnel.udpSocket != null) {
-            final var remote = tunnel.udpRemotes.get(connectionId);
-            if (remote == null) {
+        final var udp = tunnel.udpChannel;
+        if (udp != null) {
+            final var flow = tunnel.udpFlowsById.get(connectionId);
+            if (flow == null) {
                 return;
             }
+            flow.lastActive = System.currentTimeMillis();
             try {
-                final var packet = new DatagramPacket(data, 0, data.length, remote);
-                tunnel.udpSocket.send(packet);
+                if (udp.send(data, flow.remote) == 0) {
+                    log.debug("Dropping UDP datagram to {}: socket buffer is full", flow.remote);
+                }
             } catch (final IOException e) {
                 log.debug("Failed to send UDP packet: {}", e.toString());
             }
@@ -288,63 +675,196 @@ public class NetTunnelRegistry {
         if (connection == null) {
             return;
         }
-        try {
-            connection.out.write(data);
-            connection.out.flush();
-        } catch (final IOException e) {
-            log.debug("Failed to write to public socket: {}", e.toString());
-        }
+        connection.write(data);
     }
 
     public void onclientclose(final UUID tunnelId, final String connectionId) {
         final var tunnel = byTunnelId.get(tunnelId);
-        if (tunnel == null) {
+        final var id = parseid(connectionId);
+        if (tunnel == null || id < 0) {
             return;
         }
-        if (tunnel.udpSocket != null) {
+        if (tunnel.udpChannel != null) {
             // Just remove mapping; no need to close the UDP socket itself
-            tunnel.udpRemotes.remove(connectionId);
+            final var flow = tunnel.udpFlowsById.get(id);
+            if (flow != null) {
+                removeudpflow(tunnel, flow);
+            }
         } else {
-            final var connection = tunnel.connections.remove(connectionId);
+            final var connection = tunnel.connections.remove(id);
             if (connection != null) {
-                try {
-                    connection.socket.close();
-                } catch (final IOException ignore) {
-                    log.error("Failed to close public socket: {}", ignore.toString());
-                }
+                // Deliver data the client sent before closing, then close
+                connection.loop.execute(connection::closeafterflush);
             }
         }
     }
 
-    private void sendopen(final Tunnel tunnel, final String connId) {
+    private void sendopen(final Tunnel tunnel, final Connection connection) {
         final var message = new WsTunnelMessage();
         message.setWsType(WsTunnelMessage.Type.OPEN);
-        message.setConnectionId(connId);
-        sendtoclient(tunnel, message);
+        message.setConnectionId(Integer.toString(connection.connectionId));
+        if (connection.receiveWindow != null) {
+            message.setWindow(connection.receiveWindow.size());
+        }
+        sendtoclient(tunnel, connection.lane, message);
     }
 
-    private void sendtoclient(final Tunnel tunnel, final WsTunnelMessage message) {
-        try {
-            if (tunnel.session != null && tunnel.session.isOpen()) {
-                tunnel.session.sendMessage(new TextMessage(mapper.writeValueAsString(message)));
+    private void sendwindow(final Connection connection, final long credit) {
+        final var message = new WsTunnelMessage();
+        message.setWsType(WsTunnelMessage.Type.WINDOW);
+        message.setConnectionId(Integer.toString(connection.connectionId));
+        message.setWindow(credit);
+        sendtoclient(connection.tunnel, connection.lane, message);
+    }
+
+    /**
+     * Queues a control message on the send queue of the given WebSocket, behind the frames already
+     * queued on it, so that all writes to the session come from its single sender.
+     *
+     * @param tunnelId the tunnel
+     * @param session  one of the tunnel's WebSockets
+     * @param message  the message to send
+     * @return {@code false} if the session is not attached to the tunnel or closed
+     */
+    public boolean sendtosession(final UUID tunnelId, final WebSocketSession session, final Object message) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null) {
+            return false;
+        }
+        for (final var lane : tunnel.lanes) {
+            if (lane.session == session) {
+                try {
+                    return enqueue(tunnel, lane, new TextMessage(mapper.writeValueAsString(message)));
+                } catch (final JsonProcessingException e) {
+                    log.debug("failed to send to client: {}", e.toString());
+                    return false;
+                }
             }
-        } catch (final IOException e) {
+        }
+        return false;
+    }
+
+    private void sendtoclient(final Tunnel tunnel, final Lane lane, final WsTunnelMessage message) {
+        try {
+            enqueue(tunnel, lane, new TextMessage(mapper.writeValueAsString(message)));
+        } catch (final JsonProcessingException e) {
             log.debug("failed to send to client: {}", e.toString());
         }
     }
 
-    private void sendbinarytoclient(final Tunnel tunnel,
-                                    final String connectionId,
-                                    final byte[] bytes,
-                                    final int offset,
-                                    final int length) {
+    /**
+     * Sends a data frame to the client. The pooled {@code frame} holds the payload from offset
+     * {@link NetDataFrame#MAX_HEADER_SIZE} up to its limit; ownership passes to this method.
+     */
+    private void sendframe(final Tunnel tunnel, final Lane lane, final int connectionId, final ByteBuffer frame) {
+        if (tunnel.compactFrames) {
+            NetDataFrame.putHeader(connectionId, frame, NetDataFrame.MAX_HEADER_SIZE);
+            if (!enqueue(tunnel, lane, new BinaryMessage(frame))) {
+                bufferPool.release(frame);
+            }
+            return;
+        }
+        frame.position(NetDataFrame.MAX_HEADER_SIZE);
+        final var legacy = BinaryWsFrame.encodeToByteBuffer(Integer.toString(connectionId), frame);
+        bufferPool.release(frame);
+        enqueue(tunnel, lane, new BinaryMessage(legacy));
+    }
+
+    private void release(final WebSocketMessage<?> message) {
+        if (message instanceof BinaryMessage binary) {
+            bufferPool.release(binary.getPayload());
+        }
+    }
+
+    private boolean enqueue(final Tunnel tunnel, final Lane lane, final WebSocketMessage<?> message) {
+        if (lane == null || !lane.session.isOpen()) {
+            return false;
+        }
+        lane.outbound.add(message);
+        if (tunnel.queuedBytes.addAndGet(message.getPayloadLength()) > maxPendingBytes) {
+            tunnel.throttled = true;
+        }
+        if (lane.draining.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("net-proxy-sender-" + tunnel.tunnelId + "-" + lane.index)
+                .start(() -> drain(tunnel, lane));
+        }
+        return true;
+    }
+
+    /**
+     * Writes queued frames to one of the tunnel's WebSockets. Runs on one virtual thread per lane
+     * at a time, so the event loops never block on the WebSocket and frames keep their order.
+     */
+    private void drain(final Tunnel tunnel, final Lane lane) {
+        final var session = lane.session;
+        final var remote = batchingremote(session);
+        while (true) {
+            WebSocketMessage<?> message;
+            var written = 0;
+            while ((message = lane.outbound.poll()) != null) {
+                try {
+                    if (session.isOpen()) {
+                        session.sendMessage(message);
+                        written++;
+                    }
+                } catch (final IOException e) {
+                    log.debug("failed to send to client: {}", e.toString());
+                }
+                final var remaining = tunnel.queuedBytes.addAndGet(-message.getPayloadLength());
+                // The send is synchronous, so the frame buffer can be reused right away
+                release(message);
+                if (tunnel.throttled && remaining <= maxPendingBytes / 2) {
+                    resumereads(tunnel);
+                }
+            }
+            // Frames written back to back above go out with a single flush
+            if (remote != null && written > 0) {
+                try {
+                    remote.flushBatch();
+                } catch (final IOException e) {
+                    log.debug("failed to flush client session: {}", e.toString());
+                }
+            }
+            lane.draining.set(false);
+            // Re-check: a frame may have been queued after the last poll but before the flag was cleared
+            if (lane.outbound.isEmpty() || !lane.draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private static RemoteEndpoint.Basic batchingremote(final WebSocketSession session) {
         try {
-            if (tunnel.session != null && tunnel.session.isOpen()) {
-                final var payload = BinaryWsFrame.encodeToByteBuffer(connectionId, bytes, offset, length);
-                tunnel.session.sendMessage(new BinaryMessage(payload));
+            if (WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession) {
+                final var endpoint = nativeSession.getNativeSession(Session.class);
+                if (endpoint != null && endpoint.isOpen()) {
+                    final var remote = endpoint.getBasicRemote();
+                    remote.setBatchingAllowed(true);
+                    return remote;
+                }
             }
+        } catch (final IOException | RuntimeException e) {
+            log.debug("write batching unavailable for session {}: {}", session.getId(), e.toString());
+        }
+        return null;
+    }
+
+    private void resumereads(final Tunnel tunnel) {
+        tunnel.throttled = false;
+        for (final var connection : tunnel.pausedReads) {
+            tunnel.pausedReads.remove(connection);
+            connection.loop.execute(connection::resumereading);
+        }
+    }
+
+    private static void closequietly(final Channel channel) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
         } catch (final IOException e) {
-            log.debug("failed to send binary to client: {}", e.toString());
+            log.debug("Failed to close channel: {}", e.toString());
         }
     }
 
@@ -353,31 +873,410 @@ public class NetTunnelRegistry {
         private final int port;
     }
 
-    @Data
+    /**
+     * One WebSocket of a tunnel and the frames waiting to be written to it.
+     */
+    private static final class Lane {
+        private final int index;
+        private final WebSocketSession session;
+        private final Queue<WebSocketMessage<?>> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Lane(final int index, final WebSocketSession session) {
+            this.index = index;
+            this.session = session;
+        }
+    }
+
     private static class Tunnel {
         private final UUID tunnelId;
-        private volatile WebSocketSession session;
-        private volatile ServerSocket serverSocket;
-        private final Map<String, Connection> connections = new ConcurrentHashMap<>();
-        private volatile DatagramSocket udpSocket;
-        private final Map<String, InetSocketAddress> udpRemotes = new ConcurrentHashMap<>();
+        // Sorted by lane index; replaced as a whole on every change
+        private volatile List<Lane> lanes = List.of();
+        private volatile ServerSocketChannel serverChannel;
+        private final Map<Integer, Connection> connections = new ConcurrentHashMap<>();
+        private final AtomicInteger nextConnectionId = new AtomicInteger();
+        private volatile DatagramChannel udpChannel;
+        // UDP flow table, indexed by connection id and by peer address
+        private final Map<Integer, UdpFlow> udpFlowsById = new ConcurrentHashMap<>();
+        private final Map<InetSocketAddress, UdpFlow> udpFlows = new ConcurrentHashMap<>();
+
+        // Total payload size of frames waiting in the lanes' send queues
+        private final AtomicLong queuedBytes = new AtomicLong();
+        // Whether the client negotiated per-connection flow control and compact data frames
+        private volatile boolean flowControl;
+        private volatile boolean compactFrames;
+        // Token of the client process owning this tunnel's state, if it can resume it
+        private volatile String resumeToken;
+        // Lost lanes whose connections are kept until the client resumes them, by lane index
+        private final Map<Integer, Lane> suspended = new HashMap<>();
+        // Set while too much is queued; connections that stopped reading because of it
+        private volatile boolean throttled;
+        private final Set<Connection> pausedReads = ConcurrentHashMap.newKeySet();
 
         Tunnel(final UUID tunnelId) {
             this.tunnelId = tunnelId;
         }
+
+        int nextconnectionid() {
+            return nextConnectionId.getAndIncrement() & Integer.MAX_VALUE;
+        }
+
+        /**
+         * Picks the open lane for a connection id.
+         *
+         * @param connectionId the connection
+         * @return an open lane, or {@code null} if none is open
+         */
+        Lane lanefor(final int connectionId) {
+            final var current = lanes;
+            final var size = current.size();
+            final var start = size == 0 ? 0 : connectionId % size;
+            for (var i = 0; i < size; i++) {
+                final var candidate = current.get((start + i) % size);
+                if (candidate.session.isOpen()) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds a lane, replacing the lane with the same index or, without multi-session, all lanes.
+         *
+         * @return the replaced lanes
+         */
+        synchronized List<Lane> attach(final Lane lane, final boolean multiSession) {
+            final var replaced = new ArrayList<Lane>();
+            final var updated = new ArrayList<Lane>();
+            for (final var existing : lanes) {
+                if (!multiSession || existing.index == lane.index) {
+                    replaced.add(existing);
+                } else {
+                    updated.add(existing);
+                }
+            }
+            updated.add(lane);
+            updated.sort(Comparator.comparingInt(existing -> existing.index));
+            lanes = List.copyOf(updated);
+            return replaced;
+        }
+
+        synchronized void suspend(final Lane lane) {
+            suspended.put(lane.index, lane);
+        }
+
+        /**
+         * Takes suspended lanes out of the grace period.
+         *
+         * @param index       lane index of the new session
+         * @param sameIndex   whether only the lane with {@code index} is taken, or all of them
+         * @return the lanes taken
+         */
+        synchronized List<Lane> unsuspend(final int index, final boolean sameIndex) {
+            if (sameIndex) {
+                final var lane = suspended.remove(index);
+                return lane == null ? List.of() : List.of(lane);
+            }
+            final var all = List.copyOf(suspended.values());
+            suspended.clear();
+            return all;
+        }
+
+        synchronized boolean unsuspend(final Lane lane) {
+            return suspended.remove(lane.index, lane);
+        }
+
+        synchronized boolean idle() {
+            return lanes.isEmpty() && suspended.isEmpty();
+        }
+
+        synchronized Lane detach(final WebSocketSession session) {
+            for (final var lane : lanes) {
+                if (lane.session == session) {
+                    final var updated = new ArrayList<>(lanes);
+                    updated.remove(lane);
+                    lanes = List.copyOf(updated);
+                    return lane;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A UDP peer of a tunnel and the connection id its datagrams travel under.
+     */
+    private static final class UdpFlow {
+        private final int id;
+        private final InetSocketAddress remote;
+        // Time of the last datagram in either direction, in epoch millis
+        private volatile long lastActive = System.currentTimeMillis();
+
+        UdpFlow(final int id, final InetSocketAddress remote) {
+            this.id = id;
+            this.remote = remote;
+        }
     }
 
-    private static class Connection {
-        final String connectionId;
-        final Socket socket;
-        final java.io.InputStream in;
-        final java.io.OutputStream out;
+    /**
+     * A public TCP connection. Apart from {@link #write(ByteBuffer)}, all methods run on the owning
+     * event loop.
+     */
+    private final class Connection implements NetEventLoopGroup.ChannelHandler {
+        private final int connectionId;
+        private final Tunnel tunnel;
+        // The WebSocket all frames of this connection travel over, so that they stay in order;
+        // replaced only when the connection is resumed on a new WebSocket
+        private volatile Lane lane;
+        private final SocketChannel channel;
+        private final NetEventLoopGroup.EventLoop loop;
+        private final Queue<ByteBuffer> writes = new ArrayDeque<>();
+        private final AtomicLong pendingWriteBytes = new AtomicLong();
+        // Credit for data towards the client (null without flow control) and credit returned to it
+        private volatile SendWindow sendWindow;
+        private final ReceiveWindow receiveWindow;
+        private long initialSendWindow;
+        // Sent bytes not yet delivered by the client, and bytes received from it; resumable only
+        private final ReplayBuffer replay;
+        private long receivedBytes;
+        // Reading waits for the client's RESUME while the connection is being resumed
+        private boolean resuming;
+        private SelectionKey key;
+        private boolean closeAfterFlush;
+        private boolean closed;
 
-        Connection(final String connectionId, final Socket socket) throws IOException {
+        Connection(final int connectionId,
+                   final Tunnel tunnel,
+                   final Lane lane,
+                   final SocketChannel channel,
+                   final NetEventLoopGroup.EventLoop loop) {
             this.connectionId = connectionId;
-            this.socket = socket;
-            this.in = socket.getInputStream();
-            this.out = socket.getOutputStream();
+            this.tunnel = tunnel;
+            this.lane = lane;
+            this.channel = channel;
+            this.loop = loop;
+            this.receiveWindow = tunnel.flowControl ? new ReceiveWindow(ReceiveWindow.DEFAULT_SIZE) : null;
+            this.replay = tunnel.flowControl && tunnel.resumeToken != null ? new ReplayBuffer() : null;
+        }
+
+        @Override
+        public void onReady(final SelectionKey selected) {
+            try {
+                if (selected.isWritable()) {
+                    flush();
+                }
+                if (selected.isValid() && selected.isReadable()) {
+                    read();
+                }
+            } catch (final IOException e) {
+                log.debug("Public connection {} failed: {}", connectionId, e.toString());
+                close(true);
+            }
+        }
+
+        private void read() throws IOException {
+            if (tunnel.throttled) {
+                pausereading();
+                return;
+            }
+            if (resuming) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                return;
+            }
+            final var window = sendWindow;
+            var maxRead = MAX_PAYLOAD_SIZE;
+            if (window != null) {
+                final var credit = window.available();
+                if (credit <= 0) {
+                    // Resumed by the next WINDOW message from the client
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    return;
+                }
+                maxRead = (int) Math.min(maxRead, credit);
+            }
+            // Read straight into a frame buffer, leaving room for the header in front of the payload
+            final var frame = bufferPool.acquire();
+            frame.position(NetDataFrame.MAX_HEADER_SIZE).limit(NetDataFrame.MAX_HEADER_SIZE + maxRead);
+            final int read;
+            try {
+                read = channel.read(frame);
+            } catch (final IOException e) {
+                bufferPool.release(frame);
+                throw e;
+            }
+            if (read <= 0) {
+                bufferPool.release(frame);
+                if (read == -1) {
+                    close(true);
+                }
+                return;
+            }
+            if (window != null) {
+                window.consume(read);
+            }
+            frame.limit(frame.position());
+            if (replay != null) {
+                replay.append(frame.position(NetDataFrame.MAX_HEADER_SIZE));
+            }
+            sendframe(tunnel, lane, connectionId, frame);
+        }
+
+        /**
+         * Offers the connection to the client again after its WebSocket was replaced.
+         */
+        void resume() {
+            if (closed) {
+                return;
+            }
+            if (sendWindow == null || replay == null) {
+                // Not established yet: the OPEN or its OPEN_OK was lost with the old WebSocket
+                close(true);
+                return;
+            }
+            resuming = true;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            final var message = new WsTunnelMessage();
+            message.setWsType(WsTunnelMessage.Type.RESUME);
+            message.setConnectionId(Integer.toString(connectionId));
+            message.setReceived(receivedBytes);
+            message.setConsumed(receiveWindow.resync());
+            sendtoclient(tunnel, lane, message);
+        }
+
+        /**
+         * Retransmits what the client did not receive and continues reading.
+         */
+        void onresume(final long received, final long consumed) {
+            if (closed || replay == null || sendWindow == null) {
+                return;
+            }
+            if (received < replay.start() || received > replay.end() || consumed > received) {
+                log.warn("Closing public connection {}: client cannot resume at offset {}", connectionId, received);
+                close(true);
+                return;
+            }
+            replay.acknowledge(consumed);
+            sendWindow.reset(initialSendWindow - (replay.end() - consumed));
+            var offset = received;
+            while (offset < replay.end()) {
+                final var frame = bufferPool.acquire();
+                frame.position(NetDataFrame.MAX_HEADER_SIZE);
+                offset += replay.copy(offset, frame);
+                frame.limit(frame.position());
+                sendframe(tunnel, lane, connectionId, frame);
+            }
+            resuming = false;
+            resumereading();
+        }
+
+        private void pausereading() {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            tunnel.pausedReads.add(this);
+            // The queue may have drained between the throttle check and registering as paused
+            if (!tunnel.throttled && tunnel.pausedReads.remove(this)) {
+                resumereading();
+            }
+        }
+
+        void resumereading() {
+            if (!closed && key != null && key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Queues data for the public socket. The data is copied, so the caller may reuse it.
+         */
+        void write(final ByteBuffer data) {
+            if (pendingWriteBytes.addAndGet(data.remaining()) > maxPendingBytes) {
+                log.warn("Closing public connection {}: peer is not reading ({} bytes pending)",
+                    connectionId, pendingWriteBytes.get());
+                loop.execute(() -> close(true));
+                return;
+            }
+            final var copy = data.remaining() <= FRAME_BUFFER_SIZE
+                ? bufferPool.acquire()
+                : ByteBuffer.allocate(data.remaining());
+            copy.put(data).flip();
+            loop.execute(() -> {
+                if (closed) {
+                    bufferPool.release(copy);
+                    return;
+                }
+                receivedBytes += copy.remaining();
+                writes.add(copy);
+                try {
+                    flush();
+                } catch (final IOException e) {
+                    log.debug("Failed to write to public socket: {}", e.toString());
+                    close(true);
+                }
+            });
+        }
+
+        private void flush() throws IOException {
+            if (closed || key == null) {
+                return;
+            }
+            while (!writes.isEmpty()) {
+                final var buffer = writes.peek();
+                final var written = channel.write(buffer);
+                pendingWriteBytes.addAndGet(-written);
+                if (receiveWindow != null && written > 0) {
+                    final var credit = receiveWindow.onConsumed(written);
+                    if (credit > 0) {
+                        sendwindow(this, credit);
+                    }
+                }
+                if (buffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                bufferPool.release(writes.poll());
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            if (closeAfterFlush) {
+                close(false);
+            }
+        }
+
+        void closeafterflush() {
+            closeAfterFlush = true;
+            try {
+                flush();
+            } catch (final IOException e) {
+                close(false);
+            }
+            if (key == null) {
+                close(false);
+            }
+        }
+
+        /**
+         * Closes the public socket.
+         *
+         * @param notifyClient whether the client must be told; {@code false} when it initiated the close
+         */
+        void close(final boolean notifyClient) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ByteBuffer pending;
+            while ((pending = writes.poll()) != null) {
+                bufferPool.release(pending);
+            }
+            tunnel.pausedReads.remove(this);
+            closequietly(channel);
+            log.info("Public socket closed for tunnel {}: {}", tunnel.tunnelId, connectionId);
+            if (notifyClient && tunnel.connections.remove(connectionId) != null) {
+                final var message = new WsTunnelMessage();
+                message.setWsType(WsTunnelMessage.Type.CLOSE);
+                message.setConnectionId(Integer.toString(connectionId));
+                sendtoclient(tunnel, lane, message);
+            }
         }
     }
 }
@@ -31,7 +31,6 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.TunnelType;
-import tech.amak.portbuddy.common.tunnel.BinaryWsFrame;
 import tech.amak.portbuddy.common.tunnel.ControlMessage;
 import tech.amak.portbuddy.common.tunnel.MessageEnvelope;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
@@ -76,6 +75,11 @@ public class NetTunnelWebSocketHandler extends AbstractWebSocketHandler {
             session.close(CloseStatus.BAD_DATA);
             return;
         }
+        if (!registry.acceptslane(session)) {
+            log.warn("Net tunnel {} asked for a lane beyond the configured maximum", tunnelId);
+            session.close(CloseStatus.POLICY_VIOLATION);
+            return;
+        }
 
         // Prepare exposure and then attach the session
         final NetTunnelRegistry.ExposedPort exposedPort;
@@ -91,14 +95,13 @@ public class NetTunnelWebSocketHandler extends AbstractWebSocketHandler {
         log.info("Net tunnel WS established: {} type={} port={}", tunnelId, tunnelType, desiredPort);
 
         // Inform client about actual public details in case port was re-assigned
-        try {
-            final var info = new WsTunnelMessage();
-            info.setWsType(WsTunnelMessage.Type.EXPOSED);
-            info.setPublicHost(properties.publicHost());
-            info.setPublicPort(exposedPort.getPort());
-            session.sendMessage(new TextMessage(mapper.writeValueAsString(info)));
-        } catch (final Exception e) {
-            log.debug("Failed to send EXPOSED info: {}", e.toString());
+        final var info = new WsTunnelMessage();
+        info.setWsType(WsTunnelMessage.Type.EXPOSED);
+        info.setPublicHost(properties.publicHost());
+        info.setPublicPort(exposedPort.getPort());
+        // The registry's sender may already be writing to this session
+        if (!registry.sendtosession(tunnelId, session, info)) {
+            log.debug("Failed to send EXPOSED info to tunnel {}", tunnelId);
         }
     }
 
@@ -114,18 +117,21 @@ public class NetTunnelWebSocketHandler extends AbstractWebSocketHandler {
                 final var pong = new ControlMessage();
                 pong.setType(ControlMessage.Type.PONG);
                 pong.setTs(System.currentTimeMillis());
-                session.sendMessage(new TextMessage(mapper.writeValueAsString(pong)));
+                registry.sendtosession(tunnelId, session, pong);
             }
             return;
         }
         if (env.getKind() != null && env.getKind().equals("WS")) {
             final var message = mapper.readValue(payload, WsTunnelMessage.class);
             switch (message.getWsType()) {
-                case OPEN_OK -> registry.onclientopenok(tunnelId, message.getConnectionId());
+                case OPEN_OK -> registry.onclientopenok(tunnelId, message.getConnectionId(), message.getWindow());
+                case WINDOW -> registry.onclientwindow(tunnelId, message.getConnectionId(), message.getWindow());
                 case BINARY -> {
                     registry.onclientbinary(tunnelId, message.getConnectionId(), message.getDataB64());
                 }
                 case CLOSE -> registry.onclientclose(tunnelId, message.getConnectionId());
+                case RESUME -> registry.onclientresume(
+                    tunnelId, message.getConnectionId(), message.getReceived(), message.getConsumed());
                 default -> log.debug("Ignoring WS control type: {}", message.getWsType());
             }
             return;
@@ -135,26 +141,19 @@ public class NetTunnelWebSocketHandler extends AbstractWebSocketHandler {
 
     @Override
     protected void handleBinaryMessage(final WebSocketSession session, final BinaryMessage message) {
-        final var tunnelId = extractTunnelId(session);
-        final var decoded = BinaryWsFrame.decode(message.getPayload());
-        if (decoded == null) {
-            return;
-        }
-        registry.onclientbinarybytes(tunnelId, decoded.connectionId(), decoded.data());
+        registry.onclientframe(extractTunnelId(session), message.getPayload());
     }
 
     @Override
     public void afterConnectionClosed(final WebSocketSession session, final CloseStatus status) {
-        // Detach session and close exposed sockets for this tunnel immediately
+        // Detach session and close exposed sockets once the tunnel's last session is gone
         try {
             final var tunnelId = extractTunnelId(session);
-            if (tunnelId != null) {
+            if (tunnelId != null && registry.detachsession(tunnelId, session)) {
                 registry.closetunnel(tunnelId);
             }
         } catch (final Exception e) {
             log.debug("failed to close tunnel on ws close: {}", e.toString());
-        } finally {
-            registry.detachsession(session);
         }
     }
 
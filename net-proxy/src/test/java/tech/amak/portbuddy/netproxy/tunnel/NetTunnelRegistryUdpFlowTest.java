@@ -0,0 +1,243 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.netproxy.tunnel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import tech.amak.portbuddy.common.TunnelType;
+import tech.amak.portbuddy.common.tunnel.BinaryWsFrame;
+import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
+import tech.amak.portbuddy.netproxy.config.AppProperties;
+import tech.amak.portbuddy.netproxy.service.ThreatFoxService;
+
+class NetTunnelRegistryUdpFlowTest {
+
+    private static final Duration WAIT = Duration.ofSeconds(5);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final UUID tunnelId = UUID.randomUUID();
+    // What the registry sent to the client, decoded right away because frame buffers are pooled
+    private final BlockingQueue<Object> sent = new LinkedBlockingQueue<>();
+    private final List<DatagramSocket> peers = new ArrayList<>();
+
+    private NetEventLoopGroup eventLoops;
+    private NetTunnelRegistry registry;
+    private int port;
+
+    @AfterEach
+    void tearDown() {
+        peers.forEach(DatagramSocket::close);
+        if (registry != null) {
+            registry.closetunnel(tunnelId);
+        }
+        if (eventLoops != null) {
+            eventLoops.shutdown();
+        }
+    }
+
+    @Test
+    void openudpflow_shouldEvictLeastRecentlyActiveFlow_whenTableIsFull() throws Exception {
+        start(2, Duration.ofMinutes(10));
+        final var first = peer();
+        final var second = peer();
+        final var third = peer();
+
+        final var firstId = sendFrom(first, "one");
+        Thread.sleep(20);
+        final var secondId = sendFrom(second, "two");
+        Thread.sleep(20);
+        send(third, "three");
+
+        // The client is told to drop the oldest flow before the new peer's datagram arrives
+        assertEquals(firstId, awaitClose().getConnectionId());
+        final var thirdId = awaitFrame().connectionId();
+        assertNotEquals(firstId, thirdId);
+        assertNotEquals(secondId, thirdId);
+
+        // Replies for the evicted flow go nowhere, the remaining flows still work
+        reply(firstId, "lost");
+        reply(secondId, "back");
+        assertEquals("back", receive(second));
+        assertNull(receiveOrNull(first));
+    }
+
+    @Test
+    void openudpflow_shouldGiveReturningPeerNewFlow_afterEviction() throws Exception {
+        start(1, Duration.ofMinutes(10));
+        final var first = peer();
+        final var second = peer();
+
+        final var firstId = sendFrom(first, "one");
+        send(second, "two");
+        assertEquals(firstId, awaitClose().getConnectionId());
+        final var secondId = awaitFrame().connectionId();
+
+        send(first, "again");
+        assertEquals(secondId, awaitClose().getConnectionId());
+        final var returning = awaitFrame();
+        assertNotEquals(firstId, returning.connectionId());
+        assertArrayEquals("again".getBytes(StandardCharsets.UTF_8), returning.data());
+    }
+
+    @Test
+    void evictidleudpflows_shouldEvictOnlyIdleFlows() throws Exception {
+        start(16, Duration.ofMillis(200));
+        final var idle = peer();
+        final var active = peer();
+
+        final var idleId = sendFrom(idle, "idle");
+        Thread.sleep(300);
+        final var activeId = sendFrom(active, "active");
+
+        registry.evictidleudpflows();
+
+        assertEquals(idleId, awaitClose().getConnectionId());
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        reply(activeId, "still here");
+        assertEquals("still here", receive(active));
+        reply(idleId, "gone");
+        assertNull(receiveOrNull(idle));
+    }
+
+    @Test
+    void evictidleudpflows_shouldKeepFlowsWithRecentReplies() throws Exception {
+        start(16, Duration.ofMillis(200));
+        final var peer = peer();
+
+        final var id = sendFrom(peer, "hello");
+        Thread.sleep(150);
+        // Traffic from the client counts as activity too
+        reply(id, "reply");
+        assertEquals("reply", receive(peer));
+        Thread.sleep(100);
+
+        registry.evictidleudpflows();
+
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void start(final int maxUdpFlows, final Duration idleTimeout) throws IOException {
+        final var properties = new AppProperties(null, null, null,
+            new AppProperties.DataPlane(1, null, idleTimeout, maxUdpFlows, null, 0));
+        eventLoops = new NetEventLoopGroup(properties);
+        registry = new NetTunnelRegistry(mapper, mock(ThreatFoxService.class), eventLoops, properties);
+
+        final var session = mock(WebSocketSession.class);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getHandshakeHeaders()).thenReturn(new HttpHeaders());
+        doAnswer(invocation -> {
+            final WebSocketMessage<?> message = invocation.getArgument(0);
+            if (message instanceof TextMessage text) {
+                sent.add(mapper.readValue(text.getPayload(), WsTunnelMessage.class));
+            } else if (message instanceof BinaryMessage binary) {
+                sent.add(BinaryWsFrame.decode(binary.getPayload().duplicate()));
+            }
+            return null;
+        }).when(session).sendMessage(any());
+
+        port = registry.expose(tunnelId, TunnelType.UDP, null).getPort();
+        registry.attachsession(tunnelId, session);
+    }
+
+    private DatagramSocket peer() throws IOException {
+        final var socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        socket.setSoTimeout(300);
+        peers.add(socket);
+        return socket;
+    }
+
+    private void send(final DatagramSocket peer, final String text) throws IOException {
+        final var data = text.getBytes(StandardCharsets.UTF_8);
+        peer.send(new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Sends a datagram from a peer and returns the id of the flow the registry relayed it on.
+     */
+    private String sendFrom(final DatagramSocket peer, final String text) throws Exception {
+        send(peer, text);
+        final var frame = awaitFrame();
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), frame.data());
+        return frame.connectionId();
+    }
+
+    private BinaryWsFrame.Decoded awaitFrame() throws InterruptedException {
+        final var next = sent.poll(WAIT.toMillis(), TimeUnit.MILLISECONDS);
+        assertNotNull(next, "no frame relayed to the client");
+        return (BinaryWsFrame.Decoded) next;
+    }
+
+    private WsTunnelMessage awaitClose() throws InterruptedException {
+        final var next = sent.poll(WAIT.toMillis(), TimeUnit.MILLISECONDS);
+        assertNotNull(next, "no CLOSE sent to the client");
+        final var message = (WsTunnelMessage) next;
+        assertEquals(WsTunnelMessage.Type.CLOSE, message.getWsType());
+        return message;
+    }
+
+    private void reply(final String connectionId, final String text) {
+        final var data = text.getBytes(StandardCharsets.UTF_8);
+        registry.onclientframe(tunnelId, BinaryWsFrame.encodeToByteBuffer(connectionId, data, 0, data.length));
+    }
+
+    private static String receive(final DatagramSocket peer) throws IOException {
+        final var text = receiveOrNull(peer);
+        assertNotNull(text, "no datagram received");
+        return text;
+    }
+
+    private static String receiveOrNull(final DatagramSocket peer) throws IOException {
+        final var packet = new DatagramPacket(new byte[1024], 1024);
+        try {
+            peer.receive(packet);
+        } catch (final SocketTimeoutException e) {
+            return null;
+        }
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+}
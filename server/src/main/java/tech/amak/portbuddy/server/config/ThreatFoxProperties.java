@@ -1,12 +1,31 @@
 package tech.amak.portbuddy.server.config;
 
+import java.nio.file.Path;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+/**
+ * ThreatFox feed settings.
+ *
+ * @param apiurl               ThreatFox API endpoint
+ * @param authkey              ThreatFox API key
+ * @param fetchintervalminutes how often the feed is refreshed
+ * @param sourcefile           local {@code get_iocs} response to read instead of the API, e.g. offline
+ * @param snapshotfile         where the last good feed is kept between restarts
+ * @param fulldays             days fetched when no recent snapshot exists (ThreatFox allows up to 7)
+ * @param deltadays            days fetched at least on a regular refresh
+ * @param retentiondays        how long an ioc is blocked after it was first seen
+ */
 @ConfigurationProperties(prefix = "threatfox")
 public record ThreatFoxProperties(
     String apiurl,
     String authkey,
-    Integer fetchintervalminutes
+    Integer fetchintervalminutes,
+    String sourcefile,
+    String snapshotfile,
+    Integer fulldays,
+    Integer deltadays,
+    Integer retentiondays
 ) {
     public ThreatFoxProperties {
         if (apiurl == null || apiurl.isBlank()) {
@@ -18,5 +37,21 @@ public record ThreatFoxProperties(
         if (fetchintervalminutes == null || fetchintervalminutes <= 0) {
             fetchintervalminutes = 60;
         }
+        if (sourcefile != null && sourcefile.isBlank()) {
+            sourcefile = null;
+        }
+        if (snapshotfile == null || snapshotfile.isBlank()) {
+            snapshotfile = Path.of(System.getProperty("java.io.tmpdir"), "port-buddy-server-threatfox.snapshot")
+                .toString();
+        }
+        if (fulldays == null || fulldays <= 0) {
+            fulldays = 7;
+        }
+        if (deltadays == null || deltadays <= 0) {
+            deltadays = 1;
+        }
+        if (retentiondays == null || retentiondays <= 0) {
+            retentiondays = 30;
+        }
     }
 }
@@ -18,6 +18,7 @@ import java.time.Duration;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 
 import lombok.Getter;
 import lombok.Setter;
@@ -40,4 +41,156 @@ public class TunnelsProperties {
      * Defaults to 30 seconds.
      */
     private Duration checkInterval = Duration.ofSeconds(30);
+
+    /**
+     * How often tunnel activity recorded in memory is written to the database.
+     * Must be well below {@link #heartbeatTimeout}. Defaults to 10 seconds.
+     */
+    private Duration heartbeatFlushInterval = Duration.ofSeconds(10);
+
+    /**
+     * How long a resolved ingress route (tunnel, subscription status, passcode hash) is cached.
+     * Changes made through the application evict routes immediately; the TTL only bounds staleness
+     * for changes made elsewhere. Defaults to 30 seconds.
+     */
+    private Duration routeCacheTtl = Duration.ofSeconds(30);
+
+    /**
+     * Maximum number of cached ingress routes and custom domain mappings.
+     * Defaults to 10000.
+     */
+    private long routeCacheMaxSize = 10_000;
+
+    /**
+     * How long a successful passcode check is cached. Rotating a passcode changes its hash and
+     * therefore bypasses cached results immediately. Defaults to 10 minutes.
+     */
+    private Duration passcodeCacheTtl = Duration.ofMinutes(10);
+
+    /**
+     * Maximum number of cached successful passcode checks.
+     * Defaults to 10000.
+     */
+    private long passcodeCacheMaxSize = 10_000;
+
+    /**
+     * How long a tunnel whose client negotiated session resumption stays routable after its last
+     * control WebSocket was lost. Idempotent requests arriving or in flight meanwhile are sent once
+     * the client reconnects. Defaults to 30 seconds.
+     */
+    private Duration resumeGracePeriod = Duration.ofSeconds(30);
+
+    /**
+     * Control WebSockets ("lanes") a multi-session tunnel may use; a session with a lane index at
+     * or above it is closed. Defaults to 8.
+     */
+    private int maxLanes = 8;
+
+    /**
+     * Outbound queue of every control WebSocket towards a tunnel client.
+     */
+    private Outbound outbound = new Outbound();
+
+    /**
+     * Limits on requests forwarded through the public ingress.
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * What happens to a message sent to a tunnel client whose send buffer is full.
+     */
+    public enum SlowConsumerPolicy {
+        /** Reject the message; only the request it belongs to fails. */
+        DROP,
+        /** Close the control WebSocket; the client reconnects. */
+        CLOSE,
+        /** Block the sender until there is room, at most for the send timeout. */
+        BACKPRESSURE
+    }
+
+    /** Limits of the per-session outbound queue. */
+    @Getter
+    @Setter
+    public static class Outbound {
+
+        /**
+         * Bytes that may be queued towards a tunnel client per control WebSocket.
+         * Defaults to 8 MB.
+         */
+        private DataSize sendBufferLimit = DataSize.ofMegabytes(8);
+
+        /**
+         * Policy applied once {@link #sendBufferLimit} is reached.
+         * Defaults to {@link SlowConsumerPolicy#BACKPRESSURE}.
+         */
+        private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.BACKPRESSURE;
+
+        /**
+         * How long a sender waits for room under {@link SlowConsumerPolicy#BACKPRESSURE}.
+         * Defaults to 30 seconds.
+         */
+        private Duration sendTimeout = Duration.ofSeconds(30);
+    }
+
+    /** Concurrency limits applied to public requests before they are forwarded to a tunnel. */
+    @Getter
+    @Setter
+    public static class Admission {
+
+        /**
+         * Requests that may be in flight through a single tunnel; further requests wait for a slot.
+         * Defaults to 64.
+         */
+        private int maxConcurrentPerTunnel = 64;
+
+        /**
+         * Requests that may be in flight or waiting across all tunnels of an account; further
+         * requests are answered with 429. Defaults to 256.
+         */
+        private int maxConcurrentPerAccount = 256;
+
+        /**
+         * Requests that may wait for a slot of a single tunnel; further requests are answered with
+         * 503. Defaults to 32.
+         */
+        private int maxQueuedPerTunnel = 32;
+
+        /**
+         * How long a request waits for a slot before it is answered with 503.
+         * Defaults to 2 seconds.
+         */
+        private Duration queueTimeout = Duration.ofSeconds(2);
+
+        /**
+         * Value of the {@code Retry-After} header of rejected requests, rounded up to whole seconds.
+         * Defaults to 1 second.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        /**
+         * Whether the per-tunnel limit adapts to the tunnel's latency: it grows by one per round
+         * of fast responses, up to {@link #maxConcurrentPerTunnel}, and shrinks by
+         * {@link #adaptiveBackoff} whenever a response is slower than {@link #adaptiveLatencyThreshold}
+         * or times out. Defaults to {@code false}.
+         */
+        private boolean adaptive = false;
+
+        /**
+         * Lower bound of the adaptive per-tunnel limit.
+         * Defaults to 4.
+         */
+        private int adaptiveMinConcurrent = 4;
+
+        /**
+         * Response time above which a tunnel is considered overloaded.
+         * Defaults to 5 seconds.
+         */
+        private Duration adaptiveLatencyThreshold = Duration.ofSeconds(5);
+
+        /**
+         * Factor applied to the adaptive limit on overload.
+         * Defaults to 0.9.
+         */
+        private double adaptiveBackoff = 0.9;
+    }
 }
@@ -14,6 +14,7 @@
 
 package tech.amak.portbuddy.server.db.repo;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -43,6 +44,9 @@ public interface DomainRepository extends JpaRepository<DomainEntity, UUID> {
 
     Optional<DomainEntity> findByCustomDomain(String customDomain);
 
+    @Query("SELECT d.customDomain FROM DomainEntity d WHERE d.subdomain IN :subdomains AND d.customDomain IS NOT NULL")
+    List<String> findCustomDomainsBySubdomainIn(@Param("subdomains") Collection<String> subdomains);
+
     long countByAccount(AccountEntity account);
 
     long countByAccountAndCustomDomainIsNotNull(AccountEntity account);
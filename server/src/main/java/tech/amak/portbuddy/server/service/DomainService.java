@@ -54,6 +54,7 @@ public class DomainService {
     private final PasswordEncoder passwordEncoder;
     private final SslServiceClient sslServiceClient;
     private final UserRepository userRepository;
+    private final IngressRouteCache routeCache;
 
     private final SecureRandom random = new SecureRandom();
 
@@ -127,6 +128,8 @@ public class DomainService {
             if (domainRepository.existsBySubdomainGlobal(newSubdomain)) {
                 throw new RuntimeException("Subdomain " + newSubdomain + " is already taken");
             }
+            routeCache.evictSubdomain(domain.getSubdomain());
+            routeCache.evictCustomDomain(domain.getCustomDomain());
             domain.setSubdomain(newSubdomain);
             domain.setCnameVerified(false);
             domain.setSslActive(false);
@@ -153,6 +156,8 @@ public class DomainService {
         }
 
         domainRepository.delete(domain);
+        routeCache.evictSubdomain(domain.getSubdomain());
+        routeCache.evictCustomDomain(domain.getCustomDomain());
         log.info("Deleted domain {} for account {}", domain.getSubdomain(), account.getId());
     }
 
@@ -179,6 +184,7 @@ public class DomainService {
 
         final var hash = passwordEncoder.encode(passcode);
         domain.setPasscodeHash(hash);
+        routeCache.evictSubdomain(domain.getSubdomain());
         return domainRepository.save(domain);
     }
 
@@ -194,6 +200,7 @@ public class DomainService {
             .orElseThrow(() -> new RuntimeException("Domain not found"));
         domain.setPasscodeHash(null);
         domainRepository.save(domain);
+        routeCache.evictSubdomain(domain.getSubdomain());
     }
 
     /**
@@ -210,6 +217,8 @@ public class DomainService {
             .orElseThrow(() -> new RuntimeException("Domain not found"));
 
         if (!Objects.equals(domain.getCustomDomain(), customDomain)) {
+            routeCache.evictCustomDomain(domain.getCustomDomain());
+            routeCache.evictCustomDomain(customDomain);
             domain.setCustomDomain(customDomain);
             domain.setCnameVerified(false);
             domain.setSslActive(false);
@@ -228,6 +237,7 @@ public class DomainService {
     public void deleteCustomDomain(final UUID id, final AccountEntity account) {
         final var domain = domainRepository.findByIdAndAccount(id, account)
             .orElseThrow(() -> new RuntimeException("Domain not found"));
+        routeCache.evictCustomDomain(domain.getCustomDomain());
         domain.setCustomDomain(null);
         domain.setCnameVerified(false);
         domain.setSslActive(false);
@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import lombok.extern.slf4j.Slf4j;
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+import tech.amak.portbuddy.server.db.entity.AccountEntity;
+import tech.amak.portbuddy.server.db.entity.DomainEntity;
+import tech.amak.portbuddy.server.db.entity.TunnelEntity;
+import tech.amak.portbuddy.server.db.repo.AccountRepository;
+import tech.amak.portbuddy.server.db.repo.DomainRepository;
+import tech.amak.portbuddy.server.db.repo.TunnelRepository;
+import tech.amak.portbuddy.server.tunnel.TunnelRegistry;
+
+/**
+ * In-process routing table used by the ingress hot path. Resolves a subdomain served by a
+ * connected tunnel to everything a proxied request needs (owning account, subscription status,
+ * effective passcode hash) and custom domains to their subdomain, so that steady-state traffic
+ * does no database I/O. Entries are bounded in size and age and are evicted explicitly by the
+ * services that change the underlying data; evictions requested inside a transaction are applied
+ * after commit so a concurrent reader cannot re-cache the old state. A custom domain change is
+ * also published to the gateways through the tunnel ownership snapshot.
+ */
+@Slf4j
+@Service
+public class IngressRouteCache {
+
+    private final DomainRepository domainRepository;
+    private final AccountRepository accountRepository;
+    private final TunnelRepository tunnelRepository;
+    private final TunnelRegistry tunnelRegistry;
+
+    private final Cache<RouteKey, IngressRoute> routes;
+    private final Cache<String, Optional<String>> customDomains;
+
+    /**
+     * Creates the cache.
+     *
+     * @param domainRepository  domain repository
+     * @param accountRepository account repository
+     * @param tunnelRepository  tunnel repository
+     * @param tunnelRegistry    registry notified of custom domain changes
+     * @param tunnelsProperties cache size and TTL settings
+     */
+    public IngressRouteCache(final DomainRepository domainRepository,
+                             final AccountRepository accountRepository,
+                             final TunnelRepository tunnelRepository,
+                             final TunnelRegistry tunnelRegistry,
+                             final TunnelsProperties tunnelsProperties) {
+        this.domainRepository = domainRepository;
+        this.accountRepository = accountRepository;
+        this.tunnelRepository = tunnelRepository;
+        this.tunnelRegistry = tunnelRegistry;
+        this.routes = Caffeine.newBuilder()
+            .maximumSize(tunnelsProperties.getRouteCacheMaxSize())
+            .expireAfterWrite(tunnelsProperties.getRouteCacheTtl())
+            .build();
+        this.customDomains = Caffeine.newBuilder()
+            .maximumSize(tunnelsProperties.getRouteCacheMaxSize())
+            .expireAfterWrite(tunnelsProperties.getRouteCacheTtl())
+            .build();
+    }
+
+    /**
+     * Resolves the route for a subdomain currently served by the given tunnel. Routes are keyed by
+     * subdomain and tunnel, so a new tunnel on the same subdomain loads its own route and that of
+     * the previous tunnel ages out. Concurrent misses for the same key load the route once.
+     *
+     * @param subdomain the requested subdomain
+     * @param tunnelId  id of the tunnel registered for the subdomain on this instance
+     * @param accountId id of the account owning the tunnel
+     * @return the resolved route
+     */
+    public IngressRoute route(final String subdomain, final UUID tunnelId, final UUID accountId) {
+        return routes.get(new RouteKey(subdomain, tunnelId), key -> loadRoute(subdomain, tunnelId, accountId));
+    }
+
+    /**
+     * Resolves a custom domain to the subdomain it is mapped to.
+     *
+     * @param customDomain lower-case custom domain without port
+     * @return the subdomain, or empty if the custom domain is unknown
+     */
+    public Optional<String> resolveCustomDomain(final String customDomain) {
+        return customDomains.get(customDomain, domain ->
+            domainRepository.findByCustomDomain(domain).map(DomainEntity::getSubdomain));
+    }
+
+    /**
+     * Returns the custom domains mapped to the given subdomains. Not cached: used for the ownership
+     * snapshots, which must see custom domains mapped on other server instances.
+     *
+     * @param subdomains subdomains served by this instance
+     * @return the custom domains mapped to them
+     */
+    public List<String> customDomainsOf(final Collection<String> subdomains) {
+        if (subdomains.isEmpty()) {
+            return List.of();
+        }
+        return domainRepository.findCustomDomainsBySubdomainIn(subdomains);
+    }
+
+    /**
+     * Evicts the route of a subdomain.
+     *
+     * @param subdomain the subdomain whose domain settings changed
+     */
+    public void evictSubdomain(final String subdomain) {
+        if (subdomain != null) {
+            afterCommit(() -> routes.asMap().keySet().removeIf(key -> key.subdomain().equals(subdomain)));
+        }
+    }
+
+    /**
+     * Evicts a custom domain mapping and lets the gateways pick up the change.
+     *
+     * @param customDomain the custom domain that was added, changed or removed
+     */
+    public void evictCustomDomain(final String customDomain) {
+        if (customDomain != null) {
+            afterCommit(() -> {
+                customDomains.invalidate(customDomain.toLowerCase());
+                tunnelRegistry.customDomainsChanged();
+            });
+        }
+    }
+
+    /**
+     * Evicts routes served by a tunnel.
+     *
+     * @param tunnelId the tunnel whose settings changed
+     */
+    public void evictTunnel(final UUID tunnelId) {
+        afterCommit(() -> routes.asMap().values().removeIf(route -> route.tunnelId().equals(tunnelId)));
+    }
+
+    /**
+     * Evicts routes of all tunnels owned by an account.
+     *
+     * @param accountId the account whose subscription changed
+     */
+    public void evictAccount(final UUID accountId) {
+        afterCommit(() -> routes.asMap().values().removeIf(route -> Objects.equals(route.accountId(), accountId)));
+    }
+
+    private IngressRoute loadRoute(final String subdomain, final UUID tunnelId, final UUID accountId) {
+        final var account = accountRepository.findById(accountId);
+        final var passcodeHash = tunnelRepository.findById(tunnelId)
+            .map(TunnelEntity::getTempPasscodeHash)
+            .or(() -> domainRepository.findBySubdomain(subdomain).map(DomainEntity::getPasscodeHash))
+            .orElse(null);
+        log.debug("Loaded ingress route for subdomain {} (tunnel {})", subdomain, tunnelId);
+        return new IngressRoute(
+            tunnelId,
+            accountId,
+            account.isPresent(),
+            account.map(AccountEntity::getSubscriptionStatus).orElse(null),
+            passcodeHash);
+    }
+
+    private static void afterCommit(final Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(final int status) {
+                // Evict on rollback as well: a cache entry loaded during the transaction may be wrong either way
+                action.run();
+            }
+        });
+    }
+
+    private record RouteKey(String subdomain, UUID tunnelId) {
+    }
+
+    /**
+     * Everything the ingress needs to authorize and forward a request to a tunnel.
+     *
+     * @param tunnelId           the tunnel serving the subdomain
+     * @param accountId          the account owning the tunnel
+     * @param accountFound       whether the owning account exists
+     * @param subscriptionStatus Stripe subscription status of the account; {@code null} if none
+     * @param passcodeHash       effective passcode hash (tunnel temporary passcode first, then domain
+     *                           passcode); {@code null} if the tunnel is not protected
+     */
+    public record IngressRoute(UUID tunnelId,
+                               UUID accountId,
+                               boolean accountFound,
+                               String subscriptionStatus,
+                               String passcodeHash) {
+
+        /**
+         * Returns whether the owning account's subscription allows traffic. Accounts without
+         * a subscription status are treated as active.
+         *
+         * @return {@code true} if requests may be forwarded
+         */
+        public boolean isSubscriptionActive() {
+            return subscriptionStatus == null || "active".equals(subscriptionStatus);
+        }
+    }
+}
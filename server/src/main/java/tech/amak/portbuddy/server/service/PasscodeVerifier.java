@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+
+/**
+ * Verifies tunnel passcodes against their BCrypt hashes. BCrypt is deliberately slow, and a
+ * protected page sends the passcode cookie with every asset request, so verification results
+ * are cached by SHA-256 of the passcode and the hash. Keying by the hash means that rotating
+ * the passcode invalidates all cached results without explicit eviction, and the raw passcode
+ * is never kept in memory. Only successful verifications are cached, so that guessing random
+ * passcodes cannot evict the entries of legitimate visitors.
+ */
+@Service
+public class PasscodeVerifier {
+
+    private final PasswordEncoder passwordEncoder;
+    private final Cache<String, Boolean> verified;
+
+    /**
+     * Creates the verifier.
+     *
+     * @param passwordEncoder   encoder the passcode hashes were created with
+     * @param tunnelsProperties cache size and TTL settings
+     */
+    public PasscodeVerifier(final PasswordEncoder passwordEncoder, final TunnelsProperties tunnelsProperties) {
+        this.passwordEncoder = passwordEncoder;
+        this.verified = Caffeine.newBuilder()
+            .maximumSize(tunnelsProperties.getPasscodeCacheMaxSize())
+            .expireAfterWrite(tunnelsProperties.getPasscodeCacheTtl())
+            .build();
+    }
+
+    /**
+     * Checks a raw passcode against a passcode hash.
+     *
+     * @param passcode     raw passcode supplied by the visitor
+     * @param passcodeHash BCrypt hash configured for the tunnel or domain
+     * @return {@code true} if the passcode matches
+     */
+    public boolean matches(final String passcode, final String passcodeHash) {
+        if (passcode == null || passcodeHash == null) {
+            return false;
+        }
+        final var key = cacheKey(passcode, passcodeHash);
+        if (verified.getIfPresent(key) != null) {
+            return true;
+        }
+        if (!verify(passcode, passcodeHash)) {
+            return false;
+        }
+        verified.put(key, Boolean.TRUE);
+        return true;
+    }
+
+    private boolean verify(final String passcode, final String passcodeHash) {
+        try {
+            return passwordEncoder.matches(passcode, passcodeHash);
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    private static String cacheKey(final String passcode, final String passcodeHash) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(passcodeHash.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(passcode.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
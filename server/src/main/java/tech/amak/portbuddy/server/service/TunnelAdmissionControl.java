@@ -0,0 +1,306 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.server.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+
+/**
+ * Admission control for requests arriving at the public ingress. Every request needs a slot of
+ * its account and a slot of its tunnel before it is forwarded:
+ * <ul>
+ *   <li>an account over {@code app.tunnels.admission.max-concurrent-per-account} is answered with
+ *       429 at once;</li>
+ *   <li>a tunnel at its limit lets up to {@code max-queued-per-tunnel} requests wait for at most
+ *       {@code queue-timeout}; requests beyond that, or waiting longer, are answered with 503.</li>
+ * </ul>
+ * Waiting requests hold no body, since the body is read only once admitted. An admitted request
+ * holds its slots until the tunnel answered with the response head, failed or timed out, so the
+ * limits bound the requests a tunnel has outstanding. In adaptive mode the per-tunnel limit follows
+ * the tunnel's latency with additive increase and multiplicative decrease.
+ */
+@Slf4j
+@Service
+public class TunnelAdmissionControl {
+
+    private final TunnelsProperties.Admission settings;
+    private final Counter rejectedByAccount;
+    private final Counter rejectedByTunnel;
+
+    // Requests admitted or waiting per account; an entry is removed once it drops to zero
+    private final Map<UUID, Integer> accountRequests = new ConcurrentHashMap<>();
+    private final Map<UUID, Limiter> tunnelLimiters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the admission control.
+     *
+     * @param properties    tunnels properties
+     * @param meterRegistry registry for rejection counters
+     */
+    public TunnelAdmissionControl(final TunnelsProperties properties, final MeterRegistry meterRegistry) {
+        this.settings = properties.getAdmission();
+        this.rejectedByAccount = Counter.builder("tunnel.admission.rejected")
+            .description("Public requests rejected before they were forwarded to a tunnel")
+            .tag("limit", "account")
+            .register(meterRegistry);
+        this.rejectedByTunnel = Counter.builder("tunnel.admission.rejected")
+            .description("Public requests rejected before they were forwarded to a tunnel")
+            .tag("limit", "tunnel")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Admits a request, waiting for a tunnel slot if needed.
+     *
+     * @param tunnelId  the tunnel the request is for
+     * @param accountId the account owning the tunnel; may be {@code null}
+     * @return the permit, to be closed once the response head arrived or the request failed
+     * @throws AdmissionRejectedException if the request must not be forwarded
+     */
+    public Permit admit(final UUID tunnelId, final UUID accountId) {
+        if (accountId != null && !enterAccount(accountId)) {
+            rejectedByAccount.increment();
+            log.debug("Rejected request to tunnel {}: account {} is at its limit", tunnelId, accountId);
+            throw new AdmissionRejectedException(429, settings.getRetryAfter());
+        }
+        final var limiter = tunnelLimiters.computeIfAbsent(tunnelId, id -> new Limiter(settings));
+        final boolean acquired;
+        try {
+            acquired = limiter.acquire(settings.getQueueTimeout().toNanos());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            leaveAccount(accountId);
+            throw new AdmissionRejectedException(503, settings.getRetryAfter());
+        }
+        if (!acquired) {
+            leaveAccount(accountId);
+            rejectedByTunnel.increment();
+            log.debug("Rejected request to tunnel {}: tunnel is at its limit", tunnelId);
+            throw new AdmissionRejectedException(503, settings.getRetryAfter());
+        }
+        return new Permit(limiter, accountId, System.nanoTime());
+    }
+
+    /**
+     * Drops the state kept for a tunnel that disconnected.
+     *
+     * @param tunnelId the tunnel
+     */
+    public void forget(final UUID tunnelId) {
+        tunnelLimiters.remove(tunnelId);
+    }
+
+    private boolean enterAccount(final UUID accountId) {
+        final var admitted = new AtomicBoolean();
+        accountRequests.compute(accountId, (id, count) -> {
+            final var current = count == null ? 0 : count;
+            if (current >= settings.getMaxConcurrentPerAccount()) {
+                return count;
+            }
+            admitted.set(true);
+            return current + 1;
+        });
+        return admitted.get();
+    }
+
+    private void leaveAccount(final UUID accountId) {
+        if (accountId != null) {
+            accountRequests.computeIfPresent(accountId, (id, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Slot held by an admitted request.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final Limiter limiter;
+        private final UUID accountId;
+        private volatile long startedAt;
+        private final AtomicBoolean sampled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(final Limiter limiter, final UUID accountId, final long startedAt) {
+            this.limiter = limiter;
+            this.accountId = accountId;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Marks the whole request, including a streamed body, as sent to the tunnel. The latency
+         * sampled by {@link #onResponse(Throwable)} is measured from here on, so that a slow upload
+         * by the public client does not count as tunnel latency.
+         */
+        public void onSent() {
+            startedAt = System.nanoTime();
+        }
+
+        /**
+         * Records the outcome of the request once the tunnel answered or failed. Only the first
+         * call counts.
+         *
+         * @param error the failure, or {@code null} if a response arrived
+         */
+        public void onResponse(final Throwable error) {
+            if (sampled.compareAndSet(false, true)) {
+                final var overloaded = error instanceof TimeoutException
+                    || error != null && error.getCause() instanceof TimeoutException
+                    || System.nanoTime() - startedAt > settings.getAdaptiveLatencyThreshold().toNanos();
+                limiter.sample(overloaded);
+            }
+        }
+
+        /**
+         * Releases the slots once the response head arrived, or the request failed or timed out.
+         */
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                limiter.release();
+                leaveAccount(accountId);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a request is not admitted.
+     */
+    public static class AdmissionRejectedException extends RuntimeException {
+
+        private final int status;
+        private final Duration retryAfter;
+
+        AdmissionRejectedException(final int status, final Duration retryAfter) {
+            super("Request rejected by admission control with status " + status, null, false, false);
+            this.status = status;
+            this.retryAfter = retryAfter;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        /**
+         * Returns the value of the {@code Retry-After} header.
+         *
+         * @return whole seconds, at least 1
+         */
+        public long retryAfterSeconds() {
+            final var seconds = retryAfter.toSeconds() + (retryAfter.toNanosPart() > 0 ? 1 : 0);
+            return Math.max(1, seconds);
+        }
+    }
+
+    /**
+     * Per-tunnel concurrency limit with a bounded wait queue.
+     */
+    static final class Limiter {
+
+        private final TunnelsProperties.Admission settings;
+        private final ReentrantLock lock = new ReentrantLock(true);
+        private final Condition released = lock.newCondition();
+        private double limit;
+        private int inFlight;
+        private int waiting;
+
+        Limiter(final TunnelsProperties.Admission settings) {
+            this.settings = settings;
+            this.limit = settings.getMaxConcurrentPerTunnel();
+        }
+
+        boolean acquire(final long timeoutNanos) throws InterruptedException {
+            lock.lock();
+            try {
+                if (inFlight < (int) limit) {
+                    inFlight++;
+                    return true;
+                }
+                if (waiting >= settings.getMaxQueuedPerTunnel()) {
+                    return false;
+                }
+                waiting++;
+                try {
+                    var remaining = timeoutNanos;
+                    while (inFlight >= (int) limit) {
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                    inFlight++;
+                    return true;
+                } finally {
+                    waiting--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                inFlight--;
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void sample(final boolean overloaded) {
+            if (!settings.isAdaptive()) {
+                return;
+            }
+            lock.lock();
+            try {
+                final var previous = (int) limit;
+                if (overloaded) {
+                    limit = Math.max(settings.getAdaptiveMinConcurrent(), limit * settings.getAdaptiveBackoff());
+                } else {
+                    // Grows by about one per limit's worth of fast responses
+                    limit = Math.min(settings.getMaxConcurrentPerTunnel(), limit + 1.0 / limit);
+                }
+                if ((int) limit > previous) {
+                    released.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int limit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.service;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory liveness tracker for tunnels connected to this server instance.
+ * The data plane records activity with {@link #touch(UUID)}, which only updates an
+ * atomic timestamp; the timestamps are written to {@code tunnels.last_heartbeat_at}
+ * in a single batched update every {@code app.tunnels.heartbeat-flush-interval}.
+ * {@link StaleTunnelsReaper} and the tunnels API read the flushed values, so the flush
+ * interval must stay well below {@code app.tunnels.heartbeat-timeout}.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class TunnelHeartbeatTracker {
+
+    private static final String FLUSH_SQL = """
+        UPDATE tunnels SET last_heartbeat_at = ?
+        WHERE id = ?
+          AND status <> 'CLOSED'
+          AND (last_heartbeat_at IS NULL OR last_heartbeat_at < ?)""";
+
+    private static final long NOT_SEEN = 0L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Last activity (epoch millis) not yet written to the database; NOT_SEEN once flushed
+    private final Map<UUID, AtomicLong> lastSeen = new ConcurrentHashMap<>();
+
+    /**
+     * Records activity on a tunnel. Safe to call for every message: after the first call
+     * for a tunnel this is a lock-free map read and an atomic write.
+     *
+     * @param tunnelId the tunnel that showed activity
+     */
+    public void touch(final UUID tunnelId) {
+        final var now = System.currentTimeMillis();
+        final var seen = lastSeen.get(tunnelId);
+        if (seen != null) {
+            seen.set(now);
+            return;
+        }
+        lastSeen.computeIfAbsent(tunnelId, id -> new AtomicLong()).set(now);
+    }
+
+    /**
+     * Stops tracking a tunnel, dropping any activity that was not flushed yet.
+     *
+     * @param tunnelId the tunnel that disconnected
+     */
+    public void forget(final UUID tunnelId) {
+        lastSeen.remove(tunnelId);
+    }
+
+    /**
+     * Writes the recorded activity of all tunnels touched since the previous flush.
+     */
+    @Scheduled(
+        fixedDelayString = "#{@tunnelsProperties.heartbeatFlushInterval.toMillis()}",
+        initialDelayString = "#{@tunnelsProperties.heartbeatFlushInterval.toMillis()}"
+    )
+    public void flush() {
+        final var taken = new HashMap<UUID, Long>();
+        final var batch = new ArrayList<Object[]>();
+        for (final var entry : lastSeen.entrySet()) {
+            final var seenAt = entry.getValue().getAndSet(NOT_SEEN);
+            if (seenAt == NOT_SEEN) {
+                continue;
+            }
+            taken.put(entry.getKey(), seenAt);
+            final var timestamp = OffsetDateTime.ofInstant(Instant.ofEpochMilli(seenAt), ZoneOffset.UTC);
+            batch.add(new Object[] {timestamp, entry.getKey(), timestamp});
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            jdbcTemplate.batchUpdate(FLUSH_SQL, batch);
+            log.debug("Flushed heartbeats of {} tunnels", batch.size());
+        } catch (final Exception e) {
+            log.warn("Failed to flush tunnel heartbeats: {}", e.toString());
+            // Written with the next flush, unless the tunnel showed newer activity or disconnected meanwhile
+            taken.forEach((tunnelId, seenAt) -> {
+                final var seen = lastSeen.get(tunnelId);
+                if (seen != null) {
+                    seen.accumulateAndGet(seenAt, Math::max);
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+}
@@ -46,6 +46,7 @@ public class TunnelService {
     private final AccountRepository accountRepository;
     private final AppProperties properties;
     private final ThreatFoxService threatfoxservice;
+    private final IngressRouteCache routeCache;
 
     /**
      * Creates a new HTTP tunnel using the database entity id as the tunnel id.
@@ -152,6 +153,7 @@ public class TunnelService {
     @Transactional
     public void closeAllTunnels(final AccountEntity account) {
         closeExcessTunnels(account, 0);
+        routeCache.evictAccount(account.getId());
     }
 
     private void closeExcessTunnels(final AccountEntity account, final int limit) {
@@ -168,6 +170,7 @@ public class TunnelService {
                 log.info("Closing tunnel: tunnelId={} accountId={}", tunnel.getId(), account.getId());
                 tunnel.setStatus(TunnelStatus.CLOSED);
                 tunnelRepository.save(tunnel);
+                routeCache.evictTunnel(tunnel.getId());
             }
         }
     }
@@ -262,6 +265,7 @@ public class TunnelService {
             entity.setTempPasscodeHash(hash);
             tunnelRepository.save(entity);
         });
+        routeCache.evictTunnel(tunnelId);
     }
 
     /**
@@ -325,5 +329,6 @@ public class TunnelService {
             entity.setStatus(TunnelStatus.CLOSED);
             tunnelRepository.save(entity);
         });
+        routeCache.evictTunnel(tunnelId);
     }
 }
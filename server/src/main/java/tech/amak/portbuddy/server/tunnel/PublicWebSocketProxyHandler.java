@@ -14,12 +14,10 @@
 
 package tech.amak.portbuddy.server.tunnel;
 
-import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 
 import org.springframework.http.HttpHeaders;
 import org.springframework.stereotype.Component;
@@ -33,8 +31,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
 import tech.amak.portbuddy.server.config.AppProperties;
-import tech.amak.portbuddy.server.db.repo.AccountRepository;
-import tech.amak.portbuddy.server.db.repo.DomainRepository;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 
 /**
  * Accepts public WebSocket connections from browsers for tunneled subdomains and bridges them
@@ -47,8 +44,7 @@ public class PublicWebSocketProxyHandler extends AbstractWebSocketHandler {
 
     private final TunnelRegistry registry;
     private final AppProperties properties;
-    private final DomainRepository domainRepository;
-    private final AccountRepository accountRepository;
+    private final IngressRouteCache routeCache;
 
     @Override
     public void afterConnectionEstablished(final WebSocketSession browserSession) throws Exception {
@@ -59,13 +55,14 @@ public class PublicWebSocketProxyHandler extends AbstractWebSocketHandler {
             return;
         }
 
+        var tunnelSubdomain = subdomain;
         var tunnel = registry.getBySubdomain(subdomain);
         if (tunnel == null) {
             // It might be a custom domain, try to resolve it to a subdomain
-            final var domainOpt = domainRepository.findByCustomDomain(subdomain);
-            if (domainOpt.isPresent()) {
-                final var resolvedSubdomain = domainOpt.get().getSubdomain();
-                tunnel = registry.getBySubdomain(resolvedSubdomain);
+            final var resolvedSubdomain = routeCache.resolveCustomDomain(subdomain);
+            if (resolvedSubdomain.isPresent()) {
+                tunnelSubdomain = resolvedSubdomain.get();
+                tunnel = registry.getBySubdomain(tunnelSubdomain);
             }
         }
 
@@ -75,18 +72,15 @@ public class PublicWebSocketProxyHandler extends AbstractWebSocketHandler {
         }
 
         // Check subscription status
-        final var accountOpt = accountRepository.findById(tunnel.accountId());
-        if (accountOpt.isPresent()) {
-            final var status = accountOpt.get().getSubscriptionStatus();
-            if (status != null && !"active".equals(status)) {
-                log.warn("Blocked WS request to subdomain {} because subscription is not active (status: {})",
-                    subdomain, status);
-                browserSession.close(CloseStatus.POLICY_VIOLATION.withReason("Subscription inactive"));
-                return;
-            }
+        final var route = routeCache.route(tunnelSubdomain, tunnel.tunnelId(), tunnel.accountId());
+        if (route.accountFound() && !route.isSubscriptionActive()) {
+            log.warn("Blocked WS request to subdomain {} because subscription is not active (status: {})",
+                subdomain, route.subscriptionStatus());
+            browserSession.close(CloseStatus.POLICY_VIOLATION.withReason("Subscription inactive"));
+            return;
         }
 
-        final var connectionId = UUID.randomUUID().toString();
+        final var connectionId = registry.nextId();
         registry.registerBrowserWs(tunnel.tunnelId(), connectionId, browserSession);
 
         final var uri = browserSession.getUri();
@@ -130,7 +124,11 @@ public class PublicWebSocketProxyHandler extends AbstractWebSocketHandler {
         final var websocketMessage = new WsTunnelMessage();
         websocketMessage.setConnectionId(ids.getConnectionId());
         websocketMessage.setWsType(WsTunnelMessage.Type.BINARY);
-        websocketMessage.setDataB64(Base64.getEncoder().encodeToString(message.getPayload().array()));
+        // The payload may be a view into a larger buffer, so copy exactly its remaining bytes
+        final var payload = message.getPayload();
+        final var data = new byte[payload.remaining()];
+        payload.get(data);
+        websocketMessage.setData(data);
         registry.sendWsToClient(ids.getTunnelId(), websocketMessage);
     }
 
@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.tunnel;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
+
+/**
+ * Negotiates optional tunnel protocol features during the CLI control WebSocket handshake.
+ * The accepted features are echoed back in the handshake response and stored in the session
+ * attributes, so the rest of the server can look them up via {@link #features(WebSocketSession)}.
+ */
+public class TunnelFeaturesHandshakeInterceptor implements HandshakeInterceptor {
+
+    private static final String ATTRIBUTE = "tunnelFeatures";
+    private static final String LANE_ATTRIBUTE = "tunnelLane";
+    private static final String RESUME_TOKEN_ATTRIBUTE = "tunnelResumeToken";
+
+    private static final Set<String> SUPPORTED = Set.of(
+        TunnelFeatures.STREAM_BODY, TunnelFeatures.BINARY_FRAMES, TunnelFeatures.MULTI_SESSION,
+        TunnelFeatures.RESUME, TunnelFeatures.CANCEL, TunnelFeatures.WS_DATA_FRAMES);
+
+    @Override
+    public boolean beforeHandshake(final ServerHttpRequest request,
+                                   final ServerHttpResponse response,
+                                   final WebSocketHandler wsHandler,
+                                   final Map<String, Object> attributes) {
+        final var requested = TunnelFeatures.parse(request.getHeaders().getFirst(TunnelFeatures.HEADER));
+        final var accepted = new LinkedHashSet<String>();
+        for (final var feature : requested) {
+            if (SUPPORTED.contains(feature)) {
+                accepted.add(feature);
+            }
+        }
+        // Resumption is only possible for a client that identifies itself with a token
+        final var resumeToken = request.getHeaders().getFirst(TunnelFeatures.RESUME_TOKEN_HEADER);
+        if (resumeToken == null || resumeToken.isBlank()) {
+            accepted.remove(TunnelFeatures.RESUME);
+        } else if (accepted.contains(TunnelFeatures.RESUME)) {
+            attributes.put(RESUME_TOKEN_ATTRIBUTE, resumeToken.trim());
+        }
+        // Lanes join a tunnel only with its resume token, so that another process cannot take them over
+        if (!accepted.contains(TunnelFeatures.RESUME)) {
+            accepted.remove(TunnelFeatures.MULTI_SESSION);
+        }
+        attributes.put(ATTRIBUTE, Set.copyOf(accepted));
+        attributes.put(LANE_ATTRIBUTE, parseLane(request.getHeaders().getFirst(TunnelFeatures.LANE_HEADER)));
+        if (!accepted.isEmpty()) {
+            response.getHeaders().set(TunnelFeatures.HEADER, TunnelFeatures.format(accepted));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(final ServerHttpRequest request,
+                               final ServerHttpResponse response,
+                               final WebSocketHandler wsHandler,
+                               final Exception exception) {
+    }
+
+    /**
+     * Returns the features negotiated for the given session.
+     *
+     * @param session the CLI control WebSocket session
+     * @return negotiated feature names, never {@code null}
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<String> features(final WebSocketSession session) {
+        final var value = session.getAttributes().get(ATTRIBUTE);
+        return value instanceof Set<?> set ? (Set<String>) set : Set.of();
+    }
+
+    /**
+     * Returns the lane index the client assigned to the given session.
+     *
+     * @param session the CLI control WebSocket session
+     * @return the lane index; {@code 0} if the client did not send one
+     */
+    public static int lane(final WebSocketSession session) {
+        final var value = session.getAttributes().get(LANE_ATTRIBUTE);
+        return value instanceof Integer lane ? lane : 0;
+    }
+
+    /**
+     * Returns the token identifying the client process behind the given session, if it negotiated
+     * {@link TunnelFeatures#RESUME}.
+     *
+     * @param session the CLI control WebSocket session
+     * @return the resume token, or {@code null}
+     */
+    public static String resumeToken(final WebSocketSession session) {
+        return session.getAttributes().get(RESUME_TOKEN_ATTRIBUTE) instanceof String token ? token : null;
+    }
+
+    private static int parseLane(final String headerValue) {
+        if (headerValue == null || headerValue.isBlank()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(headerValue.trim()));
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+}
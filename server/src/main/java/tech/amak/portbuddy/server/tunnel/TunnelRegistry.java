@@ -15,26 +15,56 @@
 package tech.amak.portbuddy.server.tunnel;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.NativeWebSocketSession;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.tunnel.HttpTunnelMessage;
+import tech.amak.portbuddy.common.tunnel.SendWindow;
+import tech.amak.portbuddy.common.tunnel.TunnelBodyStream;
+import tech.amak.portbuddy.common.tunnel.TunnelCodec;
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
+import tech.amak.portbuddy.server.config.TunnelsProperties;
 import tech.amak.portbuddy.server.db.entity.TunnelEntity;
 
 /**
@@ -47,26 +77,282 @@ public class TunnelRegistry {
 
     private final Map<String, Tunnel> bySubdomain = new ConcurrentHashMap<>();
     private final Map<UUID, Tunnel> byTunnelId = new ConcurrentHashMap<>();
+    // Browser WebSocket sessions of all tunnels, so that a browser frame finds its tunnel in O(1)
+    private final Map<WebSocketSession, Ids> browserSessions = new ConcurrentHashMap<>();
     public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(30);
+    // Methods whose requests may be sent to the local service twice
+    private static final Set<String> IDEMPOTENT_METHODS = Set.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
 
     private final ObjectMapper mapper;
+    private final TunnelsProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong idSequence = new AtomicLong();
+    private final AtomicLong ownershipVersion = new AtomicLong();
+    private volatile CompletableFuture<Void> ownershipChange = new CompletableFuture<>();
+
+    @PostConstruct
+    void registerMetrics() {
+        Gauge.builder("tunnel.send.queue.bytes", this, TunnelRegistry::queuedBytes)
+            .description("Bytes queued towards tunnel clients and not yet written")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+        Gauge.builder("tunnel.registry.tunnels", byTunnelId, Map::size)
+            .description("Tunnels held by the registry, including suspended ones")
+            .register(meterRegistry);
+        Gauge.builder("tunnel.registry.browser.sessions", browserSessions, Map::size)
+            .description("Browser WebSocket sessions relayed through tunnels")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Returns the number of bytes queued towards all tunnel clients of this instance.
+     *
+     * @return queued bytes
+     */
+    public long queuedBytes() {
+        var total = 0L;
+        for (final var tunnel : byTunnelId.values()) {
+            for (final var lane : tunnel.lanes()) {
+                total += lane.queuedBytes();
+            }
+        }
+        return total;
+    }
 
     /**
-     * Registers a WebSocket session for a given tunnel entity by associating it with a newly created
-     * tunnel instance based on the subdomain and tunnel ID.
+     * Registers a WebSocket session for a given tunnel entity. A client that negotiated
+     * {@link TunnelFeatures#RESUME} and presents the resume token of the registered tunnel picks
+     * that tunnel up again, and requests waiting for it are sent on the new session; with
+     * {@link TunnelFeatures#MULTI_SESSION} the session is added as a lane, replacing only a previous
+     * session with the same lane index. Otherwise the session becomes the sole session of a newly
+     * created tunnel instance. Lane indexes at or above {@code app.tunnels.max-lanes} are rejected.
      *
      * @param tunnelEntity the {@code TunnelEntity} containing information about the domain and tunnel identifiers
-     * @param session      the {@code WebSocketSession} to be associated with the created tunnel instance
-     * @return {@code true} to indicate successful registration
+     * @param session      the {@code WebSocketSession} to be associated with the tunnel
+     * @return {@code true} if the session was registered, {@code false} if its lane index is out of range
      */
     public boolean register(final TunnelEntity tunnelEntity, final WebSocketSession session) {
-        final var tunnel = register(tunnelEntity.getDomain().getSubdomain(), tunnelEntity.getId(),
-                tunnelEntity.getAccountId());
-        tunnel.setSession(session);
-        log.info("Registered tunnel {} with session {}", tunnel.tunnelId(), session.getId());
+        final var domain = tunnelEntity.getDomain();
+        final var features = TunnelFeaturesHandshakeInterceptor.features(session);
+        final var multiSession = features.contains(TunnelFeatures.MULTI_SESSION);
+        final var resumeToken = TunnelFeaturesHandshakeInterceptor.resumeToken(session);
+        final var lane = multiSession ? TunnelFeaturesHandshakeInterceptor.lane(session) : 0;
+        if (lane >= properties.getMaxLanes()) {
+            log.warn("Rejected session {} of tunnel {}: lane {} is out of range",
+                session.getId(), tunnelEntity.getId(), lane);
+            return false;
+        }
+        final var existing = byTunnelId.get(tunnelEntity.getId());
+        // The same client process: another of its lanes, or a lane coming back after losing its connection
+        final var resumed = existing != null && resumeToken != null && resumeToken.equals(existing.resumeToken());
+        final var tunnel = resumed
+            ? existing
+            : register(domain.getSubdomain(), tunnelEntity.getId(), tunnelEntity.getAccountId());
+        if (existing != null && existing != tunnel) {
+            // Replaced by a new client process, which knows nothing of the old one's requests
+            teardown(existing);
+        }
+        tunnel.setFeatures(features);
+        tunnel.setResumeToken(resumeToken);
+        final var replaced = tunnel.attach(
+            new ControlSession(lane, session, TunnelCodec.forFeatures(features, mapper), properties.getOutbound()));
+        if (replaced != null) {
+            replaced.discard();
+            failRequestsOn(tunnel, replaced);
+        }
+        log.info("{} tunnel {} lane {} with session {}", resumed ? "Resumed" : "Registered",
+            tunnel.tunnelId(), lane, session.getId());
+        replayRequests(tunnel);
+        publishOwnershipChange();
         return true;
     }
 
+    /**
+     * Detaches a closed control WebSocket session from its tunnel and fails the requests that were
+     * in flight on it. Does nothing if the session has meanwhile been replaced by a newer one.
+     * A tunnel losing its last session is removed from the registry, unless it is resumable: then
+     * it is suspended for the resume grace period instead, stays routable, and its replayable
+     * requests wait for the client to reconnect until {@link #expireSuspended(Tunnel)}.
+     *
+     * @param tunnelId the tunnel whose session closed
+     * @param session  the closed session
+     * @return the tunnel if the closed session was its last one, or {@code null} if the session
+     *     was not attached or other sessions still serve the tunnel
+     */
+    public Tunnel unregisterSession(final UUID tunnelId, final WebSocketSession session) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null) {
+            return null;
+        }
+        final var lane = tunnel.detach(session);
+        if (lane == null) {
+            return null;
+        }
+        lane.discard();
+        if (tunnel.resumeToken() != null && !properties.getResumeGracePeriod().isZero()) {
+            tunnel.suspend(System.currentTimeMillis() + properties.getResumeGracePeriod().toMillis());
+        }
+        failRequestsOn(tunnel, lane);
+        if (tunnel.isOpen()) {
+            publishOwnershipChange();
+            log.info("Tunnel {} lost lane {}, {} lane(s) remain", tunnelId, lane.lane(), tunnel.lanes().size());
+            replayRequests(tunnel);
+            return null;
+        }
+        if (!tunnel.isSuspended()) {
+            evict(tunnel);
+        }
+        publishOwnershipChange();
+        return tunnel;
+    }
+
+    /**
+     * Ends the suspension of a tunnel whose client did not reconnect within the resume grace period,
+     * fails the requests that waited for it and removes the tunnel from the registry.
+     *
+     * @param tunnel a tunnel returned by {@link #unregisterSession(UUID, WebSocketSession)}
+     * @return {@code true} if the tunnel is gone for good and should be marked closed
+     */
+    public boolean expireSuspended(final Tunnel tunnel) {
+        if (!tunnel.expire(System.currentTimeMillis())) {
+            return false;
+        }
+        final var current = evict(tunnel);
+        publishOwnershipChange();
+        return current;
+    }
+
+    /**
+     * Removes tunnels that have had no open session for longer than the resume grace period.
+     * Tunnels are normally removed as soon as their last session closes or their suspension
+     * expires; this catches those whose close was never reported. Suspended tunnels are left to
+     * {@link #expireSuspended(Tunnel)}.
+     */
+    @Scheduled(
+        fixedDelayString = "#{@tunnelsProperties.checkInterval.toMillis()}",
+        initialDelayString = "#{@tunnelsProperties.checkInterval.toMillis()}"
+    )
+    public void sweepClosedTunnels() {
+        final var cutoff = System.currentTimeMillis() - properties.getResumeGracePeriod().toMillis();
+        var evicted = 0;
+        for (final var tunnel : byTunnelId.values()) {
+            if (!tunnel.isOpen() && !tunnel.hasSuspension() && tunnel.changedAt() < cutoff && evict(tunnel)) {
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            log.info("Swept {} closed tunnels from the registry", evicted);
+            publishOwnershipChange();
+        }
+    }
+
+    /**
+     * Removes a tunnel from the registry and releases everything it holds.
+     *
+     * @return {@code true} if the tunnel was still registered
+     */
+    private boolean evict(final Tunnel tunnel) {
+        final var registered = byTunnelId.remove(tunnel.tunnelId(), tunnel);
+        bySubdomain.remove(tunnel.subdomain(), tunnel);
+        teardown(tunnel);
+        return registered;
+    }
+
+    /**
+     * Fails the requests of a tunnel that is gone and closes the browser WebSockets relayed
+     * through it.
+     */
+    private void teardown(final Tunnel tunnel) {
+        tunnel.awaitingReplay().clear();
+        tunnel.replayableRequests().clear();
+        tunnel.requestLanes().clear();
+        for (final var window : tunnel.requestBodyWindows().values()) {
+            window.close();
+        }
+        tunnel.requestBodyWindows().clear();
+        for (final var future : tunnel.pending().values()) {
+            future.completeExceptionally(new IOException("Tunnel closed"));
+        }
+        tunnel.pending().clear();
+        for (final var body : tunnel.responseBodies().values()) {
+            body.abort("Tunnel closed");
+        }
+        tunnel.responseBodies().clear();
+        for (final var browser : tunnel.browserByConnection().values()) {
+            browserSessions.remove(browser);
+            try {
+                browser.close(CloseStatus.GOING_AWAY);
+            } catch (final IOException e) {
+                log.debug("Failed to close browser session: {}", e.toString());
+            }
+        }
+        tunnel.browserByConnection().clear();
+    }
+
+    /**
+     * Fails the requests in flight on a lost lane. Replayable requests of a tunnel that is still
+     * available are kept to be sent again instead.
+     */
+    private void failRequestsOn(final Tunnel tunnel, final ControlSession lane) {
+        for (final var entry : tunnel.requestLanes().entrySet()) {
+            if (entry.getValue() != lane || !tunnel.requestLanes().remove(entry.getKey(), lane)) {
+                continue;
+            }
+            if (tunnel.replayableRequests().containsKey(entry.getKey())
+                && !tunnel.responseBodies().containsKey(entry.getKey())
+                && tunnel.isAvailable()) {
+                tunnel.awaitingReplay().add(entry.getKey());
+                continue;
+            }
+            final var future = tunnel.pending().remove(entry.getKey());
+            if (future != null) {
+                future.completeExceptionally(new IOException("Tunnel connection lost"));
+            }
+            final var body = tunnel.responseBodies().remove(entry.getKey());
+            if (body != null) {
+                body.abort("Tunnel connection lost");
+            }
+            final var window = tunnel.requestBodyWindows().remove(entry.getKey());
+            if (window != null) {
+                window.close();
+            }
+        }
+    }
+
+    /**
+     * Sends the requests waiting for a lane of the tunnel, if one is open.
+     */
+    private void replayRequests(final Tunnel tunnel) {
+        if (!tunnel.isOpen()) {
+            return;
+        }
+        for (final var id : tunnel.awaitingReplay()) {
+            if (!tunnel.awaitingReplay().remove(id)) {
+                continue;
+            }
+            final var request = tunnel.replayableRequests().get(id);
+            final var future = tunnel.pending().get(id);
+            if (request == null || future == null) {
+                continue;
+            }
+            try {
+                final var lane = tunnel.laneFor(id);
+                tunnel.requestLanes().put(id, lane);
+                lane.send(request);
+                log.debug("Replayed request {} to tunnel {} lane {}", id, tunnel.tunnelId(), lane.lane());
+            } catch (final IOException e) {
+                tunnel.requestLanes().remove(id);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static boolean isReplayable(final HttpTunnelMessage request, final InputStream body) {
+        return body == null
+            && request.getMethod() != null
+            && IDEMPOTENT_METHODS.contains(request.getMethod().toUpperCase());
+    }
+
     /**
      * Creates a new pending Tunnel instance with the specified subdomain and tunnel ID
      * and registers it in the internal mappings.
@@ -76,14 +362,76 @@ public class TunnelRegistry {
      * @param accountId the account identifier for the tunnel
      * @return the created Tunnel instance
      */
-    private Tunnel register(final String subdomain, final UUID tunnelId, final UUID accountId) {
-        final var tunnel = new Tunnel(tunnelId, accountId);
+    private Tunnel register(final String subdomain,
+                            final UUID tunnelId,
+                            final UUID accountId) {
+        final var tunnel = new Tunnel(tunnelId, accountId, subdomain);
         bySubdomain.put(subdomain, tunnel);
         byTunnelId.put(tunnelId, tunnel);
         return tunnel;
     }
 
 
+    /**
+     * Generates an id for a tunneled HTTP request or WebSocket connection. Ids are numeric so they
+     * can be encoded as varints by the binary tunnel codec.
+     *
+     * @return a new id, unique for the lifetime of this server instance
+     */
+    public String nextId() {
+        return Long.toString(idSequence.incrementAndGet());
+    }
+
+    /**
+     * Returns the subdomains and custom domains served by available tunnels on this instance.
+     * Custom domains are resolved when the snapshot is taken, so that a custom domain mapped while
+     * its tunnel is connected is included.
+     *
+     * @param customDomainsOf resolves the custom domains mapped to the given subdomains
+     * @return the current ownership snapshot
+     */
+    public OwnershipSnapshot ownershipSnapshot(final Function<List<String>, List<String>> customDomainsOf) {
+        final var version = ownershipVersion.get();
+        final var subdomains = new ArrayList<String>();
+        for (final var entry : bySubdomain.entrySet()) {
+            if (entry.getValue().isAvailable()) {
+                subdomains.add(entry.getKey());
+            }
+        }
+        return new OwnershipSnapshot(version, subdomains, customDomainsOf.apply(subdomains));
+    }
+
+    /**
+     * Signals that a custom domain was mapped, changed or removed, so that the gateways waiting
+     * for an ownership change fetch a snapshot with the current custom domains.
+     */
+    public void customDomainsChanged() {
+        publishOwnershipChange();
+    }
+
+    /**
+     * Returns a future completed as soon as the ownership snapshot differs from the given version.
+     *
+     * @param knownVersion the snapshot version the caller already has
+     * @return a future completed on the next ownership change, or an already completed one if the
+     *     caller's version is outdated
+     */
+    public CompletableFuture<Void> awaitOwnershipChange(final long knownVersion) {
+        // Read the future before the version so that a concurrent change cannot be missed
+        final var change = ownershipChange;
+        if (ownershipVersion.get() != knownVersion) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return change;
+    }
+
+    private synchronized void publishOwnershipChange() {
+        final var previous = ownershipChange;
+        ownershipChange = new CompletableFuture<>();
+        ownershipVersion.incrementAndGet();
+        previous.complete(null);
+    }
+
     public Tunnel getBySubdomain(final String subdomain) {
         return bySubdomain.get(subdomain);
     }
@@ -102,43 +450,229 @@ public class TunnelRegistry {
      * @param timeout   the maximum duration to wait for a response; null indicates default timeout
      * @return a CompletableFuture that will complete with the response message or fail with an exception
      */
-    public CompletableFuture<HttpTunnelMessage> forwardRequest(final String subdomain,
-                                                               final HttpTunnelMessage request,
-                                                               final Duration timeout) {
+    public CompletableFuture<TunnelResponse> forwardRequest(final String subdomain,
+                                                            final HttpTunnelMessage request,
+                                                            final Duration timeout) {
+        return forwardRequest(subdomain, request, null, timeout);
+    }
+
+    /**
+     * Forwards an HTTP tunnel request and, if {@code body} is given, streams the request body
+     * after it as binary chunk frames. Streaming requires the tunnel to have negotiated
+     * {@link TunnelFeatures#STREAM_BODY}; callers must check {@link Tunnel#supports(String)} first.
+     * The body is pumped on the calling thread, so this method returns only after the whole
+     * body was handed to the WebSocket. While a resumable tunnel is suspended, a request without
+     * a streamed body and with an idempotent method waits for the client to reconnect; other
+     * requests fail. With {@link TunnelFeatures#CANCEL}, the request carries the timeout, and the
+     * client is told to stop working on it once it timed out or the returned future was cancelled
+     * (see {@link #cancelRequest(UUID, String)}).
+     *
+     * @param subdomain the subdomain associated with the destination tunnel
+     * @param request   the HTTP tunnel message to be forwarded
+     * @param body      the request body to stream, or {@code null} if the body is inlined
+     * @param timeout   the maximum duration to wait for the response head; null indicates default timeout
+     * @return a CompletableFuture that will complete with the response or fail with an exception
+     */
+    public CompletableFuture<TunnelResponse> forwardRequest(final String subdomain,
+                                                            final HttpTunnelMessage request,
+                                                            final InputStream body,
+                                                            final Duration timeout) {
         final var tunnel = bySubdomain.get(subdomain);
-        if (tunnel == null || !tunnel.isOpen()) {
-            final var future = new CompletableFuture<HttpTunnelMessage>();
+        if (tunnel == null || !tunnel.isAvailable()) {
+            final var future = new CompletableFuture<TunnelResponse>();
             future.completeExceptionally(new IllegalStateException("Tunnel not connected"));
             return future;
         }
         // Assign id if missing
         if (request.getId() == null) {
-            request.setId(UUID.randomUUID().toString());
+            request.setId(nextId());
         }
+        final var futureTimeout = timeout == null ? DEFAULT_TIMEOUT : timeout;
         request.setType(HttpTunnelMessage.Type.REQUEST);
-        final var future = new CompletableFuture<HttpTunnelMessage>();
-        tunnel.pending().put(request.getId(), future);
+        request.setBodyStreamed(body != null ? Boolean.TRUE : null);
+        request.setTimeoutMs(tunnel.supports(TunnelFeatures.CANCEL) ? futureTimeout.toMillis() : null);
+        final var future = new CompletableFuture<TunnelResponse>();
+        final var id = request.getId();
+        tunnel.pending().put(id, future);
+        final var replayable = tunnel.resumeToken() != null && isReplayable(request, body);
+        if (replayable) {
+            tunnel.replayableRequests().put(id, request);
+        }
         try {
-            final var json = mapper.writeValueAsString(request);
-            tunnel.session().sendMessage(new TextMessage(json));
-            log.trace("Forwarded request {} to tunnel {}", json, tunnel.tunnelId());
+            if (replayable && !tunnel.isOpen()) {
+                // Sent once the client has reconnected; re-check in case it just did
+                tunnel.awaitingReplay().add(id);
+                replayRequests(tunnel);
+                return withTimeout(tunnel, id, future, futureTimeout);
+            }
+            // The request, its body and its response all travel over the same lane
+            final var lane = tunnel.laneFor(id);
+            tunnel.requestLanes().put(id, lane);
+            lane.send(request);
+            log.trace("Forwarded request {} to tunnel {} lane {}", id, tunnel.tunnelId(), lane.lane());
+            if (body != null) {
+                streamRequestBody(tunnel, lane, id, body);
+            }
         } catch (final IOException e) {
-            tunnel.pending().remove(request.getId());
+            tunnel.pending().remove(id);
+            tunnel.requestLanes().remove(id);
+            tunnel.replayableRequests().remove(id);
             future.completeExceptionally(e);
             return future;
         }
+        return withTimeout(tunnel, id, future, futureTimeout);
+    }
 
-        final var futureTimeout = timeout == null ? DEFAULT_TIMEOUT : timeout;
-        // Apply timeout
-        return future.orTimeout(futureTimeout.toMillis(), TimeUnit.MILLISECONDS)
-            .whenComplete((res, err) ->
-                tunnel.pending().remove(request.getId()));
+    /**
+     * Applies the timeout and cleans up once the request completed. The request's own future is
+     * returned, so that a caller cancelling it reaches the client.
+     */
+    private CompletableFuture<TunnelResponse> withTimeout(final Tunnel tunnel,
+                                                          final String id,
+                                                          final CompletableFuture<TunnelResponse> future,
+                                                          final Duration timeout) {
+        future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+            .whenComplete((res, err) -> {
+                tunnel.pending().remove(id);
+                tunnel.replayableRequests().remove(id);
+                tunnel.awaitingReplay().remove(id);
+                if (err instanceof TimeoutException || err instanceof CancellationException) {
+                    // Nobody waits for the response anymore; spare the client the work
+                    sendCancel(tunnel, id, tunnel.requestLanes().remove(id));
+                } else if (!tunnel.responseBodies().containsKey(id)) {
+                    tunnel.requestLanes().remove(id);
+                }
+            });
+        return future;
+    }
+
+    /**
+     * Gives up on a forwarded request, e.g. because the browser that sent it went away. The
+     * request's future is cancelled, and the client is told to stop working on it.
+     *
+     * @param tunnelId  the tunnel the request was forwarded to
+     * @param requestId the id of the request
+     */
+    public void cancelRequest(final UUID tunnelId, final String requestId) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null || requestId == null) {
+            return;
+        }
+        final var future = tunnel.pending().get(requestId);
+        if (future != null) {
+            future.cancel(false);
+            return;
+        }
+        final var body = tunnel.responseBodies().remove(requestId);
+        if (body != null) {
+            // The response is being streamed already
+            body.abort("Request cancelled");
+            sendCancel(tunnel, requestId, tunnel.requestLanes().remove(requestId));
+        }
+    }
+
+    private void sendCancel(final Tunnel tunnel, final String id, final ControlSession lane) {
+        if (lane == null || !tunnel.supports(TunnelFeatures.CANCEL)) {
+            return;
+        }
+        final var cancel = new HttpTunnelMessage();
+        cancel.setId(id);
+        cancel.setType(HttpTunnelMessage.Type.CANCEL);
+        try {
+            lane.send(cancel);
+            log.debug("Cancelled request {} on tunnel {}", id, tunnel.tunnelId());
+        } catch (final IOException e) {
+            log.debug("Failed to cancel request {}: {}", id, e.toString());
+        }
+    }
+
+    /**
+     * Sends a request body in chunks, never having more than the client's credit in flight so
+     * that the client never has to block its reader on a slow upstream.
+     */
+    private void streamRequestBody(final Tunnel tunnel,
+                                   final ControlSession lane,
+                                   final String id,
+                                   final InputStream body) throws IOException {
+        final var window = new SendWindow(TunnelBodyStream.WINDOW_SIZE);
+        tunnel.requestBodyWindows().put(id, window);
+        final var buffer = new byte[TunnelBodyStream.CHUNK_SIZE];
+        try {
+            while (true) {
+                final var available = window.awaitAvailable(DEFAULT_TIMEOUT);
+                if (available <= 0) {
+                    throw new IOException("Tunnel client did not return body credit in time");
+                }
+                final var count = body.readNBytes(buffer, 0, (int) Math.min(buffer.length, available));
+                if (count <= 0) {
+                    break;
+                }
+                window.consume(count);
+                lane.sendChunk(id, buffer, count);
+            }
+        } catch (final IOException e) {
+            sendBodyMarker(lane, id, HttpTunnelMessage.Type.BODY_ABORT);
+            throw e;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendBodyMarker(lane, id, HttpTunnelMessage.Type.BODY_ABORT);
+            throw new InterruptedIOException("Interrupted while streaming the request body");
+        } finally {
+            tunnel.requestBodyWindows().remove(id);
+        }
+        sendBodyMarker(lane, id, HttpTunnelMessage.Type.BODY_END);
+    }
+
+    /**
+     * Returns credit for a request body the client is consuming.
+     *
+     * @param tunnelId the tunnel the message was received on
+     * @param message  the {@link HttpTunnelMessage.Type#BODY_WINDOW} message
+     */
+    public void onBodyWindow(final UUID tunnelId, final HttpTunnelMessage message) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null || message.getWindow() == null) {
+            return;
+        }
+        final var window = tunnel.requestBodyWindows().get(message.getId());
+        if (window != null) {
+            window.grant(message.getWindow());
+        }
+    }
+
+    private void sendBodyWindow(final Tunnel tunnel, final String id, final long credit) {
+        final var lane = tunnel.requestLanes().get(id);
+        if (lane == null) {
+            return;
+        }
+        final var message = new HttpTunnelMessage();
+        message.setId(id);
+        message.setType(HttpTunnelMessage.Type.BODY_WINDOW);
+        message.setWindow(credit);
+        try {
+            lane.send(message);
+        } catch (final IOException e) {
+            log.debug("Failed to return body credit for {}: {}", id, e.toString());
+        }
+    }
+
+    private void sendBodyMarker(final ControlSession lane, final String id, final HttpTunnelMessage.Type type) {
+        final var marker = new HttpTunnelMessage();
+        marker.setId(id);
+        marker.setType(type);
+        try {
+            lane.send(marker);
+        } catch (final IOException e) {
+            log.debug("Failed to send {} for {}: {}", type, id, e.toString());
+        }
     }
 
     /**
      * Processes an HTTP tunnel response message associated with the specified tunnel ID.
      * If the tunnel with the given ID exists and the response matches an existing pending
-     * request in the tunnel, the request's future is completed with the response.
+     * request in the tunnel, the request's future is completed with the response. Streamed
+     * responses complete the future with the head only; their body is delivered via
+     * {@link #onResponseChunk(UUID, String, byte[])} and {@link #onResponseBodyEnd(UUID, HttpTunnelMessage)}.
      *
      * @param tunnelId the unique identifier of the tunnel associated with the response
      * @param response the HTTP tunnel message representing the response to be processed
@@ -150,8 +684,65 @@ public class TunnelRegistry {
         }
         final var future = tunnel.pending()
             .get(response.getId());
-        if (future != null) {
-            future.complete(response);
+        if (future == null) {
+            return;
+        }
+        TunnelBodyStream body = null;
+        if (response.isStreamed()) {
+            final var id = response.getId();
+            body = new TunnelBodyStream(DEFAULT_TIMEOUT, credit -> sendBodyWindow(tunnel, id, credit));
+            tunnel.responseBodies().put(response.getId(), body);
+        }
+        if (!future.complete(new TunnelResponse(response, body)) && body != null) {
+            tunnel.responseBodies().remove(response.getId());
+        }
+        if (body == null) {
+            tunnel.requestLanes().remove(response.getId());
+        }
+    }
+
+    /**
+     * Appends a chunk of a streamed response body without blocking the WebSocket reader. The
+     * CLI only sends as much as the stream returned credit for; if it sends more, only this
+     * response is aborted.
+     *
+     * @param tunnelId  the tunnel the chunk was received on
+     * @param requestId the id of the request whose response the chunk belongs to
+     * @param data      chunk payload
+     */
+    public void onResponseChunk(final UUID tunnelId, final String requestId, final byte[] data) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null) {
+            return;
+        }
+        final var body = tunnel.responseBodies().get(requestId);
+        if (body != null && !body.offer(data)) {
+            tunnel.responseBodies().remove(requestId);
+            log.debug("Dropping response body for {}: consumer is gone or window exceeded", requestId);
+            sendCancel(tunnel, requestId, tunnel.requestLanes().remove(requestId));
+        }
+    }
+
+    /**
+     * Completes or aborts a streamed response body.
+     *
+     * @param tunnelId the tunnel the marker was received on
+     * @param marker   a {@link HttpTunnelMessage.Type#BODY_END} or {@link HttpTunnelMessage.Type#BODY_ABORT} message
+     */
+    public void onResponseBodyEnd(final UUID tunnelId, final HttpTunnelMessage marker) {
+        final var tunnel = byTunnelId.get(tunnelId);
+        if (tunnel == null) {
+            return;
+        }
+        tunnel.requestLanes().remove(marker.getId());
+        final var body = tunnel.responseBodies().remove(marker.getId());
+        if (body == null) {
+            return;
+        }
+        if (marker.getType() == HttpTunnelMessage.Type.BODY_END) {
+            body.complete();
+        } else {
+            body.abort("Tunnel client aborted the response body");
         }
     }
 
@@ -169,8 +760,8 @@ public class TunnelRegistry {
             return;
         }
         try {
-            final var json = mapper.writeValueAsString(message);
-            tunnel.session().sendMessage(new TextMessage(json));
+            // Keep every message of one browser connection on the same lane to preserve ordering
+            tunnel.laneFor(message.getConnectionId()).send(message);
         } catch (final IOException e) {
             log.warn("Failed to send WS message to client: {}", e.toString());
         }
@@ -193,7 +784,7 @@ public class TunnelRegistry {
             return;
         }
         tunnel.browserByConnection().put(connectionId, browserSession);
-        tunnel.browserReverse().put(browserSession, new Ids(tunnelId, connectionId));
+        browserSessions.put(browserSession, new Ids(tunnelId, connectionId));
     }
 
     /**
@@ -207,32 +798,26 @@ public class TunnelRegistry {
      *     unregistered browser session, or {@code null} if the session was not found
      */
     public Ids unregisterBrowserWs(final WebSocketSession browserSession) {
-        for (final var tunnel : byTunnelId.values()) {
-            final var ids = tunnel.browserReverse().remove(browserSession);
-            if (ids != null) {
-                tunnel.browserByConnection().remove(ids.connectionId);
-                return ids;
-            }
+        final var ids = browserSessions.remove(browserSession);
+        if (ids == null) {
+            return null;
+        }
+        final var tunnel = byTunnelId.get(ids.getTunnelId());
+        if (tunnel != null) {
+            tunnel.browserByConnection().remove(ids.getConnectionId(), browserSession);
         }
-        return null;
+        return ids;
     }
 
     /**
      * Retrieves the tunnel and connection IDs associated with a given browser WebSocket session.
-     * Iterates through the registered tunnels to find a reverse mapping for the specified session.
      *
      * @param browserSession the WebSocketSession representing the browser connection to look up
      * @return an {@code Ids} object containing the tunnel ID and connection ID associated with
      *     the specified session, or {@code null} if no match is found
      */
     public Ids findIdsByBrowserSession(final WebSocketSession browserSession) {
-        for (final var tunnel : byTunnelId.values()) {
-            final var ids = tunnel.browserReverse().get(browserSession);
-            if (ids != null) {
-                return ids;
-            }
-        }
-        return null;
+        return browserSessions.get(browserSession);
     }
 
     /**
@@ -253,6 +838,27 @@ public class TunnelRegistry {
         return tunnel.browserByConnection().get(connectionId);
     }
 
+    /**
+     * Subdomains and custom domains served by this instance, used by the gateway to route ingress
+     * traffic without probing every server.
+     *
+     * @param version       increases on every tunnel registration and disconnect, and on every
+     *                      custom domain change made through this instance
+     * @param subdomains    subdomains with an open tunnel
+     * @param customDomains custom domains mapped to those subdomains
+     */
+    public record OwnershipSnapshot(long version, List<String> subdomains, List<String> customDomains) {
+    }
+
+    /**
+     * Response received from the tunnel client.
+     *
+     * @param message the response head (and inline body, if not streamed)
+     * @param body    the streamed body, or {@code null} if the body is inlined in {@code message}
+     */
+    public record TunnelResponse(HttpTunnelMessage message, TunnelBodyStream body) {
+    }
+
     @Data
     @AllArgsConstructor
     public static class Ids {
@@ -260,19 +866,249 @@ public class TunnelRegistry {
         private String connectionId;
     }
 
+    /**
+     * One control WebSocket of a tunnel together with the codec negotiated on it.
+     */
+    public static final class ControlSession {
+
+        private final int lane;
+        private final WebSocketSession session;
+        private final TunnelCodec codec;
+        private final TunnelsProperties.Outbound settings;
+        // Frames waiting for the single writer of this session
+        private final Queue<WebSocketMessage<?>> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicLong queuedBytes = new AtomicLong();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // Monitor senders wait on while the queue is over its limit
+        private final Object room = new Object();
+        private final AtomicInteger waitingSenders = new AtomicInteger();
+
+        ControlSession(final int lane,
+                       final WebSocketSession session,
+                       final TunnelCodec codec,
+                       final TunnelsProperties.Outbound settings) {
+            this.lane = lane;
+            this.session = session;
+            this.codec = codec;
+            this.settings = settings;
+        }
+
+        public int lane() {
+            return lane;
+        }
+
+        public WebSocketSession session() {
+            return session;
+        }
+
+        public TunnelCodec codec() {
+            return codec;
+        }
+
+        public boolean isOpen() {
+            return session.isOpen();
+        }
+
+        /**
+         * Returns the number of bytes queued towards the tunnel client and not yet written.
+         *
+         * @return queued bytes
+         */
+        public long queuedBytes() {
+            return queuedBytes.get();
+        }
+
+        /**
+         * Encodes a tunnel message with the negotiated codec and sends it to the tunnel client.
+         *
+         * @param message the tunnel message to send
+         * @throws IOException if encoding fails, the session is closed or the send buffer is full
+         */
+        public void send(final Object message) throws IOException {
+            final var frame = codec.encode(message);
+            send(frame.isBinary() ? new BinaryMessage(frame.binary()) : new TextMessage(frame.text()));
+        }
+
+        /**
+         * Sends a chunk of a streamed request body to the tunnel client.
+         *
+         * @param id     the id of the request the body belongs to
+         * @param data   buffer holding the chunk
+         * @param length length of the chunk
+         * @throws IOException if the session is closed or the send buffer is full
+         */
+        public void sendChunk(final String id, final byte[] data, final int length) throws IOException {
+            send(new BinaryMessage(codec.encodeChunk(id, data, 0, length)));
+        }
+
+        /**
+         * Queues a message for the tunnel client. Messages are written in order by a single writer
+         * per session, which batches the frames it finds queued into as few socket writes as
+         * possible. A message that would take the queue over its limit is handled according to the
+         * configured {@link TunnelsProperties.SlowConsumerPolicy}.
+         *
+         * @param message the message to send
+         * @throws IOException if the session is closed or the message was rejected
+         */
+        public void send(final WebSocketMessage<?> message) throws IOException {
+            if (!session.isOpen()) {
+                throw new IOException("Tunnel session is not open");
+            }
+            final var size = message.getPayloadLength();
+            final var limit = settings.getSendBufferLimit().toBytes();
+            // A single oversized message is still accepted into an empty queue
+            if (queuedBytes.get() > 0 && queuedBytes.get() + size > limit) {
+                switch (settings.getSlowConsumerPolicy()) {
+                    case DROP -> throw new IOException("Tunnel send buffer is full");
+                    case CLOSE -> {
+                        log.warn("Closing tunnel session {}: client is not reading ({} bytes queued)",
+                            session.getId(), queuedBytes.get());
+                        closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                        throw new IOException("Tunnel client is not reading");
+                    }
+                    case BACKPRESSURE -> awaitRoom(size, limit);
+                    default -> {
+                    }
+                }
+            }
+            queuedBytes.addAndGet(size);
+            outbound.add(message);
+            if (draining.compareAndSet(false, true)) {
+                Thread.ofVirtual().name("tunnel-sender-" + session.getId()).start(this::drain);
+            }
+        }
+
+        private void awaitRoom(final int size, final long limit) throws IOException {
+            final var deadline = System.nanoTime() + settings.getSendTimeout().toNanos();
+            waitingSenders.incrementAndGet();
+            try {
+                synchronized (room) {
+                    while (queuedBytes.get() > 0 && queuedBytes.get() + size > limit) {
+                        final var remaining = deadline - System.nanoTime();
+                        if (!session.isOpen()) {
+                            throw new IOException("Tunnel session is not open");
+                        }
+                        if (remaining <= 0) {
+                            throw new IOException("Timed out waiting for the tunnel client to read");
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(room, remaining);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the tunnel client to read", e);
+            } finally {
+                waitingSenders.decrementAndGet();
+            }
+        }
+
+        private void drain() {
+            final var remote = batchingRemote();
+            while (true) {
+                WebSocketMessage<?> message;
+                var written = 0;
+                while ((message = outbound.poll()) != null) {
+                    try {
+                        if (session.isOpen()) {
+                            session.sendMessage(message);
+                        }
+                    } catch (final IOException e) {
+                        log.debug("Failed to send to tunnel client: {}", e.toString());
+                    }
+                    queuedBytes.addAndGet(-message.getPayloadLength());
+                    written++;
+                    if (waitingSenders.get() > 0) {
+                        synchronized (room) {
+                            room.notifyAll();
+                        }
+                    }
+                }
+                if (remote != null && written > 0) {
+                    try {
+                        remote.flushBatch();
+                    } catch (final IOException e) {
+                        log.debug("Failed to flush tunnel session: {}", e.toString());
+                    }
+                }
+                draining.set(false);
+                // Re-check: a frame may have been queued after the last poll but before the flag was cleared
+                if (outbound.isEmpty() || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Enables batching on the container's endpoint, so that frames written back to back are
+         * sent with one flush. Returns {@code null} if the session does not expose it.
+         */
+        private RemoteEndpoint.Basic batchingRemote() {
+            try {
+                if (WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession) {
+                    final var endpoint = nativeSession.getNativeSession(Session.class);
+                    if (endpoint != null && endpoint.isOpen()) {
+                        final var remote = endpoint.getBasicRemote();
+                        remote.setBatchingAllowed(true);
+                        return remote;
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                log.debug("Write batching unavailable for session {}: {}", session.getId(), e.toString());
+            }
+            return null;
+        }
+
+        /**
+         * Drops queued frames and wakes up senders waiting for room. Called once the session closed.
+         */
+        void discard() {
+            WebSocketMessage<?> message;
+            while ((message = outbound.poll()) != null) {
+                queuedBytes.addAndGet(-message.getPayloadLength());
+            }
+            synchronized (room) {
+                room.notifyAll();
+            }
+        }
+
+        private void closeQuietly(final CloseStatus status) {
+            try {
+                session.close(status);
+            } catch (final IOException e) {
+                log.debug("Failed to close tunnel session: {}", e.toString());
+            }
+        }
+    }
+
     @RequiredArgsConstructor
     public static class Tunnel {
 
         private final UUID tunnelId;
         private final UUID accountId;
+        private final String subdomain;
 
+        // Control sessions sorted by lane index; replaced as a whole on every change
+        private volatile List<ControlSession> lanes = List.of();
         @Setter
-        private volatile WebSocketSession session;
-        private final Map<String, CompletableFuture<HttpTunnelMessage>> pending = new ConcurrentHashMap<>();
-        // Browser WS peers for this tunnel
+        private volatile Set<String> features = Set.of();
+        // Identifies the client process that may resume the tunnel; null if it cannot be resumed
+        @Setter
+        private volatile String resumeToken;
+        // Until when (epoch millis) the tunnel waits for its client to reconnect; 0 if not suspended
+        private volatile long suspendedUntil;
+        private final Map<String, CompletableFuture<TunnelResponse>> pending = new ConcurrentHashMap<>();
+        private final Map<String, TunnelBodyStream> responseBodies = new ConcurrentHashMap<>();
+        // Credit left for the request bodies being streamed to the client
+        private final Map<String, SendWindow> requestBodyWindows = new ConcurrentHashMap<>();
+        // Lane each in-flight request was sent on, so that losing a lane fails only its requests
+        private final Map<String, ControlSession> requestLanes = new ConcurrentHashMap<>();
+        // In-flight requests that may be sent again after a reconnect, and those waiting to be
+        private final Map<String, HttpTunnelMessage> replayableRequests = new ConcurrentHashMap<>();
+        private final Set<String> awaitingReplay = ConcurrentHashMap.newKeySet();
+        // Browser WS peers for this tunnel; the reverse lookup is the registry-wide index
         private final Map<String, WebSocketSession> browserByConnection = new ConcurrentHashMap<>();
-        private final Map<WebSocketSession, Ids> browserReverse = new ConcurrentHashMap<>();
-
+        // When (epoch millis) a session was last attached or detached
+        private volatile long changedAt = System.currentTimeMillis();
 
         public UUID tunnelId() {
             return tunnelId;
@@ -282,24 +1118,165 @@ public class TunnelRegistry {
             return accountId;
         }
 
-        public WebSocketSession session() {
-            return session;
+        public String subdomain() {
+            return subdomain;
         }
 
-        public Map<String, CompletableFuture<HttpTunnelMessage>> pending() {
+        public List<ControlSession> lanes() {
+            return lanes;
+        }
+
+        public Map<String, CompletableFuture<TunnelResponse>> pending() {
             return pending;
         }
 
+        public Map<String, TunnelBodyStream> responseBodies() {
+            return responseBodies;
+        }
+
+        Map<String, ControlSession> requestLanes() {
+            return requestLanes;
+        }
+
+        Map<String, SendWindow> requestBodyWindows() {
+            return requestBodyWindows;
+        }
+
+        Map<String, HttpTunnelMessage> replayableRequests() {
+            return replayableRequests;
+        }
+
+        Set<String> awaitingReplay() {
+            return awaitingReplay;
+        }
+
+        public String resumeToken() {
+            return resumeToken;
+        }
+
         public boolean isOpen() {
-            return session != null && session.isOpen();
+            for (final var lane : lanes) {
+                if (lane.isOpen()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns whether the tunnel lost all its sessions but waits for its client to resume it.
+         *
+         * @return {@code true} while suspended
+         */
+        public boolean isSuspended() {
+            final var until = suspendedUntil;
+            return until != 0 && System.currentTimeMillis() < until;
+        }
+
+        /**
+         * Returns whether the tunnel accepts traffic, i.e. is open or suspended.
+         *
+         * @return {@code true} if requests may be routed to the tunnel
+         */
+        public boolean isAvailable() {
+            return isOpen() || isSuspended();
+        }
+
+        public boolean supports(final String feature) {
+            return features.contains(feature);
+        }
+
+        /**
+         * Returns the control session attached as the given WebSocket session.
+         *
+         * @param session a CLI control WebSocket session
+         * @return the control session, or {@code null} if the session is not attached to this tunnel
+         */
+        public ControlSession lane(final WebSocketSession session) {
+            for (final var lane : lanes) {
+                if (lane.session() == session) {
+                    return lane;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Picks the open lane for a request or connection id. The same key maps to the same lane
+         * as long as the set of lanes does not change.
+         *
+         * @param key request or connection id
+         * @return an open control session
+         * @throws IOException if no lane is open
+         */
+        public ControlSession laneFor(final String key) throws IOException {
+            final var current = lanes;
+            final var size = current.size();
+            final var start = size == 0 ? 0 : Math.floorMod(key == null ? 0 : key.hashCode(), size);
+            for (var i = 0; i < size; i++) {
+                final var candidate = current.get((start + i) % size);
+                if (candidate.isOpen()) {
+                    return candidate;
+                }
+            }
+            throw new IOException("Tunnel session is not open");
+        }
+
+        synchronized ControlSession attach(final ControlSession session) {
+            final var updated = new ArrayList<ControlSession>(lanes.size() + 1);
+            ControlSession replaced = null;
+            for (final var lane : lanes) {
+                if (lane.lane() == session.lane()) {
+                    replaced = lane;
+                } else {
+                    updated.add(lane);
+                }
+            }
+            updated.add(session);
+            updated.sort(Comparator.comparingInt(ControlSession::lane));
+            lanes = List.copyOf(updated);
+            suspendedUntil = 0;
+            changedAt = System.currentTimeMillis();
+            return replaced;
+        }
+
+        synchronized void suspend(final long until) {
+            if (!isOpen()) {
+                suspendedUntil = until;
+            }
+        }
+
+        synchronized boolean expire(final long now) {
+            if (suspendedUntil == 0 || now < suspendedUntil || isOpen()) {
+                return false;
+            }
+            suspendedUntil = 0;
+            return true;
+        }
+
+        synchronized ControlSession detach(final WebSocketSession session) {
+            final var lane = lane(session);
+            if (lane == null) {
+                return null;
+            }
+            final var updated = new ArrayList<>(lanes);
+            updated.remove(lane);
+            lanes = List.copyOf(updated);
+            changedAt = System.currentTimeMillis();
+            return lane;
         }
 
         public Map<String, WebSocketSession> browserByConnection() {
             return browserByConnection;
         }
 
-        public Map<WebSocketSession, Ids> browserReverse() {
-            return browserReverse;
+        long changedAt() {
+            return changedAt;
+        }
+
+        // Also true once the suspension ran out but was not expired yet
+        boolean hasSuspension() {
+            return suspendedUntil != 0;
         }
 
         // No passcode kept in-memory; use DB via TunnelService when needed
@@ -14,15 +14,17 @@
 
 package tech.amak.portbuddy.server.tunnel;
 
-import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -30,19 +32,25 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.tunnel.ControlMessage;
 import tech.amak.portbuddy.common.tunnel.HttpTunnelMessage;
-import tech.amak.portbuddy.common.tunnel.MessageEnvelope;
+import tech.amak.portbuddy.common.tunnel.TunnelCodec;
 import tech.amak.portbuddy.common.tunnel.WsTunnelMessage;
 import tech.amak.portbuddy.common.utils.IdUtils;
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+import tech.amak.portbuddy.server.service.TunnelAdmissionControl;
+import tech.amak.portbuddy.server.service.TunnelHeartbeatTracker;
 import tech.amak.portbuddy.server.service.TunnelService;
 
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class TunnelWebSocketHandler extends TextWebSocketHandler {
+public class TunnelWebSocketHandler extends AbstractWebSocketHandler {
 
     private final TunnelRegistry registry;
     private final ObjectMapper mapper;
     private final TunnelService tunnelService;
+    private final TunnelHeartbeatTracker heartbeatTracker;
+    private final TunnelsProperties properties;
+    private final TunnelAdmissionControl admissionControl;
 
     @Override
     @Transactional
@@ -51,7 +59,10 @@ public class TunnelWebSocketHandler extends TextWebSocketHandler {
 
         tunnelService.findByTunnelId(tunnelId).ifPresentOrElse(
             tunnel -> {
-                registry.register(tunnel, session);
+                if (!registry.register(tunnel, session)) {
+                    closeWebsocket(session, CloseStatus.POLICY_VIOLATION);
+                    return;
+                }
                 tunnelService.markConnected(tunnelId);
                 log.info("Tunnel session established: {}", tunnelId);
             },
@@ -76,38 +87,81 @@ public class TunnelWebSocketHandler extends TextWebSocketHandler {
         try {
             log.trace("Received message from client: {}", message.getPayload());
             final var tunnelId = extractTunnelId(session);
+            dispatch(session, tunnelId, codec(session, tunnelId).decode(message.getPayload()));
+        } catch (final Exception e) {
+            log.warn("Tunnel message handling error: {}", e.toString());
+        }
+    }
 
-            tunnelService.heartbeat(tunnelId);
+    /**
+     * Binary frames carry chunks of streamed response bodies and, once
+     * {@link tech.amak.portbuddy.common.tunnel.TunnelFeatures#BINARY_FRAMES} is negotiated,
+     * all other tunnel messages as well.
+     */
+    @Override
+    protected void handleBinaryMessage(final WebSocketSession session, final BinaryMessage message) {
+        try {
+            final var tunnelId = extractTunnelId(session);
+            dispatch(session, tunnelId, codec(session, tunnelId).decode(message.getPayload()));
+        } catch (final Exception e) {
+            log.warn("Tunnel binary message handling error: {}", e.toString());
+        }
+    }
 
-            final String payload = message.getPayload();
-            final var env = mapper.readValue(payload, MessageEnvelope.class);
-            // Control health checks
-            if (env.getKind() != null && env.getKind().equals("CTRL")) {
-                final var ctrl = mapper.readValue(payload, ControlMessage.class);
+    private void dispatch(final WebSocketSession session,
+                          final UUID tunnelId,
+                          final Object message) throws Exception {
+        heartbeatTracker.touch(tunnelId);
+        switch (message) {
+            case HttpTunnelMessage http when http.getType() == HttpTunnelMessage.Type.BODY_CHUNK ->
+                registry.onResponseChunk(tunnelId, http.getId(), http.getBody());
+            case ControlMessage ctrl -> {
                 if (ctrl.getType() == ControlMessage.Type.PING) {
                     final var pong = new ControlMessage();
                     pong.setType(ControlMessage.Type.PONG);
                     pong.setTs(System.currentTimeMillis());
-                    session.sendMessage(new TextMessage(mapper.writeValueAsString(pong)));
+                    sendToClient(session, tunnelId, pong);
                 }
-                return;
-            }
-            if (env.getKind() != null && env.getKind().equals("WS")) {
-                final var wsMsg = mapper.readValue(payload, WsTunnelMessage.class);
-                handleWsFromClient(tunnelId, wsMsg);
-                return;
             }
-            final var httpMsg = mapper.readValue(payload, HttpTunnelMessage.class);
-            if (httpMsg.getType() == HttpTunnelMessage.Type.RESPONSE) {
-                registry.onResponse(tunnelId, httpMsg);
-            } else {
-                log.debug("Ignoring unexpected message type from client: {}", httpMsg.getType());
+            case WsTunnelMessage wsMsg -> handleWsFromClient(tunnelId, wsMsg);
+            case HttpTunnelMessage httpMsg -> {
+                if (httpMsg.getType() == null) {
+                    log.debug("Ignoring client message without type");
+                    return;
+                }
+                switch (httpMsg.getType()) {
+                    case RESPONSE -> registry.onResponse(tunnelId, httpMsg);
+                    case BODY_END, BODY_ABORT -> registry.onResponseBodyEnd(tunnelId, httpMsg);
+                    case BODY_WINDOW -> registry.onBodyWindow(tunnelId, httpMsg);
+                    default -> log.debug("Ignoring unexpected message type from client: {}", httpMsg.getType());
+                }
             }
-        } catch (final Exception e) {
-            log.warn("Tunnel message handling error: {}", e.toString());
+            case null, default -> log.debug("Ignoring malformed client message");
         }
     }
 
+    private TunnelCodec codec(final WebSocketSession session, final UUID tunnelId) {
+        final var tunnel = registry.getByTunnelId(tunnelId);
+        final var lane = tunnel != null ? tunnel.lane(session) : null;
+        if (lane != null) {
+            return lane.codec();
+        }
+        return TunnelCodec.forFeatures(TunnelFeaturesHandshakeInterceptor.features(session), mapper);
+    }
+
+    private void sendToClient(final WebSocketSession session,
+                              final UUID tunnelId,
+                              final Object message) throws Exception {
+        final var tunnel = registry.getByTunnelId(tunnelId);
+        final var lane = tunnel != null ? tunnel.lane(session) : null;
+        if (lane != null) {
+            lane.send(message);
+            return;
+        }
+        final var frame = codec(session, tunnelId).encode(message);
+        session.sendMessage(frame.isBinary() ? new BinaryMessage(frame.binary()) : new TextMessage(frame.text()));
+    }
+
     private void handleWsFromClient(final UUID tunnelId, final WsTunnelMessage message) throws Exception {
         final var browser = registry.getBrowserSession(tunnelId, message.getConnectionId());
         if (browser == null) {
@@ -118,9 +172,9 @@ public class TunnelWebSocketHandler extends TextWebSocketHandler {
             case OPEN_OK -> { /* nothing extra for now */ }
             case TEXT -> browser.sendMessage(new TextMessage(message.getText() != null ? message.getText() : ""));
             case BINARY -> {
-                if (message.getDataB64() != null) {
-                    final var bytes = Base64.getDecoder().decode(message.getDataB64());
-                    browser.sendMessage(new org.springframework.web.socket.BinaryMessage(bytes));
+                final var bytes = message.dataBytes();
+                if (bytes != null) {
+                    browser.sendMessage(new BinaryMessage(bytes));
                 }
             }
             case CLOSE -> {
@@ -136,16 +190,39 @@ public class TunnelWebSocketHandler extends TextWebSocketHandler {
     @Override
     public void afterConnectionClosed(final WebSocketSession session, final CloseStatus status) {
         final var tunnelId = extractTunnelId(session);
-        final var tunnel = registry.getByTunnelId(tunnelId);
-        if (tunnel != null) {
-            tunnel.setSession(null);
-            log.info("Tunnel session closed: {} code={} reason={}", tunnelId,
-                status != null ? status.getCode() : null,
-                status != null ? status.getReason() : null);
+        final var tunnel = registry.unregisterSession(tunnelId, session);
+        if (tunnel == null) {
+            // Superseded by a newer session, or other lanes of the tunnel are still connected
+            log.debug("Tunnel {} stays up after close of session {}", tunnelId, session.getId());
+            return;
         }
+        log.info("Tunnel session closed: {} code={} reason={}", tunnelId,
+            status != null ? status.getCode() : null,
+            status != null ? status.getReason() : null);
+        if (tunnel.isSuspended()) {
+            // The client may reconnect and resume the tunnel within the grace period
+            CompletableFuture.delayedExecutor(properties.getResumeGracePeriod().toMillis(), TimeUnit.MILLISECONDS)
+                .execute(() -> expire(tunnel));
+            return;
+        }
+        heartbeatTracker.forget(tunnelId);
+        admissionControl.forget(tunnelId);
         tunnelService.markClosed(tunnelId);
     }
 
+    private void expire(final TunnelRegistry.Tunnel tunnel) {
+        try {
+            if (registry.expireSuspended(tunnel)) {
+                log.info("Tunnel {} was not resumed in time", tunnel.tunnelId());
+                heartbeatTracker.forget(tunnel.tunnelId());
+                admissionControl.forget(tunnel.tunnelId());
+                tunnelService.markClosed(tunnel.tunnelId());
+            }
+        } catch (final Exception e) {
+            log.warn("Failed to close unresumed tunnel {}: {}", tunnel.tunnelId(), e.toString());
+        }
+    }
+
     private UUID extractTunnelId(final WebSocketSession session) {
         return IdUtils.extractTunnelId(session.getUri());
     }
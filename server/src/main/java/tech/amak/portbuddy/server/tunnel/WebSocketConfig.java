@@ -37,6 +37,7 @@ public class WebSocketConfig implements WebSocketConfigurer {
     public void registerWebSocketHandlers(final WebSocketHandlerRegistry registry) {
         registry.addHandler(tunnelWebSocketHandler, "/api/http-tunnel/{tunnelId}")
             .setAllowedOrigins("*")
+            .addInterceptors(new TunnelFeaturesHandshakeInterceptor())
             // Echo back any requested subprotocol (some clients require it, e.g., Vaadin)
             .setHandshakeHandler(new PermissiveSubprotocolHandshakeHandler());
         // Public WS endpoint for tunneled hosts (dedicated base path to avoid MVC collisions)
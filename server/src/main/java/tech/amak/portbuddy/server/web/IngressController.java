@@ -17,10 +17,10 @@ package tech.amak.portbuddy.server.web;
 import static org.springframework.http.HttpStatus.TEMPORARY_REDIRECT;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Base64;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
@@ -29,16 +29,24 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.http.HttpHeaders;
-import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.AntPathMatcher;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.DeferredResultProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.servlet.HandlerMapping;
 
 import jakarta.servlet.http.Cookie;
@@ -47,11 +55,14 @@ import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.tunnel.HttpTunnelMessage;
+import tech.amak.portbuddy.common.tunnel.TunnelBodyStream;
+import tech.amak.portbuddy.common.tunnel.TunnelFeatures;
 import tech.amak.portbuddy.server.config.AppProperties;
-import tech.amak.portbuddy.server.db.entity.DomainEntity;
-import tech.amak.portbuddy.server.db.repo.AccountRepository;
-import tech.amak.portbuddy.server.db.repo.DomainRepository;
-import tech.amak.portbuddy.server.service.TunnelService;
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
+import tech.amak.portbuddy.server.service.PasscodeVerifier;
+import tech.amak.portbuddy.server.service.TunnelAdmissionControl;
+import tech.amak.portbuddy.server.service.TunnelAdmissionControl.AdmissionRejectedException;
 import tech.amak.portbuddy.server.tunnel.TunnelRegistry;
 
 /**
@@ -63,13 +74,17 @@ import tech.amak.portbuddy.server.tunnel.TunnelRegistry;
 public class IngressController {
 
     private static final String PASSCODE_COOKIE_NAME = "pbp";
+    private static final String CANCEL_INTERCEPTOR_KEY = IngressController.class.getName() + ".cancel";
+    private static final Duration FORWARD_TIMEOUT = Duration.ofSeconds(30);
+    // Leeway after the admission wait for the request to reach its body before the container gives up
+    private static final Duration ASYNC_TIMEOUT_GRACE = Duration.ofSeconds(5);
 
     private final TunnelRegistry registry;
     private final AppProperties properties;
-    private final DomainRepository domainRepository;
-    private final AccountRepository accountRepository;
-    private final TunnelService tunnelService;
-    private final PasswordEncoder passwordEncoder;
+    private final TunnelsProperties tunnelsProperties;
+    private final IngressRouteCache routeCache;
+    private final PasscodeVerifier passcodeVerifier;
+    private final TunnelAdmissionControl admissionControl;
 
     private static final Set<String> HOP_BY_HOP_RESPONSE_HEADERS = Set.of(
         // RFC 7230 hop-by-hop headers + common variants we do not want to relay
@@ -85,13 +100,28 @@ public class IngressController {
         HttpHeaders.CONTENT_LENGTH.toLowerCase()
     );
 
+    // Forwarding and response writing run on virtual threads, so a request waiting for a slow
+    // tunnel holds neither a servlet thread nor a database connection
+    private final Executor forwardExecutor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("ingress-forward-", 0).factory());
+
+    /**
+     * Handles path-based subdomain ingress. The request is processed asynchronously: the servlet
+     * thread returns as soon as the route is resolved and authorized.
+     *
+     * @param subdomain the requested subdomain
+     * @param request   the incoming HTTP request
+     * @param response  the HTTP response
+     * @return a result set once the tunnel response was written, or {@code null} if the
+     *     response was completed synchronously (redirect or error)
+     * @throws IOException if writing a synchronous response fails
+     */
     // HTTP route for subdomain ingress (non-WS traffic)
     @RequestMapping("/_/{subdomain:.+}/**")
-    @Transactional
-    public void ingressPathBased(final @PathVariable("subdomain") String subdomain,
-                                 final HttpServletRequest request,
-                                 final HttpServletResponse response) throws IOException {
-        forwardViaTunnel(subdomain, request, response);
+    public DeferredResult<Void> ingressPathBased(final @PathVariable("subdomain") String subdomain,
+                                                    final HttpServletRequest request,
+                                                    final HttpServletResponse response) throws IOException {
+        return forwardViaTunnel(subdomain, request, response);
     }
 
     /**
@@ -102,62 +132,61 @@ public class IngressController {
      *                     locate a matching subdomain in the database.
      * @param request      The incoming HTTP request to be forwarded to the matching subdomain's endpoint.
      * @param response     The HTTP response object used to return output or error codes to the client.
-     * @throws IOException If an input or output error occurs during the request forwarding process
-     *                     or while setting the HTTP response.
+     * @return a result set once the tunnel response was written, or {@code null} if the
+     *     response was completed synchronously
+     * @throws IOException If an input or output error occurs while setting a synchronous HTTP response.
      */
     // Path-based custom domain ingress: http://server/_custom/{customDomain}/...
     @RequestMapping("/_custom/{customDomain:.+}/**")
-    @Transactional
-    public void ingressCustomDomainPathBased(final @PathVariable("customDomain") String customDomain,
-                                             final HttpServletRequest request,
-                                             final HttpServletResponse response) throws IOException {
+    public DeferredResult<Void> ingressCustomDomainPathBased(
+        final @PathVariable("customDomain") String customDomain,
+        final HttpServletRequest request,
+        final HttpServletResponse response) throws IOException {
         var lookupDomain = customDomain.toLowerCase();
         final var colonIdx = lookupDomain.indexOf(':');
         if (colonIdx > 0) {
             lookupDomain = lookupDomain.substring(0, colonIdx);
         }
 
-        final var domainOpt = domainRepository.findByCustomDomain(lookupDomain);
-        if (domainOpt.isPresent()) {
-            forwardViaTunnel(domainOpt.get().getSubdomain(), request, response);
-        } else {
-            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Custom domain not found: " + lookupDomain);
+        final var subdomain = routeCache.resolveCustomDomain(lookupDomain);
+        if (subdomain.isPresent()) {
+            return forwardViaTunnel(subdomain.get(), request, response);
         }
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "Custom domain not found: " + lookupDomain);
+        return null;
     }
 
-    private void forwardViaTunnel(final String subdomain,
-                                  final HttpServletRequest request,
-                                  final HttpServletResponse response) throws IOException {
+    private DeferredResult<Void> forwardViaTunnel(final String subdomain,
+                                                  final HttpServletRequest request,
+                                                  final HttpServletResponse response) throws IOException {
         // If there is no active tunnel for the requested subdomain — redirect users to SPA 404 page
         final var tunnel = registry.getBySubdomain(subdomain);
-        if (tunnel == null || !tunnel.isOpen()) {
+        if (tunnel == null || !tunnel.isAvailable()) {
             final var notFoundUrl = properties.gateway().notFoundPage();
             response.setStatus(HttpServletResponse.SC_TEMPORARY_REDIRECT);
             response.setHeader(HttpHeaders.LOCATION, notFoundUrl);
-            return;
+            return null;
         }
 
+        final var route = routeCache.route(subdomain, tunnel.tunnelId(), tunnel.accountId());
+
         // Check subscription status
-        final var accountOpt = accountRepository.findById(tunnel.accountId());
-        if (accountOpt.isPresent()) {
-            final var status = accountOpt.get().getSubscriptionStatus();
-            if (status != null && !"active".equals(status)) {
-                log.warn("Blocked request to subdomain {} because subscription is not active (status: {})",
-                    subdomain, status);
-                response.sendError(HttpServletResponse.SC_PAYMENT_REQUIRED,
-                    "Subscription is not active. Please check your billing information.");
-                return;
-            }
+        if (route.accountFound() && !route.isSubscriptionActive()) {
+            log.warn("Blocked request to subdomain {} because subscription is not active (status: {})",
+                subdomain, route.subscriptionStatus());
+            response.sendError(HttpServletResponse.SC_PAYMENT_REQUIRED,
+                "Subscription is not active. Please check your billing information.");
+            return null;
         }
 
         // Passcode protection check (query param, header, or cookie)
-        if (!isAuthorized(subdomain, tunnel.tunnelId(), request, response)) {
+        if (!isAuthorized(subdomain, route.passcodeHash(), request, response)) {
             final var gateway = properties.gateway();
             final var originalDomain = "%s.%s".formatted(subdomain, gateway.domain());
             final var redirect = "%s?target_domain=%s".formatted(gateway.passcodePage(), originalDomain);
             response.setStatus(TEMPORARY_REDIRECT.value());
             response.setHeader(HttpHeaders.LOCATION, redirect);
-            return;
+            return null;
         }
 
         final var pathWithin = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE);
@@ -193,19 +222,102 @@ public class IngressController {
         headers.put("X-Forwarded-Host", List.of(request.getServerName()));
         headers.put("X-Forwarded-Proto", List.of(request.isSecure() ? "https" : "http"));
 
-        final var bodyBytes = request.getInputStream().readAllBytes();
-        final var bodyB64 = bodyBytes.length == 0 ? null : Base64.getEncoder().encodeToString(bodyBytes);
-
         final var msg = new HttpTunnelMessage();
+        msg.setId(registry.nextId());
         msg.setMethod(method);
         msg.setPath(path);
         msg.setQuery(query);
         msg.setHeaders(headers);
-        msg.setBodyB64(bodyB64);
         msg.setBodyContentType(request.getContentType());
 
+        // Large or unknown-length bodies are streamed as chunk frames when the CLI supports it,
+        // so the whole upload never has to sit in memory.
+        final var streamBody = tunnel.supports(TunnelFeatures.STREAM_BODY) && shouldStreamRequestBody(request);
+        final var cancelOnAbort = new CancelOnAbort(tunnel.tunnelId(), msg.getId());
+        WebAsyncUtils.getAsyncManager(request).registerDeferredResultInterceptor(CANCEL_INTERCEPTOR_KEY, cancelOnAbort);
+        // Covers the admission wait; lifted once the body is read, since body reads and the tunnel
+        // deadline time out on their own
+        final var timeout = tunnelsProperties.getAdmission().getQueueTimeout().plus(ASYNC_TIMEOUT_GRACE);
+        final var result = new DeferredResult<Void>(timeout.toMillis());
+        final var permit = new AtomicReference<TunnelAdmissionControl.Permit>();
+        CompletableFuture.supplyAsync(() -> {
+            // Waits for a slot on the virtual thread, before the body is read
+            permit.set(admissionControl.admit(tunnel.tunnelId(), tunnel.accountId()));
+            final var forwarded = forward(subdomain, msg, streamBody, request);
+            permit.get().onSent();
+            // The slots are held until the response head arrived, not while its body is copied
+            return forwarded.whenComplete((tunnelResponse, error) -> {
+                permit.get().onResponse(error);
+                permit.get().close();
+            });
+        }, forwardExecutor)
+            .thenCompose(Function.identity())
+            .handleAsync((tunnelResponse, error) -> {
+                try {
+                    // Once the container timed the request out, the response belongs to it
+                    if (!result.isSetOrExpired()) {
+                        writeResponse(subdomain, tunnelResponse, error, response);
+                    }
+                } finally {
+                    if (permit.get() != null) {
+                        permit.get().close();
+                    }
+                }
+                return null;
+            }, forwardExecutor)
+            .whenComplete((ignored, error) -> {
+                if (error == null) {
+                    result.setResult(null);
+                } else {
+                    result.setErrorResult(error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause()
+                        : error);
+                }
+            });
+        return result;
+    }
+
+    private CompletableFuture<TunnelRegistry.TunnelResponse> forward(final String subdomain,
+                                                                      final HttpTunnelMessage msg,
+                                                                      final boolean streamBody,
+                                                                      final HttpServletRequest request) {
         try {
-            final var resp = registry.forwardRequest(subdomain, msg, Duration.ofSeconds(30)).join();
+            liftAsyncTimeout(request);
+            InputStream streamedBody = null;
+            if (streamBody) {
+                streamedBody = request.getInputStream();
+            } else {
+                final var bodyBytes = request.getInputStream().readAllBytes();
+                msg.setBody(bodyBytes.length == 0 ? null : bodyBytes);
+            }
+            return registry.forwardRequest(subdomain, msg, streamedBody, FORWARD_TIMEOUT);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Removes the async timeout of an admitted request before its body is read, since reading or
+     * streaming a body may take longer than the tunnel deadline; a stalled read fails on the
+     * connector's read timeout. Tomcat applies a new timeout to the async cycle already in progress.
+     */
+    private static void liftAsyncTimeout(final HttpServletRequest request) {
+        try {
+            request.getAsyncContext().setTimeout(0);
+        } catch (final IllegalStateException e) {
+            log.debug("Cannot lift async timeout: {}", e.toString());
+        }
+    }
+
+    private void writeResponse(final String subdomain,
+                               final TunnelRegistry.TunnelResponse tunnelResponse,
+                               final Throwable error,
+                               final HttpServletResponse response) {
+        try {
+            if (error != null) {
+                throw error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            }
+            final var resp = tunnelResponse.message();
             final var status = resp.getStatus() == null ? 502 : resp.getStatus();
             response.setStatus(status);
             if (resp.getRespHeaders() != null) {
@@ -226,27 +338,84 @@ public class IngressController {
                             response.addHeader(name, value));
                 }
             }
-            if (resp.getRespBodyB64() != null) {
-                final var bytes = Base64.getDecoder().decode(resp.getRespBodyB64());
-                response.getOutputStream().write(bytes);
+            if (tunnelResponse.body() != null) {
+                copyStreamedBody(tunnelResponse.body(), response);
+            } else {
+                final var bytes = resp.respBodyBytes();
+                if (bytes != null) {
+                    response.getOutputStream().write(bytes);
+                }
             }
-        } catch (final Exception ex) {
+        } catch (final AdmissionRejectedException rejected) {
+            response.setStatus(rejected.status());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(rejected.retryAfterSeconds()));
+        } catch (final Throwable ex) {
             log.warn("Tunnel forward failed for subdomain={}: {}", subdomain, ex.toString());
-            response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
-            response.getWriter().write("Bad Gateway: tunnel unavailable");
+            if (response.isCommitted()) {
+                // Headers and part of the body are already on the wire; the only option left is to cut it short
+                throw new CompletionException(new IOException("Streamed response aborted", ex));
+            }
+            try {
+                response.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+                response.getWriter().write("Bad Gateway: tunnel unavailable");
+            } catch (final IOException writeError) {
+                throw new CompletionException(writeError);
+            }
+        }
+    }
+
+    /**
+     * Cancels the tunneled request when the async request fails, e.g. because the browser went
+     * away, or times out, so that the tunnel client stops working on it.
+     */
+    @RequiredArgsConstructor
+    private final class CancelOnAbort implements DeferredResultProcessingInterceptor {
+
+        private final UUID tunnelId;
+        private final String requestId;
+
+        @Override
+        public <T> boolean handleTimeout(final NativeWebRequest request, final DeferredResult<T> deferredResult) {
+            registry.cancelRequest(tunnelId, requestId);
+            return true;
+        }
+
+        @Override
+        public <T> boolean handleError(final NativeWebRequest request,
+                                       final DeferredResult<T> deferredResult,
+                                       final Throwable error) {
+            registry.cancelRequest(tunnelId, requestId);
+            return true;
+        }
+    }
+
+    private static boolean shouldStreamRequestBody(final HttpServletRequest request) {
+        final var contentLength = request.getContentLengthLong();
+        if (contentLength >= 0) {
+            return contentLength > TunnelBodyStream.CHUNK_SIZE;
+        }
+        // Unknown length: chunked uploads must be streamed, requests without a body need not be
+        return request.getHeader(HttpHeaders.TRANSFER_ENCODING) != null;
+    }
+
+    private static void copyStreamedBody(final TunnelBodyStream body,
+                                         final HttpServletResponse response) throws IOException {
+        try (body) {
+            final var out = response.getOutputStream();
+            byte[] chunk;
+            while ((chunk = body.readChunk()) != null) {
+                out.write(chunk);
+                // Flush every chunk so the browser starts receiving before the local app finished sending
+                out.flush();
+            }
         }
     }
 
     private boolean isAuthorized(final String subdomain,
-                                 final UUID tunnelId,
+                                 final String passcodeHash,
                                  final HttpServletRequest request,
                                  final HttpServletResponse response) {
 
-        final var passcodeHash = tunnelService.getTempPasscodeHash(tunnelId)
-            .or(() -> domainRepository.findBySubdomain(subdomain)
-                .map(DomainEntity::getPasscodeHash))
-            .orElse(null);
-
         // If there is no passcode configured for either the domain or the tunnel — allow access
         if (passcodeHash == null) {
             return true;
@@ -258,7 +427,7 @@ public class IngressController {
 
         // If passcode provided via header or query, validate and set cookie on success
         if (passcode != null) {
-            if (matches(passcode, passcodeHash)) {
+            if (passcodeVerifier.matches(passcode, passcodeHash)) {
                 issueCookie(response, subdomain, passcode);
                 return true;
             }
@@ -267,21 +436,10 @@ public class IngressController {
 
         return findCookie(request, PASSCODE_COOKIE_NAME)
             .map(Cookie::getValue)
-            .map(cookiePasscode -> matches(cookiePasscode, passcodeHash))
+            .map(cookiePasscode -> passcodeVerifier.matches(cookiePasscode, passcodeHash))
             .orElse(false);
     }
 
-    private boolean matches(final String raw, final String hash) {
-        if (hash == null || raw == null) {
-            return false;
-        }
-        try {
-            return passwordEncoder.matches(raw, hash);
-        } catch (final Exception e) {
-            return false;
-        }
-    }
-
     private Optional<Cookie> findCookie(final HttpServletRequest request, final String name) {
         return Stream.ofNullable(request.getCookies())
             .flatMap(Arrays::stream)
@@ -14,15 +14,21 @@
 
 package tech.amak.portbuddy.server.web;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import lombok.RequiredArgsConstructor;
-import tech.amak.portbuddy.server.db.repo.AccountRepository;
-import tech.amak.portbuddy.server.db.repo.DomainRepository;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.tunnel.TunnelRegistry;
 
 /**
@@ -38,9 +44,12 @@ import tech.amak.portbuddy.server.tunnel.TunnelRegistry;
 @RequiredArgsConstructor
 public class IngressResolveController {
 
+    private static final Duration MAX_OWNERSHIP_WAIT = Duration.ofSeconds(25);
+
     private final TunnelRegistry registry;
-    private final DomainRepository domainRepository;
-    private final AccountRepository accountRepository;
+    private final IngressRouteCache routeCache;
+    // Custom domains are read from the database, never on the thread that published a change
+    private final Executor snapshotExecutor = Executors.newVirtualThreadPerTaskExecutor();
 
     /**
      * Checks if the given subdomain is owned by an active tunnel.
@@ -50,11 +59,9 @@ public class IngressResolveController {
      */
     @GetMapping("/resolve/{subdomain}")
     public ResponseEntity<Void> resolveOwner(final @PathVariable("subdomain") String subdomain) {
-        final var tunnel = registry.getBySubdomain(subdomain);
-        if (tunnel != null && tunnel.isOpen() && isSubscriptionActive(tunnel)) {
-            return ResponseEntity.ok().build();
-        }
-        return ResponseEntity.notFound().build();
+        return isOwned(subdomain)
+            ? ResponseEntity.ok().build()
+            : ResponseEntity.notFound().build();
     }
 
     /**
@@ -65,23 +72,39 @@ public class IngressResolveController {
      */
     @GetMapping("/resolve-custom/{domain}")
     public ResponseEntity<Void> resolveCustomOwner(final @PathVariable("domain") String domain) {
-        return domainRepository.findByCustomDomain(domain)
-            .map(domainEntity -> {
-                final var tunnel = registry.getBySubdomain(domainEntity.getSubdomain());
-                if (tunnel != null && tunnel.isOpen() && isSubscriptionActive(tunnel)) {
-                    return ResponseEntity.ok().<Void>build();
-                }
-                return ResponseEntity.notFound().<Void>build();
-            })
+        return routeCache.resolveCustomDomain(domain)
+            .filter(this::isOwned)
+            .map(subdomain -> ResponseEntity.ok().<Void>build())
             .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
-    private boolean isSubscriptionActive(final TunnelRegistry.Tunnel tunnel) {
-        return accountRepository.findById(tunnel.accountId())
-            .map(account -> {
-                final var status = account.getSubscriptionStatus();
-                return status == null || "active".equals(status);
-            })
-            .orElse(false);
+    /**
+     * Returns the subdomains and custom domains served by this instance. If {@code version} is the
+     * current snapshot version, the response is held until ownership changes or {@code waitMs}
+     * elapses, which lets the gateway receive tunnel registrations, disconnects and custom domain
+     * changes as they happen and doubles as a periodic full sync.
+     *
+     * @param version the snapshot version the caller already has; {@code -1} to return immediately
+     * @param waitMs  maximum time to hold the request, capped at 25 seconds
+     * @return the ownership snapshot
+     */
+    @GetMapping("/owners")
+    public CompletableFuture<TunnelRegistry.OwnershipSnapshot> owners(
+        final @RequestParam(name = "version", defaultValue = "-1") long version,
+        final @RequestParam(name = "waitMs", defaultValue = "0") long waitMs) {
+        final var wait = Math.min(Math.max(waitMs, 0), MAX_OWNERSHIP_WAIT.toMillis());
+        return registry.awaitOwnershipChange(version)
+            .copy()
+            .completeOnTimeout(null, wait, TimeUnit.MILLISECONDS)
+            .thenApplyAsync(ignored -> registry.ownershipSnapshot(routeCache::customDomainsOf), snapshotExecutor);
+    }
+
+    private boolean isOwned(final String subdomain) {
+        final var tunnel = registry.getBySubdomain(subdomain);
+        if (tunnel == null || !tunnel.isAvailable()) {
+            return false;
+        }
+        final var route = routeCache.route(subdomain, tunnel.tunnelId(), tunnel.accountId());
+        return route.accountFound() && route.isSubscriptionActive();
     }
 }
@@ -36,6 +36,7 @@ import lombok.extern.slf4j.Slf4j;
 import tech.amak.portbuddy.common.Plan;
 import tech.amak.portbuddy.server.db.repo.AccountRepository;
 import tech.amak.portbuddy.server.db.repo.UserRepository;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.service.StripeService;
 
 @Slf4j
@@ -48,6 +49,7 @@ public class PaymentController {
     private final StripeService stripeService;
     private final UserRepository userRepository;
     private final AccountRepository accountRepository;
+    private final IngressRouteCache routeCache;
 
     /**
      * Creates a checkout session for the user's account and the requested plan.
@@ -105,6 +107,7 @@ public class PaymentController {
         account.setSubscriptionStatus("active");
         account.setStripeSubscriptionId(null);
         accountRepository.save(account);
+        routeCache.evictAccount(accountId);
     }
 
     @Data
@@ -42,6 +42,7 @@ import tech.amak.portbuddy.server.db.entity.StripeEventEntity;
 import tech.amak.portbuddy.server.db.repo.AccountRepository;
 import tech.amak.portbuddy.server.db.repo.StripeEventRepository;
 import tech.amak.portbuddy.server.mail.EmailService;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.service.StripeService;
 import tech.amak.portbuddy.server.service.StripeWebhookService;
 import tech.amak.portbuddy.server.service.TunnelService;
@@ -58,6 +59,7 @@ public class StripeWebhookController {
     private final TunnelService tunnelService;
     private final StripeService stripeService;
     private final StripeWebhookService stripeWebhookService;
+    private final IngressRouteCache routeCache;
     private final AppProperties properties;
 
     /**
@@ -183,6 +185,7 @@ public class StripeWebhookController {
             account.setExtraTunnels(Integer.parseInt(extraTunnelsStr));
         }
         accountRepository.save(account);
+        routeCache.evictAccount(account.getId());
         tunnelService.enforceTunnelLimit(account);
         log.info("Updated account {} with Stripe customer {} and subscription {}",
             accountId, session.getCustomer(), session.getSubscription());
@@ -267,6 +270,7 @@ public class StripeWebhookController {
             }
 
             accountRepository.save(account);
+            routeCache.evictAccount(account.getId());
             tunnelService.enforceTunnelLimit(account);
             log.info("Updated subscription status for account {} to {}", account.getId(), subscription.getStatus());
 
@@ -303,6 +307,7 @@ public class StripeWebhookController {
         accountRepository.findByStripeCustomerId(customerId).ifPresentOrElse(account -> {
             account.setSubscriptionStatus("past_due");
             accountRepository.save(account);
+            routeCache.evictAccount(account.getId());
 
             final var user = account.getUsers().stream().findFirst().orElse(null);
             if (user != null) {
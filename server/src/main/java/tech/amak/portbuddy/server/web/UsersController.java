@@ -52,6 +52,7 @@ import tech.amak.portbuddy.server.db.repo.UserAccountRepository;
 import tech.amak.portbuddy.server.db.repo.UserRepository;
 import tech.amak.portbuddy.server.security.JwtService;
 import tech.amak.portbuddy.server.security.Oauth2SuccessHandler;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.service.StripeService;
 import tech.amak.portbuddy.server.service.TeamService;
 import tech.amak.portbuddy.server.service.TunnelService;
@@ -70,6 +71,7 @@ public class UsersController {
     private final TeamService teamService;
     private final JwtService jwtService;
     private final AppProperties properties;
+    private final IngressRouteCache routeCache;
 
     /**
      * User details endpoint.
@@ -212,6 +214,7 @@ public class UsersController {
 
         account.setExtraTunnels(requestedExtra);
         accountRepository.save(account);
+        routeCache.evictAccount(account.getId());
         tunnelService.enforceTunnelLimit(account);
 
         return toAccountDto(account);
@@ -60,6 +60,8 @@ class DomainServiceTest {
     private PasswordEncoder passwordEncoder;
     @Mock
     private SslServiceClient sslServiceClient;
+    @Mock
+    private IngressRouteCache routeCache;
 
     private DomainService domainService;
     private AccountEntity account;
@@ -91,7 +93,8 @@ class DomainServiceTest {
             appProps,
             passwordEncoder,
             sslServiceClient,
-            userRepository);
+            userRepository,
+            routeCache);
         account = new AccountEntity();
         account.setId(UUID.randomUUID());
     }
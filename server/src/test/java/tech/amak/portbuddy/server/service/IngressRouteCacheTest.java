@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+import tech.amak.portbuddy.server.db.entity.AccountEntity;
+import tech.amak.portbuddy.server.db.entity.DomainEntity;
+import tech.amak.portbuddy.server.db.entity.TunnelEntity;
+import tech.amak.portbuddy.server.db.repo.AccountRepository;
+import tech.amak.portbuddy.server.db.repo.DomainRepository;
+import tech.amak.portbuddy.server.db.repo.TunnelRepository;
+import tech.amak.portbuddy.server.tunnel.TunnelRegistry;
+
+@ExtendWith(MockitoExtension.class)
+class IngressRouteCacheTest {
+
+    private static final String SUBDOMAIN = "otter-1234";
+
+    @Mock
+    private DomainRepository domainRepository;
+    @Mock
+    private AccountRepository accountRepository;
+    @Mock
+    private TunnelRepository tunnelRepository;
+    @Mock
+    private TunnelRegistry tunnelRegistry;
+
+    private IngressRouteCache routeCache;
+    private UUID tunnelId;
+    private AccountEntity account;
+
+    @BeforeEach
+    void setUp() {
+        routeCache = new IngressRouteCache(domainRepository, accountRepository, tunnelRepository, tunnelRegistry,
+            new TunnelsProperties());
+        tunnelId = UUID.randomUUID();
+        account = new AccountEntity();
+        account.setId(UUID.randomUUID());
+        account.setSubscriptionStatus("active");
+    }
+
+    @Test
+    void route_IsLoadedOnceAndServedFromCache() {
+        final var tunnel = new TunnelEntity();
+        tunnel.setTempPasscodeHash("hash");
+        when(accountRepository.findById(account.getId())).thenReturn(Optional.of(account));
+        when(tunnelRepository.findById(tunnelId)).thenReturn(Optional.of(tunnel));
+
+        routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+        final var route = routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        assertEquals("hash", route.passcodeHash());
+        assertTrue(route.isSubscriptionActive());
+        verify(accountRepository, times(1)).findById(account.getId());
+    }
+
+    @Test
+    void route_FallsBackToDomainPasscode() {
+        final var domain = new DomainEntity();
+        domain.setPasscodeHash("domain-hash");
+        when(accountRepository.findById(account.getId())).thenReturn(Optional.of(account));
+        when(tunnelRepository.findById(tunnelId)).thenReturn(Optional.of(new TunnelEntity()));
+        when(domainRepository.findBySubdomain(SUBDOMAIN)).thenReturn(Optional.of(domain));
+
+        final var route = routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        assertEquals("domain-hash", route.passcodeHash());
+    }
+
+    @Test
+    void evictAccount_ReloadsSubscriptionStatus() {
+        when(accountRepository.findById(account.getId())).thenReturn(Optional.of(account));
+        when(tunnelRepository.findById(tunnelId)).thenReturn(Optional.empty());
+        when(domainRepository.findBySubdomain(SUBDOMAIN)).thenReturn(Optional.empty());
+        routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        account.setSubscriptionStatus("past_due");
+        routeCache.evictAccount(account.getId());
+        final var route = routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        assertFalse(route.isSubscriptionActive());
+        verify(accountRepository, times(2)).findById(account.getId());
+    }
+
+    @Test
+    void evictSubdomain_ReloadsPasscode() {
+        final var domain = new DomainEntity();
+        domain.setPasscodeHash("old-hash");
+        when(accountRepository.findById(account.getId())).thenReturn(Optional.of(account));
+        when(tunnelRepository.findById(tunnelId)).thenReturn(Optional.empty());
+        when(domainRepository.findBySubdomain(SUBDOMAIN)).thenReturn(Optional.of(domain));
+        routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        domain.setPasscodeHash("new-hash");
+        routeCache.evictSubdomain(SUBDOMAIN);
+        final var route = routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        assertEquals("new-hash", route.passcodeHash());
+    }
+
+    @Test
+    void route_NewTunnelOnSameSubdomainIsReloaded() {
+        when(accountRepository.findById(account.getId())).thenReturn(Optional.of(account));
+        when(domainRepository.findBySubdomain(SUBDOMAIN)).thenReturn(Optional.empty());
+        routeCache.route(SUBDOMAIN, tunnelId, account.getId());
+
+        final var newTunnelId = UUID.randomUUID();
+        final var route = routeCache.route(SUBDOMAIN, newTunnelId, account.getId());
+
+        assertEquals(newTunnelId, route.tunnelId());
+        verify(accountRepository, times(2)).findById(account.getId());
+    }
+
+    @Test
+    void evictCustomDomain_ReloadsMappingAndPublishesOwnershipChange() {
+        final var domain = new DomainEntity();
+        domain.setSubdomain(SUBDOMAIN);
+        when(domainRepository.findByCustomDomain("app.example.com")).thenReturn(Optional.of(domain));
+        routeCache.resolveCustomDomain("app.example.com");
+
+        routeCache.evictCustomDomain("App.Example.com");
+        routeCache.resolveCustomDomain("app.example.com");
+
+        verify(domainRepository, times(2)).findByCustomDomain("app.example.com");
+        verify(tunnelRegistry).customDomainsChanged();
+    }
+
+    @Test
+    void customDomainsOf_SkipsQueryWithoutSubdomains() {
+        assertTrue(routeCache.customDomainsOf(List.of()).isEmpty());
+
+        verify(domainRepository, never()).findCustomDomainsBySubdomainIn(anyCollection());
+    }
+}
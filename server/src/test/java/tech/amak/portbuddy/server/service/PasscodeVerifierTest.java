@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+
+@ExtendWith(MockitoExtension.class)
+class PasscodeVerifierTest {
+
+    @Mock
+    private PasswordEncoder passwordEncoder;
+
+    private PasscodeVerifier verifier;
+
+    @BeforeEach
+    void setUp() {
+        verifier = new PasscodeVerifier(passwordEncoder, new TunnelsProperties());
+    }
+
+    @Test
+    void matches_RepeatedChecksHitEncoderOnce() {
+        when(passwordEncoder.matches("secret", "hash")).thenReturn(true);
+
+        assertTrue(verifier.matches("secret", "hash"));
+        assertTrue(verifier.matches("secret", "hash"));
+
+        verify(passwordEncoder, times(1)).matches("secret", "hash");
+    }
+
+    @Test
+    void matches_RotatedHashIsVerifiedAgain() {
+        when(passwordEncoder.matches("secret", "hash")).thenReturn(true);
+        when(passwordEncoder.matches("secret", "rotated")).thenReturn(false);
+
+        assertTrue(verifier.matches("secret", "hash"));
+        assertFalse(verifier.matches("secret", "rotated"));
+    }
+
+    @Test
+    void matches_FailedChecksAreNotCached() {
+        when(passwordEncoder.matches("guess", "hash")).thenReturn(false);
+
+        assertFalse(verifier.matches("guess", "hash"));
+        assertFalse(verifier.matches("guess", "hash"));
+
+        verify(passwordEncoder, times(2)).matches("guess", "hash");
+    }
+
+    @Test
+    void matches_FailedChecksDoNotEvictVerifiedPasscodes() {
+        final var properties = new TunnelsProperties();
+        properties.setPasscodeCacheMaxSize(1);
+        final var smallCache = new PasscodeVerifier(passwordEncoder, properties);
+        when(passwordEncoder.matches("secret", "hash")).thenReturn(true);
+        when(passwordEncoder.matches(startsWith("guess"), eq("hash"))).thenReturn(false);
+
+        assertTrue(smallCache.matches("secret", "hash"));
+        for (var i = 0; i < 10; i++) {
+            assertFalse(smallCache.matches("guess" + i, "hash"));
+        }
+        assertTrue(smallCache.matches("secret", "hash"));
+
+        verify(passwordEncoder, times(1)).matches("secret", "hash");
+    }
+
+    @Test
+    void matches_NullInputsDoNotMatch() {
+        assertFalse(verifier.matches(null, "hash"));
+        assertFalse(verifier.matches("secret", null));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package tech.amak.portbuddy.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import tech.amak.portbuddy.server.config.TunnelsProperties;
+import tech.amak.portbuddy.server.service.TunnelAdmissionControl.AdmissionRejectedException;
+
+class TunnelAdmissionControlTest {
+
+    private TunnelsProperties properties;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        properties = new TunnelsProperties();
+        properties.getAdmission().setMaxConcurrentPerTunnel(2);
+        properties.getAdmission().setMaxConcurrentPerAccount(3);
+        properties.getAdmission().setMaxQueuedPerTunnel(0);
+        properties.getAdmission().setQueueTimeout(Duration.ofMillis(50));
+        properties.getAdmission().setRetryAfter(Duration.ofMillis(1500));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void admit_RejectsWith503WhenTunnelIsFull() {
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var tunnelId = UUID.randomUUID();
+        admission.admit(tunnelId, null);
+        admission.admit(tunnelId, null);
+
+        final var rejected = assertThrows(AdmissionRejectedException.class, () -> admission.admit(tunnelId, null));
+
+        assertEquals(503, rejected.status());
+        assertEquals(2, rejected.retryAfterSeconds());
+    }
+
+    @Test
+    void admit_RejectsWith429WhenAccountIsFull() {
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var accountId = UUID.randomUUID();
+        admission.admit(UUID.randomUUID(), accountId);
+        admission.admit(UUID.randomUUID(), accountId);
+        admission.admit(UUID.randomUUID(), accountId);
+
+        final var rejected = assertThrows(AdmissionRejectedException.class,
+            () -> admission.admit(UUID.randomUUID(), accountId));
+
+        assertEquals(429, rejected.status());
+    }
+
+    @Test
+    void admit_WaitsForReleasedSlotWhenQueueAllows() throws Exception {
+        properties.getAdmission().setMaxQueuedPerTunnel(1);
+        properties.getAdmission().setQueueTimeout(Duration.ofSeconds(5));
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var tunnelId = UUID.randomUUID();
+        admission.admit(tunnelId, null);
+        final var held = admission.admit(tunnelId, null);
+
+        final var releaser = Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            held.close();
+        });
+        admission.admit(tunnelId, null);
+        releaser.join();
+    }
+
+    @Test
+    void close_ReleasesAccountAndTunnelSlotsOnce() {
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var tunnelId = UUID.randomUUID();
+        final var accountId = UUID.randomUUID();
+        final var permit = admission.admit(tunnelId, accountId);
+        admission.admit(tunnelId, accountId);
+
+        permit.close();
+        permit.close();
+
+        admission.admit(tunnelId, accountId);
+        assertThrows(AdmissionRejectedException.class, () -> admission.admit(tunnelId, accountId));
+    }
+
+    @Test
+    void adaptiveLimit_ShrinksOnTimeoutsAndStaysAboveMinimum() {
+        properties.getAdmission().setMaxConcurrentPerTunnel(10);
+        properties.getAdmission().setAdaptive(true);
+        properties.getAdmission().setAdaptiveMinConcurrent(4);
+        properties.getAdmission().setAdaptiveBackoff(0.5);
+        final var limiter = new TunnelAdmissionControl.Limiter(properties.getAdmission());
+
+        limiter.sample(true);
+        assertEquals(5, limiter.limit());
+        limiter.sample(true);
+        assertEquals(4, limiter.limit());
+
+        for (var i = 0; i < 5; i++) {
+            limiter.sample(false);
+        }
+        assertEquals(5, limiter.limit());
+    }
+
+    @Test
+    void onResponse_CountsTimeoutAsOverload() {
+        properties.getAdmission().setMaxConcurrentPerTunnel(10);
+        properties.getAdmission().setAdaptive(true);
+        properties.getAdmission().setAdaptiveBackoff(0.5);
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var tunnelId = UUID.randomUUID();
+
+        admission.admit(tunnelId, null).onResponse(new TimeoutException());
+
+        // The limit dropped to 5 and one request is still in flight
+        for (var i = 0; i < 4; i++) {
+            admission.admit(tunnelId, null);
+        }
+        assertThrows(AdmissionRejectedException.class, () -> admission.admit(tunnelId, null));
+    }
+
+    @Test
+    void permit_KeepsRequestCountedUntilResponseArrives() {
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var tunnelId = UUID.randomUUID();
+        final var accountId = UUID.randomUUID();
+        admission.admit(tunnelId, accountId);
+        final var permit = admission.admit(tunnelId, accountId);
+
+        // Sent to the tunnel, but not answered yet
+        permit.onSent();
+        assertThrows(AdmissionRejectedException.class, () -> admission.admit(tunnelId, accountId));
+
+        permit.onResponse(null);
+        permit.close();
+        admission.admit(tunnelId, accountId);
+    }
+
+    @Test
+    void onResponse_MeasuresLatencyFromSent() throws Exception {
+        properties.getAdmission().setMaxConcurrentPerTunnel(4);
+        properties.getAdmission().setAdaptive(true);
+        properties.getAdmission().setAdaptiveBackoff(0.5);
+        properties.getAdmission().setAdaptiveLatencyThreshold(Duration.ofMillis(50));
+        final var admission = new TunnelAdmissionControl(properties, meterRegistry);
+        final var tunnelId = UUID.randomUUID();
+        final var permit = admission.admit(tunnelId, null);
+
+        // A slow upload by the public client does not count as tunnel latency
+        Thread.sleep(100);
+        permit.onSent();
+        permit.onResponse(null);
+        permit.close();
+
+        for (var i = 0; i < 4; i++) {
+            admission.admit(tunnelId, null);
+        }
+        assertThrows(AdmissionRejectedException.class, () -> admission.admit(tunnelId, null));
+    }
+}
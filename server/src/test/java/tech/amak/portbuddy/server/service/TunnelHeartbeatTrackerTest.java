@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.server.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+@ExtendWith(MockitoExtension.class)
+class TunnelHeartbeatTrackerTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private TunnelHeartbeatTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        tracker = new TunnelHeartbeatTracker(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_WritesEachTouchedTunnelOnceInOneBatch() {
+        final var first = UUID.randomUUID();
+        final var second = UUID.randomUUID();
+        tracker.touch(first);
+        tracker.touch(first);
+        tracker.touch(second);
+
+        tracker.flush();
+
+        final ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), batch.capture());
+        assertEquals(2, batch.getValue().size());
+    }
+
+    @Test
+    void flush_SkipsTunnelsWithoutNewActivity() {
+        tracker.touch(UUID.randomUUID());
+        tracker.flush();
+
+        tracker.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    void forget_DropsUnflushedActivity() {
+        final var tunnelId = UUID.randomUUID();
+        tracker.touch(tunnelId);
+        tracker.forget(tunnelId);
+
+        tracker.flush();
+
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_KeepsActivityWhenTheBatchFails() {
+        final var tunnelId = UUID.randomUUID();
+        tracker.touch(tunnelId);
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+            .thenThrow(new DataAccessResourceFailureException("down"))
+            .thenReturn(new int[] {1});
+
+        tracker.flush();
+        tracker.flush();
+
+        final ArgumentCaptor<List<Object[]>> batch = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), batch.capture());
+        assertEquals(batch.getAllValues().get(0).getFirst()[0], batch.getAllValues().get(1).getFirst()[0]);
+        assertEquals(tunnelId, batch.getAllValues().get(1).getFirst()[1]);
+    }
+}
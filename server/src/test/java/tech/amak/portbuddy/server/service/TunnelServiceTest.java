@@ -53,6 +53,10 @@ class TunnelServiceTest {
     private TunnelRepository tunnelRepository;
     @Mock
     private AccountRepository accountRepository;
+    @Mock
+    private ThreatFoxService threatFoxService;
+    @Mock
+    private IngressRouteCache routeCache;
 
     private TunnelService tunnelService;
     private AccountEntity account;
@@ -68,7 +72,7 @@ class TunnelServiceTest {
                     Map.of(Plan.PRO, 1, Plan.TEAM, 10), Map.of(Plan.PRO, 1, Plan.TEAM, 5))),
             null
         );
-        tunnelService = new TunnelService(tunnelRepository, accountRepository, properties);
+        tunnelService = new TunnelService(tunnelRepository, accountRepository, properties, threatFoxService, routeCache);
         account = new AccountEntity();
         account.setId(UUID.randomUUID());
         account.setPlan(Plan.PRO);
@@ -49,6 +49,7 @@ import tech.amak.portbuddy.server.db.repo.UserRepository;
 import tech.amak.portbuddy.server.security.ApiTokenAuthFilter;
 import tech.amak.portbuddy.server.security.JwtService;
 import tech.amak.portbuddy.server.security.Oauth2SuccessHandler;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.service.StripeService;
 
 @WebMvcTest(PaymentController.class)
@@ -81,6 +82,9 @@ public class PaymentControllerTest {
     @MockitoBean
     private Oauth2SuccessHandler oauth2SuccessHandler;
 
+    @MockitoBean
+    private IngressRouteCache routeCache;
+
     private UUID accountId;
     private UUID userId;
     private AccountEntity account;
@@ -154,6 +158,7 @@ public class PaymentControllerTest {
 
         org.mockito.Mockito.verify(stripeService).cancelSubscription(account);
         org.mockito.Mockito.verify(accountRepository).save(account);
+        org.mockito.Mockito.verify(routeCache).evictAccount(account.getId());
         
         org.junit.jupiter.api.Assertions.assertEquals(0, account.getExtraTunnels());
         org.junit.jupiter.api.Assertions.assertEquals("active", account.getSubscriptionStatus());
@@ -53,6 +53,7 @@ import tech.amak.portbuddy.server.db.repo.StripeEventRepository;
 import tech.amak.portbuddy.server.mail.EmailService;
 import tech.amak.portbuddy.server.security.ApiTokenAuthFilter;
 import tech.amak.portbuddy.server.security.Oauth2SuccessHandler;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.service.StripeService;
 import tech.amak.portbuddy.server.service.StripeWebhookService;
 import tech.amak.portbuddy.server.service.TunnelService;
@@ -91,6 +92,9 @@ class StripeWebhookControllerTest {
     @MockitoBean
     private AppProperties appProperties;
 
+    @MockitoBean
+    private IngressRouteCache routeCache;
+
     @BeforeEach
     void setUp() {
         when(appProperties.gateway()).thenReturn(new AppProperties.Gateway(
@@ -146,6 +150,7 @@ class StripeWebhookControllerTest {
             eq("email/payment-failed"),
             anyMap()
         );
+        verify(routeCache).evictAccount(account.getId());
     }
 
     @Test
@@ -244,6 +249,7 @@ class StripeWebhookControllerTest {
 
         verify(stripeService).cancelSubscription("sub_old");
         verify(accountRepository).save(account);
+        verify(routeCache).evictAccount(account.getId());
         assert account.getStripeSubscriptionId().equals(newSubId);
         assert account.getPlan() == Plan.TEAM;
         assert account.getExtraTunnels() == 5;
@@ -57,6 +57,7 @@ import tech.amak.portbuddy.server.db.repo.UserRepository;
 import tech.amak.portbuddy.server.security.ApiTokenAuthFilter;
 import tech.amak.portbuddy.server.security.JwtService;
 import tech.amak.portbuddy.server.security.Oauth2SuccessHandler;
+import tech.amak.portbuddy.server.service.IngressRouteCache;
 import tech.amak.portbuddy.server.service.StripeService;
 import tech.amak.portbuddy.server.service.TeamService;
 import tech.amak.portbuddy.server.service.TunnelService;
@@ -106,6 +107,9 @@ public class UsersControllerTest {
     @MockitoBean
     private AppProperties properties;
 
+    @MockitoBean
+    private IngressRouteCache routeCache;
+
     private UUID accountId;
     private UUID userId;
     private AccountEntity account;
@@ -218,6 +222,7 @@ public class UsersControllerTest {
 
         verify(stripeService).cancelSubscription(account);
         verify(accountRepository).save(account);
+        verify(routeCache).evictAccount(account.getId());
     }
 
     private Jwt createJwt(final List<String> roles) {
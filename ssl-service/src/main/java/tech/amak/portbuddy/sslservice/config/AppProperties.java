@@ -16,6 +16,8 @@ package tech.amak.portbuddy.sslservice.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import tech.amak.portbuddy.sslservice.domain.DomainKeyType;
+
 @ConfigurationProperties(prefix = "app")
 public record AppProperties(
     Jwt jwt,
@@ -33,7 +35,8 @@ public record AppProperties(
         String accountKeyPath,
         String contactEmail,
         String accountLocation,
-        Retry retry
+        Retry retry,
+        DomainKeyType domainKeyType
     ) {
     }
 
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.sslservice.domain;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Key type of issued certificates. ECDSA keys make server signatures, and with them TLS
+ * handshakes at the gateway, considerably cheaper than RSA keys.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum DomainKeyType {
+    RSA_2048("RSA", null, 2048, "SHA256withRSA"),
+    EC_P256("EC", "secp256r1", 256, "SHA256withECDSA"),
+    EC_P384("EC", "secp384r1", 384, "SHA384withECDSA");
+
+    private final String algorithm;
+    private final String curve;
+    private final int keySize;
+    private final String signatureAlgorithm;
+}
@@ -22,6 +22,7 @@ import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import tech.amak.portbuddy.sslservice.domain.CertificateEntity;
+import tech.amak.portbuddy.sslservice.domain.CertificateStatus;
 
 public interface CertificateRepository extends JpaRepository<CertificateEntity, UUID> {
 
@@ -41,6 +42,14 @@ public interface CertificateRepository extends JpaRepository<CertificateEntity,
      */
     Optional<CertificateEntity> findByDomainIgnoreCase(String domain);
 
+    /**
+     * Returns all certificates in the given status.
+     *
+     * @param status certificate status
+     * @return list of certificates
+     */
+    List<CertificateEntity> findAllByStatus(CertificateStatus status);
+
     /**
      * Returns all certificates that are marked as managed by the service.
      *
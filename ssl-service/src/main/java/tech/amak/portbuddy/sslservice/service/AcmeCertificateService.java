@@ -61,6 +61,7 @@ import tech.amak.portbuddy.sslservice.domain.CertificateEntity;
 import tech.amak.portbuddy.sslservice.domain.CertificateJobEntity;
 import tech.amak.portbuddy.sslservice.domain.CertificateJobStatus;
 import tech.amak.portbuddy.sslservice.domain.CertificateStatus;
+import tech.amak.portbuddy.sslservice.domain.DomainKeyType;
 import tech.amak.portbuddy.sslservice.repo.CertificateJobRepository;
 import tech.amak.portbuddy.sslservice.repo.CertificateRepository;
 import tech.amak.portbuddy.sslservice.work.ChallengeTokenStore;
@@ -81,6 +82,7 @@ public class AcmeCertificateService {
     private final EmailService emailService;
     private final ObjectMapper objectMapper;
     private final ServerClient serverClient;
+    private final CertificateChangeNotifier changeNotifier;
     private final ObjectProvider<AcmeCertificateService> self;
 
     /**
@@ -221,8 +223,9 @@ public class AcmeCertificateService {
         }
 
         // 4) Generate domain key and CSR
-        final KeyPair domainKeyPair = storageService.generateRsaKeyPair();
-        final var csr = buildCsrDer(domain, domainKeyPair);
+        final var keyType = storageService.domainKeyType();
+        final KeyPair domainKeyPair = storageService.generateKeyPair(keyType);
+        final var csr = buildCsrDer(domain, domainKeyPair, keyType);
         updateJobMessage(job, "CSR generated");
 
         // 5) Finalize order
@@ -271,6 +274,7 @@ public class AcmeCertificateService {
         certificate.setChainPath(chainPath.toAbsolutePath().toString());
         certificate.setFullChainPath(fullChainPath.toAbsolutePath().toString());
         certificateRepository.save(certificate);
+        changeNotifier.publish();
 
         // Notify server module about successful issuance
         try {
@@ -426,13 +430,14 @@ public class AcmeCertificateService {
 
             // Generate key and CSR for apex + wildcard (or single domain)
             final var domain = job.getDomain();
-            final KeyPair domainKeyPair = storageService.generateRsaKeyPair();
+            final var keyType = storageService.domainKeyType();
+            final KeyPair domainKeyPair = storageService.generateKeyPair(keyType);
             final byte[] csr;
             if (domain.startsWith("*.")) {
                 final var apex = domain.substring(2);
-                csr = buildCsrDer(List.of(apex, domain), domainKeyPair);
+                csr = buildCsrDer(List.of(apex, domain), domainKeyPair, keyType);
             } else {
-                csr = buildCsrDer(List.of(domain), domainKeyPair);
+                csr = buildCsrDer(List.of(domain), domainKeyPair, keyType);
             }
 
             retryExecutor.callWithRetry("acme.order.finalize", () -> {
@@ -474,6 +479,7 @@ public class AcmeCertificateService {
             certificate.setChainPath(chainPath.toAbsolutePath().toString());
             certificate.setFullChainPath(fullChainPath.toAbsolutePath().toString());
             certificateRepository.save(certificate);
+            changeNotifier.publish();
 
             // Notify server module about successful issuance
             try {
@@ -549,7 +555,7 @@ public class AcmeCertificateService {
         throw new IllegalStateException("Order finalization timed out");
     }
 
-    private byte[] buildCsrDer(final List<String> domains, final KeyPair keyPair)
+    private byte[] buildCsrDer(final List<String> domains, final KeyPair keyPair, final DomainKeyType keyType)
         throws OperatorCreationException, java.io.IOException {
         final var primary = domains.getFirst();
         final X500Name subject = new X500Name("CN=" + primary);
@@ -566,14 +572,15 @@ public class AcmeCertificateService {
         final var extensions = extGen.generate();
         p10Builder.addAttribute(pkcs_9_at_extensionRequest, extensions);
 
-        final ContentSigner signer = new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate());
+        final ContentSigner signer = new JcaContentSignerBuilder(keyType.getSignatureAlgorithm())
+            .build(keyPair.getPrivate());
         final PKCS10CertificationRequest csr = p10Builder.build(signer);
         return csr.getEncoded();
     }
 
-    private byte[] buildCsrDer(final String domain, final KeyPair keyPair)
+    private byte[] buildCsrDer(final String domain, final KeyPair keyPair, final DomainKeyType keyType)
         throws OperatorCreationException, java.io.IOException {
-        return buildCsrDer(List.of(domain), keyPair);
+        return buildCsrDer(List.of(domain), keyPair, keyType);
     }
 
     private String toPem(final X509Certificate cert) {
@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.sslservice.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Wakes up gateways long-polling for certificate changes, so that an issued or renewed
+ * certificate is served by the next TLS handshake instead of after a cache expiry.
+ */
+@Component
+public class CertificateChangeNotifier {
+
+    private volatile CompletableFuture<Void> change = new CompletableFuture<>();
+
+    /**
+     * Returns a future completed by the next {@link #publish()}.
+     *
+     * @return the pending change
+     */
+    public CompletableFuture<Void> nextChange() {
+        return change;
+    }
+
+    /**
+     * Signals that certificates changed. Inside a transaction the signal is sent after commit,
+     * so that woken pollers read the new state.
+     */
+    public void publish() {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    complete();
+                }
+            });
+        } else {
+            complete();
+        }
+    }
+
+    private synchronized void complete() {
+        final var previous = change;
+        change = new CompletableFuture<>();
+        previous.complete(null);
+    }
+}
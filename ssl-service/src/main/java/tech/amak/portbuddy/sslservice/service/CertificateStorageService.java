@@ -19,16 +19,20 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
 
 import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.util.io.pem.PemGenerationException;
 import org.springframework.stereotype.Service;
 
 import lombok.RequiredArgsConstructor;
 import tech.amak.portbuddy.sslservice.config.AppProperties;
+import tech.amak.portbuddy.sslservice.domain.DomainKeyType;
 
 /**
  * Handles certificate and key file storage in PEM format.
@@ -40,17 +44,32 @@ public class CertificateStorageService {
     private final AppProperties properties;
 
     /**
-     * Generates a new RSA key pair.
+     * Returns the configured key type of issued certificates, ECDSA P-256 by default.
      *
+     * @return domain key type
+     */
+    public DomainKeyType domainKeyType() {
+        final var acme = properties.acme();
+        return acme == null || acme.domainKeyType() == null ? DomainKeyType.EC_P256 : acme.domainKeyType();
+    }
+
+    /**
+     * Generates a new key pair of the given type.
+     *
+     * @param keyType key type
      * @return generated key pair
      */
-    public KeyPair generateRsaKeyPair() {
+    public KeyPair generateKeyPair(final DomainKeyType keyType) {
         try {
-            final var kpg = KeyPairGenerator.getInstance("RSA");
-            kpg.initialize(2048, SecureRandom.getInstanceStrong());
+            final var kpg = KeyPairGenerator.getInstance(keyType.getAlgorithm());
+            if (keyType.getCurve() != null) {
+                kpg.initialize(new ECGenParameterSpec(keyType.getCurve()), SecureRandom.getInstanceStrong());
+            } else {
+                kpg.initialize(keyType.getKeySize(), SecureRandom.getInstanceStrong());
+            }
             return kpg.generateKeyPair();
-        } catch (final NoSuchAlgorithmException e) {
-            throw new IllegalStateException("RSA not available", e);
+        } catch (final GeneralSecurityException e) {
+            throw new IllegalStateException(keyType + " key generation not available", e);
         }
     }
 
@@ -64,7 +83,12 @@ public class CertificateStorageService {
     public Path writePrivateKeyPem(final String domain, final KeyPair keyPair) {
         final var baseDir = resolveBaseDir();
         final var file = baseDir.resolve(safe(domain) + ".key.pem");
-        writePem(file, keyPair.getPrivate());
+        // PKCS#8 rather than the traditional RSA/EC formats, so that any PEM reader accepts both key types
+        try {
+            writePem(file, new JcaPKCS8Generator(keyPair.getPrivate(), null));
+        } catch (final PemGenerationException e) {
+            throw new IllegalStateException("Failed to encode private key: " + file, e);
+        }
         return file;
     }
 
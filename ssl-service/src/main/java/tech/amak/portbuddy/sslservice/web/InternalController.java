@@ -14,27 +14,64 @@
 
 package tech.amak.portbuddy.sslservice.web;
 
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import lombok.RequiredArgsConstructor;
 import tech.amak.portbuddy.sslservice.domain.CertificateEntity;
+import tech.amak.portbuddy.sslservice.domain.CertificateStatus;
 import tech.amak.portbuddy.sslservice.repo.CertificateRepository;
 import tech.amak.portbuddy.sslservice.service.AcmeCertificateService;
+import tech.amak.portbuddy.sslservice.service.CertificateChangeNotifier;
+import tech.amak.portbuddy.sslservice.web.dto.CertificateSnapshotResponse;
 
 @RestController
 @RequestMapping("/internal/api/certificates")
 @RequiredArgsConstructor
 public class InternalController {
 
+    private static final Duration MAX_SNAPSHOT_WAIT = Duration.ofSeconds(25);
+
     private final AcmeCertificateService acmeCertificateService;
     private final CertificateRepository certificateRepository;
+    private final CertificateChangeNotifier changeNotifier;
+
+    /**
+     * Returns all active certificates. If {@code version} is the current snapshot version, the
+     * response is held until a certificate is issued or renewed or {@code waitMs} elapses, which
+     * lets gateways prewarm their TLS contexts and pick up renewals as they happen.
+     *
+     * @param version the snapshot version the caller already has; {@code -1} to return immediately
+     * @param waitMs  maximum time to hold the request, capped at 25 seconds
+     * @return the certificate snapshot
+     */
+    @GetMapping
+    public CompletableFuture<CertificateSnapshotResponse> getCertificates(
+        @RequestParam(name = "version", defaultValue = "-1") final long version,
+        @RequestParam(name = "waitMs", defaultValue = "0") final long waitMs) {
+        // Read the future before the snapshot so that a concurrent change cannot be missed
+        final var change = changeNotifier.nextChange();
+        final var snapshot = snapshot();
+        if (snapshot.version() != version) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
+        final var wait = Math.min(Math.max(waitMs, 0), MAX_SNAPSHOT_WAIT.toMillis());
+        return change.copy()
+            .completeOnTimeout(null, wait, TimeUnit.MILLISECONDS)
+            .thenApply(ignored -> snapshot());
+    }
 
     /**
      * Retrieves certificate metadata for a given domain.
@@ -61,4 +98,16 @@ public class InternalController {
         return ResponseEntity.accepted().build();
     }
 
+    private CertificateSnapshotResponse snapshot() {
+        final var certificates = certificateRepository.findAllByStatus(CertificateStatus.ACTIVE).stream()
+            .sorted(Comparator.comparing(CertificateEntity::getDomain))
+            .toList();
+        // Derived from content rather than a counter so that all instances agree on it
+        var version = 1L;
+        for (final var certificate : certificates) {
+            final var updatedAt = certificate.getUpdatedAt() == null ? 0 : certificate.getUpdatedAt().toEpochSecond();
+            version = 31 * version + Objects.hash(certificate.getDomain(), updatedAt, certificate.getFullChainPath());
+        }
+        return new CertificateSnapshotResponse(version & Long.MAX_VALUE, certificates);
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package tech.amak.portbuddy.sslservice.web.dto;
+
+import java.util.List;
+
+import tech.amak.portbuddy.sslservice.domain.CertificateEntity;
+
+/**
+ * All active certificates with a version derived from their content, so that every ssl-service
+ * instance reports the same version for the same database state.
+ *
+ * @param version      snapshot version
+ * @param certificates active certificates
+ */
+public record CertificateSnapshotResponse(
+    long version,
+    List<CertificateEntity> certificates
+) {
+}